@@ -0,0 +1,55 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.jmh;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.imageworks.spcue.JobEntity;
+import com.imageworks.spcue.dao.criteria.postgres.FrameSearch;
+import com.imageworks.spcue.grpc.job.FrameState;
+
+/**
+ * Where clause generation for frame searches issued by CueGUI and the API.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CriteriaBenchmarks {
+
+    private static final String FRAME_QUERY = "SELECT frame.* FROM frame, layer, job WHERE "
+            + "frame.pk_layer = layer.pk_layer AND layer.pk_job = job.pk_job ";
+
+    @Param({"1-100", "1-1000x3", "1-200,300-400x2,500-600y3"})
+    public String frameSet;
+
+    @Benchmark
+    public String frameSearch() {
+        FrameSearch search = new FrameSearch();
+        search.filterByJob(new JobEntity("00000000-0000-0000-0003-000000000001"));
+        search.filterByFrameStates(Arrays.asList(FrameState.WAITING, FrameState.DEAD));
+        search.filterByFrameSet(frameSet);
+        return search.getFilteredQuery(FRAME_QUERY);
+    }
+}
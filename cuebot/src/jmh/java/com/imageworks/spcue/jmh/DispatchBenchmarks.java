@@ -0,0 +1,89 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.util.CueUtil;
+
+/**
+ * Proc sizing and host resource accounting done for every frame the dispatcher books.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmarks {
+
+    private static final String[] SELFISH_SERVICES = new String[] {"arnold", "selfish-service"};
+
+    @Param({"100", "400"})
+    public int minCores;
+
+    @Param({"true", "false"})
+    public boolean threadable;
+
+    private DispatchHost host;
+    private DispatchFrame frame;
+    private DispatchFrame[] frames;
+
+    @Setup
+    public void setup() {
+        host = SyntheticData.dispatchHost("bench-host");
+        frame = SyntheticData.dispatchFrame(1, minCores, CueUtil.GB4, threadable);
+        frames = new DispatchFrame[16];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = SyntheticData.dispatchFrame(i + 1, minCores, CueUtil.GB4, threadable);
+        }
+    }
+
+    @Benchmark
+    public VirtualProc buildProc() {
+        return VirtualProc.build(host, frame, SELFISH_SERVICES);
+    }
+
+    /**
+     * Mirrors the CoreUnitDispatcher booking loop: size a proc, check the host still fits it and
+     * subtract the reservation, until the host is full or the candidate frames run out.
+     */
+    @Benchmark
+    public void bookHost(Blackhole bh) {
+        host.idleCores = host.cores;
+        host.idleMemory = host.memory;
+        for (DispatchFrame f : frames) {
+            if (!host.hasAdditionalResources(f.minCores, f.getMinMemory(), f.minGpus,
+                    f.minGpuMemory)) {
+                break;
+            }
+            VirtualProc proc = VirtualProc.build(host, f, SELFISH_SERVICES);
+            host.useResources(proc.coresReserved, proc.memoryReserved, proc.gpusReserved,
+                    proc.gpuMemoryReserved);
+            bh.consume(proc);
+        }
+    }
+}
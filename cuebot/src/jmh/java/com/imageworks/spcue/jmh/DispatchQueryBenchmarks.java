@@ -0,0 +1,140 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.jmh;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.imageworks.spcue.dao.postgres.DispatchQuery;
+import com.imageworks.spcue.util.CueUtil;
+
+/**
+ * Parse and plan time of the find jobs query run for every booking, against an embedded
+ * PostgreSQL with the cuebot schema and no jobs, so the time is spent preparing the statement.
+ *
+ * ARRAY binds the host OS list as a single array, IN_LIST expands it into one placeholder per OS
+ * like the dispatcher used to, giving a different statement for each list length. The lists
+ * cycle through 1, 3 and 5 values. With prepareThreshold=0 every execution is parsed and planned,
+ * with the cuebot default of 2 the driver prepares each statement on the server and reuses it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchQueryBenchmarks {
+
+    private static final String SHOW_ID = "00000000-0000-0000-0000-000000000000";
+    private static final String FACILITY_ID = "AAAAAAAA-AAAA-AAAA-AAAA-AAAAAAAAAAA0";
+
+    private static final String[][] OS_LISTS = new String[][] {{"rhel9"},
+            {"rhel9", "rocky9", "linux"}, {"rhel9", "rocky9", "linux", "centos7", "ubuntu22"}};
+
+    @Param({"ARRAY", "IN_LIST"})
+    public String binding;
+
+    @Param({"0", "2"})
+    public int prepareThreshold;
+
+    private EmbeddedPostgres postgres;
+    private Connection conn;
+    private String[] inListQueries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        postgres = EmbeddedPostgres.start();
+        Flyway.configure().dataSource(postgres.getPostgresDatabase())
+                .locations("classpath:conf/ddl/postgres/migrations").load().migrate();
+
+        Properties props = new Properties();
+        props.setProperty("user", "postgres");
+        props.setProperty("prepareThreshold", Integer.toString(prepareThreshold));
+        props.setProperty("preparedStatementCacheQueries", "512");
+        conn = DriverManager.getConnection(postgres.getJdbcUrl("postgres", "postgres"), props);
+
+        inListQueries = new String[OS_LISTS.length];
+        for (int i = 0; i < OS_LISTS.length; i++) {
+            StringBuilder placeholders = new StringBuilder();
+            for (int j = 0; j < OS_LISTS[i].length; j++) {
+                placeholders.append(j == 0 ? "?" : ",?");
+            }
+            inListQueries[i] = DispatchQuery.FIND_JOBS_BY_SHOW_PRIORITY_MODE
+                    .replace("job.str_os = ANY(?) ", "job.str_os IN (" + placeholders + ") ");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        conn.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    public int findJobsByShow() throws SQLException {
+        int list = next;
+        next = (next + 1) % OS_LISTS.length;
+        String[] os = OS_LISTS[list];
+        boolean array = binding.equals("ARRAY");
+        String query = array ? DispatchQuery.FIND_JOBS_BY_SHOW_PRIORITY_MODE : inListQueries[list];
+
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            stmt.setString(index++, SHOW_ID);
+            stmt.setString(index++, FACILITY_ID);
+            if (array) {
+                stmt.setArray(index++, conn.createArrayOf("varchar", os));
+            } else {
+                for (String value : os) {
+                    stmt.setString(index++, value);
+                }
+            }
+            stmt.setInt(index++, 800);
+            stmt.setLong(index++, CueUtil.GB16);
+            stmt.setInt(index++, 1);
+            stmt.setInt(index++, 0);
+            stmt.setLong(index++, 0);
+            stmt.setLong(index++, 0);
+            stmt.setString(index++, "bench-host");
+            stmt.setArray(index++, conn.createArrayOf("varchar", new String[0]));
+            stmt.setInt(index++, 100);
+
+            int rows = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows++;
+                }
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.imageworks.spcue.util.CueUtil;
+import com.imageworks.spcue.util.FrameSet;
+
+/**
+ * Frame range parsing and lookups done during job launch, depend creation and frame dispatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameSetBenchmarks {
+
+    @Param({"1-1000", "1-100000", "1-10000x3,20000-30000y4,40000-50000:8"})
+    public String spec;
+
+    @Param({"1", "10"})
+    public int chunkSize;
+
+    private FrameSet frameSet;
+    private List<Integer> chunks;
+    private FrameSet normalized;
+    private int lastFrame;
+
+    @Setup
+    public void setup() {
+        frameSet = new FrameSet(spec);
+        chunks = CueUtil.normalizeFrameRange(frameSet, chunkSize);
+        normalized = frameSet.normalize(chunkSize);
+        lastFrame = frameSet.get(frameSet.size() - 1);
+    }
+
+    @Benchmark
+    public FrameSet parse() {
+        return new FrameSet(spec);
+    }
+
+    @Benchmark
+    public int indexOfLastFrame() {
+        return frameSet.index(lastFrame);
+    }
+
+    @Benchmark
+    public boolean containsLastFrame() {
+        return frameSet.contains(lastFrame);
+    }
+
+    @Benchmark
+    public String getChunk() {
+        return frameSet.getChunk(frameSet.size() / 2, chunkSize);
+    }
+
+    @Benchmark
+    public List<Integer> normalizeFrameRange() {
+        return CueUtil.normalizeFrameRange(frameSet, chunkSize);
+    }
+
+    @Benchmark
+    public FrameSet normalize() {
+        return frameSet.normalize(chunkSize);
+    }
+
+    @Benchmark
+    public int findChunk() {
+        return CueUtil.findChunk(chunks, lastFrame);
+    }
+
+    @Benchmark
+    public int findChunkInFrameSet() {
+        return CueUtil.findChunk(normalized, lastFrame);
+    }
+}
@@ -0,0 +1,140 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.jmh;
+
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.FrameEntity;
+import com.imageworks.spcue.LayerSettings;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.dao.JobDao;
+import com.imageworks.spcue.dao.LayerDao;
+import com.imageworks.spcue.dispatcher.BookingQueue;
+import com.imageworks.spcue.dispatcher.DispatchSupport;
+import com.imageworks.spcue.dispatcher.Dispatcher;
+import com.imageworks.spcue.dispatcher.HostReportHandler;
+import com.imageworks.spcue.grpc.job.LayerType;
+import com.imageworks.spcue.grpc.report.HostReport;
+import com.imageworks.spcue.service.BookingManager;
+import com.imageworks.spcue.service.CommentManager;
+import com.imageworks.spcue.service.HostManager;
+import com.imageworks.spcue.service.JobManager;
+import com.imageworks.spcue.service.LayerSettingsCache;
+import com.imageworks.spcue.util.CueUtil;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * The per report decision logic of HostReportHandler: state checks, timeout and memory checks
+ * for every running frame, and the bookability decision. Collaborators are stub-only mocks so the
+ * numbers reflect the handler itself plus the number of collaborator calls it makes, not the DB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HostReportHandlerBenchmarks {
+
+    private static final String HOSTNAME = "bench-host";
+
+    @Param({"0", "16", "64"})
+    public int runningFrames;
+
+    private HostReportHandler handler;
+    private HostReport report;
+
+    private static <T> T stub(Class<T> type) {
+        return Mockito.mock(type, Mockito.withSettings().stubOnly());
+    }
+
+    @Setup
+    public void setup() {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("dispatcher.memory.mem_reserved_min", "262144")
+                .withProperty("dispatcher.min_available_temp_storage_percentage", "20")
+                .withProperty("dispatcher.oom_max_safe_used_physical_memory_threshold", "0.9")
+                .withProperty("dispatcher.oom_max_safe_used_swap_memory_threshold", "0.05")
+                .withProperty("dispatcher.oom_frame_overboard_allowed_threshold", "-1.0")
+                .withProperty("dispatcher.frame_kill_retry_limit", "3");
+
+        DispatchHost host = SyntheticData.dispatchHost(HOSTNAME);
+        HostManager hostManager = stub(HostManager.class);
+        when(hostManager.findDispatchHost(HOSTNAME)).thenReturn(host);
+        VirtualProc proc = new VirtualProc();
+        proc.memoryReserved = CueUtil.GB4;
+        when(hostManager.getVirtualProc(anyString())).thenReturn(proc);
+
+        LayerSettings layer = new LayerSettings(SyntheticData.LAYER_ID, SyntheticData.JOB_ID,
+                LayerType.RENDER, 0, 0, CueUtil.GB4, 0, true, Collections.singleton("shell"),
+                Collections.singleton("general"), 0);
+        LayerDao layerDao = stub(LayerDao.class);
+        when(layerDao.getLayerSettings(SyntheticData.LAYER_ID)).thenReturn(layer);
+        LayerSettingsCache layerSettingsCache = new LayerSettingsCache(30, 1000);
+        layerSettingsCache.setLayerDao(layerDao);
+
+        JobManager jobManager = stub(JobManager.class);
+        when(jobManager.getFrame(anyString())).thenReturn(new FrameEntity());
+
+        DispatchSupport dispatchSupport = stub(DispatchSupport.class);
+        when(dispatchSupport.isCueBookable(any(DispatchHost.class))).thenReturn(true);
+        when(dispatchSupport.increaseReservedMemory(any(VirtualProc.class), anyLong()))
+                .thenReturn(false);
+
+        ThreadPoolExecutor reportQueue = stub(ThreadPoolExecutor.class);
+        when(reportQueue.getQueue()).thenReturn(new LinkedBlockingQueue<Runnable>());
+
+        handler = new HostReportHandler();
+        handler.setHostManager(hostManager);
+        handler.setBookingManager(stub(BookingManager.class));
+        handler.setBookingQueue(stub(BookingQueue.class));
+        handler.setReportQueue(reportQueue);
+        handler.setKillQueue(stub(ThreadPoolExecutor.class));
+        handler.setDispatchSupport(dispatchSupport);
+        handler.setDispatcher(stub(Dispatcher.class));
+        handler.setLocalDispatcher(stub(Dispatcher.class));
+        handler.setJobManager(jobManager);
+        handler.setJobDao(stub(JobDao.class));
+        handler.setLayerDao(layerDao);
+        handler.setLayerSettingsCache(layerSettingsCache);
+        ReflectionTestUtils.setField(handler, "env", env);
+        ReflectionTestUtils.setField(handler, "commentManager", stub(CommentManager.class));
+
+        report = SyntheticData.hostReport(HOSTNAME, runningFrames);
+    }
+
+    @Benchmark
+    public void handleHostReport() {
+        handler.handleHostReport(report, false);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.jmh;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.xml.sax.InputSource;
+
+import com.imageworks.spcue.ServiceEntity;
+import com.imageworks.spcue.service.JobSpec;
+import com.imageworks.spcue.service.JobSpecReader;
+import com.imageworks.spcue.service.ServiceManager;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Reading a large job spec with the DOM and the streaming parser. The parse benchmark only
+ * compare the XML parsing and validation, the jobSpec benchmark includes building the job model.
+ * Run with -prof gc to compare the allocation of both parsers as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JobSpecParseBenchmarks {
+
+    @Param({"100", "1000"})
+    public int layers;
+
+    @Param({"DOM", "STAX"})
+    public JobSpec.Parser parser;
+
+    private static final int ENV_KEYS = 20;
+
+    private static final int DTD_URL_LENGTH = JobSpec.SPCUE_DTD_URL.length();
+
+    private String spec;
+    private MockEnvironment env;
+    private ServiceManager serviceManager;
+
+    private static final JobSpecReader.Listener DISCARD = new JobSpecReader.Listener() {
+        @Override
+        public void spec(Element spec) {}
+
+        @Override
+        public void startJob(Element job) {}
+
+        @Override
+        public void layer(Element layer) {}
+
+        @Override
+        public void endJob() {}
+
+        @Override
+        public void depend(Element depend) {}
+    };
+
+    @Setup
+    public void setup() {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\"?>\n");
+        xml.append("<!DOCTYPE spec PUBLIC \"SPI Cue Specification Language\" \"")
+                .append(JobSpec.SPCUE_DTD_URL).append("cjsl-1.15.dtd\">\n");
+        xml.append("<spec><facility>local</facility><show>pipe</show><shot>dev.cue</shot>");
+        xml.append("<user>testuser</user><uid>9860</uid>\n");
+        xml.append("<job name=\"bench\"><paused>false</paused><env>");
+        appendEnv(xml, "JOB");
+        xml.append("</env><layers>\n");
+        for (int i = 0; i < layers; i++) {
+            xml.append("<layer name=\"layer_").append(i).append("\" type=\"Render\">");
+            xml.append("<cmd>/shots/pipe/dev/bin/render --layer ").append(i)
+                    .append(" --frame #IFRAME#</cmd>");
+            xml.append("<range>1-50</range><chunk>1</chunk><cores>1</cores>");
+            xml.append("<memory>4g</memory><tags>general | desktop</tags><env>");
+            appendEnv(xml, "LAYER_" + i);
+            xml.append("</env><services><service>shell</service></services></layer>\n");
+        }
+        xml.append("</layers></job>\n<depends>\n");
+        for (int i = 1; i < layers; i++) {
+            xml.append("<depend type=\"LAYER_ON_LAYER\"><depjob>bench</depjob><deplayer>layer_")
+                    .append(i).append("</deplayer><onjob>bench</onjob><onlayer>layer_")
+                    .append(i - 1).append("</onlayer></depend>\n");
+        }
+        xml.append("</depends></spec>\n");
+        spec = xml.toString();
+
+        env = new MockEnvironment()
+                .withProperty("dispatcher.memory.mem_reserved_min", "262144")
+                .withProperty("dispatcher.memory.mem_reserved_max", "52428800")
+                .withProperty("dispatcher.memory.mem_gpu_reserved_min", "0")
+                .withProperty("dispatcher.memory.mem_gpu_reserved_max", "104857600");
+
+        ServiceEntity service = new ServiceEntity();
+        service.name = "shell";
+        serviceManager = Mockito.mock(ServiceManager.class, Mockito.withSettings().stubOnly());
+        when(serviceManager.getService(anyString())).thenReturn(service);
+        when(serviceManager.getService(anyString(), anyString())).thenReturn(service);
+    }
+
+    private static void appendEnv(StringBuilder xml, String prefix) {
+        for (int i = 0; i < ENV_KEYS; i++) {
+            xml.append("<key name=\"").append(prefix).append("_VAR_").append(i)
+                    .append("\">/shots/pipe/dev/").append(prefix.toLowerCase()).append('/')
+                    .append(i).append("</key>");
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws Exception {
+        if (parser == JobSpec.Parser.STAX) {
+            new JobSpecReader(DISCARD, null).read(new StringReader(spec));
+        } else {
+            SAXBuilder builder = new SAXBuilder(true);
+            builder.setEntityResolver((publicId, systemId) -> new InputSource(JobSpec.class
+                    .getResourceAsStream("/public/dtd/" + systemId.substring(DTD_URL_LENGTH))));
+            Document doc = builder.build(new StringReader(spec));
+            bh.consume(doc);
+        }
+    }
+
+    @Benchmark
+    public JobSpec jobSpec() {
+        JobSpec jobSpec = new JobSpec();
+        ReflectionTestUtils.setField(jobSpec, "env", env);
+        jobSpec.setServiceManager(serviceManager);
+        jobSpec.setParser(parser);
+        jobSpec.parse(spec);
+        return jobSpec;
+    }
+}
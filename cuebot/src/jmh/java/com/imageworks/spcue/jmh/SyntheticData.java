@@ -0,0 +1,127 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.jmh;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.grpc.host.HardwareState;
+import com.imageworks.spcue.grpc.host.LockState;
+import com.imageworks.spcue.grpc.host.ThreadMode;
+import com.imageworks.spcue.grpc.job.FrameState;
+import com.imageworks.spcue.grpc.report.CoreDetail;
+import com.imageworks.spcue.grpc.report.HostReport;
+import com.imageworks.spcue.grpc.report.RenderHost;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
+import com.imageworks.spcue.util.CueUtil;
+
+/**
+ * Builds the synthetic hosts, frames and reports shared by the benchmarks. Nothing here touches
+ * the database so every benchmark can run offline.
+ */
+public final class SyntheticData {
+
+    public static final String HOST_ID = "00000000-0000-0000-0000-000000000001";
+    public static final String ALLOC_ID = "00000000-0000-0000-0000-000000000002";
+    public static final String FACILITY_ID = "AAAAAAAA-AAAA-AAAA-AAAA-AAAAAAAAAAA0";
+    public static final String SHOW_ID = "00000000-0000-0000-0000-000000000000";
+    public static final String JOB_ID = "00000000-0000-0000-0003-000000000001";
+    public static final String LAYER_ID = "00000000-0000-0000-0002-000000000001";
+
+    private SyntheticData() {}
+
+    /**
+     * A 64 core, 256GB host with all of its resources idle.
+     */
+    public static DispatchHost dispatchHost(String name) {
+        DispatchHost host = new DispatchHost();
+        host.id = HOST_ID;
+        host.name = name;
+        host.allocationId = ALLOC_ID;
+        host.allocationName = "spi.general";
+        host.facilityId = FACILITY_ID;
+        host.lockState = LockState.OPEN;
+        host.hardwareState = HardwareState.UP;
+        host.cores = 6400;
+        host.idleCores = 6400;
+        host.memory = CueUtil.GB * 256;
+        host.idleMemory = CueUtil.GB * 256;
+        host.threadMode = ThreadMode.AUTO_VALUE;
+        host.tags = "general linux";
+        host.setOs("rhel9");
+        return host;
+    }
+
+    /**
+     * A waiting frame of a 1-1000 layer, chunked by one.
+     */
+    public static DispatchFrame dispatchFrame(int number, int minCores, long minMemory,
+            boolean threadable) {
+        DispatchFrame frame = new DispatchFrame();
+        frame.id = String.format("00000000-0000-0000-0001-%012d", number);
+        frame.name = String.format("%04d-render", number);
+        frame.layerId = "00000000-0000-0000-0002-000000000001";
+        frame.jobId = "00000000-0000-0000-0003-000000000001";
+        frame.showId = SHOW_ID;
+        frame.facilityId = FACILITY_ID;
+        frame.state = FrameState.WAITING;
+        frame.show = "pipe";
+        frame.shot = "bench";
+        frame.owner = "bench";
+        frame.jobName = "pipe-bench-bench_job";
+        frame.layerName = "render";
+        frame.command = "/shots/pipe/bench/render -frame #IFRAME# -range #FRAME_START#-#FRAME_END#";
+        frame.range = "1-1000";
+        frame.chunkSize = 1;
+        frame.minCores = minCores;
+        frame.maxCores = 0;
+        frame.threadable = threadable;
+        frame.services = "shell";
+        frame.os = "rhel9";
+        frame.setMinMemory(minMemory);
+        return frame;
+    }
+
+    /**
+     * A regular (non boot) report for a host running the given number of frames, all of which
+     * started recently enough to skip DB verification.
+     */
+    public static HostReport hostReport(String hostname, int runningFrames) {
+        long now = System.currentTimeMillis();
+        HostReport.Builder report = HostReport.newBuilder()
+                .setHost(RenderHost.newBuilder().setName(hostname).setFacility("spi")
+                        .setNumProcs(2).setCoresPerProc(3200).setTotalMem(CueUtil.GB * 256)
+                        .setFreeMem(CueUtil.GB * 128).setTotalSwap(CueUtil.GB8)
+                        .setFreeSwap(CueUtil.GB8).setTotalMcp(CueUtil.GB * 100)
+                        .setFreeMcp(CueUtil.GB * 80).setLoad(800).setBootTime(1192369572)
+                        .setState(HardwareState.UP).putAttributes("SP_OS", "rhel9")
+                        .addTags("general"))
+                .setCoreInfo(CoreDetail.newBuilder().setTotalCores(6400).setIdleCores(3200)
+                        .setLockedCores(0).setBookedCores(3200));
+
+        for (int i = 0; i < runningFrames; i++) {
+            report.addFrames(RunningFrameInfo.newBuilder()
+                    .setResourceId(String.format("00000000-0000-0000-0004-%012d", i))
+                    .setJobId(JOB_ID)
+                    .setJobName("pipe-bench-bench_job")
+                    .setFrameId(String.format("00000000-0000-0000-0001-%012d", i))
+                    .setFrameName(String.format("%04d-render", i))
+                    .setLayerId(LAYER_ID).setNumCores(100)
+                    .setStartTime(now).setRss(CueUtil.GB2).setMaxRss(CueUtil.GB2)
+                    .setVsize(CueUtil.GB4).setMaxVsize(CueUtil.GB4).setLluTime(now / 1000));
+        }
+        return report.build();
+    }
+}
@@ -0,0 +1,184 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
+
+import io.grpc.BindableService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+
+import com.imageworks.spcue.AllocationEntity;
+import com.imageworks.spcue.dispatcher.Dispatcher;
+import com.imageworks.spcue.grpc.host.HardwareState;
+import com.imageworks.spcue.grpc.report.RenderHost;
+import com.imageworks.spcue.rqd.RqdClient;
+import com.imageworks.spcue.rqd.RqdClientGrpc;
+import com.imageworks.spcue.service.AdminManager;
+import com.imageworks.spcue.service.HostManager;
+import com.imageworks.spcue.service.JobLauncher;
+import com.imageworks.spcue.service.JobSpec;
+import com.imageworks.spcue.test.AssumingPostgresEngine;
+import com.imageworks.spcue.util.CueUtil;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Books a simulated RQD fleet against the full dispatcher stack and an embedded Postgres, then
+ * reports frames dispatched per second, booking latency and database statements per booking.
+ *
+ * Not part of the regular test run. Start with ./gradlew loadTest and size it with -Dloadtest.*
+ * properties, e.g. -Dloadtest.hosts=8000 -Dloadtest.duration_seconds=300. Results are logged and
+ * written to build/reports/loadtest/booking.json.
+ */
+@ContextConfiguration(classes = LoadTestConfig.class, loader = AnnotationConfigContextLoader.class)
+public class BookingLoadTest extends AbstractJUnit4SpringContextTests {
+    private static final Logger logger = LogManager.getLogger(BookingLoadTest.class);
+
+    @Autowired
+    @Rule
+    public AssumingPostgresEngine assumingPostgresEngine;
+
+    @Resource
+    HostManager hostManager;
+
+    @Resource
+    AdminManager adminManager;
+
+    @Resource
+    JobLauncher jobLauncher;
+
+    @Resource
+    Dispatcher dispatcher;
+
+    @Resource
+    RqdClient rqdClient;
+
+    private final int hostCount = Integer.getInteger("loadtest.hosts", 1000);
+    private final int coresPerHost = Integer.getInteger("loadtest.cores_per_host", 16);
+    private final int jobCount = Integer.getInteger("loadtest.jobs", 20);
+    private final int framesPerJob = Integer.getInteger("loadtest.frames_per_job", 2000);
+    private final int durationSeconds = Integer.getInteger("loadtest.duration_seconds", 60);
+    private final int reportIntervalSeconds =
+            Integer.getInteger("loadtest.report_interval_seconds", 10);
+    private final int frameRuntimeMillis = Integer.getInteger("loadtest.frame_runtime_ms", 2000);
+    private final int reportThreads = Integer.getInteger("loadtest.report_threads", 32);
+
+    @Test
+    public void bookSimulatedFleet() throws Exception {
+        StatementCountingDataSource dataSource =
+                applicationContext.getBean(LoadTestConfig.DATA_SOURCE,
+                        StatementCountingDataSource.class);
+        AllocationEntity alloc = adminManager.findAllocationDetail("spi", "general");
+
+        // Room for the whole fleet, so the subscription never limits booking.
+        long coreUnits = (long) hostCount * coresPerHost * 100;
+        new JdbcTemplate(dataSource).update(
+                "UPDATE subscription SET int_size = ?, int_burst = ? WHERE pk_alloc = ?",
+                coreUnits, coreUnits, alloc.getAllocationId());
+
+        jobLauncher.testMode = true;
+        for (int i = 0; i < jobCount; i++) {
+            jobLauncher.launch(buildJobSpec(i));
+        }
+
+        try (SimulatedRqdFleet fleet = new SimulatedRqdFleet(frameRuntimeMillis,
+                TimeUnit.SECONDS.toMillis(reportIntervalSeconds), reportThreads)) {
+            for (int i = 0; i < hostCount; i++) {
+                RenderHost host = buildRenderHost(String.format("loadtest%05d", i));
+                hostManager.createHost(host, alloc);
+                fleet.addHost(host);
+            }
+
+            dispatcher.setTestMode(false);
+            rqdClient.setTestMode(false);
+            ((RqdClientGrpc) rqdClient).setChannelFactory(fleet::channelFor);
+
+            long statementsBefore = dataSource.getStatementCount();
+            long start = System.nanoTime();
+            fleet.start(applicationContext.getBean("rqdReportStatic", BindableService.class));
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+            fleet.close();
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+            writeResults(fleet, dataSource.getStatementCount() - statementsBefore,
+                    elapsedSeconds);
+            assertTrue("no frames were booked", fleet.getFramesLaunched() > 0);
+        }
+    }
+
+    private RenderHost buildRenderHost(String name) {
+        return RenderHost.newBuilder().setName(name).setBootTime(1192369572)
+                .setFreeMcp(CueUtil.GB4).setTotalMcp(CueUtil.GB4).setFreeMem(CueUtil.GB * 256)
+                .setTotalMem(CueUtil.GB * 256).setFreeSwap(CueUtil.GB4).setTotalSwap(CueUtil.GB4)
+                .setLoad(0).setNimbyEnabled(false).setNumProcs(1)
+                .setCoresPerProc(coresPerHost * 100).addTags("general")
+                .setState(HardwareState.UP).setFacility("spi").putAttributes("SP_OS", "Linux")
+                .build();
+    }
+
+    private String buildJobSpec(int index) {
+        return "<?xml version=\"1.0\"?>\n" + "<!DOCTYPE spec SYSTEM \"" + JobSpec.SPCUE_DTD_URL
+                + "cjsl-1.15.dtd\">\n" + "<spec>\n" + "<facility>spi</facility>\n"
+                + "<dept>Lighting</dept>\n" + "<show>pipe</show>\n" + "<shot>dev.cue</shot>\n"
+                + "<user>testuser</user>\n" + "<uid>9860</uid>\n"
+                + String.format("<job name=\"loadtest_v%d\">\n", index)
+                + "<paused>false</paused>\n" + "<os>Linux</os>\n" + "<layers>\n"
+                + "<layer name=\"render\" type=\"Render\">\n" + "<cmd>/bin/true</cmd>\n"
+                + String.format("<range>1-%d</range>\n", framesPerJob) + "<chunk>1</chunk>\n"
+                + "<cores>100</cores>\n" + "<memory>2gb</memory>\n" + "<tags>general</tags>\n"
+                + "</layer>\n" + "</layers>\n" + "</job>\n" + "</spec>\n";
+    }
+
+    private void writeResults(SimulatedRqdFleet fleet, long statements, double elapsedSeconds)
+            throws IOException {
+        long launched = fleet.getFramesLaunched();
+        LatencyRecorder latency = fleet.getBookingLatency();
+        String json = String.format(Locale.ROOT,
+                "{\n" + "  \"hosts\": %d,\n" + "  \"coresPerHost\": %d,\n"
+                        + "  \"elapsedSeconds\": %.1f,\n" + "  \"framesLaunched\": %d,\n"
+                        + "  \"framesCompleted\": %d,\n" + "  \"framesKilled\": %d,\n"
+                        + "  \"framesPerSecond\": %.1f,\n" + "  \"bookingLatencyP50Ms\": %.1f,\n"
+                        + "  \"bookingLatencyP90Ms\": %.1f,\n"
+                        + "  \"bookingLatencyP99Ms\": %.1f,\n" + "  \"reportsSent\": %d,\n"
+                        + "  \"reportErrors\": %d,\n" + "  \"dbStatements\": %d,\n"
+                        + "  \"dbStatementsPerBooking\": %.1f\n" + "}\n",
+                hostCount, coresPerHost, elapsedSeconds, launched, fleet.getFramesCompleted(),
+                fleet.getFramesKilled(), launched / elapsedSeconds,
+                latency.getPercentileMillis(50), latency.getPercentileMillis(90),
+                latency.getPercentileMillis(99), fleet.getReportsSent(), fleet.getReportErrors(),
+                statements, launched == 0 ? 0.0 : statements / (double) launched);
+
+        File dir = new File("build/reports/loadtest");
+        dir.mkdirs();
+        Files.write(new File(dir, "booking.json").toPath(),
+                json.getBytes(StandardCharsets.UTF_8));
+        logger.info("booking load test results written to " + dir + "\n" + json);
+    }
+}
@@ -0,0 +1,61 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.loadtest;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.imageworks.spcue.config.TestAppConfig;
+
+/**
+ * Test context for the booking load test. The unit test data source opens a new connection for
+ * every call, which would dominate the numbers under load, so it is replaced with a connection pool
+ * sized by loadtest.db_pool_size and wrapped to count statements.
+ */
+@Configuration
+@Import(TestAppConfig.class)
+public class LoadTestConfig {
+
+    public static final String DATA_SOURCE = "cueDataSource";
+
+    @Bean
+    public static BeanPostProcessor pooledDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!DATA_SOURCE.equals(beanName) || !(bean instanceof DriverManagerDataSource)) {
+                    return bean;
+                }
+                DriverManagerDataSource source = (DriverManagerDataSource) bean;
+                HikariConfig config = new HikariConfig();
+                config.setPoolName("loadtest");
+                config.setJdbcUrl(source.getUrl());
+                config.setUsername(source.getUsername());
+                config.setPassword(source.getPassword());
+                if (source.getConnectionProperties() != null) {
+                    config.setDataSourceProperties(source.getConnectionProperties());
+                }
+                config.setMaximumPoolSize(Integer.getInteger("loadtest.db_pool_size", 40));
+                return new StatementCountingDataSource(new HikariDataSource(config));
+            }
+        };
+    }
+}
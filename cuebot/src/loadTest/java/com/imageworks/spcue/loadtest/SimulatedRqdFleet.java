@@ -0,0 +1,370 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.grpc.BindableService;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.spcue.grpc.report.CoreDetail;
+import com.imageworks.spcue.grpc.report.FrameCompleteReport;
+import com.imageworks.spcue.grpc.report.HostReport;
+import com.imageworks.spcue.grpc.report.RenderHost;
+import com.imageworks.spcue.grpc.report.RqdReportInterfaceGrpc;
+import com.imageworks.spcue.grpc.report.RqdReportRunningFrameCompletionRequest;
+import com.imageworks.spcue.grpc.report.RqdReportStatusRequest;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
+import com.imageworks.spcue.grpc.rqd.RqdInterfaceGrpc;
+import com.imageworks.spcue.grpc.rqd.RqdStaticKillRunningFrameRequest;
+import com.imageworks.spcue.grpc.rqd.RqdStaticKillRunningFrameResponse;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameRequest;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameResponse;
+import com.imageworks.spcue.grpc.rqd.RunFrame;
+import com.imageworks.spcue.util.CueUtil;
+
+/**
+ * A fleet of simulated RQD hosts served in-process over gRPC.
+ *
+ * Each host sends status reports to the cuebot report servant at a fixed interval, accepts
+ * launchFrame calls from the dispatcher, "runs" frames for a fixed time and then reports them
+ * complete. All hosts share one in-process server; the host a call is addressed to travels in a
+ * request header added by the channel returned from {@link #channelFor(String)}.
+ *
+ * Booking latency is measured from the first report that advertised idle cores on a host to the
+ * next frame launched on it.
+ */
+public class SimulatedRqdFleet implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(SimulatedRqdFleet.class);
+
+    private static final Metadata.Key<String> HOST_HEADER =
+            Metadata.Key.of("x-simulated-rqd-host", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final Context.Key<String> HOST_CONTEXT = Context.key("simulatedRqdHost");
+
+    private static final long FRAME_RSS = CueUtil.MB512;
+
+    private final String rqdServerName = "simulated-rqd-" + UUID.randomUUID();
+    private final String reportServerName = "simulated-report-" + UUID.randomUUID();
+    private final Map<String, SimulatedHost> hosts = new ConcurrentHashMap<>();
+    private final long frameRuntimeMillis;
+    private final long reportIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final LatencyRecorder bookingLatency = new LatencyRecorder();
+    private final LongAdder framesLaunched = new LongAdder();
+    private final LongAdder framesCompleted = new LongAdder();
+    private final LongAdder framesKilled = new LongAdder();
+    private final LongAdder reportsSent = new LongAdder();
+    private final LongAdder reportErrors = new LongAdder();
+
+    private Server rqdServer;
+    private Server reportServer;
+    private ManagedChannel reportChannel;
+    private RqdReportInterfaceGrpc.RqdReportInterfaceBlockingStub reportStub;
+
+    /**
+     * @param frameRuntimeMillis how long each launched frame runs before it is reported complete
+     * @param reportIntervalMillis how often each host sends a status report
+     * @param threads threads used to send reports
+     */
+    public SimulatedRqdFleet(long frameRuntimeMillis, long reportIntervalMillis, int threads) {
+        this.frameRuntimeMillis = frameRuntimeMillis;
+        this.reportIntervalMillis = reportIntervalMillis;
+        this.scheduler = Executors.newScheduledThreadPool(threads);
+    }
+
+    /**
+     * Adds a host to the fleet. The host must already exist in the database.
+     *
+     * @param renderHost the static host description sent with each report
+     */
+    public void addHost(RenderHost renderHost) {
+        int cores = renderHost.getNumProcs() * renderHost.getCoresPerProc();
+        hosts.put(renderHost.getName(), new SimulatedHost(renderHost, cores));
+    }
+
+    /**
+     * Starts the simulated RQD server, connects to the report servant and begins sending reports.
+     * Report start times are spread over one interval so the hosts do not report in lockstep.
+     *
+     * @param reportServant the cuebot RqdReportInterface implementation
+     * @throws IOException if an in-process server fails to start
+     */
+    public void start(BindableService reportServant) throws IOException {
+        rqdServer = InProcessServerBuilder.forName(rqdServerName)
+                .addService(ServerInterceptors.intercept(new SimulatedRqd(), new HostInterceptor()))
+                .build().start();
+        reportServer =
+                InProcessServerBuilder.forName(reportServerName).addService(reportServant).build()
+                        .start();
+        reportChannel = InProcessChannelBuilder.forName(reportServerName).build();
+        reportStub = RqdReportInterfaceGrpc.newBlockingStub(reportChannel);
+
+        for (SimulatedHost host : hosts.values()) {
+            long delay = ThreadLocalRandom.current().nextLong(reportIntervalMillis);
+            scheduler.scheduleAtFixedRate(() -> sendStatus(host), delay, reportIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        long tick = Math.max(10, Math.min(200, frameRuntimeMillis / 4));
+        scheduler.scheduleAtFixedRate(this::completeFinishedFrames, tick, tick,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a channel whose calls are served by the simulated host with the given name. Meant
+     * to be installed with RqdClientGrpc.setChannelFactory.
+     *
+     * @param hostName the host the dispatcher wants to talk to
+     * @return an in-process channel tagged with the host name
+     */
+    public ManagedChannel channelFor(String hostName) {
+        Metadata headers = new Metadata();
+        headers.put(HOST_HEADER, hostName);
+        return InProcessChannelBuilder.forName(rqdServerName)
+                .intercept(MetadataUtils.newAttachHeadersInterceptor(headers)).build();
+    }
+
+    public LatencyRecorder getBookingLatency() {
+        return bookingLatency;
+    }
+
+    public long getFramesLaunched() {
+        return framesLaunched.sum();
+    }
+
+    public long getFramesCompleted() {
+        return framesCompleted.sum();
+    }
+
+    public long getFramesKilled() {
+        return framesKilled.sum();
+    }
+
+    public long getReportsSent() {
+        return reportsSent.sum();
+    }
+
+    public long getReportErrors() {
+        return reportErrors.sum();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (reportChannel != null) {
+            reportChannel.shutdownNow();
+        }
+        if (reportServer != null) {
+            reportServer.shutdownNow();
+        }
+        if (rqdServer != null) {
+            rqdServer.shutdownNow();
+        }
+    }
+
+    private void sendStatus(SimulatedHost host) {
+        if (host.idleCores.get() > 0) {
+            host.idleSince.compareAndSet(0, System.nanoTime());
+        }
+        try {
+            reportStub.reportStatus(
+                    RqdReportStatusRequest.newBuilder().setHostReport(host.buildReport()).build());
+            reportsSent.increment();
+        } catch (StatusRuntimeException e) {
+            reportErrors.increment();
+            logger.warn("status report from " + host.renderHost.getName() + " failed, " + e);
+        }
+    }
+
+    private void completeFinishedFrames() {
+        long now = System.currentTimeMillis();
+        for (SimulatedHost host : hosts.values()) {
+            Iterator<SimulatedFrame> frames = host.frames.values().iterator();
+            while (frames.hasNext()) {
+                SimulatedFrame frame = frames.next();
+                if (frame.finishTime <= now && host.frames.remove(frame.info.getFrameId(), frame)) {
+                    host.release(frame);
+                    sendComplete(host, frame, 0, 0);
+                    framesCompleted.increment();
+                }
+            }
+        }
+    }
+
+    private void sendComplete(SimulatedHost host, SimulatedFrame frame, int exitStatus,
+            int exitSignal) {
+        host.idleSince.compareAndSet(0, System.nanoTime());
+        int runTime = (int) TimeUnit.MILLISECONDS
+                .toSeconds(System.currentTimeMillis() - frame.info.getStartTime());
+        FrameCompleteReport report = FrameCompleteReport.newBuilder()
+                .setHost(host.renderHost).setFrame(frame.info).setExitStatus(exitStatus)
+                .setExitSignal(exitSignal).setRunTime(runTime).build();
+        try {
+            reportStub.reportRunningFrameCompletion(RqdReportRunningFrameCompletionRequest
+                    .newBuilder().setFrameCompleteReport(report).build());
+            reportsSent.increment();
+        } catch (StatusRuntimeException e) {
+            reportErrors.increment();
+            logger.warn("frame complete report for " + frame.info.getFrameName() + " failed, "
+                    + e);
+        }
+    }
+
+    private static final class SimulatedFrame {
+        final RunningFrameInfo info;
+        final long finishTime;
+
+        SimulatedFrame(RunningFrameInfo info, long finishTime) {
+            this.info = info;
+            this.finishTime = finishTime;
+        }
+    }
+
+    private static final class SimulatedHost {
+        final RenderHost renderHost;
+        final int totalCores;
+        final AtomicInteger idleCores;
+        final AtomicLong idleSince = new AtomicLong();
+        final Map<String, SimulatedFrame> frames = new ConcurrentHashMap<>();
+
+        SimulatedHost(RenderHost renderHost, int totalCores) {
+            this.renderHost = renderHost;
+            this.totalCores = totalCores;
+            this.idleCores = new AtomicInteger(totalCores);
+        }
+
+        void launch(SimulatedFrame frame) {
+            SimulatedFrame previous = frames.put(frame.info.getFrameId(), frame);
+            if (previous != null) {
+                release(previous);
+            }
+            idleCores.addAndGet(-frame.info.getNumCores());
+        }
+
+        void release(SimulatedFrame frame) {
+            idleCores.addAndGet(frame.info.getNumCores());
+        }
+
+        HostReport buildReport() {
+            List<RunningFrameInfo> running = new ArrayList<>(frames.size());
+            for (SimulatedFrame frame : frames.values()) {
+                running.add(frame.info);
+            }
+            int idle = Math.max(0, idleCores.get());
+            CoreDetail coreDetail = CoreDetail.newBuilder().setTotalCores(totalCores)
+                    .setIdleCores(idle).setBookedCores(totalCores - idle).build();
+            return HostReport.newBuilder().setHost(renderHost).addAllFrames(running)
+                    .setCoreInfo(coreDetail).build();
+        }
+    }
+
+    /**
+     * Moves the target host name from the request headers into the call context.
+     */
+    private static final class HostInterceptor implements ServerInterceptor {
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            Context context = Context.current().withValue(HOST_CONTEXT, headers.get(HOST_HEADER));
+            return Contexts.interceptCall(context, call, headers, next);
+        }
+    }
+
+    private final class SimulatedRqd extends RqdInterfaceGrpc.RqdInterfaceImplBase {
+
+        @Override
+        public void launchFrame(RqdStaticLaunchFrameRequest request,
+                StreamObserver<RqdStaticLaunchFrameResponse> responseObserver) {
+            SimulatedHost host = hosts.get(HOST_CONTEXT.get());
+            if (host == null) {
+                responseObserver.onError(Status.NOT_FOUND
+                        .withDescription("unknown host " + HOST_CONTEXT.get())
+                        .asRuntimeException());
+                return;
+            }
+            long idleSince = host.idleSince.getAndSet(0);
+            if (idleSince != 0) {
+                bookingLatency.record(System.nanoTime() - idleSince);
+            }
+
+            RunFrame runFrame = request.getRunFrame();
+            RunningFrameInfo info = RunningFrameInfo.newBuilder()
+                    .setResourceId(runFrame.getResourceId()).setJobId(runFrame.getJobId())
+                    .setJobName(runFrame.getJobName()).setFrameId(runFrame.getFrameId())
+                    .setFrameName(runFrame.getFrameName()).setLayerId(runFrame.getLayerId())
+                    .setNumCores(runFrame.getNumCores()).setNumGpus(runFrame.getNumGpus())
+                    .setStartTime(System.currentTimeMillis()).setRss(FRAME_RSS)
+                    .setMaxRss(FRAME_RSS).setVsize(FRAME_RSS).setMaxVsize(FRAME_RSS).build();
+            host.launch(
+                    new SimulatedFrame(info, System.currentTimeMillis() + frameRuntimeMillis));
+            framesLaunched.increment();
+
+            responseObserver.onNext(RqdStaticLaunchFrameResponse.newBuilder().build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void killRunningFrame(RqdStaticKillRunningFrameRequest request,
+                StreamObserver<RqdStaticKillRunningFrameResponse> responseObserver) {
+            SimulatedHost host = hosts.get(HOST_CONTEXT.get());
+            SimulatedFrame frame = host == null ? null : host.frames.remove(request.getFrameId());
+            if (frame != null) {
+                host.release(frame);
+                framesKilled.increment();
+                // Report outside of the kill call, the way RQD does once the process exits.
+                scheduler.execute(() -> sendComplete(host, frame, 1, 9));
+            }
+            responseObserver.onNext(RqdStaticKillRunningFrameResponse.newBuilder().build());
+            responseObserver.onCompleted();
+        }
+    }
+}
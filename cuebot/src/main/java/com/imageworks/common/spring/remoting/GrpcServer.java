@@ -70,6 +70,13 @@ public class GrpcServer implements ApplicationContextAware {
         }
     }
 
+    /**
+     * Returns true once the server is shut down. A server that is not started yet is not shut down.
+     */
+    public boolean isShutdown() {
+        return server != null && server.isShutdown();
+    }
+
     public void start() throws IOException {
         server = ServerBuilder.forPort(this.port)
                 .addService(applicationContext.getBean("rqdReportStatic", RqdReportStatic.class))
@@ -0,0 +1,36 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue;
+
+/**
+ * The cores a pending job and its group are running, along with their minimum and maximum cores,
+ * as used by the fair-share scheduling mode.
+ */
+public class JobShare {
+
+    public String jobId;
+    public String folderId;
+    public String showId;
+
+    public int priority;
+    public int cores;
+    public int minCores;
+    public int maxCores;
+
+    public int folderCores;
+    public int folderMinCores;
+    public int folderMaxCores;
+}
@@ -36,6 +36,7 @@ public class LayerDetail extends LayerEntity implements LayerInterface {
     public int chunkSize;
     public int timeout;
     public int timeout_llu;
+    public int gangSize;
     public int dispatchOrder;
     public int totalFrameCount;
 
@@ -0,0 +1,56 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+import com.imageworks.spcue.grpc.job.LayerType;
+
+/**
+ * The user editable settings of a layer that are read while handling host and frame complete
+ * reports. Instances are immutable so they can be shared through LayerSettingsCache.
+ */
+public final class LayerSettings {
+
+    public final String layerId;
+    public final String jobId;
+    public final LayerType type;
+    public final int timeout;
+    public final int timeout_llu;
+    public final long minimumMemory;
+    public final long minimumGpuMemory;
+    public final boolean isThreadable;
+    public final Set<String> services;
+    public final Set<String> tags;
+    public final int gangSize;
+
+    public LayerSettings(String layerId, String jobId, LayerType type, int timeout,
+            int timeout_llu, long minimumMemory, long minimumGpuMemory, boolean isThreadable,
+            Set<String> services, Set<String> tags, int gangSize) {
+        this.layerId = layerId;
+        this.jobId = jobId;
+        this.type = type;
+        this.timeout = timeout;
+        this.timeout_llu = timeout_llu;
+        this.minimumMemory = minimumMemory;
+        this.minimumGpuMemory = minimumGpuMemory;
+        this.isThreadable = isThreadable;
+        this.services = ImmutableSet.copyOf(services);
+        this.tags = ImmutableSet.copyOf(tags);
+        this.gangSize = gangSize;
+    }
+}
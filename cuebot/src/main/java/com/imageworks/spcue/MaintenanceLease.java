@@ -0,0 +1,127 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * The shards of a maintenance task locked by this cuebot.
+ *
+ * The work of a task is split into shards by hashing the id of each item, a host, a job or a
+ * frame, so several cuebots can run the task at the same time on different items. Each time a
+ * shard is locked its fencing token is incremented, a lease is only valid while none of its
+ * tokens has been taken over by another cuebot.
+ */
+public class MaintenanceLease {
+
+    /**
+     * The number of items worked on between two checks of the fencing tokens.
+     */
+    public static final int BATCH_SIZE = 100;
+
+    private final int shardCount;
+    private final Set<Integer> shards;
+    private final BooleanSupplier validity;
+
+    public MaintenanceLease(int shardCount, Set<Integer> shards, BooleanSupplier validity) {
+        this.shardCount = shardCount;
+        this.shards = Collections.unmodifiableSet(shards);
+        this.validity = validity;
+    }
+
+    /**
+     * Returns the shard an item belongs to.
+     *
+     * @param id the id of the item
+     * @param shardCount the number of shards
+     * @return int
+     */
+    public static int shardOf(String id, int shardCount) {
+        return Math.floorMod(id.hashCode(), shardCount);
+    }
+
+    /**
+     * Returns true if the item belongs to one of the locked shards.
+     *
+     * @param id the id of the item
+     * @return boolean
+     */
+    public boolean owns(String id) {
+        return shards.contains(shardOf(id, shardCount));
+    }
+
+    /**
+     * Returns true if the shard is locked.
+     *
+     * @param shard the shard
+     * @return boolean
+     */
+    public boolean ownsShard(int shard) {
+        return shards.contains(shard);
+    }
+
+    /**
+     * Splits the items belonging to the locked shards into batches of BATCH_SIZE. Checking the
+     * lease once before each batch, rather than before each item, bounds the fencing queries to
+     * one per batch.
+     *
+     * @param items the items
+     * @param id returns the id of an item
+     * @return List
+     */
+    public <T> List<List<T>> ownedBatches(List<T> items, Function<T, String> id) {
+        List<List<T>> batches = new ArrayList<>();
+        List<T> batch = new ArrayList<>(BATCH_SIZE);
+        for (T item : items) {
+            if (!owns(id.apply(item))) {
+                continue;
+            }
+            batch.add(item);
+            if (batch.size() == BATCH_SIZE) {
+                batches.add(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Returns true if no other cuebot has locked any of the shards since they were locked by this
+     * one. Work should stop as soon as this returns false.
+     *
+     * @return boolean
+     */
+    public boolean isValid() {
+        return validity.getAsBoolean();
+    }
+
+    public Set<Integer> getShards() {
+        return shards;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+}
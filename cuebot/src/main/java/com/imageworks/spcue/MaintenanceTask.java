@@ -17,7 +17,8 @@ package com.imageworks.spcue;
 
 /**
  * MaintenanceTasks are stored in the task_lock table. Before a maintenance operation kicks off a
- * lock must be taken out on it so multiple bots don't run the same task.
+ * lock must be taken out on it so multiple bots don't run the same task. Tasks split into shards
+ * are locked with advisory locks instead, see MaintenanceDao.runLocked.
  */
 public enum MaintenanceTask {
 
@@ -44,5 +45,10 @@ public enum MaintenanceTask {
     /**
      * Lock the stale checkpoint task.
      */
-    LOCK_STALE_CHECKPOINT
+    LOCK_STALE_CHECKPOINT,
+
+    /**
+     * Lock the preemption of procs for jobs below their minimum cores.
+     */
+    LOCK_PREEMPTION
 }
@@ -1,17 +1,33 @@
 package com.imageworks.spcue;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import com.imageworks.spcue.dispatcher.BookingQueue;
 import com.imageworks.spcue.dispatcher.DispatchQueue;
+import com.imageworks.spcue.dispatcher.DispatchSupport;
+import com.imageworks.spcue.dispatcher.GangDispatcher;
 import com.imageworks.spcue.dispatcher.HostReportHandler;
 import com.imageworks.spcue.dispatcher.HostReportQueue;
+import com.imageworks.spcue.dispatcher.PlacementPlanner;
+import com.imageworks.spcue.dispatcher.PreemptionEngine;
+import com.imageworks.spcue.dispatcher.WarmUpController;
+import com.imageworks.spcue.monitoring.EventOutbox;
+import com.imageworks.spcue.monitoring.KafkaEventPublisher;
+import com.imageworks.spcue.util.LabelValueLimiter;
+import com.imageworks.spcue.util.LatencyHistogram;
+import com.imageworks.spcue.util.SeriesLimiter;
 
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
+import io.prometheus.client.SimpleCollector;
 
 /**
  * Collects and exposes metrics to Prometheus
@@ -26,6 +42,14 @@ public class PrometheusMetricsCollector {
 
     private HostReportQueue reportQueue;
 
+    private KafkaEventPublisher kafkaEventPublisher;
+
+    private WarmUpController warmUpController;
+
+    private PlacementPlanner placementPlanner;
+    private PreemptionEngine preemptionEngine;
+    private GangDispatcher gangDispatcher;
+
     private boolean enabled;
 
     // BookingQueue bookingQueue
@@ -96,6 +120,90 @@ public class PrometheusMetricsCollector {
             .name("cue_report_rejected_total").help("Report Queue number of rejected tasks")
             .labelNames("env", "cuebot_hosts").register();
 
+    // KafkaEventPublisher outbox
+    private static final Gauge monitoringEventsSpilledTotal = Gauge.build()
+            .name("cue_monitoring_events_spilled_total")
+            .help("Monitoring events written to the local spill log")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge monitoringEventsReplayedTotal = Gauge.build()
+            .name("cue_monitoring_events_replayed_total")
+            .help("Monitoring events delivered from the local spill log")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge monitoringEventsDroppedTotal = Gauge.build()
+            .name("cue_monitoring_events_dropped_total")
+            .help("Monitoring events dropped because the publisher queue or the outbox was full")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge monitoringSpillSegmentsTotal = Gauge.build()
+            .name("cue_monitoring_spill_segments_total")
+            .help("Segment files in use by the monitoring event spill log")
+            .labelNames("env", "cuebot_hosts").register();
+
+    // WarmUpController
+    private static final Gauge warmUpAdmittedFraction = Gauge.build()
+            .name("cue_warmup_admitted_fraction")
+            .help("Share of hosts booked while the cuebot warms up, 1 once warm")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge warmUpDeferredTotal = Gauge.build()
+            .name("cue_warmup_deferred_total")
+            .help("Host reports not booked because the cuebot was warming up")
+            .labelNames("env", "cuebot_hosts").register();
+
+    // PlacementPlanner
+    private static final Gauge placementPlansTotal = Gauge.build()
+            .name("cue_placement_plans_total").help("Hosts booked with the placement planner")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge placementCoresGainedTotal = Gauge.build()
+            .name("cue_placement_cores_gained_total")
+            .help("Core units booked by the placement planner beyond booking in job order")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge placementMemoryGainedTotal = Gauge.build()
+            .name("cue_placement_memory_gained_total")
+            .help("Memory in KB booked by the placement planner beyond booking in job order")
+            .labelNames("env", "cuebot_hosts").register();
+
+    // PreemptionEngine
+    private static final Gauge preemptedProcsTotal = Gauge.build()
+            .name("cue_preempted_procs_total")
+            .help("Procs preempted for jobs below their minimum cores")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge preemptionFailuresTotal = Gauge.build()
+            .name("cue_preemption_failures_total")
+            .help("Procs that could not be given to a job below its minimum cores")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge jobsUnderMinCores = Gauge.build()
+            .name("cue_jobs_under_min_cores")
+            .help("Jobs below their minimum cores found by the last preemption round")
+            .labelNames("env", "cuebot_hosts").register();
+
+    // GangDispatcher
+    private static final Gauge gangsLaunchedTotal = Gauge.build()
+            .name("cue_gangs_launched_total").help("Gangs of frames launched together")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge gangsTimedOutTotal = Gauge.build()
+            .name("cue_gangs_timed_out_total")
+            .help("Gangs rolled back because they were not complete in time")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge gangLaunchFailuresTotal = Gauge.build()
+            .name("cue_gang_launch_failures_total")
+            .help("Gangs stopped because one of their frames failed to launch")
+            .labelNames("env", "cuebot_hosts").register();
+    private static final Gauge gangsPending = Gauge.build().name("cue_gangs_pending")
+            .help("Gangs of frames being assembled").labelNames("env", "cuebot_hosts")
+            .register();
+
+    // DispatchSupport counters and stage latencies
+    private static final Gauge dispatcherCounterTotal = Gauge.build()
+            .name("cue_dispatcher_counter_total").help("Dispatcher counters, by counter name")
+            .labelNames("env", "cuebot_hosts", "counter").register();
+    private static final Gauge dispatchStageCountTotal = Gauge.build()
+            .name("cue_dispatch_stage_count_total")
+            .help("Number of times each dispatch stage ran")
+            .labelNames("env", "cuebot_hosts", "stage").register();
+    private static final Gauge dispatchStageLatencyMillis = Gauge.build()
+            .name("cue_dispatch_stage_latency_ms")
+            .help("Dispatch stage latency percentiles in milliseconds, quantile 1 is the maximum")
+            .labelNames("env", "cuebot_hosts", "stage", "quantile").register();
+
     private static final Counter findJobsByShowQueryCountMetric =
             Counter.build().name("cue_find_jobs_by_show_count")
                     .help("Count the occurrences of the query FIND_JOBS_BY_SHOW.")
@@ -151,9 +259,31 @@ public class PrometheusMetricsCollector {
             .name("cue_host_reports_received_total").help("Total number of host reports received")
             .labelNames("env", "cuebot_host", "facility").register();
 
+    private static final Gauge metricsActiveSeries = Gauge.build()
+            .name("cue_metrics_active_series")
+            .help("Number of series held by each metric with a series cap")
+            .labelNames("env", "cuebot_hosts", "metric").register();
+
+    private static final double[] LATENCY_QUANTILES = {50, 95, 99, 100};
+    private static final String[] LATENCY_QUANTILE_LABELS = {"0.5", "0.95", "0.99", "1"};
+
     private String deployment_environment;
     private String cuebot_host;
 
+    // Cardinality control for the show, shot and render node labels
+    private final LabelValueLimiter showLimiter;
+    private final LabelValueLimiter shotLimiter;
+    private final LabelValueLimiter renderNodeLimiter;
+    private final SeriesLimiter frameKilledSeries;
+    private final SeriesLimiter frameKillFailureSeries;
+    private final SeriesLimiter frameCompletedSeries;
+    private final SeriesLimiter jobCompletedSeries;
+    private final SeriesLimiter jobCoreSecondsSeries;
+    private final SeriesLimiter layerMaxRuntimeSeries;
+    private final SeriesLimiter layerMaxMemorySeries;
+    private final Map<String, SeriesLimiter> seriesLimiters = new LinkedHashMap<>();
+    private final long seriesIdleMillis;
+
     @Autowired
     public PrometheusMetricsCollector(Environment env) {
         if (env == null) {
@@ -169,6 +299,45 @@ public class PrometheusMetricsCollector {
         if (this.deployment_environment == null) {
             this.deployment_environment = "undefined";
         }
+
+        this.showLimiter = labelLimiter(env, "show", 100);
+        this.shotLimiter = labelLimiter(env, "shot", 500);
+        this.renderNodeLimiter = labelLimiter(env, "render_node", 2000);
+        int maxSeries =
+                env.getProperty("metrics.prometheus.series.max_per_metric", Integer.class, 10000);
+        this.seriesIdleMillis = TimeUnit.SECONDS.toMillis(
+                env.getProperty("metrics.prometheus.series.idle_seconds", Long.class, 3600L));
+        this.frameKilledSeries = seriesLimiter("cue_frame_killed_counter", frameKilledCounter,
+                maxSeries, 2);
+        this.frameKillFailureSeries = seriesLimiter("cue_frame_kill_failure_counter",
+                frameKillFailureCounter, maxSeries, 2, 3, 4, 5);
+        this.frameCompletedSeries = seriesLimiter("cue_frames_completed_total",
+                frameCompletedCounter, maxSeries, 3, 4);
+        this.jobCompletedSeries = seriesLimiter("cue_jobs_completed_total", jobCompletedCounter,
+                maxSeries, 3, 4);
+        this.jobCoreSecondsSeries = seriesLimiter("cue_job_core_seconds",
+                jobCoreSecondsHistogram, maxSeries, 2, 3);
+        this.layerMaxRuntimeSeries = seriesLimiter("cue_layer_max_runtime_seconds",
+                layerMaxRuntimeHistogram, maxSeries, 2, 3);
+        this.layerMaxMemorySeries = seriesLimiter("cue_layer_max_memory_bytes",
+                layerMaxMemoryHistogram, maxSeries, 2, 3);
+    }
+
+    /**
+     * Build the limiter of a label from metrics.prometheus.labels.[label].allow, a comma separated
+     * allow list, and metrics.prometheus.labels.[label].top_k.
+     */
+    private static LabelValueLimiter labelLimiter(Environment env, String label, int defaultTopK) {
+        String prefix = "metrics.prometheus.labels." + label;
+        return LabelValueLimiter.fromString(env.getProperty(prefix + ".allow", String.class, ""),
+                env.getProperty(prefix + ".top_k", Integer.class, defaultTopK));
+    }
+
+    private SeriesLimiter seriesLimiter(String name, SimpleCollector<?> collector, int maxSeries,
+            int... overflowLabels) {
+        SeriesLimiter limiter = new SeriesLimiter(collector, maxSeries, overflowLabels);
+        seriesLimiters.put(name, limiter);
+        return limiter;
     }
 
     /**
@@ -251,6 +420,92 @@ public class PrometheusMetricsCollector {
                     .set(reportQueue.getTaskCount());
             reportQueueRejectedTotal.labels(this.deployment_environment, this.cuebot_host)
                     .set(reportQueue.getRejectedTaskCount());
+
+            // DispatchSupport counters and stage latencies
+            for (Map.Entry<String, LongAdder> entry : DispatchSupport.counters.entrySet()) {
+                dispatcherCounterTotal
+                        .labels(this.deployment_environment, this.cuebot_host, entry.getKey())
+                        .set(entry.getValue().sum());
+            }
+            for (Map.Entry<String, LatencyHistogram> entry : DispatchSupport.stageLatencies
+                    .entrySet()) {
+                String stage = entry.getKey();
+                LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+                dispatchStageCountTotal.labels(this.deployment_environment, this.cuebot_host, stage)
+                        .set(snapshot.getCount());
+                for (int i = 0; i < LATENCY_QUANTILES.length; i++) {
+                    dispatchStageLatencyMillis
+                            .labels(this.deployment_environment, this.cuebot_host, stage,
+                                    LATENCY_QUANTILE_LABELS[i])
+                            .set(snapshot.getPercentile(LATENCY_QUANTILES[i]) / 1000.0);
+                }
+            }
+
+            // KafkaEventPublisher outbox
+            EventOutbox outbox =
+                    kafkaEventPublisher == null ? null : kafkaEventPublisher.getOutbox();
+            if (outbox != null) {
+                monitoringEventsSpilledTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(outbox.getSpilledCount());
+                monitoringEventsReplayedTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(outbox.getReplayedCount());
+                monitoringEventsDroppedTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(outbox.getDroppedCount() + kafkaEventPublisher.getRejectedCount());
+                monitoringSpillSegmentsTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(outbox.getSpillSegmentCount());
+            }
+
+            // WarmUpController
+            if (warmUpController != null) {
+                warmUpAdmittedFraction.labels(this.deployment_environment, this.cuebot_host)
+                        .set(warmUpController.getAdmittedFraction());
+                warmUpDeferredTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(warmUpController.getDeferredCount());
+            }
+
+            // PlacementPlanner
+            if (placementPlanner != null && placementPlanner.isEnabled()) {
+                placementPlansTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(placementPlanner.getPlanCount());
+                placementCoresGainedTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(placementPlanner.getCoresGained());
+                placementMemoryGainedTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(placementPlanner.getMemoryGained());
+            }
+
+            // PreemptionEngine
+            if (preemptionEngine != null && preemptionEngine.isEnabled()) {
+                preemptedProcsTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(preemptionEngine.getPreemptedCount());
+                preemptionFailuresTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(preemptionEngine.getFailedCount());
+                jobsUnderMinCores.labels(this.deployment_environment, this.cuebot_host)
+                        .set(preemptionEngine.getUnderServedJobs());
+            }
+
+            // GangDispatcher
+            if (gangDispatcher != null) {
+                gangsLaunchedTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(gangDispatcher.getLaunchedCount());
+                gangsTimedOutTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(gangDispatcher.getTimedOutCount());
+                gangLaunchFailuresTotal.labels(this.deployment_environment, this.cuebot_host)
+                        .set(gangDispatcher.getFailedCount());
+                gangsPending.labels(this.deployment_environment, this.cuebot_host)
+                        .set(gangDispatcher.getPendingGangs());
+            }
+        }
+
+        // Labelled metrics are recorded whether or not the collector is enabled, so their
+        // series are trimmed either way
+        showLimiter.rebalance();
+        shotLimiter.rebalance();
+        renderNodeLimiter.rebalance();
+        for (Map.Entry<String, SeriesLimiter> entry : seriesLimiters.entrySet()) {
+            entry.getValue().evictIdle(seriesIdleMillis);
+            metricsActiveSeries
+                    .labels(this.deployment_environment, this.cuebot_host, entry.getKey())
+                    .set(entry.getValue().size());
         }
     }
 
@@ -282,9 +537,8 @@ public class PrometheusMetricsCollector {
      */
     public void incrementFrameKilledCounter(String renderNode,
             HostReportHandler.KillCause killCause) {
-        frameKilledCounter
-                .labels(this.deployment_environment, this.cuebot_host, renderNode, killCause.name())
-                .inc();
+        frameKilledCounter.labels(frameKilledSeries.admit(this.deployment_environment,
+                this.cuebot_host, renderNodeLimiter.limit(renderNode), killCause.name())).inc();
     }
 
     /**
@@ -297,8 +551,9 @@ public class PrometheusMetricsCollector {
      */
     public void incrementFrameKillFailureCounter(String hostname, String jobName, String frameName,
             String frameId) {
-        frameKillFailureCounter.labels(this.deployment_environment, this.cuebot_host, hostname,
-                jobName, frameName, frameId).inc();
+        frameKillFailureCounter.labels(frameKillFailureSeries.admit(this.deployment_environment,
+                this.cuebot_host, renderNodeLimiter.limit(hostname), jobName, frameName, frameId))
+                .inc();
     }
 
     /**
@@ -309,8 +564,8 @@ public class PrometheusMetricsCollector {
      * @param shot shot name
      */
     public void recordFrameCompleted(String state, String show, String shot) {
-        frameCompletedCounter
-                .labels(this.deployment_environment, this.cuebot_host, state, show, shot).inc();
+        frameCompletedCounter.labels(frameCompletedSeries.admit(this.deployment_environment,
+                this.cuebot_host, state, showLimiter.limit(show), shotLimiter.limit(shot))).inc();
     }
 
     /**
@@ -321,8 +576,8 @@ public class PrometheusMetricsCollector {
      * @param shot shot name
      */
     public void recordJobCompleted(String state, String show, String shot) {
-        jobCompletedCounter.labels(this.deployment_environment, this.cuebot_host, state, show, shot)
-                .inc();
+        jobCompletedCounter.labels(jobCompletedSeries.admit(this.deployment_environment,
+                this.cuebot_host, state, showLimiter.limit(show), shotLimiter.limit(shot))).inc();
     }
 
     /**
@@ -333,7 +588,8 @@ public class PrometheusMetricsCollector {
      * @param shot shot name
      */
     public void recordJobCoreSeconds(double coreSeconds, String show, String shot) {
-        jobCoreSecondsHistogram.labels(this.deployment_environment, this.cuebot_host, show, shot)
+        jobCoreSecondsHistogram.labels(jobCoreSecondsSeries.admit(this.deployment_environment,
+                this.cuebot_host, showLimiter.limit(show), shotLimiter.limit(shot)))
                 .observe(coreSeconds);
     }
 
@@ -347,8 +603,8 @@ public class PrometheusMetricsCollector {
      */
     public void recordLayerMaxRuntime(double runtimeSeconds, String show, String shot,
             String layerType) {
-        layerMaxRuntimeHistogram
-                .labels(this.deployment_environment, this.cuebot_host, show, shot, layerType)
+        layerMaxRuntimeHistogram.labels(layerMaxRuntimeSeries.admit(this.deployment_environment,
+                this.cuebot_host, showLimiter.limit(show), shotLimiter.limit(shot), layerType))
                 .observe(runtimeSeconds);
     }
 
@@ -362,8 +618,8 @@ public class PrometheusMetricsCollector {
      */
     public void recordLayerMaxMemory(double memoryBytes, String show, String shot,
             String layerType) {
-        layerMaxMemoryHistogram
-                .labels(this.deployment_environment, this.cuebot_host, show, shot, layerType)
+        layerMaxMemoryHistogram.labels(layerMaxMemorySeries.admit(this.deployment_environment,
+                this.cuebot_host, showLimiter.limit(show), shotLimiter.limit(shot), layerType))
                 .observe(memoryBytes);
     }
 
@@ -393,4 +649,24 @@ public class PrometheusMetricsCollector {
     public void setReportQueue(HostReportQueue reportQueue) {
         this.reportQueue = reportQueue;
     }
+
+    public void setKafkaEventPublisher(KafkaEventPublisher kafkaEventPublisher) {
+        this.kafkaEventPublisher = kafkaEventPublisher;
+    }
+
+    public void setWarmUpController(WarmUpController warmUpController) {
+        this.warmUpController = warmUpController;
+    }
+
+    public void setPlacementPlanner(PlacementPlanner placementPlanner) {
+        this.placementPlanner = placementPlanner;
+    }
+
+    public void setPreemptionEngine(PreemptionEngine preemptionEngine) {
+        this.preemptionEngine = preemptionEngine;
+    }
+
+    public void setGangDispatcher(GangDispatcher gangDispatcher) {
+        this.gangDispatcher = gangDispatcher;
+    }
 }
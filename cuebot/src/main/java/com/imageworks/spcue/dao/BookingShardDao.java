@@ -0,0 +1,92 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dao;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Leases allocations to cuebots so each one books hosts from its own share of them.
+ *
+ * @category DAO
+ */
+public interface BookingShardDao {
+
+    /**
+     * Records that the cuebot takes part in sharded booking for the given number of seconds.
+     *
+     * @param owner the cuebot
+     * @param address the host:port RQD reaches the cuebot at
+     * @param ttlSeconds how long the membership lasts if not renewed
+     */
+    void heartbeat(String owner, String address, int ttlSeconds);
+
+    /**
+     * Returns the number of cuebots whose membership has not expired.
+     *
+     * @return int
+     */
+    int getLiveMemberCount();
+
+    /**
+     * Returns the ids of the allocations hosts can be booked from, in a stable order.
+     *
+     * @return List<String>
+     */
+    List<String> getAllocationIds();
+
+    /**
+     * Takes the lease of an allocation if it is free, expired or already held by the owner.
+     *
+     * @param allocId the allocation
+     * @param owner the cuebot
+     * @param ttlSeconds how long the lease lasts if not renewed
+     * @return true if the owner holds the lease
+     */
+    boolean acquireLease(String allocId, String owner, int ttlSeconds);
+
+    /**
+     * Extends every lease held by the owner.
+     *
+     * @param owner the cuebot
+     * @param ttlSeconds how long the leases last if not renewed
+     * @return the ids of the allocations leased to the owner
+     */
+    List<String> renewLeases(String owner, int ttlSeconds);
+
+    /**
+     * Returns the address of the cuebot holding each live lease, by allocation id. Leases held by
+     * a cuebot whose membership expired are left out.
+     *
+     * @return Map<String, String>
+     */
+    Map<String, String> getLeaseAddresses();
+
+    /**
+     * Gives up the lease of an allocation.
+     *
+     * @param allocId the allocation
+     * @param owner the cuebot
+     */
+    void releaseLease(String allocId, String owner);
+
+    /**
+     * Gives up every lease held by the owner and its membership.
+     *
+     * @param owner the cuebot
+     */
+    void removeMember(String owner);
+}
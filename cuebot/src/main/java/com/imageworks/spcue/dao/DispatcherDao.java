@@ -171,10 +171,14 @@ public interface DispatcherDao {
      * - PRIORITY_ONLY: Sort by priority only - FIFO: Whether or not to enable FIFO scheduling in
      * the same priority. - BALANCED: Use a rank formula that takes into account time waiting, and
      * number of cores required: rank = priority + (100 * (1 - (job.cores/job.int_min_cores))) + age
-     * in days
+     * in days - RUNTIME: Sort by priority, then by the core-seconds each job is expected to keep
+     * using, its running cores times the expected run time of its frames. On NIMBY hosts, which can
+     * be reclaimed at any time, jobs with shorter frames come first within a priority. -
+     * FAIR_SHARE: Sort by the deficit of each job's group within its show, then by the deficit of
+     * the job within its group, as computed by the FairShareTree.
      */
     enum SchedulingMode {
-        PRIORITY_ONLY, FIFO, BALANCED
+        PRIORITY_ONLY, FIFO, BALANCED, RUNTIME, FAIR_SHARE
     }
 
     /**
@@ -183,4 +187,12 @@ public interface DispatcherDao {
      * @return
      */
     void clearCache();
+
+    /**
+     * Loads the bookable shows of every enabled allocation into the cache, so the first booking
+     * passes after a restart do not all query them at once.
+     *
+     * @return the number of allocations loaded
+     */
+    int preloadCache();
 }
@@ -167,6 +167,17 @@ public interface FrameDao {
      */
     void updateFrameStarted(VirtualProc proc, FrameInterface frame);
 
+    /**
+     * Updates a batch of frames to indicate they are now running, like updateFrameStarted. Frames
+     * that are locked or were updated by another thread are left alone.
+     *
+     * @param procs the procs the frames are started on, in the same order as the frames
+     * @param frames
+     * @return for each frame, true if it was started
+     * @throws FrameReservationException if the frames could not be updated, none are started
+     */
+    boolean[] updateFramesStarted(List<VirtualProc> procs, List<? extends FrameInterface> frames);
+
     /**
      * Updates a frame to the stopped state. The frame MUST be in the Running state to be stopped.
      *
@@ -29,6 +29,7 @@ import com.imageworks.spcue.GroupInterface;
 import com.imageworks.spcue.Inherit;
 import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.JobShare;
 import com.imageworks.spcue.ResourceUsage;
 import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.TaskEntity;
@@ -93,6 +94,31 @@ public interface JobDao {
      */
     ExecutionSummary getExecutionSummary(JobInterface job);
 
+    /**
+     * Returns the average run time in seconds of the succeeded frames of every pending job that
+     * has any.
+     *
+     * @return the average run times by job id
+     */
+    Map<String, Double> getAverageFrameSeconds();
+
+    /**
+     * Returns the cores and core limits of every pending job and of its group.
+     *
+     * @return a JobShare for every pending job
+     */
+    List<JobShare> getJobShares();
+
+    /**
+     * Returns the pending jobs with waiting frames that are running fewer cores than their
+     * minimum, counting the cores of the procs already being redirected to them. Higher priority
+     * jobs come first, then the jobs furthest below their minimum.
+     *
+     * @param limit the maximum number of jobs
+     * @return the core units each job is short of its minimum, by job id
+     */
+    Map<String, Integer> getMinCoresDeficits(int limit);
+
     /**
      * returns a FrameStateTotals object with all of the job's frame state totals.
      *
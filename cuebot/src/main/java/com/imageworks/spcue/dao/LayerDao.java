@@ -24,10 +24,12 @@ import com.imageworks.spcue.FrameStateTotals;
 import com.imageworks.spcue.JobInterface;
 import com.imageworks.spcue.LayerDetail;
 import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.LayerSettings;
 import com.imageworks.spcue.LimitEntity;
 import com.imageworks.spcue.ResourceUsage;
 import com.imageworks.spcue.ThreadStats;
 import com.imageworks.spcue.grpc.job.LayerType;
+import com.imageworks.spcue.util.StreamingQuantile;
 
 public interface LayerDao {
 
@@ -93,6 +95,14 @@ public interface LayerDao {
      */
     LayerDetail getLayerDetail(String id);
 
+    /**
+     * get the settings read while handling host and frame complete reports
+     *
+     * @param id
+     * @return LayerSettings
+     */
+    LayerSettings getLayerSettings(String id);
+
     /**
      * get a layer detail from the job and layer name
      *
@@ -321,6 +331,33 @@ public interface LayerDao {
      */
     boolean balanceLayerMinMemory(LayerInterface layer, long val);
 
+    /**
+     * Sets the minimum memory of a layer from the estimated memory usage of its frames, if the
+     * memory optimizer is enabled on the layer. A little headroom is added to the estimate.
+     *
+     * @param layer
+     * @param estimate the estimated memory usage in KB
+     * @return true if the minimum memory was changed
+     */
+    boolean updateLayerMinMemoryEstimate(LayerInterface layer, long estimate);
+
+    /**
+     * Returns the stored memory usage estimator of a layer.
+     *
+     * @param layer
+     * @param quantile the quantile the estimator tracks
+     * @return the estimator, empty if none was stored
+     */
+    StreamingQuantile getMemoryEstimate(LayerInterface layer, double quantile);
+
+    /**
+     * Stores the memory usage estimators of several layers. Layers that no longer exist are
+     * skipped.
+     *
+     * @param estimates the estimators by layer id
+     */
+    void updateMemoryEstimates(Map<String, StreamingQuantile> estimates);
+
     /**
      * Appends a tag to the current set of tags. If the tag already exists then nothing happens.
      *
@@ -15,6 +15,8 @@
 
 package com.imageworks.spcue.dao;
 
+import java.util.List;
+
 import com.imageworks.spcue.LimitEntity;
 import com.imageworks.spcue.LimitInterface;
 
@@ -52,6 +54,13 @@ public interface LimitDao {
      */
     public LimitEntity getLimit(String id);
 
+    /**
+     * Returns every limit along with the number of frames running against it.
+     *
+     * @return List<LimitEntity>
+     */
+    public List<LimitEntity> getLimits();
+
     /**
      * Set the specified limit's name.
      *
@@ -15,6 +15,9 @@
 
 package com.imageworks.spcue.dao;
 
+import java.util.function.Consumer;
+
+import com.imageworks.spcue.MaintenanceLease;
 import com.imageworks.spcue.MaintenanceTask;
 
 /**
@@ -57,4 +60,16 @@ public interface MaintenanceDao {
      */
     void unlockTask(MaintenanceTask task);
 
+    /**
+     * Takes the advisory locks of the shards of a task that no other cuebot holds and runs the
+     * work while holding them. The locks are held by a database session, so they are released if
+     * the cuebot dies.
+     *
+     * @param task the task
+     * @param shardCount the number of shards the task is split into
+     * @param work the work, given the locked shards
+     * @return false if every shard was locked by another cuebot
+     */
+    boolean runLocked(MaintenanceTask task, int shardCount, Consumer<MaintenanceLease> work);
+
 }
@@ -15,6 +15,7 @@
 
 package com.imageworks.spcue.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.imageworks.spcue.FrameInterface;
@@ -53,14 +54,16 @@ public interface ProcDao {
     long getReservedGpuMemory(ProcInterface proc);
 
     /**
-     * Removes a little bit of reserved memory from every other running frame in order to give some
-     * to the target proc.
+     * Removes reserved memory from the other running frames on the host that reserve more than
+     * they use, in proportion to their spare reservation, and adds it to the target proc in the
+     * same statement.
      *
      * @param targetProc
      * @param targetMem
-     * @return
+     * @return the memory added to the target proc, 0 if the other frames did not have enough to
+     *         spare
      */
-    boolean balanceUnderUtilizedProcs(ProcInterface targetProc, long targetMem);
+    long balanceUnderUtilizedProcs(ProcInterface targetProc, long targetMem);
 
     /**
      * Increase a proc's reserved memory.
@@ -96,6 +99,14 @@ public interface ProcDao {
      */
     void insertVirtualProc(VirtualProc proc);
 
+    /**
+     * Creates a batch of new virtual procs. The resource counters of the hosts, subscriptions and
+     * layers are updated once per row, the ones of jobs, folders and points once per job.
+     *
+     * @param procs
+     */
+    void insertVirtualProcs(List<VirtualProc> procs);
+
     /**
      * Deletes an existing virtual proc
      *
@@ -185,6 +196,22 @@ public interface ProcDao {
      */
     List<VirtualProc> findVirtualProcs(JobInterface job);
 
+    /**
+     * Finds the procs that can be taken from other jobs of the same show to bring a job up to its
+     * minimum cores. Only booked procs of jobs that allow unbooking, have the same or a lower
+     * priority and stay at or over their own minimum cores without the proc are returned, at most
+     * one per job, lowest priority first, then the most recently booked first.
+     *
+     * @param job the job below its minimum cores
+     * @param checkpointing true for the procs running frames with checkpointing enabled, false
+     *        for the others
+     * @param excludedJobIds the jobs no proc should be taken from
+     * @param limit the maximum number of procs
+     * @return the procs, in the order they should be taken
+     */
+    List<VirtualProc> findPreemptibleProcs(JobInterface job, boolean checkpointing,
+            Collection<String> excludedJobIds, int limit);
+
     /**
      *
      * @return
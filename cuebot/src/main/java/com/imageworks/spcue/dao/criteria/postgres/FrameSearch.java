@@ -134,12 +134,12 @@ public class FrameSearch extends Criteria implements FrameSearchInterface {
             values.add(Integer.valueOf(matchRange.group(2)));
         } else {
             FrameSet set = new FrameSet(frameSet);
-            int num_frames = set.size();
-            if (num_frames <= RANGE_MAX_SIZE) {
+            // The size is known without expanding the set, so oversized sets cost nothing.
+            if (set.size() <= RANGE_MAX_SIZE) {
                 sb.append("(");
-                for (int i = 0; i < num_frames; i++) {
+                for (int frame : set.toArray()) {
                     sb.append("frame.int_number=? OR ");
-                    values.add(set.get(i));
+                    values.add(frame);
                 }
                 sb.delete(sb.length() - 4, sb.length());
                 sb.append(") ");
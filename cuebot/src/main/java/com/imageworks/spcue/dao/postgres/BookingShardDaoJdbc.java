@@ -0,0 +1,102 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dao.postgres;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.support.JdbcDaoSupport;
+
+import com.imageworks.spcue.dao.BookingShardDao;
+
+public class BookingShardDaoJdbc extends JdbcDaoSupport implements BookingShardDao {
+
+    private static final String EXPIRES = "current_timestamp + ? * interval '1' second";
+
+    private static final String HEARTBEAT = "INSERT INTO booking_shard_member ("
+            + "str_owner, str_address, ts_expires" + ") VALUES (?, ?, " + EXPIRES + ") "
+            + "ON CONFLICT (str_owner) " + "DO UPDATE SET " + "str_address = EXCLUDED.str_address, "
+            + "ts_expires = EXCLUDED.ts_expires";
+
+    @Override
+    public void heartbeat(String owner, String address, int ttlSeconds) {
+        getJdbcTemplate().update(HEARTBEAT, owner, address, ttlSeconds);
+    }
+
+    @Override
+    public int getLiveMemberCount() {
+        return getJdbcTemplate().queryForObject(
+                "SELECT count(1) FROM booking_shard_member WHERE ts_expires > current_timestamp",
+                Integer.class);
+    }
+
+    @Override
+    public List<String> getAllocationIds() {
+        return getJdbcTemplate().queryForList(
+                "SELECT pk_alloc FROM alloc WHERE b_enabled = true ORDER BY pk_alloc",
+                String.class);
+    }
+
+    private static final String ACQUIRE_LEASE = "INSERT INTO booking_shard_lease ("
+            + "pk_alloc, str_owner, ts_expires" + ") VALUES (?, ?, " + EXPIRES + ") "
+            + "ON CONFLICT (pk_alloc) " + "DO UPDATE SET " + "str_owner = EXCLUDED.str_owner, "
+            + "ts_expires = EXCLUDED.ts_expires " + "WHERE "
+            + "booking_shard_lease.str_owner = EXCLUDED.str_owner " + "OR "
+            + "booking_shard_lease.ts_expires < current_timestamp";
+
+    @Override
+    public boolean acquireLease(String allocId, String owner, int ttlSeconds) {
+        return getJdbcTemplate().update(ACQUIRE_LEASE, allocId, owner, ttlSeconds) == 1;
+    }
+
+    @Override
+    public List<String> renewLeases(String owner, int ttlSeconds) {
+        getJdbcTemplate().update("UPDATE booking_shard_lease SET ts_expires = " + EXPIRES
+                + " WHERE str_owner = ?", ttlSeconds, owner);
+        return getJdbcTemplate().queryForList(
+                "SELECT pk_alloc FROM booking_shard_lease WHERE str_owner = ? ORDER BY pk_alloc",
+                String.class, owner);
+    }
+
+    private static final String GET_LEASE_ADDRESSES = "SELECT " + "booking_shard_lease.pk_alloc, "
+            + "booking_shard_member.str_address " + "FROM " + "booking_shard_lease, "
+            + "booking_shard_member " + "WHERE "
+            + "booking_shard_lease.str_owner = booking_shard_member.str_owner " + "AND "
+            + "booking_shard_lease.ts_expires > current_timestamp " + "AND "
+            + "booking_shard_member.ts_expires > current_timestamp";
+
+    @Override
+    public Map<String, String> getLeaseAddresses() {
+        Map<String, String> addresses = new HashMap<>();
+        getJdbcTemplate().query(GET_LEASE_ADDRESSES, (RowCallbackHandler) rs -> addresses
+                .put(rs.getString("pk_alloc"), rs.getString("str_address")));
+        return addresses;
+    }
+
+    @Override
+    public void releaseLease(String allocId, String owner) {
+        getJdbcTemplate().update(
+                "DELETE FROM booking_shard_lease WHERE pk_alloc = ? AND str_owner = ?", allocId,
+                owner);
+    }
+
+    @Override
+    public void removeMember(String owner) {
+        getJdbcTemplate().update("DELETE FROM booking_shard_lease WHERE str_owner = ?", owner);
+        getJdbcTemplate().update("DELETE FROM booking_shard_member WHERE str_owner = ?", owner);
+    }
+}
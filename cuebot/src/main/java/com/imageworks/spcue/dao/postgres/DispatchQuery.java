@@ -73,7 +73,7 @@ public class DispatchQuery {
                     "(" +
                         "job.str_os IS NULL OR job.str_os = '' " +
                     "OR " +
-                        "job.str_os IN ? " +
+                        "job.str_os = ANY(?) " +
                     ") " +
                 "AND (CASE WHEN layer_stat.int_waiting_count > 0 THEN 1 ELSE NULL END) = 1 " +
                 "AND layer.int_cores_min            <= ? " +
@@ -134,7 +134,7 @@ public class DispatchQuery {
                     "(" +
                         "job.str_os IS NULL OR job.str_os = '' " +
                     "OR " +
-                        "job.str_os IN ? " +
+                        "job.str_os = ANY(?) " +
                     ") " +
                 "AND (CASE WHEN layer_stat.int_waiting_count > 0 THEN 1 ELSE NULL END) = 1 " +
                 "AND layer.int_cores_min            <= ? " +
@@ -146,26 +146,15 @@ public class DispatchQuery {
                 "AND job_resource.int_gpus + layer.int_gpus_min < job_resource.int_max_gpus " +
                 "AND host.str_tags ~* ('(?x)' || layer.str_tags || '\\y') " +
                 "AND host.str_name = ? " +
-                "AND layer.pk_layer IN (" +
+                "AND NOT EXISTS (" +
                     "SELECT " +
-                        "l.pk_layer " +
+                        "1 " +
                     "FROM " +
-                        "layer l " +
-                    "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
-                    "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                    "LEFT JOIN (" +
-                        "SELECT " +
-                            "limit_record.pk_limit_record, " +
-                            "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                        "FROM " +
-                            "layer_limit " +
-                        "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                        "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                        "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                    "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                        "layer_limit " +
                     "WHERE " +
-                        "sum_running.int_sum_running < limit_record.int_max_value " +
-                        "OR sum_running.int_sum_running IS NULL " +
+                        "layer_limit.pk_layer = layer.pk_layer " +
+                    "AND " +
+                        "layer_limit.pk_limit_record = ANY(?) " +
                 ") " +
         ") AS t1 WHERE rank < ?";
 
@@ -222,6 +211,57 @@ public class DispatchQuery {
     public static final String FIND_JOBS_BY_SHOW_FIFO_MODE = replaceQueryForFifo(FIND_JOBS_BY_SHOW_PRIORITY_MODE);
     public static final String FIND_JOBS_BY_GROUP_FIFO_MODE = replaceQueryForFifo(FIND_JOBS_BY_GROUP_PRIORITY_MODE);
 
+    /**
+     * The priority mode queries, also returning the cores each job is running so the jobs can be
+     * ordered by the core-seconds they are expected to use.
+     */
+    private static final String replaceQueryForRuntime(String query) {
+        return query
+            .replace(
+                "JOBS_BY",
+                "JOBS_RUNTIME_BY")
+            .replace(
+                "SELECT pk_job, int_priority, rank FROM ( ",
+                "SELECT pk_job, int_priority, int_cores, rank FROM ( ")
+            .replace(
+                "job_resource.int_priority FROM ",
+                "job_resource.int_priority, job_resource.int_cores FROM ");
+    }
+
+    public static final String FIND_JOBS_BY_SHOW_RUNTIME_MODE = replaceQueryForRuntime(FIND_JOBS_BY_SHOW_PRIORITY_MODE);
+    public static final String FIND_JOBS_BY_GROUP_RUNTIME_MODE = replaceQueryForRuntime(FIND_JOBS_BY_GROUP_PRIORITY_MODE);
+
+    /**
+     * The priority mode queries, keeping every candidate job once and bounded to the same number
+     * of jobs the fair-share tree keeps. The bound keeps the jobs of the groups running the fewest
+     * cores first, then the jobs running the fewest cores for their priority, which are the ones
+     * furthest below their share. The tree then orders the jobs by their actual deficits.
+     */
+    private static final String replaceQueryForFairShare(String query) {
+        return query
+            .replace(
+                "JOBS_BY",
+                "JOBS_FAIR_SHARE_BY")
+            .replace(
+                "SELECT pk_job, int_priority, rank FROM ( " +
+                "SELECT ROW_NUMBER() OVER (ORDER BY job_resource.int_priority DESC) AS rank, " +
+                "job.pk_job, job_resource.int_priority FROM ",
+                "SELECT pk_job, rank FROM ( " +
+                "SELECT ROW_NUMBER() OVER (ORDER BY " +
+                    "folder_cores, " +
+                    "CAST(int_cores AS NUMERIC) / GREATEST(int_priority, 1), " +
+                    "pk_job" +
+                ") AS rank, pk_job FROM ( " +
+                "SELECT DISTINCT job.pk_job, job_resource.int_priority, job_resource.int_cores, " +
+                "folder_resource.int_cores AS folder_cores FROM ")
+            .replace(
+                ") AS t1 WHERE rank < ?",
+                ") AS t0 ) AS t1 WHERE rank <= ?");
+    }
+
+    public static final String FIND_JOBS_BY_SHOW_FAIR_SHARE_MODE = replaceQueryForFairShare(FIND_JOBS_BY_SHOW_PRIORITY_MODE);
+    public static final String FIND_JOBS_BY_GROUP_FAIR_SHARE_MODE = replaceQueryForFairShare(FIND_JOBS_BY_GROUP_PRIORITY_MODE);
+
     /**
      * Dispatch a host in local booking mode.
      */
@@ -249,7 +289,7 @@ public class DispatchQuery {
             "AND " +
                 "job.pk_facility =  ? " +
             "AND " +
-                "(job.str_os IN ? OR job.str_os IS NULL) " +
+                "(job.str_os = ANY(?) OR job.str_os IS NULL) " +
             "AND " +
                 "job.pk_job IN ( " +
                     "SELECT " +
@@ -275,7 +315,7 @@ public class DispatchQuery {
                     "AND " +
                         "j.pk_facility = ? " +
                     "AND " +
-                        "(j.str_os IN ? OR j.str_os IS NULL) " +
+                        "(j.str_os = ANY(?) OR j.str_os IS NULL) " +
                     "AND " +
                         "(CASE WHEN lst.int_waiting_count > 0 THEN lst.pk_layer ELSE NULL END) = l.pk_layer " +
                     "AND " +
@@ -285,26 +325,15 @@ public class DispatchQuery {
                     "AND " +
                         "l.int_gpu_mem_min <= host_local.int_gpu_mem_idle " +
                     "AND " +
-                        "l.pk_layer IN (" +
+                        "NOT EXISTS (" +
                             "SELECT " +
-                                "la.pk_layer " +
+                                "1 " +
                             "FROM " +
-                                "layer la " +
-                            "LEFT JOIN layer_limit ON layer_limit.pk_layer = la.pk_layer " +
-                            "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                            "LEFT JOIN (" +
-                                "SELECT " +
-                                    "limit_record.pk_limit_record, " +
-                                    "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                                "FROM " +
-                                    "layer_limit " +
-                                "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                                "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                                "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                            "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                                "layer_limit " +
                             "WHERE " +
-                                "sum_running.int_sum_running < limit_record.int_max_value " +
-                                "OR sum_running.int_sum_running IS NULL " +
+                                "layer_limit.pk_layer = l.pk_layer " +
+                            "AND " +
+                                "layer_limit.pk_limit_record = ANY(?) " +
                         ") " +
                 ") " +
         ") AS t1 " +
@@ -391,26 +420,15 @@ public class DispatchQuery {
                 "AND " +
                     "h.str_name = ? " +
                 "AND " +
-                    "l.pk_layer IN (" +
+                    "NOT EXISTS (" +
                         "SELECT " +
-                            "la.pk_layer " +
+                            "1 " +
                         "FROM " +
-                            "layer la " +
-                        "LEFT JOIN layer_limit ON layer_limit.pk_layer = la.pk_layer " +
-                        "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                        "LEFT JOIN (" +
-                            "SELECT " +
-                                "limit_record.pk_limit_record, " +
-                                "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                            "FROM " +
-                                "layer_limit " +
-                            "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                            "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                            "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                        "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                            "layer_limit " +
                         "WHERE " +
-                            "sum_running.int_sum_running < limit_record.int_max_value " +
-                            "OR sum_running.int_sum_running IS NULL " +
+                            "layer_limit.pk_layer = l.pk_layer " +
+                        "AND " +
+                            "layer_limit.pk_limit_record = ANY(?) " +
                     ") " +
             ") " +
         "LIMIT 1";
@@ -494,26 +512,15 @@ public class DispatchQuery {
                     "AND " +
                         "h.str_name = ? " +
                     "AND " +
-                        "l.pk_layer IN (" +
+                        "NOT EXISTS (" +
                             "SELECT " +
-                                "la.pk_layer " +
+                                "1 " +
                             "FROM " +
-                                "layer la " +
-                            "LEFT JOIN layer_limit ON layer_limit.pk_layer = la.pk_layer " +
-                            "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                            "LEFT JOIN (" +
-                                "SELECT " +
-                                    "limit_record.pk_limit_record, " +
-                                    "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                                "FROM " +
-                                    "layer_limit " +
-                                "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                                "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                                "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                            "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                                "layer_limit " +
                             "WHERE " +
-                                "sum_running.int_sum_running < limit_record.int_max_value " +
-                                "OR sum_running.int_sum_running IS NULL " +
+                                "layer_limit.pk_layer = l.pk_layer " +
+                            "AND " +
+                                "layer_limit.pk_limit_record = ANY(?) " +
                         ") " +
                 ") " +
             "LIMIT 1";
@@ -618,23 +625,18 @@ public class DispatchQuery {
                 "FROM " +
                     "layer l " +
                 "JOIN host h ON (h.str_tags ~* ('(?x)' || l.str_tags || '\\y') AND h.str_name = ?) " +
-                "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
-                "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                "LEFT JOIN (" +
-                    "SELECT " +
-                        "limit_record.pk_limit_record, " +
-                        "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                    "FROM " +
-                        "layer_limit " +
-                    "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                    "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                    "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
                 "WHERE " +
                     "l.pk_job= ? " +
+            ") " +
+            "AND NOT EXISTS (" +
+                "SELECT " +
+                    "1 " +
+                "FROM " +
+                    "layer_limit " +
+                "WHERE " +
+                    "layer_limit.pk_layer = layer.pk_layer " +
                 "AND " +
-                    "sum_running.int_sum_running < limit_record.int_max_value " +
-                    "OR sum_running.int_sum_running IS NULL " +
+                    "layer_limit.pk_limit_record = ANY(?) " +
             ") " +
         ") AS t1 WHERE LINENUM <= ?";
 
@@ -709,23 +711,19 @@ public class DispatchQuery {
                     "FROM " +
                         "layer l " +
                     "JOIN host h ON (h.str_tags ~* ('(?x)' || l.str_tags || '\\y') AND h.str_name = ?) " +
-                    "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
-                    "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                    "LEFT JOIN (" +
-                        "SELECT " +
-                            "limit_record.pk_limit_record, " +
-                            "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                        "FROM " +
-                            "layer_limit " +
-                        "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                        "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                        "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                    "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
                     "WHERE " +
                         "l.pk_job = ? " +
+                ") " +
+            "AND " +
+                "NOT EXISTS (" +
+                    "SELECT " +
+                        "1 " +
+                    "FROM " +
+                        "layer_limit " +
+                    "WHERE " +
+                        "layer_limit.pk_layer = layer.pk_layer " +
                     "AND " +
-                        "sum_running.int_sum_running < limit_record.int_max_value " +
-                        "OR sum_running.int_sum_running IS NULL " +
+                        "layer_limit.pk_limit_record = ANY(?) " +
                 ") " +
         ") AS t1 WHERE LINENUM <= ?";
 
@@ -786,26 +784,15 @@ public class DispatchQuery {
             "AND " +
                 "job.pk_job=? " +
             "AND " +
-                "layer.pk_layer IN (" +
+                "NOT EXISTS (" +
                     "SELECT " +
-                        "la.pk_layer " +
+                        "1 " +
                     "FROM " +
-                        "layer la " +
-                    "LEFT JOIN layer_limit ON layer_limit.pk_layer = la.pk_layer " +
-                    "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                    "LEFT JOIN (" +
-                        "SELECT " +
-                            "limit_record.pk_limit_record, " +
-                            "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                        "FROM " +
-                            "layer_limit " +
-                        "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                        "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                        "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                    "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                        "layer_limit " +
                     "WHERE " +
-                        "sum_running.int_sum_running < limit_record.int_max_value " +
-                        "OR sum_running.int_sum_running IS NULL " +
+                        "layer_limit.pk_layer = layer.pk_layer " +
+                    "AND " +
+                        "layer_limit.pk_limit_record = ANY(?) " +
                 ") " +
         ") AS t1 WHERE LINENUM <= ?";
 
@@ -868,26 +855,15 @@ public class DispatchQuery {
             "AND " +
                 "job.pk_job=? " +
             "AND " +
-                "layer.pk_layer IN (" +
+                "NOT EXISTS (" +
                     "SELECT " +
-                        "la.pk_layer " +
+                        "1 " +
                     "FROM " +
-                        "layer la " +
-                    "LEFT JOIN layer_limit ON layer_limit.pk_layer = la.pk_layer " +
-                    "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                    "LEFT JOIN (" +
-                        "SELECT " +
-                            "limit_record.pk_limit_record, " +
-                            "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                        "FROM " +
-                            "layer_limit " +
-                        "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                        "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                        "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                    "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                        "layer_limit " +
                     "WHERE " +
-                        "sum_running.int_sum_running < limit_record.int_max_value " +
-                        "OR sum_running.int_sum_running IS NULL " +
+                        "layer_limit.pk_layer = layer.pk_layer " +
+                    "AND " +
+                        "layer_limit.pk_limit_record = ANY(?) " +
                 ") " +
         ") AS t1 WHERE LINENUM <= ?";
 
@@ -962,24 +938,19 @@ public class DispatchQuery {
                 "FROM " +
                     "layer l " +
                 "JOIN host h ON (h.str_tags ~* ('(?x)' || l.str_tags || '\\y') AND h.str_name = ?) " +
-                "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
-                "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                "LEFT JOIN (" +
-                    "SELECT " +
-                        "limit_record.pk_limit_record, " +
-                        "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                    "FROM " +
-                        "layer_limit " +
-                    "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                    "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                    "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
                 "WHERE " +
                     "l.pk_layer= ? " +
+            ") " +
+            "AND NOT EXISTS (" +
+                "SELECT " +
+                    "1 " +
+                "FROM " +
+                    "layer_limit " +
+                "WHERE " +
+                    "layer_limit.pk_layer = layer.pk_layer " +
                 "AND " +
-                    "sum_running.int_sum_running < limit_record.int_max_value " +
-                    "OR sum_running.int_sum_running IS NULL " +
-            ")" +
+                    "layer_limit.pk_limit_record = ANY(?) " +
+            ") " +
         ") WHERE LINENUM <= ?";
 
     /**
@@ -1053,23 +1024,19 @@ public class DispatchQuery {
                     "FROM " +
                         "layer l " +
                     "JOIN host h ON (h.str_tags ~* ('(?x)' || l.str_tags  || '\\y') AND h.str_name = ?) " +
-                    "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
-                    "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                    "LEFT JOIN (" +
-                        "SELECT " +
-                            "limit_record.pk_limit_record, " +
-                            "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                        "FROM " +
-                            "layer_limit " +
-                        "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                        "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                        "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                    "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
                     "WHERE " +
                         "l.pk_layer= ? " +
+                ") " +
+            "AND " +
+                "NOT EXISTS (" +
+                    "SELECT " +
+                        "1 " +
+                    "FROM " +
+                        "layer_limit " +
+                    "WHERE " +
+                        "layer_limit.pk_layer = layer.pk_layer " +
                     "AND " +
-                        "sum_running.int_sum_running < limit_record.int_max_value " +
-                        "OR sum_running.int_sum_running IS NULL " +
+                        "layer_limit.pk_limit_record = ANY(?) " +
                 ") " +
         ") WHERE LINENUM <= ?";
 
@@ -1130,26 +1097,15 @@ public class DispatchQuery {
             "AND " +
                 "layer.pk_layer = ? " +
             "AND " +
-                "layer.pk_layer IN (" +
+                "NOT EXISTS (" +
                     "SELECT " +
-                        "la.pk_layer " +
+                        "1 " +
                     "FROM " +
-                        "layer la " +
-                    "LEFT JOIN layer_limit ON layer_limit.pk_layer = la.pk_layer " +
-                    "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                    "LEFT JOIN (" +
-                        "SELECT " +
-                            "limit_record.pk_limit_record, " +
-                            "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                        "FROM " +
-                            "layer_limit " +
-                        "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                        "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                        "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                    "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                        "layer_limit " +
                     "WHERE " +
-                        "sum_running.int_sum_running < limit_record.int_max_value " +
-                        "OR sum_running.int_sum_running IS NULL " +
+                        "layer_limit.pk_layer = layer.pk_layer " +
+                    "AND " +
+                        "layer_limit.pk_limit_record = ANY(?) " +
                 ") " +
         ") AS t1 WHERE LINENUM <= ?";
 
@@ -1212,26 +1168,15 @@ public class DispatchQuery {
             "AND " +
                 "layer.pk_layer= ? " +
             "AND " +
-                "layer.pk_layer IN (" +
+                "NOT EXISTS (" +
                     "SELECT " +
-                        "la.pk_layer " +
+                        "1 " +
                     "FROM " +
-                        "layer la " +
-                    "LEFT JOIN layer_limit ON layer_limit.pk_layer = la.pk_layer " +
-                    "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
-                    "LEFT JOIN (" +
-                        "SELECT " +
-                            "limit_record.pk_limit_record, " +
-                            "SUM(layer_stat.int_running_count) AS int_sum_running " +
-                        "FROM " +
-                            "layer_limit " +
-                        "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
-                        "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
-                        "GROUP BY limit_record.pk_limit_record) AS sum_running " +
-                    "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                        "layer_limit " +
                     "WHERE " +
-                        "sum_running.int_sum_running < limit_record.int_max_value " +
-                        "OR sum_running.int_sum_running IS NULL " +
+                        "layer_limit.pk_layer = layer.pk_layer " +
+                    "AND " +
+                        "layer_limit.pk_limit_record = ANY(?) " +
                 ") " +
         ") AS t1 WHERE LINENUM <= ?";
 
@@ -1263,6 +1208,18 @@ public class DispatchQuery {
         "AND " +
             "s.int_cores < s.int_burst ";
 
+    /**
+     * The allocations hosts can be booked from, used to warm up the
+     * bookable shows cache.
+     */
+    public static final String FIND_ENABLED_ALLOCATIONS =
+        "SELECT " +
+            "pk_alloc " +
+        "FROM " +
+            "alloc " +
+        "WHERE " +
+            "b_enabled = true";
+
 }
 
 
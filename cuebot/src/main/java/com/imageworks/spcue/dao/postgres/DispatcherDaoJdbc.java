@@ -18,11 +18,13 @@ package com.imageworks.spcue.dao.postgres;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import static com.imageworks.spcue.dao.postgres.DispatchQuery.*;
+import static com.imageworks.spcue.util.SqlUtil.buildBindArray;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -35,6 +37,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 
 import com.imageworks.spcue.AllocationInterface;
@@ -49,6 +52,9 @@ import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.SortableShow;
 import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.dao.DispatcherDao;
+import com.imageworks.spcue.dispatcher.FairShareTree;
+import com.imageworks.spcue.dispatcher.JobRuntimeStats;
+import com.imageworks.spcue.dispatcher.LimitAccounting;
 import com.imageworks.spcue.grpc.host.ThreadMode;
 
 /**
@@ -60,16 +66,60 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
     private static final Logger logger = LogManager.getLogger(DispatcherDaoJdbc.class);
     private PrometheusMetricsCollector prometheusMetrics;
 
+    private LimitAccounting limitAccounting;
+
+    private JobRuntimeStats jobRuntimeStats;
+
+    private FairShareTree fairShareTree;
+
     public void setPrometheusMetrics(PrometheusMetricsCollector prometheusMetrics) {
         this.prometheusMetrics = prometheusMetrics;
     }
 
+    public void setLimitAccounting(LimitAccounting limitAccounting) {
+        this.limitAccounting = limitAccounting;
+    }
+
+    public void setJobRuntimeStats(JobRuntimeStats jobRuntimeStats) {
+        this.jobRuntimeStats = jobRuntimeStats;
+        jobRuntimeStats.setEnabled(schedulingMode == SchedulingMode.RUNTIME);
+    }
+
+    public void setFairShareTree(FairShareTree fairShareTree) {
+        this.fairShareTree = fairShareTree;
+        fairShareTree.setEnabled(schedulingMode == SchedulingMode.FAIR_SHARE);
+    }
+
     public static final RowMapper<String> PKJOB_MAPPER = new RowMapper<String>() {
         public String mapRow(ResultSet rs, int rowNum) throws SQLException {
             return rs.getString("pk_job");
         }
     };
 
+    /**
+     * A job found by the RUNTIME mode queries.
+     */
+    private static final class RankedJob {
+        private final String jobId;
+        private final int priority;
+        private final int cores;
+        private final int rank;
+
+        private RankedJob(String jobId, int priority, int cores, int rank) {
+            this.jobId = jobId;
+            this.priority = priority;
+            this.cores = cores;
+            this.rank = rank;
+        }
+    }
+
+    private static final RowMapper<RankedJob> RANKED_JOB_MAPPER = new RowMapper<RankedJob>() {
+        public RankedJob mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new RankedJob(rs.getString("pk_job"), rs.getInt("int_priority"),
+                    rs.getInt("int_cores"), rs.getInt("rank"));
+        }
+    };
+
     private static final RowMapper<SortableShow> SHOW_MAPPER = new RowMapper<SortableShow>() {
         public SortableShow mapRow(ResultSet rs, int rowNum) throws SQLException {
             return new SortableShow(rs.getString("pk_show"), rs.getString("str_show_name"),
@@ -142,6 +192,14 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         }
     }
 
+    /**
+     * Returns the limits that are full, bound to the dispatch queries to skip the layers under
+     * them.
+     */
+    private SqlTypeValue fullLimits() {
+        return buildBindArray(limitAccounting.getFullLimits());
+    }
+
     @Override
     public SchedulingMode getSchedulingMode() {
         return schedulingMode;
@@ -150,6 +208,12 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
     @Override
     public void setSchedulingMode(SchedulingMode schedulingMode) {
         this.schedulingMode = schedulingMode;
+        if (jobRuntimeStats != null) {
+            jobRuntimeStats.setEnabled(schedulingMode == SchedulingMode.RUNTIME);
+        }
+        if (fairShareTree != null) {
+            fairShareTree.setEnabled(schedulingMode == SchedulingMode.FAIR_SHARE);
+        }
     }
 
     /**
@@ -177,11 +241,6 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         return bookableShows.get(key).shows;
     }
 
-    private String handleInClause(String key, String query, int inValueLength) {
-        String placeholders = String.join(",", Collections.nCopies(inValueLength, "?"));
-        return query.replace(key + " IN ?", key + " IN (" + placeholders + ")");
-    }
-
     private Set<String> findDispatchJobs(DispatchHost host, int numJobs, boolean shuffleShows) {
         LinkedHashSet<String> result = new LinkedHashSet<String>();
         List<SortableShow> shows = new LinkedList<SortableShow>(getBookableShows(host));
@@ -240,16 +299,14 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
                     @Override
                     public PreparedStatement createPreparedStatement(Connection conn)
                             throws SQLException {
-                        String query = handleInClause("str_os", FIND_JOBS_BY_SHOW_NO_GPU,
-                                host.getOs().length);
-                        PreparedStatement find_jobs_stmt = conn.prepareStatement(query);
+                        PreparedStatement find_jobs_stmt =
+                                conn.prepareStatement(FIND_JOBS_BY_SHOW_NO_GPU);
 
                         int index = 1;
                         find_jobs_stmt.setString(index++, s.getShowId());
                         find_jobs_stmt.setString(index++, host.getFacilityId());
-                        for (String item : host.getOs()) {
-                            find_jobs_stmt.setString(index++, item);
-                        }
+                        find_jobs_stmt.setArray(index++,
+                                conn.createArrayOf("varchar", host.getOs()));
                         find_jobs_stmt.setInt(index++, host.idleCores);
                         find_jobs_stmt.setLong(index++, host.idleMemory);
                         find_jobs_stmt.setInt(index++, threadMode(host.threadMode));
@@ -261,19 +318,17 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
                 prometheusMetrics.setBookingDurationMetric("findDispatchJobs nogpu findByShowQuery",
                         System.currentTimeMillis() - lastTime);
             } else {
-                result.addAll(getJdbcTemplate().query(new PreparedStatementCreator() {
+                result.addAll(queryJobs(new PreparedStatementCreator() {
                     @Override
                     public PreparedStatement createPreparedStatement(Connection conn)
                             throws SQLException {
-                        String query =
-                                handleInClause("str_os", findByShowQuery(), host.getOs().length);
-                        PreparedStatement find_jobs_stmt = conn.prepareStatement(query);
+                        PreparedStatement find_jobs_stmt =
+                                conn.prepareStatement(findByShowQuery());
                         int index = 1;
                         find_jobs_stmt.setString(index++, s.getShowId());
                         find_jobs_stmt.setString(index++, host.getFacilityId());
-                        for (String item : host.getOs()) {
-                            find_jobs_stmt.setString(index++, item);
-                        }
+                        find_jobs_stmt.setArray(index++,
+                                conn.createArrayOf("varchar", host.getOs()));
                         find_jobs_stmt.setInt(index++, host.idleCores);
                         find_jobs_stmt.setLong(index++, host.idleMemory);
                         find_jobs_stmt.setInt(index++, threadMode(host.threadMode));
@@ -281,10 +336,14 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
                         find_jobs_stmt.setLong(index++, (host.idleGpuMemory > 0) ? 1 : 0);
                         find_jobs_stmt.setLong(index++, host.idleGpuMemory);
                         find_jobs_stmt.setString(index++, host.getName());
+                        if (schedulingMode != SchedulingMode.BALANCED) {
+                            find_jobs_stmt.setArray(index++, conn.createArrayOf("varchar",
+                                    limitAccounting.getFullLimits()));
+                        }
                         find_jobs_stmt.setInt(index++, numJobs * 10);
                         return find_jobs_stmt;
                     }
-                }, PKJOB_MAPPER));
+                }, host, numJobs * 10));
                 prometheusMetrics.setBookingDurationMetric("findDispatchJobs findByShowQuery",
                         System.currentTimeMillis() - lastTime);
             }
@@ -313,6 +372,10 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
                 return FIND_JOBS_BY_SHOW_FIFO_MODE;
             case BALANCED:
                 return FIND_JOBS_BY_SHOW;
+            case RUNTIME:
+                return FIND_JOBS_BY_SHOW_RUNTIME_MODE;
+            case FAIR_SHARE:
+                return FIND_JOBS_BY_SHOW_FAIR_SHARE_MODE;
             default:
                 return FIND_JOBS_BY_SHOW_PRIORITY_MODE;
         }
@@ -326,11 +389,68 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
                 return FIND_JOBS_BY_GROUP_FIFO_MODE;
             case BALANCED:
                 return FIND_JOBS_BY_GROUP_BALANCED_MODE;
+            case RUNTIME:
+                return FIND_JOBS_BY_GROUP_RUNTIME_MODE;
+            case FAIR_SHARE:
+                return FIND_JOBS_BY_GROUP_FAIR_SHARE_MODE;
             default:
                 return FIND_JOBS_BY_GROUP_PRIORITY_MODE;
         }
     }
 
+    /**
+     * Runs a find jobs query in the current scheduling mode. The FAIR_SHARE mode queries are
+     * bounded to the given limit, the fair-share tree orders the candidate jobs within it.
+     */
+    private List<String> queryJobs(PreparedStatementCreator query, DispatchHost host, int limit) {
+        switch (schedulingMode) {
+            case RUNTIME:
+                return orderByRuntime(getJdbcTemplate().query(query, RANKED_JOB_MAPPER), host);
+            case FAIR_SHARE:
+                return fairShareTree.order(getJdbcTemplate().query(query, PKJOB_MAPPER), limit);
+            default:
+                return getJdbcTemplate().query(query, PKJOB_MAPPER);
+        }
+    }
+
+    private List<String> queryJobs(String query, Object[] args, DispatchHost host, int limit) {
+        switch (schedulingMode) {
+            case RUNTIME:
+                return orderByRuntime(getJdbcTemplate().query(query, RANKED_JOB_MAPPER, args),
+                        host);
+            case FAIR_SHARE:
+                return fairShareTree.order(getJdbcTemplate().query(query, PKJOB_MAPPER, args),
+                        limit);
+            default:
+                return getJdbcTemplate().query(query, PKJOB_MAPPER, args);
+        }
+    }
+
+    /**
+     * Orders the jobs found in RUNTIME mode by priority, then by the core-seconds they are expected
+     * to keep using so jobs with short frames are not starved by jobs holding few cores for a long
+     * time. NIMBY hosts can be reclaimed at any time, so on them jobs with shorter frames come
+     * first within a priority.
+     */
+    private List<String> orderByRuntime(List<RankedJob> jobs, DispatchHost host) {
+        Comparator<RankedJob> order = Comparator.comparingInt((RankedJob job) -> -job.priority);
+        if (host.isNimby) {
+            order = order
+                    .thenComparingDouble(job -> jobRuntimeStats.getExpectedFrameSeconds(job.jobId));
+        }
+        order = order.thenComparingDouble(
+                job -> jobRuntimeStats.getExpectedCoreSeconds(job.jobId, job.cores))
+                .thenComparingInt(job -> job.rank);
+
+        List<RankedJob> sorted = new ArrayList<RankedJob>(jobs);
+        sorted.sort(order);
+        List<String> result = new ArrayList<String>(sorted.size());
+        for (RankedJob job : sorted) {
+            result.add(job.jobId);
+        }
+        return result;
+    }
+
     @Override
     public Set<String> findDispatchJobsForAllShows(DispatchHost host, int numJobs) {
         return findDispatchJobs(host, numJobs, true);
@@ -347,14 +467,12 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         long lastTime = System.currentTimeMillis();
 
         if (host.idleGpus == 0 && (schedulingMode == SchedulingMode.BALANCED)) {
-            String query = handleInClause("str_os", FIND_JOBS_BY_GROUP_NO_GPU, host.getOs().length);
+            String query = FIND_JOBS_BY_GROUP_NO_GPU;
             ArrayList<Object> args = new ArrayList<Object>();
 
             args.add(g.getGroupId());
             args.add(host.getFacilityId());
-            for (String item : host.getOs()) {
-                args.add(item);
-            }
+            args.add(buildBindArray(host.getOs()));
             args.add(host.idleCores);
             args.add(host.idleMemory);
             args.add(threadMode(host.threadMode));
@@ -364,14 +482,12 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
             prometheusMetrics.setBookingDurationMetric("findDispatchJobs by group nogpu query",
                     System.currentTimeMillis() - lastTime);
         } else {
-            String query = handleInClause("str_os", findByGroupQuery(), host.getOs().length);
+            String query = findByGroupQuery();
             ArrayList<Object> args = new ArrayList<Object>();
 
             args.add(g.getGroupId());
             args.add(host.getFacilityId());
-            for (String item : host.getOs()) {
-                args.add(item);
-            }
+            args.add(buildBindArray(host.getOs()));
             args.add(host.idleCores);
             args.add(host.idleMemory);
             args.add(threadMode(host.threadMode));
@@ -379,8 +495,11 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
             args.add(host.idleGpuMemory > 0 ? 1 : 0);
             args.add(host.idleGpuMemory);
             args.add(host.getName());
+            if (schedulingMode != SchedulingMode.BALANCED) {
+                args.add(fullLimits());
+            }
             args.add(50);
-            result.addAll(getJdbcTemplate().query(query, PKJOB_MAPPER, args.toArray()));
+            result.addAll(queryJobs(query, args.toArray(), host, 50));
             prometheusMetrics.setBookingDurationMetric("findDispatchJobs by group query",
                     System.currentTimeMillis() - lastTime);
         }
@@ -395,12 +514,12 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         if (proc.isLocalDispatch) {
             frames = getJdbcTemplate().query(FIND_LOCAL_DISPATCH_FRAME_BY_JOB_AND_PROC,
                     FrameDaoJdbc.DISPATCH_FRAME_MAPPER, proc.memoryReserved, proc.gpuMemoryReserved,
-                    job.getJobId(), limit);
+                    job.getJobId(), fullLimits(), limit);
         } else {
             frames = getJdbcTemplate().query(FIND_DISPATCH_FRAME_BY_JOB_AND_PROC,
                     FrameDaoJdbc.DISPATCH_FRAME_MAPPER, proc.coresReserved, proc.memoryReserved,
                     proc.gpusReserved, (proc.gpuMemoryReserved > 0) ? 1 : 0, proc.gpuMemoryReserved,
-                    job.getJobId(), proc.hostName, job.getJobId(), limit);
+                    job.getJobId(), proc.hostName, job.getJobId(), fullLimits(), limit);
         }
 
         prometheusMetrics.setBookingDurationMetric("findNextDispatchFrames by job and proc query",
@@ -418,13 +537,14 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         if (host.isLocalDispatch) {
             frames = getJdbcTemplate().query(FIND_LOCAL_DISPATCH_FRAME_BY_JOB_AND_HOST,
                     FrameDaoJdbc.DISPATCH_FRAME_MAPPER, host.idleMemory, host.idleGpuMemory,
-                    job.getJobId(), limit);
+                    job.getJobId(), fullLimits(), limit);
 
         } else {
             frames = getJdbcTemplate().query(FIND_DISPATCH_FRAME_BY_JOB_AND_HOST,
                     FrameDaoJdbc.DISPATCH_FRAME_MAPPER, host.idleCores, host.idleMemory,
                     threadMode(host.threadMode), host.idleGpus, (host.idleGpuMemory > 0) ? 1 : 0,
-                    host.idleGpuMemory, job.getJobId(), host.getName(), job.getJobId(), limit);
+                    host.idleGpuMemory, job.getJobId(), host.getName(), job.getJobId(),
+                    fullLimits(), limit);
         }
         prometheusMetrics.setBookingDurationMetric("findNextDispatchFrames by job and host query",
                 System.currentTimeMillis() - lastTime);
@@ -441,12 +561,12 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         if (proc.isLocalDispatch) {
             frames = getJdbcTemplate().query(FIND_LOCAL_DISPATCH_FRAME_BY_LAYER_AND_PROC,
                     FrameDaoJdbc.DISPATCH_FRAME_MAPPER, proc.memoryReserved, proc.gpuMemoryReserved,
-                    layer.getLayerId(), limit);
+                    layer.getLayerId(), fullLimits(), limit);
         } else {
             frames = getJdbcTemplate().query(FIND_DISPATCH_FRAME_BY_LAYER_AND_PROC,
                     FrameDaoJdbc.DISPATCH_FRAME_MAPPER, proc.coresReserved, proc.memoryReserved,
                     proc.gpusReserved, proc.gpuMemoryReserved, layer.getLayerId(),
-                    layer.getLayerId(), proc.hostName, limit);
+                    layer.getLayerId(), proc.hostName, fullLimits(), limit);
         }
 
         prometheusMetrics.setBookingDurationMetric("findNextDispatchFrames by layer and proc query",
@@ -464,13 +584,13 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         if (host.isLocalDispatch) {
             frames = getJdbcTemplate().query(FIND_LOCAL_DISPATCH_FRAME_BY_LAYER_AND_HOST,
                     FrameDaoJdbc.DISPATCH_FRAME_MAPPER, host.idleMemory, host.idleGpuMemory,
-                    layer.getLayerId(), limit);
+                    layer.getLayerId(), fullLimits(), limit);
 
         } else {
             frames = getJdbcTemplate().query(FIND_DISPATCH_FRAME_BY_LAYER_AND_HOST,
                     FrameDaoJdbc.DISPATCH_FRAME_MAPPER, host.idleCores, host.idleMemory,
                     threadMode(host.threadMode), host.idleGpus, host.idleGpuMemory,
-                    layer.getLayerId(), layer.getLayerId(), host.getName(), limit);
+                    layer.getLayerId(), layer.getLayerId(), host.getName(), fullLimits(), limit);
         }
 
         prometheusMetrics.setBookingDurationMetric("findNextDispatchFrames by layer and host query",
@@ -497,7 +617,7 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
                     Integer.class, excludeJob.getShowId(), proc.getFacilityId(), proc.os,
                     excludeJob.getShowId(), proc.getFacilityId(), proc.os, proc.coresReserved,
                     proc.memoryReserved, proc.gpusReserved, proc.gpuMemoryReserved,
-                    proc.hostName) > 0;
+                    proc.hostName, fullLimits()) > 0;
         } catch (org.springframework.dao.EmptyResultDataAccessException e) {
             return false;
         } finally {
@@ -513,7 +633,7 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
             return getJdbcTemplate().queryForObject(HIGHER_PRIORITY_JOB_BY_FACILITY_EXISTS,
                     Boolean.class, baseJob.priority, proc.getFacilityId(), proc.os,
                     proc.getFacilityId(), proc.os, proc.coresReserved, proc.memoryReserved,
-                    proc.gpusReserved, proc.gpuMemoryReserved, proc.hostName);
+                    proc.gpusReserved, proc.gpuMemoryReserved, proc.hostName, fullLimits());
         } catch (org.springframework.dao.EmptyResultDataAccessException e) {
             return false;
         } finally {
@@ -527,13 +647,11 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         LinkedHashSet<String> result = new LinkedHashSet<String>(numJobs);
         long start = System.currentTimeMillis();
         if (host.idleGpus == 0 && (schedulingMode == SchedulingMode.BALANCED)) {
-            String query = handleInClause("str_os", FIND_JOBS_BY_SHOW_NO_GPU, host.getOs().length);
+            String query = FIND_JOBS_BY_SHOW_NO_GPU;
             ArrayList<Object> args = new ArrayList<Object>();
             args.add(show.getShowId());
             args.add(host.getFacilityId());
-            for (String item : host.getOs()) {
-                args.add(item);
-            }
+            args.add(buildBindArray(host.getOs()));
             args.add(host.idleCores);
             args.add(host.idleMemory);
             args.add(threadMode(host.threadMode));
@@ -545,13 +663,11 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
             prometheusMetrics.setBookingDurationMetric("findDispatchJobs by show nogpu query",
                     System.currentTimeMillis() - start);
         } else {
-            String query = handleInClause("str_os", findByShowQuery(), host.getOs().length);
+            String query = findByShowQuery();
             ArrayList<Object> args = new ArrayList<Object>();
             args.add(show.getShowId());
             args.add(host.getFacilityId());
-            for (String item : host.getOs()) {
-                args.add(item);
-            }
+            args.add(buildBindArray(host.getOs()));
             args.add(host.idleCores);
             args.add(host.idleMemory);
             args.add(threadMode(host.threadMode));
@@ -559,6 +675,9 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
             args.add(host.idleGpuMemory > 0 ? 1 : 0);
             args.add(host.idleGpuMemory);
             args.add(host.getName());
+            if (schedulingMode != SchedulingMode.BALANCED) {
+                args.add(fullLimits());
+            }
             args.add(numJobs * 10);
 
             result.addAll(getJdbcTemplate().query(query, PKJOB_MAPPER, args.toArray()));
@@ -577,18 +696,15 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         LinkedHashSet<String> result = new LinkedHashSet<String>(5);
         long start = System.currentTimeMillis();
 
-        String query = handleInClause("str_os", FIND_JOBS_BY_LOCAL, host.getOs().length);
+        String query = FIND_JOBS_BY_LOCAL;
         ArrayList<Object> args = new ArrayList<Object>();
         args.add(host.getHostId());
         args.add(host.getFacilityId());
-        for (String item : host.getOs()) {
-            args.add(item);
-        }
+        args.add(buildBindArray(host.getOs()));
         args.add(host.getHostId());
         args.add(host.getFacilityId());
-        for (String item : host.getOs()) {
-            args.add(item);
-        }
+        args.add(buildBindArray(host.getOs()));
+        args.add(fullLimits());
 
         result.addAll(getJdbcTemplate().query(query, PKJOB_MAPPER, args.toArray()));
 
@@ -601,4 +717,15 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
     public void clearCache() {
         bookableShows.clear();
     }
+
+    @Override
+    public int preloadCache() {
+        List<String> allocIds =
+                getJdbcTemplate().queryForList(FIND_ENABLED_ALLOCATIONS, String.class);
+        for (String allocId : allocIds) {
+            bookableShows.put(allocId,
+                    new ShowCache(getJdbcTemplate().query(FIND_SHOWS, SHOW_MAPPER, allocId)));
+        }
+        return allocIds.size();
+    }
 }
@@ -15,15 +15,20 @@
 
 package com.imageworks.spcue.dao.postgres;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.sql.Timestamp;
 import java.util.Optional;
 
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 
@@ -132,18 +137,14 @@ public class FrameDaoJdbc extends JdbcDaoSupport implements FrameDao {
             + "int_gpus = ?, " + "int_gpu_mem_reserved = ?, " + "ts_updated = current_timestamp, "
             + "ts_started = current_timestamp, " + "ts_stopped = null, "
             + "int_version = int_version + 1 " + "WHERE " + "pk_frame = ? " + "AND "
-            + "str_state = ? " + "AND " + "int_version = ? " + "AND " + "frame.pk_layer IN ("
-            + "SELECT " + "layer.pk_layer " + "FROM " + "layer "
-            + "LEFT JOIN layer_limit ON layer_limit.pk_layer = layer.pk_layer "
-            + "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record "
-            + "LEFT JOIN (" + "SELECT " + "limit_record.pk_limit_record, "
-            + "SUM(layer_stat.int_running_count) AS int_sum_running " + "FROM " + "layer_limit "
-            + "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record "
-            + "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer "
-            + "GROUP BY limit_record.pk_limit_record) AS sum_running "
-            + "ON limit_record.pk_limit_record = sum_running.pk_limit_record " + "WHERE "
-            + "sum_running.int_sum_running < limit_record.int_max_value "
-            + "OR sum_running.int_sum_running IS NULL " + ")";
+            + "str_state = ? " + "AND " + "int_version = ? " + "AND " + "NOT EXISTS ("
+            + "SELECT " + "1 " + "FROM " + "layer_limit "
+            + "JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record "
+            + "WHERE " + "layer_limit.pk_layer = frame.pk_layer " + "AND "
+            + "limit_record.int_max_value <= (" + "SELECT "
+            + "COALESCE(SUM(layer_stat.int_running_count), 0) " + "FROM " + "layer_limit limited "
+            + "JOIN layer_stat ON layer_stat.pk_layer = limited.pk_layer " + "WHERE "
+            + "limited.pk_limit_record = layer_limit.pk_limit_record" + ")" + ")";
 
     private static final String UPDATE_FRAME_RETRIES =
             "UPDATE " + "frame " + "SET " + "int_retries = int_retries + 1 " + "WHERE "
@@ -185,6 +186,80 @@ public class FrameDaoJdbc extends JdbcDaoSupport implements FrameDao {
         }
     }
 
+    private static final String LOCK_FRAMES_FOR_UPDATE = "SELECT " + "pk_frame " + "FROM "
+            + "frame " + "WHERE " + "(pk_frame, int_version) IN (SELECT * FROM unnest(?, ?)) "
+            + "AND " + "str_state = ? " + "FOR UPDATE SKIP LOCKED";
+
+    @Override
+    public boolean[] updateFramesStarted(List<VirtualProc> procs,
+            List<? extends FrameInterface> frames) {
+
+        String[] frameIds = new String[frames.size()];
+        Integer[] versions = new Integer[frames.size()];
+        for (int i = 0; i < frames.size(); i++) {
+            frameIds[i] = frames.get(i).getFrameId();
+            versions[i] = frames.get(i).getVersion();
+        }
+
+        boolean[] started = new boolean[frames.size()];
+        try {
+            /*
+             * Frames locked by another thread are skipped rather than waited for, like the NOWAIT
+             * lock taken for a single frame.
+             */
+            Set<String> locked = new HashSet<String>(getJdbcTemplate().query(
+                    new PreparedStatementCreator() {
+                        @Override
+                        public PreparedStatement createPreparedStatement(Connection conn)
+                                throws SQLException {
+                            PreparedStatement stmt = conn.prepareStatement(LOCK_FRAMES_FOR_UPDATE);
+                            stmt.setArray(1, conn.createArrayOf("varchar", frameIds));
+                            stmt.setArray(2, conn.createArrayOf("int4", versions));
+                            stmt.setString(3, FrameState.WAITING.toString());
+                            return stmt;
+                        }
+                    }, (rs, rowNum) -> rs.getString("pk_frame")));
+
+            List<Integer> lockedIndexes = new ArrayList<Integer>(locked.size());
+            List<Object[]> startArgs = new ArrayList<Object[]>(locked.size());
+            for (int i = 0; i < frames.size(); i++) {
+                FrameInterface frame = frames.get(i);
+                if (!locked.contains(frame.getFrameId())) {
+                    continue;
+                }
+                VirtualProc proc = procs.get(i);
+                lockedIndexes.add(i);
+                startArgs.add(new Object[] {FrameState.RUNNING.toString(), proc.hostName,
+                        proc.coresReserved, proc.memoryReserved, proc.gpusReserved,
+                        proc.gpuMemoryReserved, frame.getFrameId(), FrameState.WAITING.toString(),
+                        frame.getVersion()});
+            }
+            if (startArgs.isEmpty()) {
+                return started;
+            }
+
+            int[] results = getJdbcTemplate().batchUpdate(UPDATE_FRAME_STARTED, startArgs);
+            List<Object[]> retryArgs = new ArrayList<Object[]>(results.length);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == 0) {
+                    continue;
+                }
+                int index = lockedIndexes.get(i);
+                started[index] = true;
+                retryArgs.add(new Object[] {frames.get(index).getFrameId(), -1,
+                        FrameExitStatus.SKIP_RETRY_VALUE, FrameExitStatus.FAILED_LAUNCH_VALUE,
+                        Dispatcher.EXIT_STATUS_FRAME_CLEARED, Dispatcher.EXIT_STATUS_FRAME_ORPHAN,
+                        Dispatcher.EXIT_STATUS_FAILED_KILL, Dispatcher.EXIT_STATUS_DOWN_HOST});
+            }
+            if (!retryArgs.isEmpty()) {
+                getJdbcTemplate().batchUpdate(UPDATE_FRAME_RETRIES, retryArgs);
+            }
+        } catch (DataAccessException e) {
+            throw new FrameReservationException(e.getCause());
+        }
+        return started;
+    }
+
     private static final String UPDATE_FRAME_FIXED =
             "UPDATE " + "frame " + "SET " + "str_state = ?," + "str_host=?, " + "int_cores=?, "
                     + "int_mem_reserved = ?, " + "int_gpus = ?, " + "int_gpu_mem_reserved = ?, "
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -30,6 +31,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 
@@ -45,6 +47,7 @@ import com.imageworks.spcue.GroupInterface;
 import com.imageworks.spcue.Inherit;
 import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.JobShare;
 import com.imageworks.spcue.ResourceUsage;
 import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.TaskEntity;
@@ -613,6 +616,79 @@ public class JobDaoJdbc extends JdbcDaoSupport implements JobDao {
                 }, job.getJobId());
     }
 
+    private static final String GET_AVERAGE_FRAME_SECONDS = "SELECT " + "job.pk_job, "
+            + "job_usage.int_clock_time_success, " + "job_usage.int_frame_success_count "
+            + "FROM " + "job, " + "job_usage " + "WHERE " + "job.pk_job = job_usage.pk_job "
+            + "AND " + "job.str_state = 'PENDING' " + "AND "
+            + "job_usage.int_frame_success_count > 0";
+
+    @Override
+    public Map<String, Double> getAverageFrameSeconds() {
+        Map<String, Double> result = new HashMap<String, Double>();
+        getJdbcTemplate().query(GET_AVERAGE_FRAME_SECONDS,
+                (RowCallbackHandler) rs -> result.put(rs.getString("pk_job"),
+                        rs.getDouble("int_clock_time_success")
+                                / rs.getInt("int_frame_success_count")));
+        return result;
+    }
+
+    private static final String GET_JOB_SHARES = "SELECT " + "job.pk_job, " + "job.pk_folder, "
+            + "job.pk_show, " + "job_resource.int_priority, " + "job_resource.int_cores, "
+            + "job_resource.int_min_cores, " + "job_resource.int_max_cores, "
+            + "folder_resource.int_cores AS int_folder_cores, "
+            + "folder_resource.int_min_cores AS int_folder_min_cores, "
+            + "folder_resource.int_max_cores AS int_folder_max_cores " + "FROM " + "job, "
+            + "job_resource, " + "folder_resource " + "WHERE "
+            + "job.pk_job = job_resource.pk_job " + "AND "
+            + "job.pk_folder = folder_resource.pk_folder " + "AND "
+            + "job.str_state = 'PENDING'";
+
+    public static final RowMapper<JobShare> JOB_SHARE_MAPPER = new RowMapper<JobShare>() {
+        public JobShare mapRow(ResultSet rs, int rowNum) throws SQLException {
+            JobShare share = new JobShare();
+            share.jobId = rs.getString("pk_job");
+            share.folderId = rs.getString("pk_folder");
+            share.showId = rs.getString("pk_show");
+            share.priority = rs.getInt("int_priority");
+            share.cores = rs.getInt("int_cores");
+            share.minCores = rs.getInt("int_min_cores");
+            share.maxCores = rs.getInt("int_max_cores");
+            share.folderCores = rs.getInt("int_folder_cores");
+            share.folderMinCores = rs.getInt("int_folder_min_cores");
+            share.folderMaxCores = rs.getInt("int_folder_max_cores");
+            return share;
+        }
+    };
+
+    @Override
+    public List<JobShare> getJobShares() {
+        return getJdbcTemplate().query(GET_JOB_SHARES, JOB_SHARE_MAPPER);
+    }
+
+    private static final String GET_MIN_CORES_DEFICITS = "SELECT " + "job.pk_job, "
+            + "job_resource.int_min_cores - job_resource.int_cores "
+            + "- COALESCE(redirected.int_cores, 0) AS int_deficit " + "FROM " + "job "
+            + "JOIN job_resource ON job.pk_job = job_resource.pk_job "
+            + "JOIN job_stat ON job.pk_job = job_stat.pk_job " + "LEFT JOIN (" + "SELECT "
+            + "str_redirect, " + "SUM(int_cores_reserved) AS int_cores " + "FROM " + "proc "
+            + "WHERE " + "str_redirect IS NOT NULL " + "GROUP BY " + "str_redirect"
+            + ") AS redirected ON redirected.str_redirect = job.str_name " + "WHERE "
+            + "job.str_state = 'PENDING' " + "AND " + "job.b_paused = false " + "AND "
+            + "job_stat.int_waiting_count > 0 " + "AND "
+            + "job_resource.int_min_cores - job_resource.int_cores "
+            + "- COALESCE(redirected.int_cores, 0) >= 100 " + "ORDER BY "
+            + "job_resource.int_priority DESC, " + "int_deficit DESC " + "LIMIT ?";
+
+    @Override
+    public Map<String, Integer> getMinCoresDeficits(int limit) {
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        getJdbcTemplate().query(GET_MIN_CORES_DEFICITS,
+                (RowCallbackHandler) rs -> result.put(rs.getString("pk_job"),
+                        rs.getInt("int_deficit")),
+                limit);
+        return result;
+    }
+
     private static final String INSERT_JOB_ENV = "INSERT INTO " + "job_env " + "("
             + "pk_job_env, pk_job, str_key, str_value " + ") " + "VALUES (?,?,?,?)";
 
@@ -17,6 +17,7 @@ package com.imageworks.spcue.dao.postgres;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -39,6 +40,7 @@ import com.imageworks.spcue.JobInterface;
 import com.imageworks.spcue.LayerDetail;
 import com.imageworks.spcue.LayerEntity;
 import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.LayerSettings;
 import com.imageworks.spcue.LimitEntity;
 import com.imageworks.spcue.ResourceUsage;
 import com.imageworks.spcue.ThreadStats;
@@ -48,6 +50,7 @@ import com.imageworks.spcue.grpc.job.JobState;
 import com.imageworks.spcue.grpc.job.LayerType;
 import com.imageworks.spcue.util.CueUtil;
 import com.imageworks.spcue.util.SqlUtil;
+import com.imageworks.spcue.util.StreamingQuantile;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -158,6 +161,7 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
             layer.services.addAll(Lists.newArrayList(rs.getString("str_services").split(",")));
             layer.timeout = rs.getInt("int_timeout");
             layer.timeout_llu = rs.getInt("int_timeout_llu");
+            layer.gangSize = rs.getInt("int_gang_size");
             return layer;
         }
     };
@@ -194,6 +198,31 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
         return layerDetail;
     }
 
+    private static final String GET_LAYER_SETTINGS = "SELECT " + "pk_layer, " + "pk_job, "
+            + "str_type, " + "int_timeout, " + "int_timeout_llu, " + "int_mem_min, "
+            + "int_gpu_mem_min, " + "b_threadable, " + "str_services, " + "str_tags, "
+            + "int_gang_size " + "FROM " + "layer " + "WHERE " + "pk_layer = ?";
+
+    private static final RowMapper<LayerSettings> LAYER_SETTINGS_MAPPER =
+            new RowMapper<LayerSettings>() {
+                public LayerSettings mapRow(ResultSet rs, int rowNum) throws SQLException {
+                    return new LayerSettings(rs.getString("pk_layer"), rs.getString("pk_job"),
+                            LayerType.valueOf(rs.getString("str_type")), rs.getInt("int_timeout"),
+                            rs.getInt("int_timeout_llu"), rs.getLong("int_mem_min"),
+                            rs.getLong("int_gpu_mem_min"), rs.getBoolean("b_threadable"),
+                            Sets.newLinkedHashSet(
+                                    Arrays.asList(rs.getString("str_services").split(","))),
+                            Sets.newLinkedHashSet(Arrays.asList(
+                                    rs.getString("str_tags").replaceAll(" ", "").split("\\|"))),
+                            rs.getInt("int_gang_size"));
+                }
+            };
+
+    @Override
+    public LayerSettings getLayerSettings(String id) {
+        return getJdbcTemplate().queryForObject(GET_LAYER_SETTINGS, LAYER_SETTINGS_MAPPER, id);
+    }
+
     @Override
     public LayerDetail findLayerDetail(JobInterface job, String name) {
         LayerDetail layerDetail = getJdbcTemplate().queryForObject(
@@ -241,7 +270,8 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
             + "int_dispatch_order, " + "str_tags, " + "str_type," + "int_cores_min, "
             + "int_cores_max, " + "b_threadable, " + "int_mem_min, " + "int_gpus_min, "
             + "int_gpus_max, " + "int_gpu_mem_min, " + "str_services, " + "int_timeout,"
-            + "int_timeout_llu " + ") " + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+            + "int_timeout_llu, " + "int_gang_size " + ") "
+            + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
     @Override
     public void insertLayerDetail(LayerDetail l) {
@@ -250,7 +280,7 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
                 l.chunkSize, l.dispatchOrder, StringUtils.join(l.tags, " | "), l.type.toString(),
                 l.minimumCores, l.maximumCores, l.isThreadable, l.minimumMemory, l.minimumGpus,
                 l.maximumGpus, l.minimumGpuMemory, StringUtils.join(l.services, ","), l.timeout,
-                l.timeout_llu);
+                l.timeout_llu, l.gangSize);
     }
 
     @Override
@@ -300,6 +330,50 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
         return result;
     }
 
+    private static final String UPDATE_MEM_MIN_ESTIMATE =
+            "UPDATE " + "layer " + "SET " + "int_mem_min = ? " + "WHERE " + "pk_layer = ? "
+                    + "AND " + "int_mem_min != ? " + "AND " + "b_optimize = true";
+
+    @Override
+    public boolean updateLayerMinMemoryEstimate(LayerInterface layer, long estimate) {
+        long memMin = Math.max(estimate + CueUtil.MB256, MEM_RESERVED_MIN);
+        boolean result = getJdbcTemplate().update(UPDATE_MEM_MIN_ESTIMATE, memMin,
+                layer.getLayerId(), memMin) == 1;
+        if (result) {
+            logger.info(layer.getName() + " min memory was estimated at " + memMin);
+        }
+        return result;
+    }
+
+    @Override
+    public StreamingQuantile getMemoryEstimate(LayerInterface layer, double quantile) {
+        List<String> states = getJdbcTemplate().queryForList(
+                "SELECT str_state FROM layer_mem_estimate WHERE pk_layer=?", String.class,
+                layer.getLayerId());
+        return StreamingQuantile.decode(quantile, states.isEmpty() ? null : states.get(0));
+    }
+
+    private static final String UPSERT_MEM_ESTIMATE = "INSERT INTO " + "layer_mem_estimate "
+            + "(" + "pk_layer, " + "int_samples, " + "int_mem_estimate, " + "str_state" + ") "
+            + "SELECT " + "?, ?, ?, ? " + "WHERE EXISTS "
+            + "(SELECT 1 FROM layer WHERE pk_layer = ?) " + "ON CONFLICT (pk_layer) "
+            + "DO UPDATE SET " + "int_samples = EXCLUDED.int_samples, "
+            + "int_mem_estimate = EXCLUDED.int_mem_estimate, " + "str_state = EXCLUDED.str_state, "
+            + "ts_updated = current_timestamp";
+
+    @Override
+    public void updateMemoryEstimates(Map<String, StreamingQuantile> estimates) {
+        List<Object[]> batch = new ArrayList<>(estimates.size());
+        for (Map.Entry<String, StreamingQuantile> entry : estimates.entrySet()) {
+            StreamingQuantile estimate = entry.getValue();
+            synchronized (estimate) {
+                batch.add(new Object[] {entry.getKey(), estimate.getCount(),
+                        (long) estimate.get(), estimate.encode(), entry.getKey()});
+            }
+        }
+        getJdbcTemplate().batchUpdate(UPSERT_MEM_ESTIMATE, batch);
+    }
+
     @Override
     public void increaseLayerMinMemory(LayerInterface layer, long val) {
         getJdbcTemplate().update(
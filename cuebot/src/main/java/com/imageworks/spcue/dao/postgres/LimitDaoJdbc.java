@@ -17,6 +17,7 @@ package com.imageworks.spcue.dao.postgres;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
@@ -70,6 +71,12 @@ public class LimitDaoJdbc extends JdbcDaoSupport implements LimitDao {
         return getJdbcTemplate().queryForObject(getLimitQuery, LIMIT_MAPPER, id);
     }
 
+    @Override
+    public List<LimitEntity> getLimits() {
+        return getJdbcTemplate().query(GET_LIMIT_BASE + "GROUP BY " + "limit_record.str_name, "
+                + "limit_record.pk_limit_record, " + "limit_record.int_max_value", LIMIT_MAPPER);
+    }
+
     @Override
     public void setLimitName(LimitInterface limit, String name) {
         getJdbcTemplate().update("UPDATE " + "limit_record " + "SET " + "str_name = ? " + "WHERE "
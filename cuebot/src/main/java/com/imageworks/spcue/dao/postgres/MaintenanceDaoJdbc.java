@@ -15,8 +15,22 @@
 
 package com.imageworks.spcue.dao.postgres;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 
+import com.imageworks.spcue.MaintenanceLease;
 import com.imageworks.spcue.MaintenanceTask;
 import com.imageworks.spcue.dao.MaintenanceDao;
 import com.imageworks.spcue.grpc.host.HardwareState;
@@ -55,4 +69,79 @@ public class MaintenanceDaoJdbc extends JdbcDaoSupport implements MaintenanceDao
         getJdbcTemplate().update("UPDATE task_lock SET int_lock = 0 WHERE str_name=?",
                 task.toString());
     }
+
+    private static final String NEXT_FENCE = "INSERT INTO maintenance_lease ("
+            + "str_task, int_shard, int_fence" + ") VALUES (?, ?, 1) "
+            + "ON CONFLICT (str_task, int_shard) " + "DO UPDATE SET "
+            + "int_fence = maintenance_lease.int_fence + 1, "
+            + "ts_acquired = current_timestamp " + "RETURNING int_fence";
+
+    public boolean runLocked(MaintenanceTask task, int shardCount,
+            Consumer<MaintenanceLease> work) {
+        // The locks are taken on a single connection, held until the work is done
+        return getJdbcTemplate().execute((ConnectionCallback<Boolean>) conn -> {
+            int lockClass = task.toString().hashCode();
+            Set<Integer> locked = new HashSet<>();
+            Map<Integer, Long> fences = new HashMap<>();
+            try {
+                int offset = ThreadLocalRandom.current().nextInt(shardCount);
+                for (int i = 0; i < shardCount; i++) {
+                    int shard = (offset + i) % shardCount;
+                    if (advisoryLock(conn, "SELECT pg_try_advisory_lock(?, ?)", lockClass,
+                            shard)) {
+                        locked.add(shard);
+                        fences.put(shard, nextFence(conn, task, shard));
+                    }
+                }
+                if (locked.isEmpty()) {
+                    return false;
+                }
+                work.accept(new MaintenanceLease(shardCount, new HashSet<>(locked),
+                        () -> isFenceCurrent(task, fences)));
+                return true;
+            } finally {
+                for (int shard : locked) {
+                    advisoryLock(conn, "SELECT pg_advisory_unlock(?, ?)", lockClass, shard);
+                }
+            }
+        });
+    }
+
+    private static boolean advisoryLock(Connection conn, String sql, int lockClass, int shard)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, lockClass);
+            stmt.setInt(2, shard);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static long nextFence(Connection conn, MaintenanceTask task, int shard)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(NEXT_FENCE)) {
+            stmt.setString(1, task.toString());
+            stmt.setInt(2, shard);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private boolean isFenceCurrent(MaintenanceTask task, Map<Integer, Long> fences) {
+        Map<Integer, Long> current = new HashMap<>();
+        getJdbcTemplate().query(
+                "SELECT int_shard, int_fence FROM maintenance_lease WHERE str_task = ?",
+                (RowCallbackHandler) rs -> current.put(rs.getInt("int_shard"),
+                        rs.getLong("int_fence")),
+                task.toString());
+        for (Map.Entry<Integer, Long> entry : fences.entrySet()) {
+            if (!entry.getValue().equals(current.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -20,9 +20,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
@@ -127,6 +128,50 @@ public class ProcDaoJdbc extends JdbcDaoSupport implements ProcDao {
         }
     }
 
+    @Override
+    public void insertVirtualProcs(List<VirtualProc> procs) {
+        long memReservedMin =
+                env.getRequiredProperty("dispatcher.memory.mem_reserved_min", Long.class);
+        long memGpuReservedMin =
+                env.getRequiredProperty("dispatcher.memory.mem_gpu_reserved_min", Long.class);
+        // The ids are only set on the procs once they are inserted, so the procs of a batch
+        // that fails can still be booked one at a time as new procs
+        String[] ids = new String[procs.size()];
+        List<Object[]> batchArgs = new ArrayList<Object[]>(procs.size());
+        for (int i = 0; i < procs.size(); i++) {
+            VirtualProc proc = procs.get(i);
+            ids[i] = SqlUtil.genKeyRandom();
+            batchArgs.add(new Object[] {ids[i], proc.getHostId(), proc.getShowId(),
+                    proc.getLayerId(), proc.getJobId(), proc.getFrameId(), proc.coresReserved,
+                    proc.memoryReserved, proc.memoryReserved, memReservedMin, proc.gpusReserved,
+                    proc.gpuMemoryReserved, proc.gpuMemoryReserved, memGpuReservedMin,
+                    proc.isLocalDispatch});
+        }
+
+        int[] results;
+        try {
+            results = getJdbcTemplate().batchUpdate(INSERT_VIRTUAL_PROC, batchArgs);
+            procsCreated(procs);
+        } catch (org.springframework.dao.DataIntegrityViolationException d) {
+            throw new ResourceDuplicationFailureException(
+                    "One of " + procs.size() + " frames is already assigned to a proc.");
+        } catch (Exception e) {
+            String msg = "unable to book a batch of " + procs.size() + " procs, " + e;
+            throw new ResourceReservationFailureException(msg, e);
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == 0) {
+                String msg = "unable to book proc " + ids[i]
+                        + " the insert query succeeded but returned 0";
+                throw new ResourceReservationFailureException(msg);
+            }
+        }
+        for (int i = 0; i < procs.size(); i++) {
+            procs.get(i).id = ids[i];
+        }
+    }
+
     private static final String UPDATE_VIRTUAL_PROC_ASSIGN =
             "UPDATE " + "proc " + "SET " + "pk_show = ?, " + "pk_job = ?, " + "pk_layer = ?, "
                     + "pk_frame = ?, " + "int_mem_used = 0, " + "int_mem_max_used = 0, "
@@ -315,6 +360,37 @@ public class ProcDaoJdbc extends JdbcDaoSupport implements ProcDao {
                 VIRTUAL_PROC_MAPPER, job.getJobId());
     }
 
+    /*
+     * Only the most recently booked proc of each job is a candidate, so a single low priority job
+     * with many procs does not use up the limit.
+     */
+    private static final String FIND_PREEMPTIBLE_PROCS = "SELECT " + "* " + "FROM " + "("
+            + "SELECT DISTINCT ON (proc.pk_job) " + "proc.*, " + "host.str_name AS host_name, "
+            + "host.pk_alloc, " + "COALESCE(job.str_os, '') AS str_os, " + "alloc.pk_facility, "
+            + "job_resource.int_priority AS int_job_priority " + "FROM " + "proc, " + "frame, "
+            + "host, " + "host_stat, " + "alloc, " + "job, " + "job_resource, "
+            + "job_resource target " + "WHERE " + "proc.pk_host = host.pk_host " + "AND "
+            + "host.pk_alloc = alloc.pk_alloc " + "AND " + "host.pk_host = host_stat.pk_host "
+            + "AND " + "proc.pk_job = job.pk_job " + "AND " + "proc.pk_frame = frame.pk_frame "
+            + "AND " + "job.pk_job = job_resource.pk_job " + "AND " + "target.pk_job = ? "
+            + "AND " + "proc.pk_job != target.pk_job " + "AND " + "proc.pk_job != ALL(?) "
+            + "AND " + "proc.pk_show = ? " + "AND " + "alloc.pk_facility = ? " + "AND "
+            + "host_stat.str_state = 'UP' " + "AND " + "proc.b_unbooked = false " + "AND "
+            + "proc.b_local = false " + "AND " + "job.b_auto_unbook = true " + "AND "
+            + "job_resource.int_priority <= target.int_priority " + "AND "
+            + "job_resource.int_cores - proc.int_cores_reserved >= job_resource.int_min_cores "
+            + "AND " + "(frame.str_checkpoint_state = 'ENABLED') = ? " + "ORDER BY "
+            + "proc.pk_job, " + "proc.ts_booked DESC" + ") AS preemptible " + "ORDER BY "
+            + "int_job_priority ASC, " + "ts_booked DESC " + "LIMIT ?";
+
+    @Override
+    public List<VirtualProc> findPreemptibleProcs(JobInterface job, boolean checkpointing,
+            Collection<String> excludedJobIds, int limit) {
+        return getJdbcTemplate().query(FIND_PREEMPTIBLE_PROCS, VIRTUAL_PROC_MAPPER,
+                job.getJobId(), SqlUtil.buildBindArray(excludedJobIds.toArray(new String[0])),
+                job.getShowId(), job.getFacilityId(), checkpointing, limit);
+    }
+
     private static final String FIND_VIRTUAL_PROCS_LJA = GET_VIRTUAL_PROC_LIST
             + "AND proc.pk_job=( " + "SELECT pk_job FROM host_local WHERE pk_host_local = ?) "
             + "AND proc.pk_host=(" + "SELECT pk_host FROM host_local WHERE pk_host_local = ?) ";
@@ -434,87 +510,51 @@ public class ProcDaoJdbc extends JdbcDaoSupport implements ProcDao {
                 proc.getProcId());
     }
 
-    private static final String FIND_UNDERUTILIZED_PROCS = "SELECT " + "proc.pk_proc,"
-            + "proc.int_mem_reserved - layer_mem.int_max_rss AS free_mem " + "FROM " + "proc,"
-            + "host, " + "layer_mem " + "WHERE " + "proc.pk_host = host.pk_host " + "AND "
-            + "proc.pk_layer = layer_mem.pk_layer " + "AND " + "layer_mem.int_max_rss > 0 " + "AND "
-            + "host.pk_host = ? " + "AND " + "proc.pk_proc != ? " + "AND "
-            + "proc.int_mem_reserved - layer_mem.int_max_rss > 0";
-
-    public boolean balanceUnderUtilizedProcs(ProcInterface targetProc, long targetMem) {
-
-        List<Map<String, Object>> result = getJdbcTemplate().queryForList(FIND_UNDERUTILIZED_PROCS,
-                targetProc.getHostId(), targetProc.getProcId());
-
-        if (result.size() == 0) {
-            logger.info("unable to find under utilized procs on host " + targetProc.getName());
-            return false;
-        }
-
-        final Map<String, Long> borrowMap = new HashMap<String, Long>(result.size());
-        for (Map<String, Object> map : result) {
-            logger.info("creating borrow map for: " + (String) map.get("pk_proc"));
-            borrowMap.put((String) map.get("pk_proc"), 0l);
-        }
-
-        long memBorrowedTotal = 0l;
-        int pass = 0;
-        int maxPasses = 3;
-
-        while (true) {
-            // the amount of memory we're going to borrow per frame/proc
-            long memPerFrame = ((targetMem - memBorrowedTotal) / result.size()) + 1;
-
-            // loop through all of our other running frames and try to borrow
-            // a little bit of memory from each one.
-            for (Map<String, Object> map : result) {
-                String pk_proc = (String) map.get("pk_proc");
-                Long free_mem = (Long) map.get("free_mem");
-                long memReservedMin =
-                        env.getRequiredProperty("dispatcher.memory.mem_reserved_min", Long.class);
-                long available = free_mem - borrowMap.get(pk_proc) - memReservedMin;
-                if (available > memPerFrame) {
-                    borrowMap.put(pk_proc, borrowMap.get(pk_proc) + memPerFrame);
-                    memBorrowedTotal = memBorrowedTotal + memPerFrame;
-                }
-            }
-            pass++;
-
-            // If we were unable to borrow anything, just break
-            if (memBorrowedTotal == 0) {
-                break;
-            }
-            // If we got the memory we needed, break
-            if (memBorrowedTotal >= targetMem) {
-                break;
-            }
-            // If we've exceeded the number of tries in this loop, break
-            if (pass >= maxPasses) {
-                break;
-            }
-        }
-
-        logger.info("attempted to borrow " + targetMem + " for host " + targetProc.getName()
-                + ", obtained " + memBorrowedTotal);
-
-        if (memBorrowedTotal < targetMem) {
-            logger.info("mem borrowed " + memBorrowedTotal + " was less than the target memory of "
-                    + targetMem);
-            return false;
-        }
-
-        /*
-         * This might fail... I'm not really sure if we should fail the whole operation or what.
-         * Just gonna let it ride for now.
-         */
-        for (Map.Entry<String, Long> set : borrowMap.entrySet()) {
-            int success = getJdbcTemplate().update(
-                    "UPDATE proc SET int_mem_reserved = int_mem_reserved - ? WHERE pk_proc=?",
-                    set.getValue(), set.getKey());
-            logger.info("transfering " + (set.getValue() * success) + " from " + set.getKey());
+    /**
+     * Moves reserved memory from the procs of a host that reserve more than their layer uses to a
+     * target proc, in one statement. Every proc on the host is locked first, in a fixed order, so
+     * concurrent rebalances on the same host wait for each other instead of deadlocking. Each donor
+     * gives a share of the target memory proportional to its slack, the memory it reserves beyond
+     * its layer's max RSS and the minimum reservation, rounded up, and the target gets the sum of
+     * the shares. Nothing moves unless the donors have enough slack between them.
+     */
+    private static final String BALANCE_UNDERUTILIZED_PROCS = "WITH locked AS ("
+            + "SELECT proc.pk_proc, "
+            + "proc.int_mem_reserved - COALESCE(layer_mem.int_max_rss, 0) - ? AS slack, "
+            + "COALESCE(layer_mem.int_max_rss, 0) AS int_max_rss " + "FROM proc "
+            + "LEFT JOIN layer_mem ON proc.pk_layer = layer_mem.pk_layer "
+            + "WHERE proc.pk_host = ? " + "ORDER BY proc.pk_proc " + "FOR UPDATE OF proc), "
+            + "donor AS (" + "SELECT pk_proc, slack " + "FROM locked "
+            + "WHERE pk_proc != ? AND int_max_rss > 0 AND slack > 0), "
+            + "total AS (SELECT SUM(slack) AS slack FROM donor), " + "share AS ("
+            + "SELECT donor.pk_proc, "
+            + "CEIL(donor.slack * ?::numeric / total.slack)::bigint AS amount "
+            + "FROM donor, total " + "WHERE total.slack >= ?), " + "taken AS ("
+            + "UPDATE proc SET int_mem_reserved = proc.int_mem_reserved - share.amount "
+            + "FROM share " + "WHERE proc.pk_proc = share.pk_proc "
+            + "RETURNING share.amount), " + "granted AS ("
+            + "UPDATE proc SET int_mem_reserved = int_mem_reserved + "
+            + "(SELECT SUM(amount) FROM taken) " + "WHERE pk_proc = ? "
+            + "AND (SELECT COALESCE(SUM(amount), 0) FROM taken) >= ? " + "RETURNING pk_proc) "
+            + "SELECT COALESCE(SUM(amount), 0) FROM taken "
+            + "WHERE EXISTS (SELECT 1 FROM granted)";
+
+    public long balanceUnderUtilizedProcs(ProcInterface targetProc, long targetMem) {
+        long memReservedMin =
+                env.getRequiredProperty("dispatcher.memory.mem_reserved_min", Long.class);
+        long granted = getJdbcTemplate().queryForObject(BALANCE_UNDERUTILIZED_PROCS, Long.class,
+                memReservedMin, targetProc.getHostId(), targetProc.getProcId(), targetMem,
+                targetMem, targetProc.getProcId(), targetMem);
+
+        if (granted == 0) {
+            logger.info("unable to borrow " + targetMem + " from under utilized procs on host "
+                    + targetProc.getName());
+            return 0;
         }
 
-        return true;
+        logger.info("borrowed " + granted + " from under utilized procs on host "
+                + targetProc.getName());
+        return granted;
     }
 
     public void updateReservedMemory(ProcInterface p, long value) {
@@ -661,4 +701,83 @@ public class ProcDaoJdbc extends JdbcDaoSupport implements ProcDao {
                     proc.gpuMemoryReserved, proc.getJobId(), proc.getHostId());
         }
     }
+
+    /**
+     * Updates the resource counters for a batch of new procs, adding up the resources of the procs
+     * sharing a row first. Rows are updated in key order so concurrent batches lock them in the
+     * same order.
+     */
+    private void procsCreated(List<VirtualProc> procs) {
+        Map<String, long[]> hosts = new TreeMap<String, long[]>();
+        Map<String, long[]> subscriptions = new TreeMap<String, long[]>();
+        Map<String, long[]> layers = new TreeMap<String, long[]>();
+        Map<String, long[]> jobs = new TreeMap<String, long[]>();
+        for (VirtualProc proc : procs) {
+            if (proc.isLocalDispatch) {
+                procCreated(proc);
+                continue;
+            }
+            addResources(hosts, proc.getHostId(), proc.coresReserved, proc.memoryReserved,
+                    proc.gpusReserved, proc.gpuMemoryReserved);
+            addResources(subscriptions, proc.getShowId() + "," + proc.getAllocationId(),
+                    proc.coresReserved, proc.gpusReserved);
+            addResources(layers, proc.getLayerId(), proc.coresReserved, proc.gpusReserved);
+            addResources(jobs, proc.getJobId(), proc.coresReserved, proc.gpusReserved);
+        }
+
+        for (Map.Entry<String, long[]> host : hosts.entrySet()) {
+            long[] total = host.getValue();
+            getJdbcTemplate().update("UPDATE " + "host " + "SET "
+                    + "int_cores_idle = int_cores_idle - ?," + "int_mem_idle = int_mem_idle - ?, "
+                    + "int_gpus_idle = int_gpus_idle - ?,"
+                    + "int_gpu_mem_idle = int_gpu_mem_idle - ? " + "WHERE " + "pk_host = ?",
+                    total[0], total[1], total[2], total[3], host.getKey());
+        }
+
+        for (Map.Entry<String, long[]> subscription : subscriptions.entrySet()) {
+            String[] key = subscription.getKey().split(",");
+            long[] total = subscription.getValue();
+            getJdbcTemplate().update(
+                    "UPDATE " + "subscription " + "SET " + "int_cores = int_cores + ?,"
+                            + "int_gpus = int_gpus + ? " + "WHERE " + "pk_show = ? " + "AND "
+                            + "pk_alloc = ?",
+                    total[0], total[1], key[0], key[1]);
+        }
+
+        for (Map.Entry<String, long[]> layer : layers.entrySet()) {
+            long[] total = layer.getValue();
+            getJdbcTemplate().update(
+                    "UPDATE " + "layer_resource " + "SET " + "int_cores = int_cores + ?,"
+                            + "int_gpus = int_gpus + ? " + "WHERE " + "pk_layer = ?",
+                    total[0], total[1], layer.getKey());
+        }
+
+        for (Map.Entry<String, long[]> job : jobs.entrySet()) {
+            long[] total = job.getValue();
+            getJdbcTemplate().update(
+                    "UPDATE " + "job_resource " + "SET " + "int_cores = int_cores + ?,"
+                            + "int_gpus = int_gpus + ? " + "WHERE " + "pk_job = ?",
+                    total[0], total[1], job.getKey());
+
+            getJdbcTemplate().update(
+                    "UPDATE " + "folder_resource " + "SET " + "int_cores = int_cores + ?,"
+                            + "int_gpus = int_gpus + ? " + "WHERE " + "pk_folder = "
+                            + "(SELECT pk_folder FROM job WHERE pk_job=?)",
+                    total[0], total[1], job.getKey());
+
+            getJdbcTemplate().update(
+                    "UPDATE " + "point " + "SET " + "int_cores = int_cores + ?,"
+                            + "int_gpus = int_gpus + ? " + "WHERE " + "pk_dept = "
+                            + "(SELECT pk_dept FROM job WHERE pk_job=?) " + "AND " + "pk_show = "
+                            + "(SELECT pk_show FROM job WHERE pk_job=?) ",
+                    total[0], total[1], job.getKey(), job.getKey());
+        }
+    }
+
+    private static void addResources(Map<String, long[]> totals, String key, long... values) {
+        long[] total = totals.computeIfAbsent(key, k -> new long[values.length]);
+        for (int i = 0; i < values.length; i++) {
+            total[i] += values[i];
+        }
+    }
 }
@@ -42,7 +42,7 @@ public abstract class AbstractDispatcher {
         try {
             dispatch(frame, proc);
             dispatchSummary(proc, frame, "Dispatch");
-            DispatchSupport.dispatchedProcs.getAndIncrement();
+            DispatchSupport.dispatchedProcs.increment();
 
             return true;
 
@@ -51,7 +51,7 @@ public abstract class AbstractDispatcher {
              * This usually just means another thread got the frame first, so just retry on the next
              * frame.
              */
-            DispatchSupport.bookingRetries.incrementAndGet();
+            DispatchSupport.bookingRetries.increment();
             String msg = "frame reservation error, "
                     + "dispatchProcToJob failed to book next frame, " + fre;
             logger.info(msg);
@@ -60,7 +60,7 @@ public abstract class AbstractDispatcher {
              * There is a resource already assigned to the frame we reserved! Don't clear the frame,
              * let it keep running and continue to the next frame.
              */
-            DispatchSupport.bookingErrors.incrementAndGet();
+            DispatchSupport.bookingErrors.increment();
             dispatchSupport.fixFrame(frame);
 
             String msg = "proc update error, dispatchProcToJob failed " + "to assign proc to job "
@@ -72,7 +72,7 @@ public abstract class AbstractDispatcher {
              * This should technically never happen since the proc is already allocated at this
              * point, but, if it does it should be unbooked.
              */
-            DispatchSupport.bookingErrors.incrementAndGet();
+            DispatchSupport.bookingErrors.increment();
             String msg = "proc update error, " + "dispatchProcToJob failed to assign proc to job "
                     + frame + ", " + rrfe;
             logger.info(msg);
@@ -87,7 +87,7 @@ public abstract class AbstractDispatcher {
              * occurred and the proc should be cleared. It could also be running, so use the
              * jobManagerSupprot to kill it just in case.
              */
-            DispatchSupport.bookingErrors.incrementAndGet();
+            DispatchSupport.bookingErrors.increment();
             String msg = "dispatchProcToJob failed booking proc " + proc + " on job " + frame;
             logger.info(msg);
             dispatchSupport.unbookProc(proc);
@@ -113,16 +113,16 @@ public abstract class AbstractDispatcher {
         try {
             dispatch(frame, proc);
             dispatchSummary(proc, frame, "Booking");
-            DispatchSupport.bookedProcs.getAndIncrement();
-            DispatchSupport.bookedCores.addAndGet(proc.coresReserved);
-            DispatchSupport.bookedGpus.addAndGet(proc.gpusReserved);
+            DispatchSupport.bookedProcs.increment();
+            DispatchSupport.bookedCores.add(proc.coresReserved);
+            DispatchSupport.bookedGpus.add(proc.gpusReserved);
             return true;
         } catch (FrameReservationException fre) {
             /*
              * This usually just means another thread got the frame first, so just retry on the next
              * frame.
              */
-            DispatchSupport.bookingRetries.incrementAndGet();
+            DispatchSupport.bookingRetries.increment();
             logger.info("frame reservation error, " + "dispatchHostToJob failed to book new frame: "
                     + fre);
         } catch (ResourceDuplicationFailureException rrfe) {
@@ -130,7 +130,7 @@ public abstract class AbstractDispatcher {
              * There is a resource already assigned to the frame we reserved! Don't clear the frame,
              * let it keep running and continue to the next frame.
              */
-            DispatchSupport.bookingErrors.incrementAndGet();
+            DispatchSupport.bookingErrors.increment();
             dispatchSupport.fixFrame(frame);
 
             String msg = "proc update error, dispatchProcToJob failed " + "to assign proc to job "
@@ -144,7 +144,7 @@ public abstract class AbstractDispatcher {
              * note here the proc was never committed so there is not point to clearing or unbooking
              * it.
              */
-            DispatchSupport.bookingErrors.incrementAndGet();
+            DispatchSupport.bookingErrors.increment();
             dispatchSupport.clearFrame(frame);
 
             /* Throw an exception to stop booking * */
@@ -155,7 +155,7 @@ public abstract class AbstractDispatcher {
              * Any other exception means that the frame/host records have been updated, so, we need
              * to clear the proc. Its possible the frame is actually running, so try to kill it.
              */
-            DispatchSupport.bookingErrors.incrementAndGet();
+            DispatchSupport.bookingErrors.increment();
             dispatchSupport.unbookProc(proc);
             dispatchSupport.clearFrame(frame);
 
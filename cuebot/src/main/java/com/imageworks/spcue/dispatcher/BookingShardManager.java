@@ -0,0 +1,247 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dispatcher;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.dao.BookingShardDao;
+
+/**
+ * Splits host booking between cuebots by allocation, so they do not contend on the same hosts.
+ *
+ * With a static list of allocation names the cuebot books hosts from those allocations only.
+ * Otherwise allocations are leased through the database: each cuebot renews its membership and
+ * its leases at a third of the lease time, works out its share as the number of allocations
+ * divided by the number of live cuebots, gives up leases beyond its share and takes free or
+ * expired ones up to it. When a cuebot stops its leases are released, when it dies they expire
+ * and are picked up by the others. A cuebot stops booking from its allocations as soon as its
+ * leases may have expired, even if it could not renew them.
+ *
+ * Each cuebot also records the address RQD reaches it at. When a host reports to a cuebot that
+ * does not book it, the answer to its next report tells RQD to send its reports to the cuebot
+ * holding the lease of its allocation, so report handling follows the booking shards. With a
+ * static list of allocations no addresses are known and RQD must be pointed at the right cuebot.
+ */
+public class BookingShardManager {
+    private static final Logger logger = LogManager.getLogger(BookingShardManager.class);
+
+    private final boolean enabled;
+    private final Set<String> staticAllocations;
+    private final int leaseSeconds;
+    private final String ownerId;
+    private final String address;
+
+    private BookingShardDao bookingShardDao;
+
+    private ScheduledExecutorService scheduler;
+    private volatile Set<String> ownedAllocations = Collections.emptySet();
+    private volatile long ownedUntil;
+    private volatile Map<String, String> leaseAddresses = Collections.emptyMap();
+
+    /**
+     * The address each host that reported to this cuebot but is booked by another one should
+     * send its reports to, by host name. Taken by the answer to the host's next report.
+     */
+    private final ConcurrentMap<String, String> reportRedirects = new ConcurrentHashMap<>();
+
+    /**
+     * @param enabled false to book hosts from every allocation
+     * @param allocations a comma separated list of allocation names to book from, empty to lease
+     *        allocations through the database
+     * @param leaseSeconds how long a lease lasts if not renewed
+     * @param ownerId the name of this cuebot in the lease table, empty to use the process name
+     * @param address the host:port RQD reaches this cuebot at, empty to use the host name
+     * @param port the gRPC port used with the host name when no address is given
+     */
+    public BookingShardManager(boolean enabled, String allocations, int leaseSeconds,
+            String ownerId, String address, int port) {
+        this.enabled = enabled;
+        this.leaseSeconds = leaseSeconds;
+        this.ownerId = ownerId.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : ownerId;
+        this.address = address.isEmpty() ? getDefaultAddress(port) : address;
+        Set<String> names = new HashSet<>();
+        for (String name : allocations.split(",")) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+        this.staticAllocations = Collections.unmodifiableSet(names);
+    }
+
+    private static String getDefaultAddress(int port) {
+        try {
+            return InetAddress.getLocalHost().getCanonicalHostName() + ":" + port;
+        } catch (UnknownHostException e) {
+            logger.warn("Failed to look up the host name, no hosts will report to this cuebot: {}",
+                    e.getMessage());
+            return "";
+        }
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (isStatic()) {
+            logger.info("Booking hosts from allocations {}", staticAllocations);
+            return;
+        }
+        logger.info("Leasing allocations for booking as {} at {}", ownerId, address);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "BookingShardManager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rebalance, 0,
+                TimeUnit.SECONDS.toMillis(leaseSeconds) / 3, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        ownedAllocations = Collections.emptySet();
+        try {
+            bookingShardDao.removeMember(ownerId);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to release booking leases, they will expire: {}", e.getMessage());
+        }
+    }
+
+    private boolean isStatic() {
+        return !staticAllocations.isEmpty();
+    }
+
+    /**
+     * Renews the membership and the leases of this cuebot and moves its share of allocations
+     * towards an even split.
+     */
+    public void rebalance() {
+        long renewedAt = System.currentTimeMillis();
+        try {
+            bookingShardDao.heartbeat(ownerId, address, leaseSeconds);
+            int members = Math.max(1, bookingShardDao.getLiveMemberCount());
+            List<String> allocIds = bookingShardDao.getAllocationIds();
+            int share = (allocIds.size() + members - 1) / members;
+
+            List<String> owned = new ArrayList<>();
+            for (String allocId : bookingShardDao.renewLeases(ownerId, leaseSeconds)) {
+                if (allocIds.contains(allocId) && owned.size() < share) {
+                    owned.add(allocId);
+                } else {
+                    bookingShardDao.releaseLease(allocId, ownerId);
+                }
+            }
+            // Each cuebot starts looking at a different allocation so they do not all race for
+            // the same free leases
+            int offset =
+                    allocIds.isEmpty() ? 0 : Math.floorMod(ownerId.hashCode(), allocIds.size());
+            for (int i = 0; i < allocIds.size() && owned.size() < share; i++) {
+                String allocId = allocIds.get((offset + i) % allocIds.size());
+                if (!owned.contains(allocId)
+                        && bookingShardDao.acquireLease(allocId, ownerId, leaseSeconds)) {
+                    owned.add(allocId);
+                }
+            }
+
+            Set<String> previous = ownedAllocations;
+            ownedAllocations = Collections.unmodifiableSet(new HashSet<>(owned));
+            ownedUntil = renewedAt + TimeUnit.SECONDS.toMillis(leaseSeconds);
+            leaseAddresses = bookingShardDao.getLeaseAddresses();
+            if (!ownedAllocations.equals(previous)) {
+                logger.info("Booking hosts from {} of {} allocations, {} cuebots", owned.size(),
+                        allocIds.size(), members);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to renew booking leases: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if this cuebot books the host.
+     */
+    public boolean isBookingOwned(DispatchHost host) {
+        if (!enabled) {
+            return true;
+        }
+        if (isStatic()) {
+            return staticAllocations.contains(host.allocationName);
+        }
+        return System.currentTimeMillis() < ownedUntil
+                && ownedAllocations.contains(host.getAllocationId());
+    }
+
+    /**
+     * Sends the host's reports to the cuebot that books it, if that is another cuebot whose
+     * address is known. Called when a report of a host this cuebot does not book is handled.
+     */
+    public void redirectReports(DispatchHost host) {
+        String owner = leaseAddresses.get(host.getAllocationId());
+        if (owner == null || owner.isEmpty() || owner.equals(address)) {
+            return;
+        }
+        reportRedirects.put(host.getName(), owner);
+    }
+
+    /**
+     * Returns the address of the cuebot the host should send its reports to from now on, or an
+     * empty string to keep reporting to this cuebot. The redirect is only returned once.
+     *
+     * @param hostName the name of the reporting host
+     * @return String
+     */
+    public String takeReportRedirect(String hostName) {
+        String owner = reportRedirects.remove(hostName);
+        return owner == null ? "" : owner;
+    }
+
+    /**
+     * Returns the ids of the allocations currently leased to this cuebot.
+     */
+    public Set<String> getOwnedAllocations() {
+        return ownedAllocations;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void setBookingShardDao(BookingShardDao bookingShardDao) {
+        this.bookingShardDao = bookingShardDao;
+    }
+}
@@ -16,7 +16,10 @@
 package com.imageworks.spcue.dispatcher;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -30,6 +33,7 @@ import org.springframework.core.env.Environment;
 import com.imageworks.spcue.DispatchFrame;
 import com.imageworks.spcue.DispatchHost;
 import com.imageworks.spcue.DispatchJob;
+import com.imageworks.spcue.EntityException;
 import com.imageworks.spcue.FrameInterface;
 import com.imageworks.spcue.GroupInterface;
 import com.imageworks.spcue.JobDispatchException;
@@ -37,6 +41,7 @@ import com.imageworks.spcue.JobInterface;
 import com.imageworks.spcue.LayerInterface;
 import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.grpc.host.ThreadMode;
 import com.imageworks.spcue.rqd.RqdClient;
 import com.imageworks.spcue.rqd.RqdClientException;
 import com.imageworks.spcue.service.HostManager;
@@ -85,6 +90,10 @@ public class CoreUnitDispatcher implements Dispatcher {
 
     private HostManager hostManager;
 
+    private PlacementPlanner placementPlanner;
+
+    private GangDispatcher gangDispatcher;
+
     public boolean testMode = false;
 
     private final long MEM_RESERVED_MIN;
@@ -135,6 +144,17 @@ public class CoreUnitDispatcher implements Dispatcher {
     private List<VirtualProc> dispatchJobs(DispatchHost host, Set<String> jobs) {
         List<VirtualProc> procs = new ArrayList<VirtualProc>();
 
+        if (placementPlanner != null && placementPlanner.isEnabled() && host.strandedCores == 0
+                && host.threadMode != ThreadMode.ALL_VALUE) {
+            try {
+                dispatchPlanned(host, jobs, procs);
+            } catch (DispatcherException e) {
+                logger.info(host.name + " dispatcher exception," + e);
+            }
+            host.restoreGpu();
+            return procs;
+        }
+
         try {
             for (String jobid : jobs) {
 
@@ -172,6 +192,173 @@ public class CoreUnitDispatcher implements Dispatcher {
         return procs;
     }
 
+    /**
+     * Books frames from several jobs on a host using the placement planner. The frames of the
+     * first jobs are collected and estimated against the idle resources of the host, the planner
+     * picks the frames that pack the host best, and each of them is then booked like in
+     * dispatchHost, checking the live state of the host, job and show again. Like in
+     * dispatchHost, the planned frames are reserved in batches of frame_reserve_batch_size.
+     */
+    private void dispatchPlanned(DispatchHost host, Set<String> jobs, List<VirtualProc> procs) {
+        if (!host.hasAdditionalResources(CORE_POINTS_RESERVED_MIN, MEM_RESERVED_MIN,
+                GPU_UNITS_RESERVED_MIN, MEM_GPU_RESERVED_MIN)) {
+            return;
+        }
+
+        String[] selfishServices =
+                env.getProperty("dispatcher.frame.selfish.services", "").split(",");
+        List<PlacementPlanner.Candidate> candidates = new ArrayList<>();
+        int rank = 0;
+        for (String jobid : jobs) {
+            if (rank >= placementPlanner.getMaxJobs()) {
+                break;
+            }
+
+            if (getIntProperty("dispatcher.job_lock_expire_seconds") > 0) {
+                if (getOrCreateJobLock().getIfPresent(jobid) != null) {
+                    continue;
+                }
+
+                jobLock.put(jobid, jobid);
+            }
+
+            DispatchJob job = jobManager.getDispatchJob(jobid);
+            if (dispatchSupport.isShowAtOrOverBurst(job, host)) {
+                continue;
+            }
+
+            int band = placementPlanner.getBand(rank++);
+            for (DispatchFrame frame : dispatchSupport.findNextDispatchFrames(job, host,
+                    getIntProperty("dispatcher.frame_query_max"))) {
+                if (!canJoinGang(frame, host.getHostId())) {
+                    continue;
+                }
+                VirtualProc proc;
+                try {
+                    proc = VirtualProc.build(host, frame, selfishServices);
+                } catch (JobDispatchException | EntityException e) {
+                    continue;
+                }
+                if (frame.minCores <= 0 && !proc.canHandleNegativeCoresRequest) {
+                    continue;
+                }
+                candidates.add(new PlacementPlanner.Candidate(band, candidates.size(), job,
+                        frame, proc.coresReserved, proc.memoryReserved, proc.gpusReserved,
+                        proc.gpuMemoryReserved));
+            }
+        }
+
+        List<PlacementPlanner.Candidate> planned = placementPlanner.plan(host, candidates,
+                getIntProperty("dispatcher.job_frame_dispatch_max"),
+                getIntProperty("dispatcher.host_frame_dispatch_max"));
+
+        logger.info("Planned " + planned.size() + " of " + candidates.size()
+                + " frames for host " + host.getName() + " " + host.idleCores + "/"
+                + host.idleMemory);
+
+        int batchSize = env.getProperty("dispatcher.frame_reserve_batch_size", Integer.class, 1);
+        List<JobInterface> batchJobs = new ArrayList<JobInterface>(batchSize);
+        List<DispatchFrame> batchFrames = new ArrayList<DispatchFrame>(batchSize);
+        List<VirtualProc> batchProcs = new ArrayList<VirtualProc>(batchSize);
+        // The cores and gpus of the current batch by job and its cores by show, which are only
+        // reserved once the whole batch is started
+        Map<String, int[]> batchJobUnits = new HashMap<String, int[]>();
+        Map<String, Integer> batchShowCores = new HashMap<String, Integer>();
+
+        for (PlacementPlanner.Candidate candidate : planned) {
+            JobInterface job = candidate.getJob();
+            DispatchFrame frame = candidate.getFrame();
+
+            // An earlier planned frame may have joined the same gang from this host
+            if (!canJoinGang(frame, host.getHostId())) {
+                continue;
+            }
+
+            VirtualProc proc;
+            try {
+                proc = VirtualProc.build(host, frame, selfishServices);
+            } catch (JobDispatchException | EntityException e) {
+                continue;
+            }
+
+            if (host.idleCores < proc.coresReserved || host.idleMemory < proc.memoryReserved
+                    || host.idleGpus < proc.gpusReserved
+                    || host.idleGpuMemory < proc.gpuMemoryReserved) {
+                continue;
+            }
+
+            // Gang frames are held by the gang dispatcher, so they are always booked on their own
+            if (batchSize > 1 && (gangDispatcher == null || !gangDispatcher.isGangFrame(frame))) {
+                int[] jobUnits = batchJobUnits.computeIfAbsent(job.getJobId(), id -> new int[2]);
+                int showCores = batchShowCores.getOrDefault(job.getShowId(), 0);
+                if (!dispatchSupport.isJobBookable(job, jobUnits[0] + proc.coresReserved,
+                        jobUnits[1] + proc.gpusReserved)
+                        || dispatchSupport.isShowOverBurst(job, host,
+                                showCores + proc.coresReserved)) {
+                    continue;
+                }
+
+                batchJobs.add(job);
+                batchFrames.add(frame);
+                batchProcs.add(proc);
+                jobUnits[0] += proc.coresReserved;
+                jobUnits[1] += proc.gpusReserved;
+                batchShowCores.put(job.getShowId(), showCores + proc.coresReserved);
+                // Taken before the batch is reserved, like in dispatchBatched
+                host.useResources(proc.coresReserved, proc.memoryReserved, proc.gpusReserved,
+                        proc.gpuMemoryReserved);
+
+                if (batchProcs.size() >= batchSize) {
+                    dispatchBatch(batchJobs, batchFrames, batchProcs, procs);
+                    batchJobs.clear();
+                    batchFrames.clear();
+                    batchProcs.clear();
+                    batchJobUnits.clear();
+                    batchShowCores.clear();
+                }
+                if (!host.hasAdditionalResources(Dispatcher.CORE_POINTS_RESERVED_MIN,
+                        MEM_RESERVED_MIN, Dispatcher.GPU_UNITS_RESERVED_MIN,
+                        MEM_GPU_RESERVED_MIN)) {
+                    break;
+                }
+                continue;
+            }
+
+            if (!dispatchSupport.isJobBookable(job, proc.coresReserved, proc.gpusReserved)
+                    || dispatchSupport.isShowAtOrOverBurst(job, host)) {
+                continue;
+            }
+
+            boolean success = new DispatchFrameTemplate(proc, job, frame, false) {
+                public void wrapDispatchFrame() {
+                    dispatch(frame, proc);
+                    dispatchSummary(proc, frame, "Booking");
+                    return;
+                }
+            }.execute();
+
+            if (success) {
+                procs.add(proc);
+
+                DispatchSupport.bookedProcs.increment();
+                DispatchSupport.bookedCores.add(proc.coresReserved);
+                DispatchSupport.bookedGpus.add(proc.gpusReserved);
+
+                host.useResources(proc.coresReserved, proc.memoryReserved, proc.gpusReserved,
+                        proc.gpuMemoryReserved);
+                if (!host.hasAdditionalResources(Dispatcher.CORE_POINTS_RESERVED_MIN,
+                        MEM_RESERVED_MIN, Dispatcher.GPU_UNITS_RESERVED_MIN,
+                        MEM_GPU_RESERVED_MIN)) {
+                    break;
+                }
+            }
+        }
+
+        if (!batchProcs.isEmpty()) {
+            dispatchBatch(batchJobs, batchFrames, batchProcs, procs);
+        }
+    }
+
     private Set<String> getGpuJobs(DispatchHost host, ShowInterface show) {
         Set<String> jobs = null;
 
@@ -256,8 +443,18 @@ public class CoreUnitDispatcher implements Dispatcher {
 
         String[] selfishServices =
                 env.getProperty("dispatcher.frame.selfish.services", "").split(",");
+        int batchSize = env.getProperty("dispatcher.frame_reserve_batch_size", Integer.class, 1);
+        if (batchSize > 1 && host.strandedCores == 0 && !hasGangFrames(frames)) {
+            dispatchBatched(host, job, frames, selfishServices, batchSize, procs);
+            return procs;
+        }
+
         for (DispatchFrame frame : frames) {
 
+            if (!canJoinGang(frame, host.getHostId())) {
+                continue;
+            }
+
             VirtualProc proc = VirtualProc.build(host, frame, selfishServices);
 
             if (frame.minCores <= 0 && !proc.canHandleNegativeCoresRequest) {
@@ -293,9 +490,9 @@ public class CoreUnitDispatcher implements Dispatcher {
             if (success) {
                 procs.add(proc);
 
-                DispatchSupport.bookedProcs.getAndIncrement();
-                DispatchSupport.bookedCores.addAndGet(proc.coresReserved);
-                DispatchSupport.bookedGpus.addAndGet(proc.gpusReserved);
+                DispatchSupport.bookedProcs.increment();
+                DispatchSupport.bookedCores.add(proc.coresReserved);
+                DispatchSupport.bookedGpus.add(proc.gpusReserved);
 
                 if (host.strandedCores > 0) {
                     dispatchSupport.pickupStrandedCores(host);
@@ -320,11 +517,178 @@ public class CoreUnitDispatcher implements Dispatcher {
 
     }
 
+    /**
+     * Returns false for a frame of a gang that already has a member on the host or is full, which
+     * the gang dispatcher would refuse to book.
+     */
+    private boolean canJoinGang(DispatchFrame frame, String hostId) {
+        return gangDispatcher == null || !gangDispatcher.isGangFrame(frame)
+                || gangDispatcher.canJoin(frame, hostId);
+    }
+
+    private boolean hasGangFrames(List<DispatchFrame> frames) {
+        if (gangDispatcher == null) {
+            return false;
+        }
+        for (DispatchFrame frame : frames) {
+            if (gangDispatcher.isGangFrame(frame)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Books frames of a job on a host like dispatchHost, but starts up to batchSize frames and
+     * their procs at a time in a single transaction before launching them. If a batch cannot be
+     * reserved as a whole its frames are booked one at a time instead, which handles each of them
+     * like dispatchHost does.
+     */
+    private void dispatchBatched(DispatchHost host, JobInterface job, List<DispatchFrame> frames,
+            String[] selfishServices, int batchSize, List<VirtualProc> procs) {
+        int maxProcs = Math.min(getIntProperty("dispatcher.job_frame_dispatch_max"),
+                getIntProperty("dispatcher.host_frame_dispatch_max"));
+
+        List<JobInterface> batchJobs = Collections.nCopies(batchSize, job);
+        List<DispatchFrame> batchFrames = new ArrayList<DispatchFrame>(batchSize);
+        List<VirtualProc> batchProcs = new ArrayList<VirtualProc>(batchSize);
+        int batchCores = 0;
+        int batchGpus = 0;
+        boolean done = false;
+        for (DispatchFrame frame : frames) {
+
+            VirtualProc proc = VirtualProc.build(host, frame, selfishServices);
+
+            if (frame.minCores <= 0 && !proc.canHandleNegativeCoresRequest) {
+                logger.debug("Cannot dispatch job, host is busy.");
+                break;
+            }
+
+            if (host.idleCores < host.handleNegativeCoresRequirement(frame.minCores)
+                    || host.idleMemory < frame.getMinMemory() || host.idleGpus < frame.minGpus
+                    || host.idleGpuMemory < frame.minGpuMemory) {
+                logger.debug("Cannot dispatch, insufficient resources.");
+                break;
+            }
+
+            if (!dispatchSupport.isJobBookable(job, batchCores + proc.coresReserved,
+                    batchGpus + proc.gpusReserved)) {
+                break;
+            }
+
+            // The batch is only reserved as a whole, so it is kept within the burst the show has
+            // left rather than checking the burst before each frame
+            if (dispatchSupport.isShowOverBurst(job, host, batchCores + proc.coresReserved)) {
+                break;
+            }
+
+            batchFrames.add(frame);
+            batchProcs.add(proc);
+            batchCores += proc.coresReserved;
+            batchGpus += proc.gpusReserved;
+            // Taken before the batch is reserved, frames that fail to book only end this host early
+            host.useResources(proc.coresReserved, proc.memoryReserved, proc.gpusReserved,
+                    proc.gpuMemoryReserved);
+
+            done = !host.hasAdditionalResources(Dispatcher.CORE_POINTS_RESERVED_MIN,
+                    MEM_RESERVED_MIN, Dispatcher.GPU_UNITS_RESERVED_MIN, MEM_GPU_RESERVED_MIN)
+                    || procs.size() + batchProcs.size() >= maxProcs;
+            if (done || batchProcs.size() >= batchSize) {
+                dispatchBatch(batchJobs, batchFrames, batchProcs, procs);
+                batchFrames.clear();
+                batchProcs.clear();
+                batchCores = 0;
+                batchGpus = 0;
+            }
+            if (done) {
+                break;
+            }
+        }
+
+        if (!batchProcs.isEmpty()) {
+            dispatchBatch(batchJobs, batchFrames, batchProcs, procs);
+        }
+    }
+
+    /**
+     * Starts a batch of frames and their procs, which may belong to different jobs, and launches
+     * them. The jobs are indexed like the frames and procs.
+     */
+    private void dispatchBatch(List<JobInterface> jobs, List<DispatchFrame> frames,
+            List<VirtualProc> batch, List<VirtualProc> procs) {
+        boolean[] started;
+        try {
+            started = dispatchSupport.startFramesAndProcs(batch, frames);
+        } catch (FrameReservationException | ResourceReservationFailureException
+                | ResourceDuplicationFailureException e) {
+            logger.info("failed to reserve a batch of " + frames.size() + " frames on host "
+                    + batch.get(0).getName() + ", booking them one at a time, " + e);
+            started = null;
+            // The batch was rolled back, so its procs are booked again as new procs
+            for (VirtualProc proc : batch) {
+                proc.id = null;
+                proc.frameId = null;
+            }
+        }
+
+        for (int i = 0; i < frames.size(); i++) {
+            JobInterface job = jobs.get(i);
+            DispatchFrame frame = frames.get(i);
+            VirtualProc proc = batch.get(i);
+            boolean success;
+            if (started == null) {
+                success = new DispatchFrameTemplate(proc, job, frame, false) {
+                    public void wrapDispatchFrame() {
+                        dispatch(frame, proc);
+                        dispatchSummary(proc, frame, "Booking");
+                        return;
+                    }
+                }.execute();
+            } else if (!started[i]) {
+                DispatchSupport.bookingRetries.increment();
+                logger.info("frame reservation error, " + frame + " was taken by another thread");
+                continue;
+            } else {
+                try {
+                    success = new DispatchFrameTemplate(proc, job, frame, true) {
+                        public void wrapDispatchFrame() {
+                            if (!testMode) {
+                                dispatchSupport.runFrame(proc, frame);
+                            }
+                            dispatchSummary(proc, frame, "Booking");
+                            return;
+                        }
+                    }.execute();
+                } catch (DispatcherException e) {
+                    // The rest of the batch is reserved but will not be launched
+                    for (int j = i + 1; j < frames.size(); j++) {
+                        if (started[j]) {
+                            dispatchSupport.unbookProc(batch.get(j));
+                            dispatchSupport.clearFrame(frames.get(j));
+                        }
+                    }
+                    throw e;
+                }
+            }
+
+            if (success) {
+                procs.add(proc);
+
+                DispatchSupport.bookedProcs.increment();
+                DispatchSupport.bookedCores.add(proc.coresReserved);
+                DispatchSupport.bookedGpus.add(proc.gpusReserved);
+            }
+        }
+    }
+
     public void dispatchProcToJob(VirtualProc proc, JobInterface job) {
 
         // Do not throttle this method
         for (DispatchFrame frame : dispatchSupport.findNextDispatchFrames(job, proc,
                 getIntProperty("dispatcher.frame_query_max"))) {
+            if (!canJoinGang(frame, proc.getHostId())) {
+                continue;
+            }
             try {
                 boolean success = new DispatchFrameTemplate(proc, job, frame, true) {
                     public void wrapDispatchFrame() {
@@ -355,6 +719,12 @@ public class CoreUnitDispatcher implements Dispatcher {
 
     @Override
     public void dispatch(DispatchFrame frame, VirtualProc proc) {
+        // Frames of a gang are held until the whole gang is booked
+        if (gangDispatcher != null && gangDispatcher.isGangFrame(frame)) {
+            gangDispatcher.dispatch(frame, proc, !testMode);
+            return;
+        }
+
         // Allocate frame on the database
         dispatchSupport.startFrameAndProc(proc, frame);
 
@@ -398,6 +768,22 @@ public class CoreUnitDispatcher implements Dispatcher {
         this.dispatchSupport = dispatchSupport;
     }
 
+    public PlacementPlanner getPlacementPlanner() {
+        return placementPlanner;
+    }
+
+    public void setPlacementPlanner(PlacementPlanner placementPlanner) {
+        this.placementPlanner = placementPlanner;
+    }
+
+    public GangDispatcher getGangDispatcher() {
+        return gangDispatcher;
+    }
+
+    public void setGangDispatcher(GangDispatcher gangDispatcher) {
+        this.gangDispatcher = gangDispatcher;
+    }
+
     public JobManager getJobManager() {
         return jobManager;
     }
@@ -445,7 +831,7 @@ public class CoreUnitDispatcher implements Dispatcher {
                  * This usually just means another thread got the frame first, so just retry on the
                  * next frame.
                  */
-                DispatchSupport.bookingRetries.incrementAndGet();
+                DispatchSupport.bookingRetries.increment();
                 String msg = "frame reservation error, "
                         + "dispatchProcToJob failed to book next frame, " + fre;
                 logger.info(msg);
@@ -455,7 +841,7 @@ public class CoreUnitDispatcher implements Dispatcher {
                  * There is a resource already assigned to the frame we reserved! Don't clear the
                  * frame, let it keep running and continue to the next frame.
                  */
-                DispatchSupport.bookingErrors.incrementAndGet();
+                DispatchSupport.bookingErrors.increment();
                 dispatchSupport.fixFrame(frame);
 
                 String msg =
@@ -469,7 +855,7 @@ public class CoreUnitDispatcher implements Dispatcher {
                  * This should technically never happen since the proc is already allocated at this
                  * point, but, if it does it should be unbooked.
                  */
-                DispatchSupport.bookingErrors.incrementAndGet();
+                DispatchSupport.bookingErrors.increment();
                 String msg = "proc update error, "
                         + "dispatchProcToJob failed to assign proc to job " + job + ", " + rrfe;
                 logger.info(msg);
@@ -486,7 +872,7 @@ public class CoreUnitDispatcher implements Dispatcher {
                  * occurred and the proc should be cleared. It could also be running, so use the
                  * jobManagerSupprot to kill it just in case.
                  */
-                DispatchSupport.bookingErrors.incrementAndGet();
+                DispatchSupport.bookingErrors.increment();
                 String msg = "dispatchProcToJob failed booking proc " + proc + " on job " + job;
                 logger.info(msg, e);
                 dispatchSupport.unbookProc(proc);
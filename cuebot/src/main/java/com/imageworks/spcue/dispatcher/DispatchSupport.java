@@ -16,8 +16,11 @@
 package com.imageworks.spcue.dispatcher;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.collect.ImmutableMap;
 
 import com.imageworks.spcue.AllocationInterface;
 import com.imageworks.spcue.DispatchFrame;
@@ -34,6 +37,7 @@ import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.grpc.job.FrameState;
 import com.imageworks.spcue.grpc.rqd.RunFrame;
+import com.imageworks.spcue.util.LatencyHistogram;
 
 /**
  * A class for common dispatcher methods.
@@ -42,96 +46,143 @@ import com.imageworks.spcue.grpc.rqd.RunFrame;
  */
 public interface DispatchSupport {
 
+    /*
+     * The counters are LongAdders because they are incremented from every booking and report
+     * thread but only read for stats.
+     */
+
     /**
      * Number of procs rebalanced
      */
-    static final AtomicLong balanceSuccess = new AtomicLong(0);
+    static final LongAdder balanceSuccess = new LongAdder();
 
     /**
      * Number of procs
      */
-    static final AtomicLong balanceFailed = new AtomicLong(0);
+    static final LongAdder balanceFailed = new LongAdder();
 
     /**
      * Number of times the worst offender was killed
      */
-    static final AtomicLong killedOffenderProcs = new AtomicLong(0);
+    static final LongAdder killedOffenderProcs = new LongAdder();
 
     /**
      * Number of frames killed because the machine totally ran out of memory. This may or may not be
      * the worst offender.
      */
-    static final AtomicLong killedOomProcs = new AtomicLong(0);
+    static final LongAdder killedOomProcs = new LongAdder();
 
     /**
      * Long for counting how many procs have been dispatched
      */
-    static final AtomicLong dispatchedProcs = new AtomicLong(0);
+    static final LongAdder dispatchedProcs = new LongAdder();
 
     /**
      * Long for counting how many cores have been booked
      */
-    static final AtomicLong bookedCores = new AtomicLong(0);
+    static final LongAdder bookedCores = new LongAdder();
 
     /**
      * Long for counting how many gpus have been booked
      */
-    static final AtomicLong bookedGpus = new AtomicLong(0);
+    static final LongAdder bookedGpus = new LongAdder();
 
     /**
      * Long for counting how many procs have been booked
      */
-    static final AtomicLong bookedProcs = new AtomicLong(0);
+    static final LongAdder bookedProcs = new LongAdder();
 
     /**
      * Long for counting unbooked procs.
      */
-    static final AtomicLong unbookedProcs = new AtomicLong(0);
+    static final LongAdder unbookedProcs = new LongAdder();
 
     /**
      * A proc is cleared when an error occurs
      */
-    static final AtomicLong clearedProcs = new AtomicLong(0);
+    static final LongAdder clearedProcs = new LongAdder();
 
     /**
      * Long for counting dispatch errors
      */
-    static final AtomicLong bookingErrors = new AtomicLong(0);
+    static final LongAdder bookingErrors = new LongAdder();
 
     /**
      * Long for counting dispatch retries
      */
-    static final AtomicLong bookingRetries = new AtomicLong(0);
+    static final LongAdder bookingRetries = new LongAdder();
 
     /**
      * Incremented when RQD and the Cue DB are out of sync.
      */
-    static final AtomicLong accountingErrors = new AtomicLong(0);
+    static final LongAdder accountingErrors = new LongAdder();
 
     /**
      * Incremented when RQD and the Cue DB are out of sync.
      */
-    static final AtomicLong fixedFrames = new AtomicLong(0);
+    static final LongAdder fixedFrames = new LongAdder();
 
     /**
      * Count number of picked up cores.
      */
-    static final AtomicLong pickedUpCoresCount = new AtomicLong(0);
+    static final LongAdder pickedUpCoresCount = new LongAdder();
 
     /**
      * Count number of stranded cores.
      */
-    static final AtomicLong strandedCoresCount = new AtomicLong(0);
+    static final LongAdder strandedCoresCount = new LongAdder();
 
     /**
      * Count number of picked up gpus.
      */
-    static final AtomicLong pickedUpGpusCount = new AtomicLong(0);
+    static final LongAdder pickedUpGpusCount = new LongAdder();
 
     /**
      * Count number of stranded gpus.
      */
-    static final AtomicLong strandedGpusCount = new AtomicLong(0);
+    static final LongAdder strandedGpusCount = new LongAdder();
+
+    /**
+     * Time spent finding jobs to dispatch to a host.
+     */
+    static final LatencyHistogram jobQueryLatency = new LatencyHistogram();
+
+    /**
+     * Time spent finding frames to dispatch from a job or layer.
+     */
+    static final LatencyHistogram frameQueryLatency = new LatencyHistogram();
+
+    /**
+     * Time spent starting a frame and reserving its proc in the database.
+     */
+    static final LatencyHistogram reserveLatency = new LatencyHistogram();
+
+    /**
+     * Time spent sending a frame to RQD.
+     */
+    static final LatencyHistogram rqdLaunchLatency = new LatencyHistogram();
+
+    /**
+     * The counters above by name, for reporting.
+     */
+    static final Map<String, LongAdder> counters = ImmutableMap.<String, LongAdder>builder()
+            .put("balance_success", balanceSuccess).put("balance_failed", balanceFailed)
+            .put("killed_offender_procs", killedOffenderProcs)
+            .put("killed_oom_procs", killedOomProcs).put("dispatched_procs", dispatchedProcs)
+            .put("booked_cores", bookedCores).put("booked_gpus", bookedGpus)
+            .put("booked_procs", bookedProcs).put("unbooked_procs", unbookedProcs)
+            .put("cleared_procs", clearedProcs).put("booking_errors", bookingErrors)
+            .put("booking_retries", bookingRetries).put("accounting_errors", accountingErrors)
+            .put("fixed_frames", fixedFrames).put("picked_up_cores", pickedUpCoresCount)
+            .put("stranded_cores", strandedCoresCount).put("picked_up_gpus", pickedUpGpusCount)
+            .put("stranded_gpus", strandedGpusCount).build();
+
+    /**
+     * The latency histograms above by dispatch stage, for reporting.
+     */
+    static final Map<String, LatencyHistogram> stageLatencies =
+            ImmutableMap.of("job_query", jobQueryLatency, "frame_query", frameQueryLatency,
+                    "reserve", reserveLatency, "rqd_launch", rqdLaunchLatency);
 
     /**
      * Set the proc's frame assignment to null;
@@ -173,6 +224,22 @@ public interface DispatchSupport {
      */
     public void startFrameAndProc(VirtualProc proc, DispatchFrame frame);
 
+    /**
+     * Starts a batch of frames on new procs in a single transaction, updating the resource counts
+     * once for the whole batch rather than once per proc.
+     *
+     * Each frame is handled like startFrameAndProc would. A frame that was taken by another thread
+     * is not started and has nothing to undo, as with a FrameReservationException. If the procs
+     * cannot be reserved a ResourceReservationFailureException or
+     * ResourceDuplicationFailureException is thrown and nothing is started, so the frames can be
+     * booked again one at a time to find the frame at fault.
+     *
+     * @param procs new procs, in the same order as the frames
+     * @param frames
+     * @return for each frame, true if it was started
+     */
+    boolean[] startFramesAndProcs(List<VirtualProc> procs, List<DispatchFrame> frames);
+
     /**
      * This method clears out a proc that was lost track of. This can happen if the host fails and
      * the proc fails to report in, a network outage occurs, or something of that nature.
@@ -346,12 +413,14 @@ public interface DispatchSupport {
 
     /**
      * Attempts to balance the reserved memory on a proc by taking away reserved memory from frames
-     * that are well under their reservation.
+     * that are well under their reservation. On success the proc's reservation has grown by at
+     * least value, the shares taken from the other frames are rounded up.
      *
      * @param proc
      * @param value
+     * @return the memory added to the proc's reservation, 0 if it could not be balanced
      */
-    boolean balanceReservedMemory(ProcInterface proc, long value);
+    long balanceReservedMemory(ProcInterface proc, long value);
 
     /**
      * Update the jobs usage counters.
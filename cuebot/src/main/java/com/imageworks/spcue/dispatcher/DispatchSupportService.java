@@ -15,6 +15,7 @@
 
 package com.imageworks.spcue.dispatcher;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -63,7 +64,6 @@ import com.imageworks.spcue.monitoring.MonitoringEventBuilder;
 import com.imageworks.spcue.rqd.RqdClient;
 import com.imageworks.spcue.service.BookingManager;
 import com.imageworks.spcue.service.DependManager;
-import com.imageworks.spcue.util.FrameSet;
 
 @Transactional(propagation = Propagation.REQUIRED)
 public class DispatchSupportService implements DispatchSupport {
@@ -84,6 +84,8 @@ public class DispatchSupportService implements DispatchSupport {
     private BookingDao bookingDao;
     private KafkaEventPublisher kafkaEventPublisher;
     private MonitoringEventBuilder monitoringEventBuilder;
+    private LaunchTemplateCache launchTemplateCache;
+    private LimitAccounting limitAccounting;
 
     private ConcurrentHashMap<String, StrandedCores> strandedCores =
             new ConcurrentHashMap<String, StrandedCores>();
@@ -91,7 +93,7 @@ public class DispatchSupportService implements DispatchSupport {
     @Override
     public void pickupStrandedCores(DispatchHost host) {
         logger.info(host + "picked up stranded cores");
-        pickedUpCoresCount.getAndIncrement();
+        pickedUpCoresCount.increment();
         strandedCores.remove(host.getHostId());
     }
 
@@ -116,33 +118,53 @@ public class DispatchSupportService implements DispatchSupport {
             host.threadMode = ThreadMode.ALL.getNumber();
         }
         strandedCores.putIfAbsent(host.getHostId(), new StrandedCores(cores));
-        strandedCoresCount.getAndIncrement();
+        strandedCoresCount.increment();
     }
 
     @Transactional(readOnly = true)
     public List<DispatchFrame> findNextDispatchFrames(JobInterface job, VirtualProc proc,
             int limit) {
-        return dispatcherDao.findNextDispatchFrames(job, proc, limit);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findNextDispatchFrames(job, proc, limit);
+        } finally {
+            frameQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Transactional(readOnly = true)
     public List<DispatchFrame> findNextDispatchFrames(JobInterface job, DispatchHost host,
             int limit) {
-        return dispatcherDao.findNextDispatchFrames(job, host, limit);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findNextDispatchFrames(job, host, limit);
+        } finally {
+            frameQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Override
     @Transactional(readOnly = true)
     public List<DispatchFrame> findNextDispatchFrames(LayerInterface layer, DispatchHost host,
             int limit) {
-        return dispatcherDao.findNextDispatchFrames(layer, host, limit);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findNextDispatchFrames(layer, host, limit);
+        } finally {
+            frameQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Override
     @Transactional(readOnly = true)
     public List<DispatchFrame> findNextDispatchFrames(LayerInterface layer, VirtualProc proc,
             int limit) {
-        return dispatcherDao.findNextDispatchFrames(layer, proc, limit);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findNextDispatchFrames(layer, proc, limit);
+        } finally {
+            frameQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Transactional(readOnly = true)
@@ -157,29 +179,54 @@ public class DispatchSupportService implements DispatchSupport {
 
     @Transactional(readOnly = true)
     public Set<String> findDispatchJobsForAllShows(DispatchHost host, int numJobs) {
-        return dispatcherDao.findDispatchJobsForAllShows(host, numJobs);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findDispatchJobsForAllShows(host, numJobs);
+        } finally {
+            jobQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Transactional(readOnly = true)
     public Set<String> findDispatchJobs(DispatchHost host, int numJobs) {
-        return dispatcherDao.findDispatchJobs(host, numJobs);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findDispatchJobs(host, numJobs);
+        } finally {
+            jobQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Transactional(readOnly = true)
     public Set<String> findDispatchJobs(DispatchHost host, GroupInterface g) {
-        return dispatcherDao.findDispatchJobs(host, g);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findDispatchJobs(host, g);
+        } finally {
+            jobQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Override
     @Transactional(readOnly = true)
     public Set<String> findLocalDispatchJobs(DispatchHost host) {
-        return dispatcherDao.findLocalDispatchJobs(host);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findLocalDispatchJobs(host);
+        } finally {
+            jobQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Override
     @Transactional(readOnly = true)
     public Set<String> findDispatchJobs(DispatchHost host, ShowInterface show, int numJobs) {
-        return dispatcherDao.findDispatchJobs(host, show, numJobs);
+        long startNanos = System.nanoTime();
+        try {
+            return dispatcherDao.findDispatchJobs(host, show, numJobs);
+        } finally {
+            jobQueryLatency.recordSince(startNanos);
+        }
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
@@ -197,21 +244,27 @@ public class DispatchSupportService implements DispatchSupport {
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
-    public boolean balanceReservedMemory(ProcInterface targetProc, long targetMem) {
-        boolean result = procDao.balanceUnderUtilizedProcs(targetProc, targetMem);
-        if (result) {
-            DispatchSupport.balanceSuccess.incrementAndGet();
+    public long balanceReservedMemory(ProcInterface targetProc, long targetMem) {
+        long granted = procDao.balanceUnderUtilizedProcs(targetProc, targetMem);
+        if (granted > 0) {
+            DispatchSupport.balanceSuccess.increment();
         } else {
-            DispatchSupport.balanceFailed.incrementAndGet();
+            DispatchSupport.balanceFailed.increment();
         }
-        return result;
+        return granted;
     }
 
     @Transactional(propagation = Propagation.NEVER)
     public void runFrame(VirtualProc proc, DispatchFrame frame) {
         try {
-            rqdClient.launchFrame(prepareRqdRunFrame(proc, frame), proc);
-            dispatchedProcs.getAndIncrement();
+            RunFrame runFrame = prepareRqdRunFrame(proc, frame);
+            long startNanos = System.nanoTime();
+            try {
+                rqdClient.launchFrame(runFrame, proc);
+            } finally {
+                rqdLaunchLatency.recordSince(startNanos);
+            }
+            dispatchedProcs.increment();
         } catch (Exception e) {
             throw new DispatcherException(
                     proc.getName() + " could not be booked on " + frame.getName() + ", " + e);
@@ -226,14 +279,65 @@ public class DispatchSupportService implements DispatchSupport {
         // Capture previous state before update for event publishing
         FrameState previousState = frame.state;
 
-        frameDao.updateFrameStarted(proc, frame);
+        long startNanos = System.nanoTime();
+        try {
+            frameDao.updateFrameStarted(proc, frame);
 
-        reserveProc(proc, frame);
+            reserveProc(proc, frame);
+        } finally {
+            reserveLatency.recordSince(startNanos);
+        }
 
         // Publish FRAME_STARTED event (WAITING -> RUNNING transition)
         publishFrameStartedEvent(frame, proc, previousState);
     }
 
+    @Override
+    @Transactional(propagation = Propagation.REQUIRED)
+    public boolean[] startFramesAndProcs(List<VirtualProc> procs, List<DispatchFrame> frames) {
+        logger.trace("starting " + frames.size() + " frames");
+
+        long startNanos = System.nanoTime();
+        boolean[] started;
+        try {
+            started = frameDao.updateFramesStarted(procs, frames);
+
+            List<VirtualProc> booked = new ArrayList<VirtualProc>(procs.size());
+            for (int i = 0; i < frames.size(); i++) {
+                if (!started[i]) {
+                    continue;
+                }
+                DispatchFrame frame = frames.get(i);
+                VirtualProc proc = procs.get(i);
+                proc.jobId = frame.getJobId();
+                proc.frameId = frame.getFrameId();
+                proc.layerId = frame.getLayerId();
+                proc.showId = frame.getShowId();
+                booked.add(proc);
+            }
+            if (booked.isEmpty()) {
+                return started;
+            }
+
+            procDao.insertVirtualProcs(booked);
+        } finally {
+            reserveLatency.recordSince(startNanos);
+        }
+
+        for (int i = 0; i < frames.size(); i++) {
+            if (!started[i]) {
+                continue;
+            }
+            DispatchFrame frame = frames.get(i);
+            VirtualProc proc = procs.get(i);
+            logger.info("creating proc " + proc.getName() + " for " + frame.getName());
+            limitAccounting.moveProc(null, proc.layerId);
+            publishProcEvent(EventType.PROC_BOOKED, proc);
+            publishFrameStartedEvent(frame, proc, frame.state);
+        }
+        return started;
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     public boolean isCueBookable(FacilityInterface f) {
         return jobDao.cueHasPendingJobs(f);
@@ -376,14 +480,7 @@ public class DispatchSupportService implements DispatchSupport {
         }
 
         int frameNumber = Integer.valueOf(frame.name.substring(0, frame.name.indexOf("-")));
-        String zFrameNumber = String.format("%04d", frameNumber);
-
-        FrameSet fs = new FrameSet(frame.range);
-        int startFrameIndex = fs.index(frameNumber);
-        String frameSpec = fs.getChunk(startFrameIndex, frame.chunkSize);
-
-        FrameSet chunkFrameSet = new FrameSet(frameSpec);
-        int chunkEndFrame = chunkFrameSet.get(chunkFrameSet.size() - 1);
+        LaunchTemplate template = launchTemplateCache.get(frame);
 
         RunFrame.Builder builder = RunFrame.newBuilder().setShot(frame.shot).setShow(frame.show)
                 .setUserName(frame.owner).setLogDir(frame.logDir).setJobId(frame.jobId)
@@ -393,8 +490,7 @@ public class DispatchSupportService implements DispatchSupport {
                 .setStartTime(System.currentTimeMillis()).setIgnoreNimby(proc.isLocalDispatch)
                 .setOs(proc.os).setSoftMemoryLimit(frame.softMemoryLimit).setLokiUrl(frame.lokiURL)
                 .setHardMemoryLimit(frame.hardMemoryLimit)
-                .putAllEnvironment(jobDao.getEnvironment(frame))
-                .putAllEnvironment(layerDao.getLayerEnvironment(frame)).putEnvironment("CUE3", "1")
+                .putAllEnvironment(template.getEnvironment()).putEnvironment("CUE3", "1")
                 .putEnvironment("CUE_THREADS", String.valueOf(threads))
                 .putEnvironment("CUE_MEMORY", String.valueOf(proc.memoryReserved))
                 .putEnvironment("CUE_GPUS", String.valueOf(proc.gpusReserved))
@@ -410,17 +506,11 @@ public class DispatchSupportService implements DispatchSupport {
                 .putEnvironment("CUE_LAYER_ID", frame.layerId)
                 .putEnvironment("CUE_FRAME_ID", frame.id)
                 .putEnvironment("CUE_THREADABLE", frame.threadable ? "1" : "0")
-                .setCommand(frame.command.replaceAll("#ZFRAME#", zFrameNumber)
-                        .replaceAll("#IFRAME#", String.valueOf(frameNumber))
-                        .replaceAll("#FRAME_START#", String.valueOf(frameNumber))
-                        .replaceAll("#FRAME_END#", String.valueOf(chunkEndFrame))
-                        .replaceAll("#FRAME_CHUNK#", String.valueOf(frame.chunkSize))
-                        .replaceAll("#LAYER#", frame.layerName).replaceAll("#JOB#", frame.jobName)
-                        .replaceAll("#FRAMESPEC#", frameSpec).replaceAll("#FRAME#", frame.name));
+                .setCommand(template.buildCommand(frame, frameNumber));
         /*
-         * The special command tokens above (#ZFRAME# and others) are provided to the user in
-         * cuesubmit. see: cuesubmit/cuesubmit/Constants.py Update the Constant.py file when
-         * updating tokens here, they will appear in the cuesubmit tooltip popup.
+         * The special command tokens replaced by LaunchTemplate (#ZFRAME# and others) are provided
+         * to the user in cuesubmit. see: cuesubmit/cuesubmit/Constants.py Update the Constant.py
+         * file when updating tokens there, they will appear in the cuesubmit tooltip popup.
          */
 
         frame.uid.ifPresent(builder::setUid);
@@ -431,7 +521,8 @@ public class DispatchSupportService implements DispatchSupport {
     @Override
     @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void fixFrame(DispatchFrame frame) {
-        long numFixed = DispatchSupport.fixedFrames.incrementAndGet();
+        DispatchSupport.fixedFrames.increment();
+        long numFixed = DispatchSupport.fixedFrames.sum();
 
         logger.trace("fixing frame #: " + numFixed + " ," + frame);
 
@@ -465,6 +556,7 @@ public class DispatchSupportService implements DispatchSupport {
 
     private void reserveProc(VirtualProc proc, DispatchFrame frame) {
 
+        String previousLayerId = proc.isNew() ? null : proc.layerId;
         proc.jobId = frame.getJobId();
         proc.frameId = frame.getFrameId();
         proc.layerId = frame.getLayerId();
@@ -478,6 +570,7 @@ public class DispatchSupportService implements DispatchSupport {
             logger.info("updated proc " + proc.getName() + " for " + frame.getName());
             procDao.updateVirtualProcAssignment(proc);
         }
+        limitAccounting.moveProc(previousLayerId, proc.layerId);
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
@@ -495,8 +588,9 @@ public class DispatchSupportService implements DispatchSupport {
         }
         proc.unbooked = true;
         procDao.deleteVirtualProc(proc);
+        limitAccounting.moveProc(proc.layerId, null);
         publishProcEvent(EventType.PROC_UNBOOKED, proc);
-        DispatchSupport.unbookedProcs.getAndIncrement();
+        DispatchSupport.unbookedProcs.increment();
         logger.info(proc + " " + reason);
 
         /*
@@ -515,7 +609,8 @@ public class DispatchSupportService implements DispatchSupport {
     @Override
     @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void lostProc(VirtualProc proc, String reason, int exitStatus) {
-        long numCleared = clearedProcs.incrementAndGet();
+        clearedProcs.increment();
+        long numCleared = clearedProcs.sum();
 
         unbookProc(proc, "proc " + proc.getName() + " is #" + numCleared + " cleared: " + reason);
 
@@ -635,6 +730,22 @@ public class DispatchSupportService implements DispatchSupport {
         this.layerDao = layerDao;
     }
 
+    public LaunchTemplateCache getLaunchTemplateCache() {
+        return launchTemplateCache;
+    }
+
+    public void setLaunchTemplateCache(LaunchTemplateCache launchTemplateCache) {
+        this.launchTemplateCache = launchTemplateCache;
+    }
+
+    public LimitAccounting getLimitAccounting() {
+        return limitAccounting;
+    }
+
+    public void setLimitAccounting(LimitAccounting limitAccounting) {
+        this.limitAccounting = limitAccounting;
+    }
+
     public HostDao getHostDao() {
         return hostDao;
     }
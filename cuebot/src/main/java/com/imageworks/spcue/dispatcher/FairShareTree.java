@@ -0,0 +1,291 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.spcue.JobShare;
+import com.imageworks.spcue.dao.JobDao;
+
+/**
+ * A fair-share tree of the pending jobs, for the FAIR_SHARE scheduling mode.
+ *
+ * The tree has a node for every show, every group of a show with pending jobs and every pending
+ * job, built from job_resource and folder_resource. The cores a show is running are shared out
+ * between its groups, and the share of each group between its jobs. Every node first gets its
+ * minimum cores, the rest is split by weight without giving any node more than its maximum cores.
+ * Groups have the same weight and jobs are weighted by their priority. The deficit of a node is
+ * its share minus the cores it is running, so the nodes furthest below their share have the
+ * largest deficit. Jobs are dispatched by the deficit of their group, then by their own deficit.
+ *
+ * Shows are not ordered by the tree, the dispatcher already visits them by how much of their
+ * subscription they are using.
+ */
+public class FairShareTree {
+    private static final Logger logger = LogManager.getLogger(FairShareTree.class);
+
+    private static final double EPSILON = 0.001;
+
+    private final int refreshSeconds;
+
+    private volatile Map<String, double[]> deficits = Collections.emptyMap();
+
+    private JobDao jobDao;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * A group or a job, sharing the cores of its parent with its siblings.
+     */
+    private static final class Node {
+        private final String id;
+        private final double weight;
+        private final int cores;
+        private final int minCores;
+        private final int maxCores;
+        private double share;
+
+        private Node(String id, double weight, int cores, int minCores, int maxCores) {
+            this.id = id;
+            this.weight = weight;
+            this.cores = cores;
+            this.maxCores = maxCores;
+            this.minCores = maxCores < 0 ? minCores : Math.min(minCores, maxCores);
+        }
+
+        private boolean isCapped() {
+            return maxCores >= 0 && share >= maxCores - EPSILON;
+        }
+
+        private double getDeficit() {
+            return share - cores;
+        }
+    }
+
+    /**
+     * @param refreshSeconds how often the tree is rebuilt from the database
+     */
+    public FairShareTree(int refreshSeconds) {
+        this.refreshSeconds = refreshSeconds;
+    }
+
+    /**
+     * Starts rebuilding the tree in the background, or stops and clears it. The tree is only
+     * rebuilt while the FAIR_SHARE scheduling mode is in use.
+     *
+     * @param enabled true to keep the tree up to date
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "FairShareTree");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshSeconds, TimeUnit.SECONDS);
+        } else if (!enabled && scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            deficits = Collections.emptyMap();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return scheduler != null;
+    }
+
+    public void shutdown() {
+        setEnabled(false);
+    }
+
+    /**
+     * Rebuilds the tree from the pending jobs in the database.
+     */
+    public void refresh() {
+        try {
+            update(jobDao.getJobShares());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to refresh the fair-share tree: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the tree from the given jobs and computes the deficit of every group and job.
+     *
+     * @param jobs the pending jobs
+     */
+    public void update(List<JobShare> jobs) {
+        Map<String, Map<String, List<JobShare>>> shows =
+                new LinkedHashMap<String, Map<String, List<JobShare>>>();
+        for (JobShare job : jobs) {
+            shows.computeIfAbsent(job.showId, k -> new LinkedHashMap<String, List<JobShare>>())
+                    .computeIfAbsent(job.folderId, k -> new ArrayList<JobShare>()).add(job);
+        }
+
+        Map<String, double[]> result = new HashMap<String, double[]>(jobs.size() * 2);
+        for (Map<String, List<JobShare>> folders : shows.values()) {
+            List<Node> folderNodes = new ArrayList<Node>(folders.size());
+            for (List<JobShare> folderJobs : folders.values()) {
+                JobShare job = folderJobs.get(0);
+                folderNodes.add(new Node(job.folderId, 1, job.folderCores, job.folderMinCores,
+                        job.folderMaxCores));
+            }
+            share(folderNodes, pool(folderNodes));
+
+            for (Node folder : folderNodes) {
+                List<JobShare> folderJobs = folders.get(folder.id);
+                List<Node> jobNodes = new ArrayList<Node>(folderJobs.size());
+                for (JobShare job : folderJobs) {
+                    jobNodes.add(new Node(job.jobId, Math.max(job.priority, 1), job.cores,
+                            job.minCores, job.maxCores));
+                }
+                share(jobNodes, folder.share);
+                for (Node job : jobNodes) {
+                    result.put(job.id, new double[] {folder.getDeficit(), job.getDeficit()});
+                }
+            }
+        }
+        deficits = result;
+        logger.debug("fair-share tree rebuilt with {} shows and {} jobs", shows.size(),
+                result.size());
+    }
+
+    /**
+     * The cores shared out between the groups of a show, the cores they are running or their
+     * minimum cores if more.
+     */
+    private static double pool(List<Node> nodes) {
+        double cores = 0;
+        double minCores = 0;
+        for (Node node : nodes) {
+            cores += node.cores;
+            minCores += node.minCores;
+        }
+        return Math.max(cores, minCores);
+    }
+
+    /**
+     * Shares the pool out between the nodes. The minimum cores are handed out first, scaled down
+     * if they do not all fit, and the rest is split by weight. A node that reaches its maximum
+     * cores drops out and what it could not take is split between the others.
+     */
+    private static void share(List<Node> nodes, double pool) {
+        double minCores = 0;
+        for (Node node : nodes) {
+            minCores += node.minCores;
+        }
+        double scale = minCores > pool ? pool / minCores : 1;
+        double remaining = pool;
+        List<Node> open = new ArrayList<Node>(nodes.size());
+        for (Node node : nodes) {
+            node.share = node.minCores * scale;
+            remaining -= node.share;
+            if (!node.isCapped()) {
+                open.add(node);
+            }
+        }
+
+        while (remaining > EPSILON && !open.isEmpty()) {
+            double weights = 0;
+            for (Node node : open) {
+                weights += node.weight;
+            }
+            double handed = 0;
+            List<Node> next = new ArrayList<Node>(open.size());
+            for (Node node : open) {
+                double add = remaining * node.weight / weights;
+                if (node.maxCores >= 0) {
+                    add = Math.min(add, node.maxCores - node.share);
+                }
+                node.share += add;
+                handed += add;
+                if (!node.isCapped()) {
+                    next.add(node);
+                }
+            }
+            remaining -= handed;
+            if (next.size() == open.size()) {
+                break;
+            }
+            open = next;
+        }
+    }
+
+    /**
+     * Returns the deficit of the group of a job, 0 if the job is not in the tree yet.
+     */
+    public double getFolderDeficit(String jobId) {
+        double[] deficit = deficits.get(jobId);
+        return deficit == null ? 0 : deficit[0];
+    }
+
+    /**
+     * Returns the deficit of a job, 0 if the job is not in the tree yet.
+     */
+    public double getJobDeficit(String jobId) {
+        double[] deficit = deficits.get(jobId);
+        return deficit == null ? 0 : deficit[1];
+    }
+
+    /**
+     * Orders jobs by the deficit of their group, then by their own deficit, the largest first.
+     * Jobs with the same deficits keep their order.
+     *
+     * @param jobIds the jobs to order
+     * @return the jobs in dispatch order
+     */
+    public List<String> order(List<String> jobIds) {
+        Map<String, double[]> current = deficits;
+        double[] none = new double[2];
+        List<String> result = new ArrayList<String>(jobIds);
+        result.sort(Comparator
+                .comparingDouble((String jobId) -> -current.getOrDefault(jobId, none)[0])
+                .thenComparingDouble(jobId -> -current.getOrDefault(jobId, none)[1]));
+        return result;
+    }
+
+    /**
+     * Orders jobs like {@link #order(List)} and keeps the first ones.
+     *
+     * @param jobIds the jobs to order
+     * @param limit the maximum number of jobs to return
+     * @return the first jobs in dispatch order
+     */
+    public List<String> order(List<String> jobIds, int limit) {
+        List<String> result = order(jobIds);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    public JobDao getJobDao() {
+        return jobDao;
+    }
+
+    public void setJobDao(JobDao jobDao) {
+        this.jobDao = jobDao;
+    }
+}
@@ -33,6 +33,7 @@ import com.imageworks.spcue.ExecutionSummary;
 import com.imageworks.spcue.FrameDetail;
 import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.LayerDetail;
+import com.imageworks.spcue.LayerSettings;
 import com.imageworks.spcue.LayerInterface;
 import com.imageworks.spcue.Source;
 import com.imageworks.spcue.VirtualProc;
@@ -49,6 +50,7 @@ import com.imageworks.spcue.service.HostManager;
 import com.imageworks.spcue.service.JmsMover;
 import com.imageworks.spcue.service.JobManager;
 import com.imageworks.spcue.service.JobManagerSupport;
+import com.imageworks.spcue.service.LayerSettingsCache;
 import com.imageworks.spcue.util.CueExceptionUtil;
 import com.imageworks.spcue.util.CueUtil;
 
@@ -94,6 +96,8 @@ public class FrameCompleteHandler {
     private KafkaEventPublisher kafkaEventPublisher;
     private MonitoringEventBuilder monitoringEventBuilder;
     private PrometheusMetricsCollector prometheusMetrics;
+    private LayerSettingsCache layerSettingsCache;
+    private JobRuntimeStats jobRuntimeStats;
 
     /*
      * The last time a proc was unbooked for subscription or job balancing. Since there are so many
@@ -151,7 +155,7 @@ public class FrameCompleteHandler {
         try {
             final VirtualProc proc = hostManager.getVirtualProc(report.getFrame().getResourceId());
             final DispatchJob job = jobManager.getDispatchJob(proc.getJobId());
-            final LayerDetail layer = jobManager.getLayerDetail(report.getFrame().getLayerId());
+            final LayerSettings layer = layerSettingsCache.get(report.getFrame().getLayerId());
             final FrameDetail frameDetail =
                     jobManager.getFrameDetail(report.getFrame().getFrameId());
             final DispatchFrame frame = jobManager.getDispatchFrame(report.getFrame().getFrameId());
@@ -291,13 +295,13 @@ public class FrameCompleteHandler {
                     if (prometheusMetrics != null) {
                         ExecutionSummary layerSummary =
                                 jobManager.getExecutionSummary((LayerInterface) frame);
-                        LayerDetail layerDetail = jobManager.getLayerDetail(frame.getLayerId());
+                        LayerSettings layer = layerSettingsCache.get(frame.getLayerId());
                         prometheusMetrics.recordLayerMaxRuntime(layerSummary.highFrameSec,
-                                frame.show, frame.shot, layerDetail.type.toString());
+                                frame.show, frame.shot, layer.type.toString());
                         if (layerSummary.highMemoryKb > 0) {
                             prometheusMetrics.recordLayerMaxMemory(
                                     layerSummary.highMemoryKb * 1024L, frame.show, frame.shot,
-                                    layerDetail.type.toString());
+                                    layer.type.toString());
                         }
                     }
 
@@ -321,6 +325,11 @@ public class FrameCompleteHandler {
                         report.getFrame().getMaxRss(), report.getRunTime());
             }
 
+            if (newFrameState.equals(FrameState.SUCCEEDED) && jobRuntimeStats != null
+                    && jobRuntimeStats.isEnabled()) {
+                jobRuntimeStats.recordFrame(frame.getJobId(), report.getRunTime());
+            }
+
             /*
              * The final frame can either be Succeeded or Eaten. If you only check if the frame is
              * Succeeded before doing an isJobComplete check, then jobs that finish with the
@@ -585,7 +594,7 @@ public class FrameCompleteHandler {
      * @param report
      * @return
      */
-    public static final FrameState determineFrameState(DispatchJob job, LayerDetail layer,
+    public static final FrameState determineFrameState(DispatchJob job, LayerSettings layer,
             DispatchFrame frame, FrameCompleteReport report) {
 
         if (EnumSet.of(FrameState.WAITING, FrameState.EATEN).contains(frame.state)) {
@@ -780,6 +789,22 @@ public class FrameCompleteHandler {
         this.prometheusMetrics = prometheusMetrics;
     }
 
+    public LayerSettingsCache getLayerSettingsCache() {
+        return layerSettingsCache;
+    }
+
+    public void setLayerSettingsCache(LayerSettingsCache layerSettingsCache) {
+        this.layerSettingsCache = layerSettingsCache;
+    }
+
+    public JobRuntimeStats getJobRuntimeStats() {
+        return jobRuntimeStats;
+    }
+
+    public void setJobRuntimeStats(JobRuntimeStats jobRuntimeStats) {
+        this.jobRuntimeStats = jobRuntimeStats;
+    }
+
     /**
      * Publishes a frame complete event to Kafka for monitoring purposes. This method is called
      * asynchronously to avoid blocking the dispatch thread.
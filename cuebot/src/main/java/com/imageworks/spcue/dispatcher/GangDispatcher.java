@@ -0,0 +1,440 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.FrameStateTotals;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.dao.LayerDao;
+import com.imageworks.spcue.rqd.RqdClient;
+import com.imageworks.spcue.rqd.RqdClientException;
+import com.imageworks.spcue.service.LayerSettingsCache;
+
+/**
+ * Starts the frames of layers with a gang size together.
+ *
+ * The frames of a gang layer are booked one at a time like any other frame, but instead of being
+ * launched each booked frame joins the pending gang of its layer and holds on to its proc. Every
+ * member of a gang is booked on a different host, so dispatchers skip the gang frames that cannot
+ * join the gang from the host they are booking. All the members are launched in parallel once the
+ * gang holds as many frames as the gang size, so they start together however large the gang is.
+ * When the gang is started, the layer may have fewer waiting and dependent frames left than the
+ * gang size, in which case the gang is complete once it holds all of them. A gang is never launched
+ * partially: one that is not complete within the timeout, for example because its remaining frames
+ * are waiting on dependencies, is rolled back. Its procs are unbooked and its frames set back to
+ * waiting, so a partial gang does not hold on to cores. Pending gangs are kept in memory, so each
+ * cuebot assembles its own gangs.
+ */
+public class GangDispatcher {
+    private static final Logger logger = LogManager.getLogger(GangDispatcher.class);
+
+    private final int timeoutSeconds;
+    private final int maxPendingGangs;
+
+    private DispatchSupport dispatchSupport;
+    private LayerSettingsCache layerSettingsCache;
+    private LayerDao layerDao;
+    private RqdClient rqdClient;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Runs the members of complete gangs on RQD, null until started.
+     */
+    private ExecutorService launcher;
+
+    /**
+     * The gangs being assembled, by layer id.
+     */
+    private final Map<String, Gang> gangs = new HashMap<String, Gang>();
+
+    private final LongAdder launchedCount = new LongAdder();
+    private final LongAdder timedOutCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    private static final class Member {
+        private final DispatchFrame frame;
+        private final VirtualProc proc;
+
+        private Member(DispatchFrame frame, VirtualProc proc) {
+            this.frame = frame;
+            this.proc = proc;
+        }
+    }
+
+    private static final class Gang {
+        private final String layerName;
+        private final int size;
+        private final long deadline;
+        private final List<Member> members = new ArrayList<Member>();
+
+        /**
+         * The hosts of the members being reserved, which are not members yet.
+         */
+        private final Set<String> reserving = new HashSet<String>();
+
+        private Gang(String layerName, int size, long deadline) {
+            this.layerName = layerName;
+            this.size = size;
+            this.deadline = deadline;
+        }
+
+        private boolean hasHost(String hostId) {
+            if (reserving.contains(hostId)) {
+                return true;
+            }
+            for (Member member : members) {
+                if (member.proc.getHostId().equals(hostId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isFull() {
+            return members.size() + reserving.size() >= size;
+        }
+    }
+
+    /**
+     * @param timeoutSeconds how long a gang may take to assemble before it is rolled back
+     * @param maxPendingGangs the maximum number of gangs assembled at once
+     */
+    public GangDispatcher(int timeoutSeconds, int maxPendingGangs) {
+        this.timeoutSeconds = timeoutSeconds;
+        this.maxPendingGangs = maxPendingGangs;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "GangDispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, timeoutSeconds / 4);
+        scheduler.scheduleWithFixedDelay(this::run, period, period, TimeUnit.SECONDS);
+        launcher = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "GangLauncher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (launcher != null) {
+            launcher.shutdownNow();
+        }
+    }
+
+    private void run() {
+        try {
+            expireGangs();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to roll back timed out gangs", e);
+        }
+    }
+
+    /**
+     * Returns true if the frame belongs to a layer whose frames are started together.
+     *
+     * @param frame
+     * @return boolean
+     */
+    public boolean isGangFrame(DispatchFrame frame) {
+        return layerSettingsCache.get(frame.getLayerId()).gangSize > 1;
+    }
+
+    /**
+     * Returns true if the frame can join the pending gang of its layer from the host, that is the
+     * layer has no pending gang, or its gang is not full and has no member on the host.
+     *
+     * @param frame
+     * @param hostId
+     * @return boolean
+     */
+    public boolean canJoin(DispatchFrame frame, String hostId) {
+        synchronized (gangs) {
+            Gang gang = gangs.get(frame.getLayerId());
+            return gang == null || (!gang.hasHost(hostId) && !gang.isFull());
+        }
+    }
+
+    /**
+     * Books a frame of a gang layer on a proc. The whole gang is launched if the frame completes
+     * it.
+     *
+     * The gang only holds its lock while a place in it is set aside for the frame, the frame and
+     * proc are reserved in the database without it.
+     *
+     * @param frame the frame
+     * @param proc the proc the frame is booked on
+     * @param launch false to book the frames without running them on RQD
+     * @throws FrameReservationException if the host already holds a member of the gang, the gang
+     *         is full, or a new gang cannot be started because too many are pending
+     */
+    public void dispatch(DispatchFrame frame, VirtualProc proc, boolean launch) {
+        Gang gang = reserve(frame, proc, 0);
+        if (gang == null) {
+            gang = reserve(frame, proc, gangSize(frame));
+        }
+
+        try {
+            dispatchSupport.startFrameAndProc(proc, frame);
+        } catch (RuntimeException e) {
+            synchronized (gangs) {
+                gang.reserving.remove(proc.getHostId());
+                if (gang.members.isEmpty() && gang.reserving.isEmpty()
+                        && gangs.get(frame.getLayerId()) == gang) {
+                    gangs.remove(frame.getLayerId());
+                }
+            }
+            throw e;
+        }
+
+        Member member = new Member(frame, proc);
+        List<Member> complete;
+        synchronized (gangs) {
+            gang.reserving.remove(proc.getHostId());
+            if (gangs.get(frame.getLayerId()) != gang) {
+                complete = null;
+            } else {
+                gang.members.add(member);
+                if (gang.members.size() < gang.size) {
+                    logger.info("booked " + frame + " on " + proc.getName() + ", gang for layer "
+                            + frame.layerName + " holds " + gang.members.size() + " of "
+                            + gang.size + " frames");
+                    return;
+                }
+                gangs.remove(frame.getLayerId());
+                complete = gang.members;
+            }
+        }
+
+        if (complete == null) {
+            logger.info("gang for layer " + frame.layerName + " timed out while " + frame
+                    + " was being booked, rolling it back");
+            rollback(Collections.singletonList(member), "gang timed out");
+            return;
+        }
+        launch(complete, launch);
+    }
+
+    /**
+     * Sets aside a place for the frame in the pending gang of its layer.
+     *
+     * @param newGangSize the size of the gang to start if the layer has none, 0 to not start one
+     * @return the gang, or null if the layer has no pending gang and newGangSize is 0
+     */
+    private Gang reserve(DispatchFrame frame, VirtualProc proc, int newGangSize) {
+        synchronized (gangs) {
+            Gang gang = gangs.get(frame.getLayerId());
+            if (gang == null) {
+                if (newGangSize == 0) {
+                    return null;
+                }
+                if (gangs.size() >= maxPendingGangs) {
+                    throw new FrameReservationException("unable to start a gang for layer "
+                            + frame.layerName + ", " + gangs.size() + " gangs are pending");
+                }
+                gang = new Gang(frame.layerName, newGangSize,
+                        System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds));
+                gangs.put(frame.getLayerId(), gang);
+            } else if (gang.hasHost(proc.getHostId())) {
+                throw new FrameReservationException("host " + proc.getName()
+                        + " already holds a member of the gang for layer " + frame.layerName);
+            } else if (gang.isFull()) {
+                throw new FrameReservationException(
+                        "the gang for layer " + frame.layerName + " is full");
+            }
+            gang.reserving.add(proc.getHostId());
+            return gang;
+        }
+    }
+
+    /**
+     * Returns the number of frames a new gang for the frame's layer needs. That is the gang size,
+     * or fewer if the layer does not have that many waiting and dependent frames left.
+     */
+    private int gangSize(DispatchFrame frame) {
+        int size = layerSettingsCache.get(frame.getLayerId()).gangSize;
+        FrameStateTotals totals = layerDao.getFrameStateTotals(frame);
+        return Math.max(1, Math.min(size, totals.waiting + totals.depend));
+    }
+
+    /**
+     * Runs all the members of a complete gang on RQD at once and waits for them. If any of them
+     * fails to launch, the ones that failed are rolled back and the ones that launched are killed.
+     */
+    private void launch(List<Member> members, boolean launch) {
+        if (launch) {
+            Executor executor = launcher != null ? launcher : Runnable::run;
+            List<CompletableFuture<Void>> launches =
+                    new ArrayList<CompletableFuture<Void>>(members.size());
+            for (Member member : members) {
+                launches.add(CompletableFuture.runAsync(
+                        () -> dispatchSupport.runFrame(member.proc, member.frame), executor));
+            }
+
+            List<Member> launched = new ArrayList<Member>(members.size());
+            List<Member> failed = new ArrayList<Member>();
+            for (int i = 0; i < members.size(); i++) {
+                Member member = members.get(i);
+                try {
+                    launches.get(i).join();
+                    launched.add(member);
+                } catch (CompletionException e) {
+                    logger.warn("failed to launch " + member.frame + " on "
+                            + member.proc.getName() + ", stopping the rest of its gang",
+                            e.getCause());
+                    failed.add(member);
+                }
+            }
+            if (!failed.isEmpty()) {
+                failedCount.increment();
+                rollback(failed, "gang failed to launch");
+                kill(launched);
+                return;
+            }
+        }
+        launchedCount.increment();
+        logger.info("launched a gang of " + members.size() + " frames for layer "
+                + members.get(0).frame.layerName);
+    }
+
+    private void rollback(List<Member> members, String reason) {
+        for (Member member : members) {
+            try {
+                dispatchSupport.unbookProc(member.proc, reason);
+                dispatchSupport.clearFrame(member.frame);
+            } catch (RuntimeException e) {
+                logger.warn("failed to roll back gang member " + member.frame, e);
+            }
+        }
+    }
+
+    private void kill(List<Member> members) {
+        for (Member member : members) {
+            try {
+                rqdClient.killFrame(member.proc, "Another frame of its gang failed to launch.");
+            } catch (RqdClientException e) {
+                logger.warn("failed to kill gang member " + member.frame + ", " + e);
+            }
+        }
+    }
+
+    /**
+     * Rolls back the gangs that were not complete within the timeout.
+     *
+     * @return the number of gangs rolled back
+     */
+    public int expireGangs() {
+        List<Gang> expired = new ArrayList<Gang>();
+        long now = System.currentTimeMillis();
+        synchronized (gangs) {
+            Iterator<Gang> iterator = gangs.values().iterator();
+            while (iterator.hasNext()) {
+                Gang gang = iterator.next();
+                if (gang.deadline <= now) {
+                    iterator.remove();
+                    expired.add(gang);
+                }
+            }
+        }
+        for (Gang gang : expired) {
+            logger.info("gang for layer " + gang.layerName + " timed out with "
+                    + gang.members.size() + " of " + gang.size + " frames, rolling back");
+            rollback(gang.members, "gang timed out");
+            timedOutCount.increment();
+        }
+        return expired.size();
+    }
+
+    /**
+     * Returns the number of gangs being assembled.
+     */
+    public int getPendingGangs() {
+        synchronized (gangs) {
+            return gangs.size();
+        }
+    }
+
+    public long getLaunchedCount() {
+        return launchedCount.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOutCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    public DispatchSupport getDispatchSupport() {
+        return dispatchSupport;
+    }
+
+    public void setDispatchSupport(DispatchSupport dispatchSupport) {
+        this.dispatchSupport = dispatchSupport;
+    }
+
+    public LayerSettingsCache getLayerSettingsCache() {
+        return layerSettingsCache;
+    }
+
+    public void setLayerSettingsCache(LayerSettingsCache layerSettingsCache) {
+        this.layerSettingsCache = layerSettingsCache;
+    }
+
+    public LayerDao getLayerDao() {
+        return layerDao;
+    }
+
+    public void setLayerDao(LayerDao layerDao) {
+        this.layerDao = layerDao;
+    }
+
+    public RqdClient getRqdClient() {
+        return rqdClient;
+    }
+
+    public void setRqdClient(RqdClient rqdClient) {
+        this.rqdClient = rqdClient;
+    }
+}
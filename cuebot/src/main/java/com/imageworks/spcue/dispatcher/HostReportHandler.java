@@ -24,8 +24,8 @@ import com.imageworks.spcue.FrameDetail;
 import com.imageworks.spcue.FrameInterface;
 import com.imageworks.spcue.JobEntity;
 import com.imageworks.spcue.JobInterface;
-import com.imageworks.spcue.LayerDetail;
 import com.imageworks.spcue.LayerEntity;
+import com.imageworks.spcue.LayerSettings;
 import com.imageworks.spcue.LocalHostAssignment;
 import com.imageworks.spcue.PrometheusMetricsCollector;
 import com.imageworks.spcue.Source;
@@ -50,6 +50,7 @@ import com.imageworks.spcue.service.BookingManager;
 import com.imageworks.spcue.service.CommentManager;
 import com.imageworks.spcue.service.HostManager;
 import com.imageworks.spcue.service.JobManager;
+import com.imageworks.spcue.service.LayerSettingsCache;
 import com.imageworks.spcue.util.CueUtil;
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -81,6 +82,9 @@ public class HostReportHandler {
     private HostManager hostManager;
     private BookingQueue bookingQueue;
     private ThreadPoolExecutor reportQueue;
+    private ReportAdmissionController reportAdmissionController;
+    private WarmUpController warmUpController;
+    private BookingShardManager bookingShardManager;
     private ThreadPoolExecutor killQueue;
     private DispatchSupport dispatchSupport;
     private Dispatcher dispatcher;
@@ -89,6 +93,7 @@ public class HostReportHandler {
     private JobManager jobManager;
     private JobDao jobDao;
     private LayerDao layerDao;
+    private LayerSettingsCache layerSettingsCache;
     private KafkaEventPublisher kafkaEventPublisher;
     private MonitoringEventBuilder monitoringEventBuilder;
 
@@ -157,13 +162,19 @@ public class HostReportHandler {
      * Queues up the given host report.
      *
      * @param report
+     * @return the interval in milliseconds the host should wait before its next report, 0 to
+     *         keep its own schedule
+     * @throws ReportThrottledException if the report queue is overloaded
      */
-    public void queueHostReport(HostReport report) {
+    public int queueHostReport(HostReport report) {
         if (isShutdown()) {
             throw new RqdRetryReportException(
                     "Error processing host report. Cuebot not " + "accepting packets.");
         }
+        int nextReportInterval =
+                reportAdmissionController == null ? 0 : reportAdmissionController.admit();
         reportQueue.execute(new DispatchHandleHostReport(report, this));
+        return nextReportInterval;
     }
 
     public void handleHostReport(HostReport report, boolean isBoot) {
@@ -298,6 +309,12 @@ public class HostReportHandler {
                 logger.trace(msg);
             } else if (bookingOff) {
                 logger.debug("Booking has been turned off on Cuebot's configuration");
+            } else if (warmUpController != null && !warmUpController.isBookingAdmitted(host)) {
+                logger.trace("{} is not booked yet, the cuebot is warming up", host.name);
+            } else if (bookingShardManager != null
+                    && !bookingShardManager.isBookingOwned(host)) {
+                logger.trace("{} is booked by another cuebot", host.name);
+                bookingShardManager.redirectReports(host);
             } else {
                 // check again. The dangling local host assignment could be removed.
                 hasLocalJob = bookingManager.hasLocalHostAssignment(host);
@@ -702,7 +719,7 @@ public class HostReportHandler {
                 return false;
             }
         }
-        DispatchSupport.killedOffenderProcs.incrementAndGet();
+        DispatchSupport.killedOffenderProcs.increment();
         return true;
     }
 
@@ -723,7 +740,7 @@ public class HostReportHandler {
                 logger.warn("Unable to add a DispatchRqdKillFrame request, task rejected, " + e);
             }
         }
-        DispatchSupport.killedOffenderProcs.incrementAndGet();
+        DispatchSupport.killedOffenderProcs.increment();
         return true;
     }
 
@@ -803,8 +820,9 @@ public class HostReportHandler {
                         + "was unable to reserve an additional " + CueUtil.KbToMb(memNeeded)
                         + "on proc " + proc.getName() + ", " + e);
                 try {
-                    if (dispatchSupport.balanceReservedMemory(proc, memNeeded)) {
-                        proc.memoryReserved = frame.getRss();
+                    long granted = dispatchSupport.balanceReservedMemory(proc, memNeeded);
+                    if (granted > 0) {
+                        proc.memoryReserved += granted;
                         logger.info("was able to balance host: " + proc.getName());
                     } else {
                         logger.info("failed to balance host: " + proc.getName());
@@ -832,7 +850,7 @@ public class HostReportHandler {
             String layerId = frame.getLayerId();
 
             try {
-                LayerDetail layer = layerDao.getLayerDetail(layerId);
+                LayerSettings layer = layerSettingsCache.get(layerId);
                 long runtimeMinutes =
                         ((System.currentTimeMillis() - frame.getStartTime()) / 1000l) / 60;
 
@@ -918,7 +936,12 @@ public class HostReportHandler {
 
         /* Attempt to update the max RSS value for the job **/
         for (Map.Entry<LayerEntity, Long> set : layers.entrySet()) {
-            layerDao.increaseLayerMinMemory(set.getKey(), set.getValue());
+            // Skip the update when the cached minimum already covers this frame
+            LayerSettings settings = layerSettingsCache.getIfPresent(set.getKey().getLayerId());
+            if (settings == null || settings.minimumMemory < set.getValue()) {
+                layerDao.increaseLayerMinMemory(set.getKey(), set.getValue());
+                layerSettingsCache.invalidate(set.getKey());
+            }
             layerDao.updateLayerMaxRSS(set.getKey(), set.getValue(), false);
         }
     }
@@ -985,7 +1008,7 @@ public class HostReportHandler {
                 msg = "Virtual proc did not exist.";
             }
 
-            DispatchSupport.accountingErrors.incrementAndGet();
+            DispatchSupport.accountingErrors.increment();
             if (proc != null && hostManager.isOprhan(proc)) {
                 dispatchSupport.clearVirtualProcAssignement(proc);
                 dispatchSupport.unbookProc(proc);
@@ -1041,6 +1064,30 @@ public class HostReportHandler {
         this.reportQueue = reportQueue;
     }
 
+    public ReportAdmissionController getReportAdmissionController() {
+        return reportAdmissionController;
+    }
+
+    public void setReportAdmissionController(ReportAdmissionController reportAdmissionController) {
+        this.reportAdmissionController = reportAdmissionController;
+    }
+
+    public WarmUpController getWarmUpController() {
+        return warmUpController;
+    }
+
+    public void setWarmUpController(WarmUpController warmUpController) {
+        this.warmUpController = warmUpController;
+    }
+
+    public BookingShardManager getBookingShardManager() {
+        return bookingShardManager;
+    }
+
+    public void setBookingShardManager(BookingShardManager bookingShardManager) {
+        this.bookingShardManager = bookingShardManager;
+    }
+
     public DispatchSupport getDispatchSupport() {
         return dispatchSupport;
     }
@@ -1089,6 +1136,14 @@ public class HostReportHandler {
         this.layerDao = layerDao;
     }
 
+    public LayerSettingsCache getLayerSettingsCache() {
+        return layerSettingsCache;
+    }
+
+    public void setLayerSettingsCache(LayerSettingsCache layerSettingsCache) {
+        this.layerSettingsCache = layerSettingsCache;
+    }
+
     public BookingManager getBookingManager() {
         return bookingManager;
     }
@@ -0,0 +1,144 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.spcue.dao.JobDao;
+
+/**
+ * Keeps the expected run time of the frames of every pending job in memory, for the RUNTIME
+ * scheduling mode.
+ *
+ * The average run time of each job's succeeded frames is loaded from the database every refresh
+ * interval for the jobs not seen yet. Every frame that succeeds afterwards moves the estimate of
+ * its job towards its run time, weighting recent frames more, so the estimate follows jobs whose
+ * frames get longer or shorter as they progress. Jobs that are no longer pending are dropped on
+ * refresh. Jobs without any succeeded frame use the default run time.
+ */
+public class JobRuntimeStats {
+    private static final Logger logger = LogManager.getLogger(JobRuntimeStats.class);
+
+    private final int refreshSeconds;
+    private final double defaultFrameSeconds;
+    private final double weight;
+
+    private final Map<String, Double> frameSeconds = new ConcurrentHashMap<>();
+
+    private JobDao jobDao;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param refreshSeconds how often the run times are loaded from the database
+     * @param defaultFrameSeconds the run time expected from the frames of a job until one succeeds
+     * @param weight the weight of each succeeded frame in the estimate of its job, between 0 and 1
+     */
+    public JobRuntimeStats(int refreshSeconds, double defaultFrameSeconds, double weight) {
+        this.refreshSeconds = refreshSeconds;
+        this.defaultFrameSeconds = defaultFrameSeconds;
+        this.weight = weight;
+    }
+
+    /**
+     * Starts loading the run times in the background, or stops and forgets them. The run times are
+     * only kept while the RUNTIME scheduling mode is in use.
+     *
+     * @param enabled true to keep the run times up to date
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "JobRuntimeStats");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshSeconds, TimeUnit.SECONDS);
+        } else if (!enabled && scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            frameSeconds.clear();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return scheduler != null;
+    }
+
+    public void shutdown() {
+        setEnabled(false);
+    }
+
+    /**
+     * Loads the run times of the pending jobs that are not known yet, and drops the jobs that are
+     * no longer pending.
+     */
+    public void refresh() {
+        try {
+            Map<String, Double> loaded = jobDao.getAverageFrameSeconds();
+            for (Map.Entry<String, Double> entry : loaded.entrySet()) {
+                frameSeconds.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            frameSeconds.keySet().retainAll(loaded.keySet());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to load job run times: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Records the run time of a succeeded frame.
+     *
+     * @param jobId the job of the frame
+     * @param seconds the run time of the frame
+     */
+    public void recordFrame(String jobId, int seconds) {
+        frameSeconds.merge(jobId, (double) seconds,
+                (previous, current) -> previous + weight * (current - previous));
+    }
+
+    /**
+     * Returns the run time expected from the next frames of a job, in seconds.
+     */
+    public double getExpectedFrameSeconds(String jobId) {
+        return frameSeconds.getOrDefault(jobId, defaultFrameSeconds);
+    }
+
+    /**
+     * Returns the core-seconds a job is expected to keep using with the cores it is running, if
+     * each of its frames runs for the expected time.
+     *
+     * @param jobId the job
+     * @param cores the core units the job is running
+     */
+    public double getExpectedCoreSeconds(String jobId, int cores) {
+        return cores / 100.0 * getExpectedFrameSeconds(jobId);
+    }
+
+    public JobDao getJobDao() {
+        return jobDao;
+    }
+
+    public void setJobDao(JobDao jobDao) {
+        this.jobDao = jobDao;
+    }
+}
@@ -0,0 +1,187 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.util.FrameSet;
+
+/**
+ * The parts of a RunFrame shared by every frame of a layer, worked out once per layer.
+ *
+ * Holds the job and layer environment, the parsed frame range and the command split around its
+ * tokens, so building the command of a frame is a single pass with no regular expressions. The
+ * tokens are the ones offered by cuesubmit, see cuesubmit/cuesubmit/Constants.py. Values are
+ * inserted as they are, so a layer or job name holding a token or a '$' is not expanded again.
+ */
+public final class LaunchTemplate {
+
+    private enum Token {
+        ZFRAME("#ZFRAME#"),
+        IFRAME("#IFRAME#"),
+        FRAME_START("#FRAME_START#"),
+        FRAME_END("#FRAME_END#"),
+        FRAME_CHUNK("#FRAME_CHUNK#"),
+        LAYER("#LAYER#"),
+        JOB("#JOB#"),
+        FRAMESPEC("#FRAMESPEC#"),
+        FRAME("#FRAME#");
+
+        private final String text;
+
+        Token(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final Token[] TOKENS = Token.values();
+
+    private final String command;
+    private final String range;
+    private final int chunkSize;
+    private final Map<String, String> environment;
+    private final FrameSet frameSet;
+
+    /**
+     * The command split around its tokens, literals has one more entry than tokens.
+     */
+    private final String[] literals;
+    private final Token[] tokens;
+    private final boolean usesChunk;
+
+    /**
+     * @param command the layer command
+     * @param range the layer frame range
+     * @param chunkSize the layer chunk size
+     * @param environment the job environment overlaid with the layer environment
+     */
+    public LaunchTemplate(String command, String range, int chunkSize,
+            Map<String, String> environment) {
+        this.command = command;
+        this.range = range;
+        this.chunkSize = chunkSize;
+        this.environment = Collections.unmodifiableMap(new LinkedHashMap<>(environment));
+        this.frameSet = new FrameSet(range);
+
+        List<String> literals = new ArrayList<>();
+        List<Token> tokens = new ArrayList<>();
+        int literalStart = 0;
+        int i = command.indexOf('#');
+        while (i != -1) {
+            Token token = tokenAt(command, i);
+            if (token == null) {
+                i = command.indexOf('#', i + 1);
+                continue;
+            }
+            literals.add(command.substring(literalStart, i));
+            tokens.add(token);
+            literalStart = i + token.text.length();
+            i = command.indexOf('#', literalStart);
+        }
+        literals.add(command.substring(literalStart));
+        this.literals = literals.toArray(new String[0]);
+        this.tokens = tokens.toArray(new Token[0]);
+        this.usesChunk = tokens.contains(Token.FRAME_END) || tokens.contains(Token.FRAMESPEC);
+    }
+
+    private static Token tokenAt(String command, int index) {
+        for (Token token : TOKENS) {
+            if (command.startsWith(token.text, index)) {
+                return token;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the template was built from the same command, range and chunk size as the
+     * layer of the frame.
+     */
+    public boolean matches(DispatchFrame frame) {
+        return chunkSize == frame.chunkSize && command.equals(frame.command)
+                && range.equals(frame.range);
+    }
+
+    /**
+     * Returns the command of a frame with its tokens replaced.
+     *
+     * @param frame the frame
+     * @param frameNumber the number of the first frame of the chunk
+     * @return String
+     */
+    public String buildCommand(DispatchFrame frame, int frameNumber) {
+        if (tokens.length == 0) {
+            return command;
+        }
+        int chunkEndFrame = frameNumber;
+        String frameSpec = null;
+        if (usesChunk && chunkSize > 1) {
+            int startIndex = frameSet.index(frameNumber);
+            int endIndex = Math.min(startIndex + chunkSize, frameSet.size()) - 1;
+            chunkEndFrame = frameSet.get(endIndex);
+            frameSpec = frameSet.getChunk(startIndex, chunkSize);
+        }
+
+        StringBuilder sb = new StringBuilder(command.length() + 32 * tokens.length);
+        for (int i = 0; i < tokens.length; i++) {
+            sb.append(literals[i]);
+            switch (tokens[i]) {
+                case ZFRAME:
+                    sb.append(String.format("%04d", frameNumber));
+                    break;
+                case IFRAME:
+                case FRAME_START:
+                    sb.append(frameNumber);
+                    break;
+                case FRAME_END:
+                    sb.append(chunkEndFrame);
+                    break;
+                case FRAME_CHUNK:
+                    sb.append(chunkSize);
+                    break;
+                case LAYER:
+                    sb.append(frame.layerName);
+                    break;
+                case JOB:
+                    sb.append(frame.jobName);
+                    break;
+                case FRAMESPEC:
+                    sb.append(frameSpec == null ? String.valueOf(frameNumber) : frameSpec);
+                    break;
+                case FRAME:
+                    sb.append(frame.name);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown command token " + tokens[i]);
+            }
+        }
+        sb.append(literals[tokens.length]);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the job environment overlaid with the layer environment.
+     */
+    public Map<String, String> getEnvironment() {
+        return environment;
+    }
+}
@@ -0,0 +1,88 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.dao.JobDao;
+import com.imageworks.spcue.dao.LayerDao;
+
+/**
+ * Caches a LaunchTemplate per layer, so launching a frame does not read the job and layer
+ * environment from the database or parse the layer range again.
+ *
+ * The environment, command and range of a layer are set when the job is launched and are not
+ * edited afterwards, so entries are never invalidated. Still, a template is rebuilt if the command,
+ * range or chunk size of the frame being launched differ from the ones it was built from. Entries
+ * expire once their layer has not launched a frame for the TTL.
+ */
+public class LaunchTemplateCache {
+
+    private final Cache<String, LaunchTemplate> cache;
+
+    private JobDao jobDao;
+    private LayerDao layerDao;
+
+    public LaunchTemplateCache(int ttlSeconds, int maxSize) {
+        this.cache = CacheBuilder.newBuilder().expireAfterAccess(ttlSeconds, TimeUnit.SECONDS)
+                .maximumSize(maxSize).build();
+    }
+
+    /**
+     * Returns the launch template of the layer of a frame.
+     *
+     * @param frame
+     * @return LaunchTemplate
+     */
+    public LaunchTemplate get(DispatchFrame frame) {
+        LaunchTemplate template = cache.getIfPresent(frame.getLayerId());
+        if (template == null || !template.matches(frame)) {
+            Map<String, String> environment = new HashMap<>(jobDao.getEnvironment(frame));
+            environment.putAll(layerDao.getLayerEnvironment(frame));
+            template =
+                    new LaunchTemplate(frame.command, frame.range, frame.chunkSize, environment);
+            cache.put(frame.getLayerId(), template);
+        }
+        return template;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public JobDao getJobDao() {
+        return jobDao;
+    }
+
+    public void setJobDao(JobDao jobDao) {
+        this.jobDao = jobDao;
+    }
+
+    public LayerDao getLayerDao() {
+        return layerDao;
+    }
+
+    public void setLayerDao(LayerDao layerDao) {
+        this.layerDao = layerDao;
+    }
+}
@@ -0,0 +1,226 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.imageworks.spcue.LayerEntity;
+import com.imageworks.spcue.LimitEntity;
+import com.imageworks.spcue.dao.LayerDao;
+import com.imageworks.spcue.dao.LimitDao;
+
+/**
+ * Keeps the number of running frames of every limit in memory, so the dispatch queries only have
+ * to skip the layers of full limits instead of summing the running frames of every limited layer
+ * on each query.
+ *
+ * A proc counts against the limits of the layer it is reserved for until it is unbooked or
+ * reserved for another layer. Changes made inside a transaction are applied once it commits.
+ * The counts are reloaded from the database every reconcile interval, which picks up frames
+ * started and stopped by other cuebots, limits that were created, deleted or resized, and corrects
+ * any drift. The limits of each layer are cached for the same interval.
+ *
+ * Between reconciles other cuebots can fill a limit without this one noticing, the check made when
+ * a frame is started still stops the limit from being exceeded.
+ */
+public class LimitAccounting {
+    private static final Logger logger = LogManager.getLogger(LimitAccounting.class);
+
+    private static final String[] NO_LIMITS = new String[0];
+
+    private static final class Counter {
+        private final AtomicInteger running;
+        private final int maxValue;
+
+        private Counter(int running, int maxValue) {
+            this.running = new AtomicInteger(running);
+            this.maxValue = maxValue;
+        }
+
+        private boolean isFull() {
+            return running.get() >= maxValue;
+        }
+    }
+
+    private final int reconcileSeconds;
+    private final Cache<String, List<String>> layerLimits;
+
+    private volatile Map<String, Counter> counters = Collections.emptyMap();
+
+    private LimitDao limitDao;
+    private LayerDao layerDao;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param reconcileSeconds how often the counts are reloaded from the database
+     * @param maxLayers the maximum number of layers whose limits are cached
+     */
+    public LimitAccounting(int reconcileSeconds, int maxLayers) {
+        this.reconcileSeconds = reconcileSeconds;
+        this.layerLimits = CacheBuilder.newBuilder()
+                .expireAfterWrite(reconcileSeconds, TimeUnit.SECONDS).maximumSize(maxLayers)
+                .build();
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "LimitAccounting");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reconcile, 0, reconcileSeconds, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Reloads the limits and their running counts from the database.
+     */
+    public void reconcile() {
+        try {
+            Map<String, Counter> loaded = new HashMap<>();
+            for (LimitEntity limit : limitDao.getLimits()) {
+                loaded.put(limit.id, new Counter(limit.currentRunning, limit.maxValue));
+            }
+            counters = loaded;
+        } catch (RuntimeException e) {
+            logger.warn("Failed to reconcile limit counts: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a proc between layers, either of which may be null when the proc is new or is being
+     * unbooked.
+     *
+     * @param fromLayerId the layer the proc was reserved for
+     * @param toLayerId the layer the proc is now reserved for
+     */
+    public void moveProc(String fromLayerId, String toLayerId) {
+        if (fromLayerId != null && fromLayerId.equals(toLayerId)) {
+            return;
+        }
+        List<String> released = getLayerLimits(fromLayerId);
+        List<String> reserved = getLayerLimits(toLayerId);
+        if (released.isEmpty() && reserved.isEmpty()) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCommit() {
+                            add(released, -1);
+                            add(reserved, 1);
+                        }
+                    });
+        } else {
+            add(released, -1);
+            add(reserved, 1);
+        }
+    }
+
+    private void add(List<String> limitIds, int delta) {
+        Map<String, Counter> current = counters;
+        for (String limitId : limitIds) {
+            Counter counter = current.get(limitId);
+            if (counter != null) {
+                counter.running.addAndGet(delta);
+            }
+        }
+    }
+
+    private List<String> getLayerLimits(String layerId) {
+        if (layerId == null) {
+            return Collections.emptyList();
+        }
+        List<String> limitIds = layerLimits.getIfPresent(layerId);
+        if (limitIds == null) {
+            List<LimitEntity> limits = layerDao.getLimits(new LayerEntity(layerId));
+            limitIds = new ArrayList<>(limits.size());
+            for (LimitEntity limit : limits) {
+                limitIds.add(limit.id);
+            }
+            layerLimits.put(layerId, limitIds);
+        }
+        return limitIds;
+    }
+
+    /**
+     * Returns the ids of the limits that have no room for another frame.
+     *
+     * @return String[]
+     */
+    public String[] getFullLimits() {
+        List<String> full = null;
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            if (entry.getValue().isFull()) {
+                if (full == null) {
+                    full = new ArrayList<>();
+                }
+                full.add(entry.getKey());
+            }
+        }
+        return full == null ? NO_LIMITS : full.toArray(NO_LIMITS);
+    }
+
+    /**
+     * Returns the number of running frames counted against a limit.
+     *
+     * @param limitId
+     * @return the count, or -1 if the limit is not known
+     */
+    public int getRunningCount(String limitId) {
+        Counter counter = counters.get(limitId);
+        return counter == null ? -1 : counter.running.get();
+    }
+
+    public LimitDao getLimitDao() {
+        return limitDao;
+    }
+
+    public void setLimitDao(LimitDao limitDao) {
+        this.limitDao = limitDao;
+    }
+
+    public LayerDao getLayerDao() {
+        return layerDao;
+    }
+
+    public void setLayerDao(LayerDao layerDao) {
+        this.layerDao = layerDao;
+    }
+}
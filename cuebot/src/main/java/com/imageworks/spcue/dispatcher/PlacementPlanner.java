@@ -0,0 +1,379 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.JobInterface;
+
+/**
+ * Chooses which of the frames found for a host to book, packing the host instead of booking
+ * frames in job order until one does not fit.
+ *
+ * The jobs are split into priority bands of consecutive jobs in the order they were found. Each
+ * band is planned in turn against the resources left by the bands before it, so a frame never
+ * displaces one from a higher priority band. Within a band a depth first search picks the set of
+ * frames that uses the largest share of the idle cores, memory and GPUs. The search visits a
+ * bounded number of nodes and keeps the best set found, which is never worse than booking the band
+ * in order. Frames of the same band are booked in the order they were found.
+ *
+ * Every plan is compared with what booking in job order would have used, the difference is kept
+ * for the metrics.
+ */
+public class PlacementPlanner {
+
+    /**
+     * A frame that could be booked on the host, with the resources its proc would reserve.
+     */
+    public static final class Candidate {
+        private final int band;
+        private final int order;
+        private final JobInterface job;
+        private final DispatchFrame frame;
+        private final int cores;
+        private final long memory;
+        private final int gpus;
+        private final long gpuMemory;
+        private double score;
+
+        public Candidate(int band, int order, JobInterface job, DispatchFrame frame, int cores,
+                long memory, int gpus, long gpuMemory) {
+            this.band = band;
+            this.order = order;
+            this.job = job;
+            this.frame = frame;
+            this.cores = cores;
+            this.memory = memory;
+            this.gpus = gpus;
+            this.gpuMemory = gpuMemory;
+        }
+
+        public JobInterface getJob() {
+            return job;
+        }
+
+        public DispatchFrame getFrame() {
+            return frame;
+        }
+
+        public int getCores() {
+            return cores;
+        }
+
+        public long getMemory() {
+            return memory;
+        }
+    }
+
+    /**
+     * The resources left on the host while planning.
+     */
+    private static final class Capacity {
+        private int cores;
+        private long memory;
+        private int gpus;
+        private long gpuMemory;
+
+        private Capacity(int cores, long memory, int gpus, long gpuMemory) {
+            this.cores = cores;
+            this.memory = memory;
+            this.gpus = gpus;
+            this.gpuMemory = gpuMemory;
+        }
+
+        private boolean fits(Candidate c) {
+            return c.cores <= cores && c.memory <= memory && c.gpus <= gpus
+                    && c.gpuMemory <= gpuMemory;
+        }
+
+        private void use(Candidate c, int sign) {
+            cores -= sign * c.cores;
+            memory -= sign * c.memory;
+            gpus -= sign * c.gpus;
+            gpuMemory -= sign * c.gpuMemory;
+        }
+    }
+
+    private final boolean enabled;
+    private final int maxJobs;
+    private final int bandSize;
+    private final int searchLimit;
+
+    private final LongAdder planCount = new LongAdder();
+    private final LongAdder coresGained = new LongAdder();
+    private final LongAdder memoryGained = new LongAdder();
+
+    /**
+     * @param enabled false to book frames in job order
+     * @param maxJobs the number of jobs whose frames are planned together
+     * @param bandSize the number of consecutive jobs in a priority band
+     * @param searchLimit the maximum number of nodes searched per band
+     */
+    public PlacementPlanner(boolean enabled, int maxJobs, int bandSize, int searchLimit) {
+        this.enabled = enabled;
+        this.maxJobs = maxJobs;
+        this.bandSize = Math.max(1, bandSize);
+        this.searchLimit = searchLimit;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxJobs() {
+        return maxJobs;
+    }
+
+    /**
+     * Returns the priority band of the job at the given position in the job list.
+     */
+    public int getBand(int jobRank) {
+        return jobRank / bandSize;
+    }
+
+    /**
+     * Plans the frames to book on a host.
+     *
+     * @param host the host, its idle resources are not changed
+     * @param candidates the frames found for the host, in job order
+     * @param maxFramesPerJob the maximum number of frames booked from one job
+     * @param maxFrames the maximum number of frames booked on the host
+     * @return the frames to book, in booking order
+     */
+    public List<Candidate> plan(DispatchHost host, List<Candidate> candidates, int maxFramesPerJob,
+            int maxFrames) {
+        Capacity capacity =
+                new Capacity(host.idleCores, host.idleMemory, host.idleGpus, host.idleGpuMemory);
+        for (Candidate c : candidates) {
+            c.score = share(c.cores, host.idleCores) + share(c.memory, host.idleMemory)
+                    + share(c.gpus, host.idleGpus) + share(c.gpuMemory, host.idleGpuMemory);
+        }
+
+        List<Candidate> planned = new ArrayList<>();
+        Map<JobInterface, Integer> jobCounts = new HashMap<>();
+        int start = 0;
+        while (start < candidates.size() && planned.size() < maxFrames) {
+            int band = candidates.get(start).band;
+            int end = start;
+            while (end < candidates.size() && candidates.get(end).band == band) {
+                end++;
+            }
+            List<Candidate> items = new ArrayList<>();
+            for (Candidate c : candidates.subList(start, end)) {
+                if (capacity.fits(c)) {
+                    items.add(c);
+                }
+            }
+            items.sort(Comparator.comparingDouble((Candidate c) -> -c.score)
+                    .thenComparingInt(c -> c.order));
+
+            Search search = new Search(items, capacity, jobCounts, maxFramesPerJob,
+                    maxFrames - planned.size());
+            search.run();
+            search.best.sort(Comparator.comparingInt(c -> c.order));
+            for (Candidate c : search.best) {
+                capacity.use(c, 1);
+                jobCounts.merge(c.job, 1, Integer::sum);
+                planned.add(c);
+            }
+            start = end;
+        }
+
+        record(planned, greedy(host, candidates, maxFramesPerJob, maxFrames));
+        return planned;
+    }
+
+    private static double share(double used, double idle) {
+        return idle > 0 ? used / idle : 0;
+    }
+
+    /**
+     * A branch and bound search for the set of frames with the highest total score in one band.
+     */
+    private final class Search {
+        private final List<Candidate> items;
+        private final Capacity capacity;
+        private final Map<JobInterface, Integer> jobCounts;
+        private final int maxFramesPerJob;
+        private final int maxFrames;
+        private final double[] remainingScore;
+
+        private final List<Candidate> current = new ArrayList<>();
+        private List<Candidate> best = new ArrayList<>();
+        private double currentScore;
+        private double bestScore = -1;
+        private int nodes;
+
+        private Search(List<Candidate> items, Capacity capacity,
+                Map<JobInterface, Integer> jobCounts, int maxFramesPerJob, int maxFrames) {
+            this.items = items;
+            this.capacity = capacity;
+            this.jobCounts = new HashMap<>(jobCounts);
+            this.maxFramesPerJob = maxFramesPerJob;
+            this.maxFrames = maxFrames;
+            this.remainingScore = new double[items.size() + 1];
+            for (int i = items.size() - 1; i >= 0; i--) {
+                remainingScore[i] = remainingScore[i + 1] + items.get(i).score;
+            }
+        }
+
+        private void run() {
+            // Booking the band in order is the first solution, so the search can only improve
+            // on it
+            for (Candidate c : inOrder()) {
+                if (current.size() < maxFrames && canAdd(c)) {
+                    add(c);
+                }
+            }
+            keepIfBest();
+            while (!current.isEmpty()) {
+                remove(current.get(current.size() - 1));
+            }
+            search(0);
+        }
+
+        private List<Candidate> inOrder() {
+            List<Candidate> ordered = new ArrayList<>(items);
+            ordered.sort(Comparator.comparingInt(c -> c.order));
+            return ordered;
+        }
+
+        private void search(int index) {
+            if (nodes++ >= searchLimit) {
+                return;
+            }
+            if (index == items.size() || current.size() == maxFrames) {
+                keepIfBest();
+                return;
+            }
+            if (currentScore + remainingScore[index] <= bestScore) {
+                return;
+            }
+            Candidate c = items.get(index);
+            if (canAdd(c)) {
+                add(c);
+                search(index + 1);
+                remove(c);
+            }
+            search(index + 1);
+        }
+
+        private boolean canAdd(Candidate c) {
+            return capacity.fits(c) && jobCounts.getOrDefault(c.job, 0) < maxFramesPerJob;
+        }
+
+        private void add(Candidate c) {
+            capacity.use(c, 1);
+            jobCounts.merge(c.job, 1, Integer::sum);
+            current.add(c);
+            currentScore += c.score;
+        }
+
+        private void remove(Candidate c) {
+            capacity.use(c, -1);
+            jobCounts.merge(c.job, -1, Integer::sum);
+            current.remove(current.size() - 1);
+            currentScore -= c.score;
+        }
+
+        private void keepIfBest() {
+            if (currentScore > bestScore) {
+                bestScore = currentScore;
+                best = new ArrayList<>(current);
+            }
+        }
+    }
+
+    /**
+     * Returns the frames booking in job order would book: the frames of each job in turn until
+     * one does not fit.
+     */
+    private static List<Candidate> greedy(DispatchHost host, List<Candidate> candidates,
+            int maxFramesPerJob, int maxFrames) {
+        Capacity capacity =
+                new Capacity(host.idleCores, host.idleMemory, host.idleGpus, host.idleGpuMemory);
+        List<Candidate> booked = new ArrayList<>();
+        JobInterface skipped = null;
+        JobInterface job = null;
+        int jobCount = 0;
+        for (Candidate c : candidates) {
+            if (c.job != job) {
+                job = c.job;
+                jobCount = 0;
+            }
+            if (job == skipped || jobCount >= maxFramesPerJob) {
+                continue;
+            }
+            if (!capacity.fits(c)) {
+                skipped = job;
+                continue;
+            }
+            capacity.use(c, 1);
+            booked.add(c);
+            jobCount++;
+            if (booked.size() >= maxFrames) {
+                break;
+            }
+        }
+        return booked;
+    }
+
+    private void record(List<Candidate> planned, List<Candidate> greedy) {
+        long cores = 0;
+        long memory = 0;
+        for (Candidate c : planned) {
+            cores += c.cores;
+            memory += c.memory;
+        }
+        for (Candidate c : greedy) {
+            cores -= c.cores;
+            memory -= c.memory;
+        }
+        planCount.increment();
+        coresGained.add(cores);
+        memoryGained.add(memory);
+    }
+
+    /**
+     * Returns the number of hosts planned.
+     */
+    public long getPlanCount() {
+        return planCount.sum();
+    }
+
+    /**
+     * Returns the core units booked by the plans beyond what booking in job order would have
+     * booked.
+     */
+    public long getCoresGained() {
+        return coresGained.sum();
+    }
+
+    /**
+     * Returns the memory in KB booked by the plans beyond what booking in job order would have
+     * booked.
+     */
+    public long getMemoryGained() {
+        return memoryGained.sum();
+    }
+}
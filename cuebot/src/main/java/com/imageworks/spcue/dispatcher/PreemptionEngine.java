@@ -0,0 +1,212 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.spcue.DispatchJob;
+import com.imageworks.spcue.MaintenanceTask;
+import com.imageworks.spcue.Source;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.dao.JobDao;
+import com.imageworks.spcue.dao.MaintenanceDao;
+import com.imageworks.spcue.dao.ProcDao;
+
+/**
+ * Takes procs away from jobs over their minimum cores to give them to jobs below it.
+ *
+ * Frames that finish already hand their proc to a job below its minimum cores now and then, but
+ * a job can wait for hours behind long frames. Every interval the engine looks for pending jobs
+ * below their minimum cores and redirects procs of other jobs of the same show to them, killing
+ * the frames running on those procs. Procs running frames with checkpointing enabled are taken
+ * first, as those frames can restart from the last checkpoint they wrote themselves, then the
+ * procs of the lowest priority jobs, then the most recently booked procs, which have made the
+ * least progress. Preempted frames are killed like any other redirected frame, no checkpoint is
+ * requested from them. A job never loses more than one proc a round, nor is taken below its own
+ * minimum cores. Only one cuebot preempts at a time.
+ */
+public class PreemptionEngine {
+    private static final Logger logger = LogManager.getLogger(PreemptionEngine.class);
+
+    private final boolean enabled;
+    private final int intervalSeconds;
+    private final int maxJobs;
+    private final int maxPreemptions;
+
+    private JobDao jobDao;
+    private ProcDao procDao;
+    private MaintenanceDao maintenanceDao;
+    private RedirectManager redirectManager;
+
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder preemptedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private volatile int underServedJobs;
+
+    /**
+     * @param enabled whether procs are preempted at all
+     * @param intervalSeconds how often jobs below their minimum cores are looked for
+     * @param maxJobs the maximum number of jobs given procs each round
+     * @param maxPreemptions the maximum number of procs preempted each round
+     */
+    public PreemptionEngine(boolean enabled, int intervalSeconds, int maxJobs,
+            int maxPreemptions) {
+        this.enabled = enabled;
+        this.intervalSeconds = intervalSeconds;
+        this.maxJobs = maxJobs;
+        this.maxPreemptions = maxPreemptions;
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "PreemptionEngine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::run, intervalSeconds, intervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void run() {
+        try {
+            maintenanceDao.runLocked(MaintenanceTask.LOCK_PREEMPTION, 1, lease -> preempt());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to preempt procs for jobs below their minimum cores", e);
+        }
+    }
+
+    /**
+     * Runs one round of preemption.
+     *
+     * @return the number of procs preempted
+     */
+    public int preempt() {
+        Map<String, Integer> deficits = jobDao.getMinCoresDeficits(maxJobs);
+        underServedJobs = deficits.size();
+
+        Set<String> victimJobs = new HashSet<String>();
+        int preempted = 0;
+        for (Map.Entry<String, Integer> entry : deficits.entrySet()) {
+            if (preempted >= maxPreemptions) {
+                break;
+            }
+            DispatchJob job = jobDao.getDispatchJob(entry.getKey());
+            int needed = entry.getValue();
+            for (boolean checkpointing : new boolean[] {true, false}) {
+                if (needed <= 0 || preempted >= maxPreemptions) {
+                    break;
+                }
+                for (VirtualProc proc : procDao.findPreemptibleProcs(job, checkpointing,
+                        victimJobs, maxPreemptions - preempted)) {
+                    if (needed <= 0 || preempted >= maxPreemptions) {
+                        break;
+                    }
+                    if (!victimJobs.add(proc.getJobId())) {
+                        continue;
+                    }
+                    Source source = new Source("preempted to bring " + job.getName()
+                            + " up to its minimum cores");
+                    if (redirectManager.addRedirect(proc, job, true, source)) {
+                        logger.info("preempted " + proc + " for " + job.getName());
+                        preemptedCount.increment();
+                        needed -= proc.coresReserved;
+                        preempted++;
+                    } else {
+                        failedCount.increment();
+                        victimJobs.remove(proc.getJobId());
+                    }
+                }
+            }
+        }
+        return preempted;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of procs preempted.
+     */
+    public long getPreemptedCount() {
+        return preemptedCount.sum();
+    }
+
+    /**
+     * Returns the number of procs that could not be given to the job below its minimum cores.
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * Returns the number of jobs below their minimum cores found by the last round.
+     */
+    public int getUnderServedJobs() {
+        return underServedJobs;
+    }
+
+    public JobDao getJobDao() {
+        return jobDao;
+    }
+
+    public void setJobDao(JobDao jobDao) {
+        this.jobDao = jobDao;
+    }
+
+    public ProcDao getProcDao() {
+        return procDao;
+    }
+
+    public void setProcDao(ProcDao procDao) {
+        this.procDao = procDao;
+    }
+
+    public MaintenanceDao getMaintenanceDao() {
+        return maintenanceDao;
+    }
+
+    public void setMaintenanceDao(MaintenanceDao maintenanceDao) {
+        this.maintenanceDao = maintenanceDao;
+    }
+
+    public RedirectManager getRedirectManager() {
+        return redirectManager;
+    }
+
+    public void setRedirectManager(RedirectManager redirectManager) {
+        this.redirectManager = redirectManager;
+    }
+}
@@ -0,0 +1,133 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.imageworks.spcue.dispatcher.commands.DispatchHandleHostReport;
+
+/**
+ * Decides whether host status reports are accepted and how soon hosts should report again.
+ *
+ * The load of the report queue is measured by how long its oldest report has been waiting and by
+ * how full it is. While the wait stays under the target latency hosts keep their own schedule.
+ * Above it, hosts are asked to wait longer before their next report, up to the maximum interval
+ * as the wait approaches the maximum latency. Past the maximum latency, or once the queue fill
+ * ratio reaches the reject ratio, reports are refused with a retry delay. Intervals and delays
+ * are randomized so the hosts do not all come back at the same time.
+ */
+public class ReportAdmissionController {
+
+    private final boolean enabled;
+    private final long targetLatencyMillis;
+    private final long maxLatencyMillis;
+    private final double rejectFillRatio;
+    private final int minIntervalMillis;
+    private final int maxIntervalMillis;
+
+    private HostReportQueue reportQueue;
+
+    private final LongAdder throttledCount = new LongAdder();
+    private final LongAdder delayedCount = new LongAdder();
+
+    /**
+     * @param enabled false to accept every report without suggesting an interval
+     * @param targetLatencyMillis the queue wait under which hosts keep their own schedule
+     * @param maxLatencyMillis the queue wait at which reports are refused
+     * @param rejectFillRatio the queue fill ratio at which reports are refused
+     * @param minIntervalMillis the shortest interval suggested to hosts
+     * @param maxIntervalMillis the longest interval suggested to hosts, also the longest retry
+     *        delay
+     */
+    public ReportAdmissionController(boolean enabled, int targetLatencyMillis,
+            int maxLatencyMillis, double rejectFillRatio, int minIntervalMillis,
+            int maxIntervalMillis) {
+        this.enabled = enabled;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.rejectFillRatio = rejectFillRatio;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * Admits a host status report.
+     *
+     * @return the interval in milliseconds the host should wait before its next report, 0 to
+     *         keep its own schedule
+     * @throws ReportThrottledException if the report is refused
+     */
+    public int admit() {
+        if (!enabled) {
+            return 0;
+        }
+        long latency = getQueueLatencyMillis();
+        BlockingQueue<Runnable> queue = reportQueue.getQueue();
+        int size = queue.size();
+        double fill = (double) size / Math.max(1, size + queue.remainingCapacity());
+        double pressure =
+                Math.max((double) latency / maxLatencyMillis, fill / rejectFillRatio);
+
+        if (pressure >= 1.0) {
+            throttledCount.increment();
+            int retryDelay = ThreadLocalRandom.current().nextInt(minIntervalMillis,
+                    maxIntervalMillis + 1);
+            throw new ReportThrottledException("Report queue overloaded, waited " + latency
+                    + "ms with " + size + " reports queued. Retry in " + retryDelay + "ms",
+                    retryDelay);
+        }
+        if (latency <= targetLatencyMillis && fill < rejectFillRatio / 2) {
+            return 0;
+        }
+        delayedCount.increment();
+        double interval = minIntervalMillis + (maxIntervalMillis - minIntervalMillis) * pressure;
+        // Spread hosts over +/- 25% of the interval
+        return (int) (interval * (0.75 + ThreadLocalRandom.current().nextDouble() * 0.5));
+    }
+
+    /**
+     * Returns how long the oldest report in the queue has been waiting, in milliseconds.
+     */
+    public long getQueueLatencyMillis() {
+        Runnable oldest = reportQueue.getQueue().peek();
+        if (oldest instanceof DispatchHandleHostReport) {
+            return Math.max(0, System.currentTimeMillis()
+                    - ((DispatchHandleHostReport) oldest).getQueuedTime());
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of reports refused.
+     */
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+
+    /**
+     * Returns the number of reports answered with a longer interval.
+     */
+    public long getDelayedCount() {
+        return delayedCount.sum();
+    }
+
+    public void setReportQueue(HostReportQueue reportQueue) {
+        this.reportQueue = reportQueue;
+    }
+}
@@ -0,0 +1,36 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.dispatcher;
+
+/**
+ * Thrown when a host report is refused because the report queue is overloaded. The host should
+ * send its next report after the retry delay.
+ */
+@SuppressWarnings("serial")
+public class ReportThrottledException extends RqdRetryReportException {
+
+    private final int retryDelayMillis;
+
+    public ReportThrottledException(String message, int retryDelayMillis) {
+        super(message);
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    public int getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+}
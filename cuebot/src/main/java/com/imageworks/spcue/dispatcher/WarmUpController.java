@@ -0,0 +1,168 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.dao.DispatcherDao;
+
+/**
+ * Staggers booking after the cuebot starts.
+ *
+ * Right after a restart every host reports in within a few seconds and, with cold caches, each
+ * report would start a booking pass that queries the database. During the warm-up ramp only a
+ * share of the hosts are booked, growing linearly from the initial fraction to all of them. Each
+ * host is given a fixed position in [0, 1) derived from its id, so the same hosts are admitted
+ * from one report to the next and the admitted set only grows. The bookable shows cache is
+ * preloaded in the background when the ramp starts.
+ */
+public class WarmUpController {
+    private static final Logger logger = LogManager.getLogger(WarmUpController.class);
+
+    private final boolean enabled;
+    private final long rampMillis;
+    private final double initialFraction;
+
+    private DispatcherDao dispatcherDao;
+
+    private volatile long startTime;
+    private volatile boolean cachesPreloaded;
+    private final LongAdder deferredCount = new LongAdder();
+
+    /**
+     * @param enabled false to book every host as soon as the cuebot starts
+     * @param rampSeconds how long it takes to admit every host
+     * @param initialFraction the share of hosts admitted when the ramp starts
+     */
+    public WarmUpController(boolean enabled, int rampSeconds, double initialFraction) {
+        this.enabled = enabled;
+        this.rampMillis = rampSeconds * 1000L;
+        this.initialFraction = Math.max(0, Math.min(1, initialFraction));
+    }
+
+    /**
+     * Starts the ramp and preloads the caches.
+     */
+    public void start() {
+        startTime = System.currentTimeMillis();
+        if (!enabled || dispatcherDao == null) {
+            cachesPreloaded = true;
+            return;
+        }
+        logger.info("Starting warm-up, booking all hosts in {} seconds", rampMillis / 1000);
+        Thread preloader = new Thread(this::preloadCaches, "WarmUpPreloader");
+        preloader.setDaemon(true);
+        preloader.start();
+    }
+
+    private void preloadCaches() {
+        try {
+            long begin = System.currentTimeMillis();
+            int allocs = dispatcherDao.preloadCache();
+            logger.info("Preloaded bookable shows for {} allocations in {} ms", allocs,
+                    System.currentTimeMillis() - begin);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to preload the dispatcher caches, they will fill on demand", e);
+        } finally {
+            cachesPreloaded = true;
+        }
+    }
+
+    /**
+     * Returns true if the host can be booked now, counting it as deferred otherwise.
+     */
+    public boolean isBookingAdmitted(DispatchHost host) {
+        if (isBookingAdmitted(host.getHostId(), System.currentTimeMillis())) {
+            return true;
+        }
+        deferredCount.increment();
+        return false;
+    }
+
+    /**
+     * Returns true if the host would be booked at the given time.
+     *
+     * @param hostId the host id
+     * @param now the time in milliseconds
+     */
+    public boolean isBookingAdmitted(String hostId, long now) {
+        double fraction = getAdmittedFraction(now);
+        return fraction >= 1 || position(hostId) < fraction;
+    }
+
+    /**
+     * Returns the fixed position of a host in [0, 1), spread evenly across hosts.
+     */
+    static double position(String hostId) {
+        int hash = hostId.hashCode() * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return (hash >>> 8) / (double) (1 << 24);
+    }
+
+    /**
+     * Returns the share of hosts admitted at the given time.
+     *
+     * @param now the time in milliseconds
+     */
+    public double getAdmittedFraction(long now) {
+        if (!enabled || startTime == 0 || rampMillis <= 0) {
+            return 1;
+        }
+        long elapsed = now - startTime;
+        if (elapsed >= rampMillis) {
+            return 1;
+        }
+        return initialFraction
+                + (1 - initialFraction) * Math.max(0, elapsed) / (double) rampMillis;
+    }
+
+    /**
+     * Returns the share of hosts admitted now.
+     */
+    public double getAdmittedFraction() {
+        return getAdmittedFraction(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns true until every host is admitted.
+     */
+    public boolean isWarmingUp() {
+        return getAdmittedFraction() < 1;
+    }
+
+    /**
+     * Returns true once the cache preload has finished, whether or not it succeeded.
+     */
+    public boolean isCachesPreloaded() {
+        return cachesPreloaded;
+    }
+
+    /**
+     * Returns the number of host reports that were not booked because of the warm-up.
+     */
+    public long getDeferredCount() {
+        return deferredCount.sum();
+    }
+
+    public void setDispatcherDao(DispatcherDao dispatcherDao) {
+        this.dispatcherDao = dispatcherDao;
+    }
+}
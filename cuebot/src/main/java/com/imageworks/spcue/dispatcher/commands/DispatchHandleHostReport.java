@@ -30,6 +30,7 @@ public class DispatchHandleHostReport extends KeyRunnable {
     private boolean isBootReport;
     private HostReportHandler hostReportHandler;
     public volatile int reportTime = (int) (System.currentTimeMillis() / 1000);
+    private final long queuedTime = System.currentTimeMillis();
 
     public DispatchHandleHostReport(HostReport report, HostReportHandler rqdReportManager) {
         super("disp_handle_host_report_" + report.hashCode() + "_" + rqdReportManager.hashCode());
@@ -60,6 +61,13 @@ public class DispatchHandleHostReport extends KeyRunnable {
         reportTime = (int) (System.currentTimeMillis() / 1000);
     }
 
+    /**
+     * Returns the time the report was queued, in milliseconds since the epoch.
+     */
+    public long getQueuedTime() {
+        return queuedTime;
+    }
+
     public HostReport getHostReport() {
         return hostReport;
     }
@@ -0,0 +1,79 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.monitoring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Packs several protobuf monitoring events into a single Kafka message.
+ *
+ * An envelope is the events one after the other, each prefixed with its length as a varint, the
+ * same framing as Message.writeDelimitedTo. All the events of an envelope are for the same topic,
+ * so the message type is given by the topic.
+ */
+public final class EventEnvelope {
+
+    /**
+     * The content-type header of a Kafka message holding an envelope.
+     */
+    public static final String CONTENT_TYPE = "application/x-protobuf-delimited";
+
+    private EventEnvelope() {}
+
+    /**
+     * Packs the values of the given events into an envelope.
+     *
+     * @param records the events, in the order they are to be read back
+     * @return the envelope
+     * @throws IOException if the envelope cannot be written
+     */
+    public static byte[] pack(List<EventRecord> records) throws IOException {
+        int size = 0;
+        for (EventRecord record : records) {
+            int length = record.getValue().length;
+            size += CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+        }
+        byte[] envelope = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(envelope);
+        for (EventRecord record : records) {
+            out.writeUInt32NoTag(record.getValue().length);
+            out.writeRawBytes(record.getValue());
+        }
+        out.checkNoSpaceLeft();
+        return envelope;
+    }
+
+    /**
+     * Splits an envelope back into the serialized events it holds.
+     *
+     * @param envelope the envelope
+     * @return the serialized events, in order
+     * @throws IOException if the envelope is truncated or malformed
+     */
+    public static List<byte[]> unpack(byte[] envelope) throws IOException {
+        List<byte[]> values = new ArrayList<>();
+        CodedInputStream in = CodedInputStream.newInstance(envelope);
+        while (!in.isAtEnd()) {
+            values.add(in.readByteArray());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.monitoring;
+
+/**
+ * How a monitoring event is serialized. Sent to Kafka as the content-type header so consumers can
+ * tell the formats apart.
+ */
+public enum EventFormat {
+    /**
+     * The event printed by JsonFormat with proto field names, the compatibility format.
+     */
+    JSON("application/json"),
+
+    /**
+     * The event in the protobuf binary format, the message type is given by the topic.
+     */
+    PROTOBUF("application/x-protobuf");
+
+    private final String contentType;
+
+    EventFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
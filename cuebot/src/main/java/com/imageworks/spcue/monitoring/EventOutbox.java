@@ -0,0 +1,333 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.monitoring;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Buffers monitoring events between the publisher and the EventSink.
+ *
+ * Events are held in a bounded in-memory ring and delivered in order by a single thread. When the
+ * ring is full, or the sink fails, new events are spilled to an EventSpillLog instead of being
+ * dropped. Once the sink accepts events again the ring is emptied first and the spilled events are
+ * replayed after it, so events are delivered in the order they were published. Events are only
+ * dropped when the spill log is full too.
+ *
+ * Delivery is at least once: a batch that failed part way is sent again in full.
+ */
+public class EventOutbox {
+    private static final Logger logger = LogManager.getLogger(EventOutbox.class);
+
+    private static final long IDLE_WAIT_MS = 1000;
+
+    private final EventSink sink;
+    private final EventSpillLog spillLog;
+    private final int ringCapacity;
+    private final int batchSize;
+    private final long minBackoffMs;
+    private final long maxBackoffMs;
+
+    private final Deque<EventRecord> ring;
+    private final Thread drainer;
+
+    /**
+     * True while new events must go to the spill log, either because the ring filled up or the
+     * sink failed. Cleared by the drainer once both the ring and the spill log are empty.
+     */
+    private boolean spilling;
+    private volatile boolean running = true;
+
+    /**
+     * The batch being delivered by the drainer, kept until the sink accepts it.
+     */
+    private List<EventRecord> pending;
+    private EventSpillLog.Batch pendingReplay;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Creates the outbox and starts delivering events, starting with any left in the spill log.
+     *
+     * @param sink where events are delivered
+     * @param spillLog where events are kept while they cannot be delivered
+     * @param ringCapacity the number of events held in memory
+     * @param batchSize the maximum number of events sent to the sink at once
+     * @param minBackoffMs the delay before retrying after the sink fails, doubled on every
+     *        failure
+     * @param maxBackoffMs the maximum delay between retries
+     */
+    public EventOutbox(EventSink sink, EventSpillLog spillLog, int ringCapacity, int batchSize,
+            long minBackoffMs, long maxBackoffMs) {
+        this.sink = sink;
+        this.spillLog = spillLog;
+        this.ringCapacity = ringCapacity;
+        this.batchSize = batchSize;
+        this.minBackoffMs = minBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.ring = new ArrayDeque<>(ringCapacity);
+        this.spilling = !spillLog.isEmpty();
+
+        drainer = new Thread(this::drain, "KafkaEventOutbox");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Queues an event for delivery. Never blocks on the sink.
+     *
+     * @param record the event
+     */
+    public synchronized void publish(EventRecord record) {
+        if (!spilling && ring.size() < ringCapacity) {
+            ring.addLast(record);
+            notifyAll();
+            return;
+        }
+
+        spilling = true;
+        try {
+            if (spillLog.append(record)) {
+                spilledCount.incrementAndGet();
+                notifyAll();
+                return;
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to spill event for topic {}: {}", record.getTopic(),
+                    e.getMessage());
+        }
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped % 1000 == 1) {
+            logger.warn("Event outbox is full, dropped {} events so far", dropped);
+        }
+    }
+
+    private void drain() {
+        long backoffMs = 0;
+        long errorBackoffMs = 0;
+        while (running) {
+            try {
+                if (pending == null && !nextBatch()) {
+                    continue;
+                }
+                sink.send(pending);
+                if (pendingReplay != null) {
+                    spillLog.commit(pendingReplay);
+                    replayedCount.addAndGet(pending.size());
+                } else {
+                    sentCount.addAndGet(pending.size());
+                }
+                pending = null;
+                pendingReplay = null;
+                errorBackoffMs = 0;
+                if (backoffMs > 0) {
+                    logger.info("Event sink recovered, replaying spilled events");
+                    backoffMs = 0;
+                }
+            } catch (IOException e) {
+                if (!running) {
+                    break;
+                }
+                if (backoffMs == 0) {
+                    logger.warn("Event sink failed, spilling events until it recovers: {}",
+                            e.getMessage());
+                }
+                synchronized (this) {
+                    spilling = true;
+                }
+                backoffMs = nextBackoff(backoffMs);
+                if (!sleep(backoffMs)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error delivering events, dropping the batch", e);
+                dropPending();
+                // Do not spin if the same error comes back on every batch
+                errorBackoffMs = nextBackoff(errorBackoffMs);
+                if (!sleep(errorBackoffMs)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private long nextBackoff(long backoffMs) {
+        return backoffMs == 0 ? minBackoffMs : Math.min(backoffMs * 2, maxBackoffMs);
+    }
+
+    /**
+     * Sleeps between retries, returns false if the drainer was interrupted.
+     */
+    private static boolean sleep(long ms) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(ms);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private void dropPending() {
+        if (pending != null) {
+            droppedCount.addAndGet(pending.size());
+        }
+        if (pendingReplay != null) {
+            try {
+                spillLog.commit(pendingReplay);
+            } catch (IOException e) {
+                logger.warn("Failed to skip spilled events: {}", e.getMessage());
+            }
+        }
+        pending = null;
+        pendingReplay = null;
+    }
+
+    /**
+     * Takes the next batch, from the ring first as it holds the oldest events.
+     *
+     * @return false if there was nothing to send
+     */
+    private boolean nextBatch() throws IOException, InterruptedException {
+        synchronized (this) {
+            if (!ring.isEmpty()) {
+                int size = Math.min(batchSize, ring.size());
+                pending = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    pending.add(ring.removeFirst());
+                }
+                return true;
+            }
+        }
+
+        // Read outside the outbox lock so publish() is not held up by the spill log read
+        EventSpillLog.Batch replay = spillLog.peek(batchSize);
+        if (replay != null) {
+            pendingReplay = replay;
+            pending = replay.getRecords();
+            return true;
+        }
+
+        synchronized (this) {
+            // Events spilled since the read must be replayed before the ring is used again
+            if (ring.isEmpty() && spillLog.isEmpty()) {
+                spilling = false;
+                wait(IDLE_WAIT_MS);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Stops delivering events and closes the sink. Events still in memory are sent once more and
+     * are added to the spill log if that fails, so they are delivered after a restart. In that case
+     * they are replayed after events that were spilled before the shutdown.
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        drainer.interrupt();
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<EventRecord> remaining = new ArrayList<>();
+        synchronized (this) {
+            if (pending != null && pendingReplay == null) {
+                remaining.addAll(pending);
+            }
+            remaining.addAll(ring);
+            ring.clear();
+        }
+        if (!remaining.isEmpty()) {
+            try {
+                sink.send(remaining);
+                sentCount.addAndGet(remaining.size());
+            } catch (IOException e) {
+                for (EventRecord record : remaining) {
+                    try {
+                        if (spillLog.append(record)) {
+                            spilledCount.incrementAndGet();
+                            continue;
+                        }
+                    } catch (IOException se) {
+                        logger.warn("Failed to spill event on shutdown: {}", se.getMessage());
+                    }
+                    droppedCount.incrementAndGet();
+                }
+            }
+        }
+        spillLog.close();
+        sink.close();
+    }
+
+    /**
+     * Returns the number of events delivered straight from memory.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Returns the number of events written to the spill log.
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * Returns the number of events delivered from the spill log.
+     */
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * Returns the number of events lost because neither the ring nor the spill log had room.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of events waiting in memory.
+     */
+    public synchronized int getRingSize() {
+        return ring.size();
+    }
+
+    /**
+     * Returns the number of spill log segment files in use.
+     */
+    public int getSpillSegmentCount() {
+        return spillLog.getSegmentCount();
+    }
+}
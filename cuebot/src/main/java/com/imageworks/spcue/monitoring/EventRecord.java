@@ -0,0 +1,57 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.monitoring;
+
+/**
+ * A serialized monitoring event addressed to a topic, as held by the EventOutbox.
+ */
+public final class EventRecord {
+
+    private final String topic;
+    private final String key;
+    private final byte[] value;
+    private final EventFormat format;
+
+    public EventRecord(String topic, String key, byte[] value) {
+        this(topic, key, value, EventFormat.JSON);
+    }
+
+    public EventRecord(String topic, String key, byte[] value, EventFormat format) {
+        this.topic = topic;
+        this.key = key;
+        this.value = value;
+        this.format = format;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Returns the partitioning key, may be null.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public EventFormat getFormat() {
+        return format;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.monitoring;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The destination the EventOutbox delivers monitoring events to.
+ */
+public interface EventSink {
+
+    /**
+     * Delivers a batch of events in order, returning once all of them are acknowledged.
+     *
+     * @param records the events to deliver
+     * @throws IOException if any event could not be delivered, the whole batch will be sent again
+     */
+    void send(List<EventRecord> records) throws IOException;
+
+    void close();
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.monitoring;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append only log of monitoring events kept in memory mapped segment files.
+ *
+ * Events are appended to the newest segment and read back in order from the oldest one. When a
+ * segment is full a new one is started, once every event of a segment has been read and committed
+ * the segment file is deleted. Each segment starts with a header holding its write and read
+ * positions, so the events still in the log are replayed after a restart. An event is only
+ * visible to readers once the write position covering it is updated, so an event torn by a crash
+ * is discarded. A segment holding an event that cannot be read is renamed with a .corrupt suffix
+ * and skipped, so it can be inspected without blocking the events behind it.
+ *
+ * The directory is locked while the log is open, so two processes never share its segments.
+ */
+public class EventSpillLog {
+    private static final Logger logger = LogManager.getLogger(EventSpillLog.class);
+
+    private static final int MAGIC = 0x4f434557;
+    private static final int WRITE_POSITION = 4;
+    private static final int READ_POSITION = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final int MIN_RECORD_SIZE = 4 + 1 + 2 + 4;
+    private static final String SUFFIX = ".seg";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+    private static final String LOCK_FILE = ".lock";
+    private static final EventFormat[] FORMATS = EventFormat.values();
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private long nextSequence;
+
+    private static final class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+
+        private Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        private int writePosition() {
+            return buffer.getInt(WRITE_POSITION);
+        }
+
+        private int readPosition() {
+            return buffer.getInt(READ_POSITION);
+        }
+
+        private boolean isDrained() {
+            return readPosition() >= writePosition();
+        }
+    }
+
+    /**
+     * A batch of events read from the log, removed from it by commit.
+     */
+    public static final class Batch {
+        private final Segment segment;
+        private final int endPosition;
+        private final List<EventRecord> records;
+
+        private Batch(Segment segment, int endPosition, List<EventRecord> records) {
+            this.segment = segment;
+            this.endPosition = endPosition;
+            this.records = records;
+        }
+
+        public List<EventRecord> getRecords() {
+            return records;
+        }
+    }
+
+    /**
+     * Opens the log, keeping the events left in the directory by a previous run.
+     *
+     * @param dir the directory holding the segment files, created if missing
+     * @param segmentBytes the size of each segment file
+     * @param maxSegments the maximum number of segment files, events are refused beyond it
+     * @throws IOException if the directory or a segment cannot be opened, or the directory is in
+     *         use by another log
+     */
+    public EventSpillLog(Path dir, int segmentBytes, int maxSegments) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(dir);
+        lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("event spill log " + dir + " is in use by another process");
+        }
+        lock = fileLock;
+
+        try {
+            load();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the segments left in the directory, deleting the ones already read.
+     */
+    private void load() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                name = name.substring(0, name.length() - SUFFIX.length());
+                try {
+                    sequences.add(Long.parseLong(name));
+                } catch (NumberFormatException e) {
+                    logger.warn("ignoring unexpected file in the event spill log: {}", file);
+                }
+            }
+        }
+        Collections.sort(sequences);
+        for (long sequence : sequences) {
+            Segment segment = openSegment(sequence, false);
+            if (segment == null) {
+                continue;
+            }
+            if (segment.isDrained()) {
+                Files.deleteIfExists(segment.path);
+            } else {
+                segments.addLast(segment);
+            }
+            nextSequence = sequence + 1;
+        }
+        if (!segments.isEmpty()) {
+            logger.info("event spill log {} has {} segments left to replay", dir, segments.size());
+        }
+    }
+
+    private Segment openSegment(long sequence, boolean create) throws IOException {
+        Path path = dir.resolve(String.format("%020d%s", sequence, SUFFIX));
+        try (FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int size = create ? segmentBytes : (int) channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(WRITE_POSITION, HEADER_SIZE);
+                buffer.putInt(READ_POSITION, HEADER_SIZE);
+            } else if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(WRITE_POSITION) > size) {
+                logger.warn("discarding corrupt event spill log segment {}", path);
+                Files.deleteIfExists(path);
+                return null;
+            }
+            return new Segment(path, buffer);
+        }
+    }
+
+    /**
+     * Appends an event to the log.
+     *
+     * @param record the event
+     * @return false if the log is full or the event is larger than a segment
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized boolean append(EventRecord record) throws IOException {
+        byte[] topic = record.getTopic().getBytes(StandardCharsets.UTF_8);
+        byte[] key = record.getKey() == null ? null
+                : record.getKey().getBytes(StandardCharsets.UTF_8);
+        int length = 4 + 1 + 2 + topic.length + 4 + (key == null ? 0 : key.length)
+                + record.getValue().length;
+        if (HEADER_SIZE + length > segmentBytes) {
+            return false;
+        }
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.writePosition() + length > segment.buffer.capacity()) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            segment = openSegment(nextSequence++, true);
+            segments.addLast(segment);
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int position = segment.writePosition();
+        buffer.position(position);
+        buffer.putInt(length);
+        buffer.put((byte) record.getFormat().ordinal());
+        buffer.putShort((short) topic.length);
+        buffer.put(topic);
+        if (key == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(key.length);
+            buffer.put(key);
+        }
+        buffer.put(record.getValue());
+        buffer.putInt(WRITE_POSITION, position + length);
+        return true;
+    }
+
+    /**
+     * Reads the oldest events without removing them from the log. The events read before a corrupt
+     * one are returned first, the segment holding it is quarantined by the next call.
+     *
+     * Only the position of the segment is read under the log lock, the events are read after it is
+     * released so appends are not held up by the read. peek and commit must be called by a single
+     * reader: only the reader moves the read position or removes segments, and appends only write
+     * past the write position read here.
+     *
+     * @param maxRecords the maximum number of events to read
+     * @return the events, or null if the log is empty
+     */
+    public Batch peek(int maxRecords) throws IOException {
+        while (true) {
+            Segment segment;
+            int position;
+            int end;
+            synchronized (this) {
+                segment = segments.peekFirst();
+                while (segment != null && segment.isDrained() && segment != segments.peekLast()) {
+                    removeFirst();
+                    segment = segments.peekFirst();
+                }
+                if (segment == null || segment.isDrained()) {
+                    return null;
+                }
+                position = segment.readPosition();
+                end = Math.min(segment.writePosition(), segment.buffer.capacity());
+            }
+
+            List<EventRecord> records = new ArrayList<>(maxRecords);
+            ByteBuffer buffer = segment.buffer.duplicate();
+            while (position < end && records.size() < maxRecords) {
+                EventRecord record = readRecord(buffer, position, end);
+                if (record == null) {
+                    break;
+                }
+                records.add(record);
+                position = buffer.position();
+            }
+            if (!records.isEmpty()) {
+                return new Batch(segment, position, records);
+            }
+            synchronized (this) {
+                quarantineFirst(position);
+            }
+        }
+    }
+
+    /**
+     * Reads the event at a position, leaving the buffer positioned after it.
+     *
+     * @return the event, or null if the bytes at the position are not a valid event
+     */
+    private static EventRecord readRecord(ByteBuffer buffer, int position, int end) {
+        try {
+            buffer.position(position);
+            int length = buffer.getInt();
+            int format = buffer.get();
+            if (length < MIN_RECORD_SIZE || length > end - position || format < 0
+                    || format >= FORMATS.length) {
+                return null;
+            }
+            int recordEnd = position + length;
+            int topicLength = buffer.getShort();
+            if (topicLength < 0 || topicLength > recordEnd - buffer.position()) {
+                return null;
+            }
+            byte[] topic = new byte[topicLength];
+            buffer.get(topic);
+            int keyLength = buffer.getInt();
+            if (buffer.position() > recordEnd || keyLength > recordEnd - buffer.position()) {
+                return null;
+            }
+            String key = null;
+            if (keyLength >= 0) {
+                byte[] keyBytes = new byte[keyLength];
+                buffer.get(keyBytes);
+                key = new String(keyBytes, StandardCharsets.UTF_8);
+            }
+            byte[] value = new byte[recordEnd - buffer.position()];
+            buffer.get(value);
+            return new EventRecord(new String(topic, StandardCharsets.UTF_8), key, value,
+                    FORMATS[format]);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Takes the oldest segment out of the log because it holds an event that cannot be read, moving
+     * its file aside rather than deleting it.
+     */
+    private void quarantineFirst(int position) {
+        Segment segment = segments.removeFirst();
+        Path target = segment.path.resolveSibling(segment.path.getFileName() + CORRUPT_SUFFIX);
+        logger.warn("skipping the corrupt event at {} of event spill log segment {}, moved to {}",
+                position, segment.path, target);
+        try {
+            Files.move(segment.path, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("failed to move corrupt event spill log segment {}: {}", segment.path,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the events of a batch returned by peek from the log.
+     */
+    public synchronized void commit(Batch batch) throws IOException {
+        batch.segment.buffer.putInt(READ_POSITION, batch.endPosition);
+        if (batch.segment.isDrained() && batch.segment != segments.peekLast()) {
+            removeFirst();
+        }
+    }
+
+    private void removeFirst() throws IOException {
+        Segment segment = segments.removeFirst();
+        Files.deleteIfExists(segment.path);
+    }
+
+    /**
+     * Returns true if every event appended to the log has been committed.
+     */
+    public synchronized boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (!segment.isDrained()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of segment files in use.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Writes the segments to disk and unlocks the directory.
+     */
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warn("failed to unlock event spill log {}: {}", dir, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.monitoring;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A local stand-in for a Kafka broker, used for testing and for running without Kafka.
+ *
+ * Each topic is a file in the broker directory holding length prefixed keys and values along with
+ * the format of each event. The broker is considered down while its directory does not exist, so
+ * removing and recreating the directory simulates an outage.
+ */
+public class FileEventSink implements EventSink {
+
+    private final Path dir;
+
+    public FileEventSink(Path dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public synchronized void send(List<EventRecord> records) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("event broker directory " + dir + " does not exist");
+        }
+        for (EventRecord record : records) {
+            try (OutputStream file = Files.newOutputStream(topicFile(dir, record.getTopic()),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                if (record.getKey() == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] key = record.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(key.length);
+                    out.write(key);
+                }
+                out.writeByte(record.getFormat().ordinal());
+                out.writeInt(record.getValue().length);
+                out.write(record.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void close() {}
+
+    /**
+     * Reads all the events published to a topic, in the order they were delivered.
+     *
+     * @param dir the broker directory
+     * @param topic the topic name
+     * @return the events, empty if nothing was published to the topic
+     * @throws IOException if the topic file cannot be read
+     */
+    public static List<EventRecord> read(Path dir, String topic) throws IOException {
+        List<EventRecord> records = new ArrayList<>();
+        try (InputStream file = Files.newInputStream(topicFile(dir, topic));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                int keyLength;
+                try {
+                    keyLength = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                String key = null;
+                if (keyLength >= 0) {
+                    byte[] keyBytes = new byte[keyLength];
+                    in.readFully(keyBytes);
+                    key = new String(keyBytes, StandardCharsets.UTF_8);
+                }
+                EventFormat format = EventFormat.values()[in.readByte()];
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                records.add(new EventRecord(topic, key, value, format));
+            }
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+        return records;
+    }
+
+    private static Path topicFile(Path dir, String topic) {
+        return dir.resolve(topic + ".log");
+    }
+}
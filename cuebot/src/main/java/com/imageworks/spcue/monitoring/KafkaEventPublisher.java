@@ -14,12 +14,16 @@
 
 package com.imageworks.spcue.monitoring;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
@@ -28,6 +32,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -36,10 +41,9 @@ import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.admin.CreateTopicsResult;
 import org.apache.kafka.clients.admin.NewTopic;
-import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
-import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -59,10 +63,14 @@ import com.imageworks.spcue.util.CueExceptionUtil;
 
 /**
  * KafkaEventPublisher publishes monitoring events to Kafka topics for downstream processing. Events
- * are serialized as JSON for compatibility with Elasticsearch and other consumers.
+ * are serialized as JSON by default for compatibility with existing consumers, or in the protobuf
+ * binary format, which is much cheaper to produce, when monitoring.kafka.format is protobuf.
+ * Protobuf events can also be packed into envelopes of many events per Kafka message.
  *
  * This service is the central point for all monitoring event publishing in Cuebot. Events are
- * queued and published asynchronously to avoid blocking the main dispatch threads.
+ * queued and published asynchronously to avoid blocking the main dispatch threads, an event that
+ * does not fit in the queue is dropped and counted. Serialized events go through an EventOutbox,
+ * which spills them to local disk while Kafka is slow or down and replays them once it recovers.
  */
 public class KafkaEventPublisher extends ThreadPoolExecutor {
     private static final Logger logger = LogManager.getLogger(KafkaEventPublisher.class);
@@ -94,12 +102,14 @@ public class KafkaEventPublisher extends ThreadPoolExecutor {
     @Autowired
     private Environment env;
 
-    private KafkaProducer<String, String> producer;
+    private EventOutbox outbox;
     private AdminClient adminClient;
     private JsonFormat.Printer jsonPrinter;
+    private EventFormat format = EventFormat.JSON;
     private String sourceCuebot;
     private String bootstrapServers;
     private boolean enabled = false;
+    private final AtomicLong rejectedCount = new AtomicLong();
 
     public KafkaEventPublisher() {
         super(THREAD_POOL_SIZE_INITIAL, THREAD_POOL_SIZE_MAX, 10, TimeUnit.SECONDS,
@@ -123,15 +133,35 @@ public class KafkaEventPublisher extends ThreadPoolExecutor {
 
         bootstrapServers = env.getProperty("monitoring.kafka.bootstrap.servers", "localhost:9092");
 
+        format = EventFormat.valueOf(
+                env.getProperty("monitoring.kafka.format", "json").toUpperCase(Locale.ROOT));
         jsonPrinter =
                 JsonFormat.printer().includingDefaultValueFields().preservingProtoFieldNames();
 
-        // Initialize admin client and create topics before starting the producer
-        initializeAdminClient();
-        createTopics();
-        initializeKafkaProducer();
+        EventSink sink;
+        String sinkType = env.getProperty("monitoring.kafka.sink", "kafka");
+        if (sinkType.equals("file")) {
+            sink = new FileEventSink(
+                    Paths.get(env.getRequiredProperty("monitoring.kafka.sink.dir")));
+        } else {
+            // Initialize admin client and create topics before starting the producer
+            initializeAdminClient();
+            createTopics();
+            sink = initializeKafkaProducer();
+        }
 
-        logger.info("Kafka event publishing initialized, source cuebot: {}", sourceCuebot);
+        try {
+            initializeOutbox(sink);
+        } catch (IOException e) {
+            logger.error("Unable to open the event spill log, Kafka event publishing is disabled",
+                    e);
+            sink.close();
+            enabled = false;
+            return;
+        }
+
+        logger.info("Kafka event publishing initialized, source cuebot: {}, format: {}",
+                sourceCuebot, format);
     }
 
     private void initializeAdminClient() {
@@ -198,7 +228,7 @@ public class KafkaEventPublisher extends ThreadPoolExecutor {
         }
     }
 
-    private void initializeKafkaProducer() {
+    private EventSink initializeKafkaProducer() {
         Properties props = new Properties();
 
         // Kafka broker configuration
@@ -206,7 +236,8 @@ public class KafkaEventPublisher extends ThreadPoolExecutor {
 
         // Serialization
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
+                ByteArraySerializer.class.getName());
 
         // Producer configuration for reliability
         props.put(ProducerConfig.ACKS_CONFIG, env.getProperty("monitoring.kafka.acks", "1"));
@@ -218,6 +249,9 @@ public class KafkaEventPublisher extends ThreadPoolExecutor {
                 env.getProperty("monitoring.kafka.linger.ms", Integer.class, 10));
         props.put(ProducerConfig.BUFFER_MEMORY_CONFIG,
                 env.getProperty("monitoring.kafka.buffer.memory", Long.class, 33554432L));
+        // How long a send may block when the broker is unreachable before the outbox spills
+        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG,
+                env.getProperty("monitoring.kafka.max.block.ms", Long.class, 5000L));
 
         // Compression
         props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG,
@@ -226,19 +260,45 @@ public class KafkaEventPublisher extends ThreadPoolExecutor {
         // Client ID
         props.put(ProducerConfig.CLIENT_ID_CONFIG, "cuebot-" + sourceCuebot);
 
-        producer = new KafkaProducer<>(props);
+        // Envelopes only apply to protobuf events, JSON events are always sent one per message
+        return new KafkaEventSink(props,
+                env.getProperty("monitoring.kafka.outbox.send_timeout_ms", Long.class, 30000L),
+                env.getProperty("monitoring.kafka.envelope.max_events", Integer.class, 1),
+                env.getProperty("monitoring.kafka.envelope.max_bytes", Integer.class, 524288));
+    }
+
+    private void initializeOutbox(EventSink sink) throws IOException {
+        // Each cuebot on a host gets its own directory by default, the spill log locks it
+        String dir = env.getProperty("monitoring.kafka.outbox.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "cuebot-kafka-outbox-"
+                        + sourceCuebot + "-" + env.getProperty("grpc.cue_port", "8443"))
+                        .toString());
+        EventSpillLog spillLog = new EventSpillLog(Paths.get(dir),
+                env.getProperty("monitoring.kafka.outbox.segment_bytes", Integer.class, 67108864),
+                env.getProperty("monitoring.kafka.outbox.max_segments", Integer.class, 16));
+        outbox = new EventOutbox(sink, spillLog,
+                env.getProperty("monitoring.kafka.outbox.ring_size", Integer.class, 10000),
+                env.getProperty("monitoring.kafka.outbox.batch_size", Integer.class, 500),
+                env.getProperty("monitoring.kafka.outbox.min_backoff_ms", Long.class, 500L),
+                env.getProperty("monitoring.kafka.outbox.max_backoff_ms", Long.class, 30000L));
     }
 
     @PreDestroy
     public void shutdown() {
-        if (producer != null) {
-            producer.flush();
-            producer.close();
+        // Serialize the events already queued so the outbox can deliver or spill them
+        super.shutdown();
+        try {
+            awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shutdownNow();
+        if (outbox != null) {
+            outbox.shutdown();
         }
         if (adminClient != null) {
             adminClient.close();
         }
-        shutdownNow();
         logger.info("Kafka event publisher shut down");
     }
 
@@ -312,29 +372,24 @@ public class KafkaEventPublisher extends ThreadPoolExecutor {
      * Internal method to publish any protobuf message to a Kafka topic.
      */
     private void publishEvent(String topic, String key, Message event, String eventType) {
+        Runnable task = () -> {
+            try {
+                byte[] value = format == EventFormat.PROTOBUF ? event.toByteArray()
+                        : jsonPrinter.print(event).getBytes(StandardCharsets.UTF_8);
+                outbox.publish(new EventRecord(topic, key, value, format));
+            } catch (Exception e) {
+                logger.warn("Error serializing event for topic {}: {}", topic, e.getMessage());
+                CueExceptionUtil.logStackTrace("KafkaEventPublisher error", e);
+            }
+        };
         try {
-            execute(() -> {
-                try {
-                    String jsonValue = jsonPrinter.print(event);
-                    ProducerRecord<String, String> record =
-                            new ProducerRecord<>(topic, key, jsonValue);
-
-                    producer.send(record, (metadata, exception) -> {
-                        if (exception != null) {
-                            logger.warn("Failed to publish event to topic {}: {}", topic,
-                                    exception.getMessage());
-                        } else {
-                            logger.trace("Published event to {}, partition={}, offset={}", topic,
-                                    metadata.partition(), metadata.offset());
-                        }
-                    });
-                } catch (Exception e) {
-                    logger.warn("Error serializing event for topic {}: {}", topic, e.getMessage());
-                    CueExceptionUtil.logStackTrace("KafkaEventPublisher error", e);
-                }
-            });
+            execute(task);
         } catch (RejectedExecutionException e) {
-            logger.warn("Event queue is full, dropping event for topic {}", topic);
+            // Never serialize or spill on the caller's thread, it is a dispatch or report thread
+            long rejected = rejectedCount.incrementAndGet();
+            if (rejected % 1000 == 1) {
+                logger.warn("Kafka event queue is full, dropped {} events so far", rejected);
+            }
         }
     }
 
@@ -358,4 +413,25 @@ public class KafkaEventPublisher extends ThreadPoolExecutor {
     public int getPendingEventCount() {
         return getQueue().size();
     }
+
+    /**
+     * Returns the number of events dropped because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the format events are serialized in.
+     */
+    public EventFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the outbox delivering the events, null if publishing is disabled.
+     */
+    public EventOutbox getOutbox() {
+        return outbox;
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.monitoring;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * Delivers monitoring events to Kafka.
+ *
+ * Every message carries a content-type header naming the format of its value. When envelopes are
+ * enabled, consecutive protobuf events bound for the same partition are packed into a single
+ * EventEnvelope message, which also carries the number of events it holds. The partition is
+ * worked out from the event key the same way the default partitioner does, so each key keeps its
+ * partition and its order whether or not its events are packed.
+ */
+public class KafkaEventSink implements EventSink {
+
+    public static final String CONTENT_TYPE_HEADER = "content-type";
+    public static final String EVENT_COUNT_HEADER = "opencue-event-count";
+
+    private static final int UNKNOWN_PARTITION = -1;
+
+    private final Producer<String, byte[]> producer;
+    private final long sendTimeoutMs;
+    private final int envelopeMaxEvents;
+    private final int envelopeMaxBytes;
+
+    /**
+     * @param props the producer configuration, must use a byte array value serializer
+     * @param sendTimeoutMs how long to wait for a batch to be acknowledged
+     * @param envelopeMaxEvents the maximum number of protobuf events packed into one message, 1 to
+     *        send every event as its own message
+     * @param envelopeMaxBytes the maximum size of the events packed into one message
+     */
+    public KafkaEventSink(Properties props, long sendTimeoutMs, int envelopeMaxEvents,
+            int envelopeMaxBytes) {
+        this(new KafkaProducer<>(props), sendTimeoutMs, envelopeMaxEvents, envelopeMaxBytes);
+    }
+
+    public KafkaEventSink(Producer<String, byte[]> producer, long sendTimeoutMs,
+            int envelopeMaxEvents, int envelopeMaxBytes) {
+        this.producer = producer;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.envelopeMaxEvents = envelopeMaxEvents;
+        this.envelopeMaxBytes = envelopeMaxBytes;
+    }
+
+    @Override
+    public void send(List<EventRecord> records) throws IOException {
+        List<Future<RecordMetadata>> results = new ArrayList<>(records.size());
+        long deadline = System.currentTimeMillis() + sendTimeoutMs;
+        try {
+            List<ProducerRecord<String, byte[]>> messages =
+                    envelopeMaxEvents > 1 ? pack(records) : toMessages(records);
+            for (ProducerRecord<String, byte[]> message : messages) {
+                results.add(producer.send(message));
+            }
+            for (Future<RecordMetadata> result : results) {
+                result.get(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+        } catch (KafkaException | ExecutionException | TimeoutException e) {
+            throw new IOException("failed to publish " + records.size() + " events to Kafka", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while publishing events to Kafka", e);
+        }
+    }
+
+    private List<ProducerRecord<String, byte[]>> toMessages(List<EventRecord> records) {
+        List<ProducerRecord<String, byte[]>> messages = new ArrayList<>(records.size());
+        for (EventRecord record : records) {
+            messages.add(toMessage(record));
+        }
+        return messages;
+    }
+
+    private ProducerRecord<String, byte[]> toMessage(EventRecord record) {
+        ProducerRecord<String, byte[]> message =
+                new ProducerRecord<>(record.getTopic(), record.getKey(), record.getValue());
+        message.headers().add(CONTENT_TYPE_HEADER,
+                record.getFormat().getContentType().getBytes(StandardCharsets.UTF_8));
+        return message;
+    }
+
+    /**
+     * Groups the events by partition, keeping their order within each partition, and packs runs
+     * of protobuf events into envelopes.
+     */
+    private List<ProducerRecord<String, byte[]>> pack(List<EventRecord> records)
+            throws IOException {
+        Map<String, Integer> partitionCounts = new HashMap<>();
+        Map<TopicPartition, List<EventRecord>> partitions = new LinkedHashMap<>();
+        for (EventRecord record : records) {
+            TopicPartition partition = new TopicPartition(record.getTopic(),
+                    partitionFor(record, partitionCounts));
+            partitions.computeIfAbsent(partition, p -> new ArrayList<>()).add(record);
+        }
+
+        List<ProducerRecord<String, byte[]>> messages = new ArrayList<>();
+        List<EventRecord> envelope = new ArrayList<>(envelopeMaxEvents);
+        for (Map.Entry<TopicPartition, List<EventRecord>> entry : partitions.entrySet()) {
+            int envelopeBytes = 0;
+            for (EventRecord record : entry.getValue()) {
+                if (record.getFormat() != EventFormat.PROTOBUF) {
+                    addEnvelope(entry.getKey(), envelope, messages);
+                    envelopeBytes = 0;
+                    messages.add(toMessage(record));
+                    continue;
+                }
+                if (envelope.size() >= envelopeMaxEvents || (!envelope.isEmpty()
+                        && envelopeBytes + record.getValue().length > envelopeMaxBytes)) {
+                    addEnvelope(entry.getKey(), envelope, messages);
+                    envelopeBytes = 0;
+                }
+                envelope.add(record);
+                envelopeBytes += record.getValue().length;
+            }
+            addEnvelope(entry.getKey(), envelope, messages);
+        }
+        return messages;
+    }
+
+    private void addEnvelope(TopicPartition partition, List<EventRecord> envelope,
+            List<ProducerRecord<String, byte[]>> messages) throws IOException {
+        if (envelope.isEmpty()) {
+            return;
+        }
+        if (envelope.size() == 1) {
+            messages.add(toMessage(envelope.get(0)));
+        } else {
+            ProducerRecord<String, byte[]> message = new ProducerRecord<>(partition.topic(),
+                    partition.partition() == UNKNOWN_PARTITION ? null : partition.partition(),
+                    null, EventEnvelope.pack(envelope));
+            message.headers().add(CONTENT_TYPE_HEADER,
+                    EventEnvelope.CONTENT_TYPE.getBytes(StandardCharsets.UTF_8));
+            message.headers().add(EVENT_COUNT_HEADER,
+                    Integer.toString(envelope.size()).getBytes(StandardCharsets.UTF_8));
+            messages.add(message);
+        }
+        envelope.clear();
+    }
+
+    /**
+     * Returns the partition the default partitioner would pick for the event key, or
+     * UNKNOWN_PARTITION if the event has no key.
+     */
+    private int partitionFor(EventRecord record, Map<String, Integer> partitionCounts) {
+        if (record.getKey() == null) {
+            return UNKNOWN_PARTITION;
+        }
+        int count = partitionCounts.computeIfAbsent(record.getTopic(),
+                topic -> producer.partitionsFor(topic).size());
+        if (count == 0) {
+            return UNKNOWN_PARTITION;
+        }
+        return Utils.toPositive(Utils.murmur2(record.getKey().getBytes(StandardCharsets.UTF_8)))
+                % count;
+    }
+
+    @Override
+    public void close() {
+        producer.flush();
+        producer.close();
+    }
+}
@@ -17,6 +17,7 @@ package com.imageworks.spcue.rqd;
 
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
@@ -56,6 +57,7 @@ public final class RqdClientGrpc implements RqdClient {
     private final int rqdServerPort;
     private final int rqdTaskDeadlineSeconds;
     private LoadingCache<String, ManagedChannel> channelCache;
+    private Function<String, ManagedChannel> channelFactory;
 
     private boolean testMode = false;
 
@@ -81,6 +83,9 @@ public final class RqdClientGrpc implements RqdClient {
                 }).build(new CacheLoader<String, ManagedChannel>() {
                     @Override
                     public ManagedChannel load(String host) throws Exception {
+                        if (channelFactory != null) {
+                            return channelFactory.apply(host);
+                        }
                         ManagedChannelBuilder<?> channelBuilder = ManagedChannelBuilder
                                 .forAddress(host, rqdServerPort).usePlaintext();
                         return channelBuilder.build();
@@ -212,6 +217,20 @@ public final class RqdClientGrpc implements RqdClient {
         }
     }
 
+    /**
+     * Replaces how channels to RQD hosts are opened. By default a plaintext channel is opened to
+     * the host name on the RQD port; the load test harness uses this to route calls to in-process
+     * RQD stubs instead.
+     *
+     * @param channelFactory returns a channel for a host name
+     */
+    public void setChannelFactory(Function<String, ManagedChannel> channelFactory) {
+        this.channelFactory = channelFactory;
+        if (channelCache != null) {
+            channelCache.invalidateAll();
+        }
+    }
+
     @Override
     public void setTestMode(boolean testMode) {
         this.testMode = testMode;
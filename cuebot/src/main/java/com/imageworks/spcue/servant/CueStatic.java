@@ -15,6 +15,10 @@
 
 package com.imageworks.spcue.servant;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import io.grpc.stub.StreamObserver;
 
 import com.imageworks.spcue.dispatcher.BookingQueue;
@@ -24,8 +28,10 @@ import com.imageworks.spcue.dispatcher.HostReportQueue;
 import com.imageworks.spcue.grpc.cue.CueGetSystemStatsRequest;
 import com.imageworks.spcue.grpc.cue.CueGetSystemStatsResponse;
 import com.imageworks.spcue.grpc.cue.CueInterfaceGrpc;
+import com.imageworks.spcue.grpc.cue.DispatchStageLatency;
 import com.imageworks.spcue.grpc.cue.SystemStats;
 import com.imageworks.spcue.service.Whiteboard;
+import com.imageworks.spcue.util.LatencyHistogram;
 
 public class CueStatic extends CueInterfaceGrpc.CueInterfaceImplBase {
 
@@ -64,41 +70,48 @@ public class CueStatic extends CueInterfaceGrpc.CueInterfaceImplBase {
                 .setBookingExecuted(bookingQueue.getCompletedTaskCount())
                 .setBookingRejected(bookingQueue.getRejectedTaskCount()).setBookingSleepMillis(0)
 
-                .setHostBalanceSuccess(DispatchSupport.balanceSuccess.get())
-                .setHostBalanceFailed(DispatchSupport.balanceFailed.get())
-                .setKilledOffenderProcs(DispatchSupport.killedOffenderProcs.get())
-                .setKilledOomProcs(DispatchSupport.killedOomProcs.get())
-                .setClearedProcs(DispatchSupport.clearedProcs.get())
-                .setBookingRetries(DispatchSupport.bookingRetries.get())
-                .setBookingErrors(DispatchSupport.bookingErrors.get())
-                .setBookedProcs(DispatchSupport.bookedProcs.get())
+                .setHostBalanceSuccess(DispatchSupport.balanceSuccess.sum())
+                .setHostBalanceFailed(DispatchSupport.balanceFailed.sum())
+                .setKilledOffenderProcs(DispatchSupport.killedOffenderProcs.sum())
+                .setKilledOomProcs(DispatchSupport.killedOomProcs.sum())
+                .setClearedProcs(DispatchSupport.clearedProcs.sum())
+                .setBookingRetries(DispatchSupport.bookingRetries.sum())
+                .setBookingErrors(DispatchSupport.bookingErrors.sum())
+                .setBookedProcs(DispatchSupport.bookedProcs.sum())
 
                 // TODO(gregdenton) Reimplement these with gRPC. (Issue #69)
                 // .setReqForData(IceServer.dataRequests.get())
                 // .setReqForFunction(IceServer.rpcRequests.get())
                 // .setReqErrors(IceServer.errors.get())
 
-                .setUnbookedProcs(DispatchSupport.unbookedProcs.get())
-                .setPickedUpCores(DispatchSupport.pickedUpCoresCount.get())
-                .setStrandedCores(DispatchSupport.strandedCoresCount.get()).build();
+                .setUnbookedProcs(DispatchSupport.unbookedProcs.sum())
+                .setPickedUpCores(DispatchSupport.pickedUpCoresCount.sum())
+                .setStrandedCores(DispatchSupport.strandedCoresCount.sum())
+                .setBookedCores(DispatchSupport.bookedCores.sum())
+                .setBookedGpus(DispatchSupport.bookedGpus.sum())
+                .setDispatchedProcs(DispatchSupport.dispatchedProcs.sum())
+                .setAccountingErrors(DispatchSupport.accountingErrors.sum())
+                .setFixedFrames(DispatchSupport.fixedFrames.sum())
+                .setPickedUpGpus(DispatchSupport.pickedUpGpusCount.sum())
+                .setStrandedGpus(DispatchSupport.strandedGpusCount.sum())
+                .addAllDispatchLatencies(getDispatchLatencies()).build();
         responseObserver.onNext(CueGetSystemStatsResponse.newBuilder().setStats(stats).build());
         responseObserver.onCompleted();
     }
 
-    public boolean isDispatchQueueHealthy() {
-        return this.dispatchQueue.isHealthy();
-    }
-
-    public boolean isManageQueueHealthy() {
-        return this.manageQueue.isHealthy();
-    }
-
-    public boolean isReportQueueHealthy() {
-        return this.reportQueue.isHealthy();
-    }
-
-    public boolean isBookingQueueHealthy() {
-        return this.bookingQueue.isHealthy();
+    private static List<DispatchStageLatency> getDispatchLatencies() {
+        List<DispatchStageLatency> latencies = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : DispatchSupport.stageLatencies
+                .entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            latencies.add(DispatchStageLatency.newBuilder().setStage(entry.getKey())
+                    .setCount(snapshot.getCount()).setMeanMs(snapshot.getMean() / 1000.0)
+                    .setP50Ms(snapshot.getPercentile(50) / 1000.0)
+                    .setP95Ms(snapshot.getPercentile(95) / 1000.0)
+                    .setP99Ms(snapshot.getPercentile(99) / 1000.0)
+                    .setMaxMs(snapshot.getMax() / 1000.0).build());
+        }
+        return latencies;
     }
 
     public Whiteboard getWhiteboard() {
@@ -118,6 +118,7 @@ import com.imageworks.spcue.grpc.renderpartition.RenderPartitionType;
 import com.imageworks.spcue.service.DependManager;
 import com.imageworks.spcue.service.JobManager;
 import com.imageworks.spcue.service.JobManagerSupport;
+import com.imageworks.spcue.service.LayerSettingsCache;
 import com.imageworks.spcue.service.LocalBookingSupport;
 import com.imageworks.spcue.service.Whiteboard;
 import com.imageworks.spcue.util.Convert;
@@ -133,6 +134,7 @@ public class ManageLayer extends LayerInterfaceGrpc.LayerInterfaceImplBase {
     private DependManager dependManager;
     private JobManagerSupport jobManagerSupport;
     private LayerDao layerDao;
+    private LayerSettingsCache layerSettingsCache;
     private DispatchQueue manageQueue;
     private Whiteboard whiteboard;
     private LocalBookingSupport localBookingSupport;
@@ -230,6 +232,7 @@ public class ManageLayer extends LayerInterfaceGrpc.LayerInterfaceImplBase {
         updateLayer(request.getLayer());
         if (attemptChange(env, property, jobManager, layer, responseObserver)) {
             layerDao.updateLayerTags(layer, new HashSet<>(request.getTagsList()));
+            layerSettingsCache.invalidate(layer);
             responseObserver.onNext(LayerSetTagsResponse.newBuilder().build());
             responseObserver.onCompleted();
         }
@@ -263,6 +266,7 @@ public class ManageLayer extends LayerInterfaceGrpc.LayerInterfaceImplBase {
         updateLayer(request.getLayer());
         if (attemptChange(env, property, jobManager, layer, responseObserver)) {
             layerDao.updateLayerMinMemory(layer, request.getMemory());
+            layerSettingsCache.invalidate(layer);
             responseObserver.onNext(LayerSetMinMemoryResponse.newBuilder().build());
             responseObserver.onCompleted();
         }
@@ -274,6 +278,7 @@ public class ManageLayer extends LayerInterfaceGrpc.LayerInterfaceImplBase {
         updateLayer(request.getLayer());
         if (attemptChange(env, property, jobManager, layer, responseObserver)) {
             layerDao.updateLayerMinGpuMemory(layer, request.getGpuMemory());
+            layerSettingsCache.invalidate(layer);
             responseObserver.onNext(LayerSetMinGpuMemoryResponse.newBuilder().build());
             responseObserver.onCompleted();
         }
@@ -405,6 +410,7 @@ public class ManageLayer extends LayerInterfaceGrpc.LayerInterfaceImplBase {
         updateLayer(request.getLayer());
         if (attemptChange(env, property, jobManager, layer, responseObserver)) {
             layerDao.updateThreadable(layer, request.getThreadable());
+            layerSettingsCache.invalidate(layer);
             responseObserver.onNext(LayerSetThreadableResponse.newBuilder().build());
             responseObserver.onCompleted();
         }
@@ -416,6 +422,7 @@ public class ManageLayer extends LayerInterfaceGrpc.LayerInterfaceImplBase {
         updateLayer(request.getLayer());
         if (attemptChange(env, property, jobManager, layer, responseObserver)) {
             layerDao.updateTimeout(layer, request.getTimeout());
+            layerSettingsCache.invalidate(layer);
             responseObserver.onNext(LayerSetTimeoutResponse.newBuilder().build());
             responseObserver.onCompleted();
         }
@@ -427,6 +434,7 @@ public class ManageLayer extends LayerInterfaceGrpc.LayerInterfaceImplBase {
         updateLayer(request.getLayer());
         if (attemptChange(env, property, jobManager, layer, responseObserver)) {
             layerDao.updateTimeoutLLU(layer, request.getTimeoutLlu());
+            layerSettingsCache.invalidate(layer);
             responseObserver.onNext(LayerSetTimeoutLLUResponse.newBuilder().build());
             responseObserver.onCompleted();
         }
@@ -577,6 +585,14 @@ public class ManageLayer extends LayerInterfaceGrpc.LayerInterfaceImplBase {
         this.layerDao = layerDao;
     }
 
+    public LayerSettingsCache getLayerSettingsCache() {
+        return layerSettingsCache;
+    }
+
+    public void setLayerSettingsCache(LayerSettingsCache layerSettingsCache) {
+        this.layerSettingsCache = layerSettingsCache;
+    }
+
     public JobManagerSupport getJobManagerSupport() {
         return jobManagerSupport;
     }
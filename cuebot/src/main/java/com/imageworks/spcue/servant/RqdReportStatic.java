@@ -1,10 +1,14 @@
 
 package com.imageworks.spcue.servant;
 
+import io.grpc.Metadata;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 
+import com.imageworks.spcue.dispatcher.BookingShardManager;
 import com.imageworks.spcue.dispatcher.FrameCompleteHandler;
 import com.imageworks.spcue.dispatcher.HostReportHandler;
+import com.imageworks.spcue.dispatcher.ReportThrottledException;
 import com.imageworks.spcue.grpc.report.RqdReportInterfaceGrpc;
 import com.imageworks.spcue.grpc.report.RqdReportRqdStartupRequest;
 import com.imageworks.spcue.grpc.report.RqdReportRqdStartupResponse;
@@ -15,8 +19,15 @@ import com.imageworks.spcue.grpc.report.RqdReportStatusResponse;
 
 public class RqdReportStatic extends RqdReportInterfaceGrpc.RqdReportInterfaceImplBase {
 
+    /**
+     * Trailer holding the delay in milliseconds before a throttled host should report again.
+     */
+    public static final Metadata.Key<String> RETRY_DELAY_KEY =
+            Metadata.Key.of("retry-delay-ms", Metadata.ASCII_STRING_MARSHALLER);
+
     private FrameCompleteHandler frameCompleteHandler;
     private HostReportHandler hostReportHandler;
+    private BookingShardManager bookingShardManager;
 
     @SuppressWarnings("unused")
 
@@ -39,8 +50,21 @@ public class RqdReportStatic extends RqdReportInterfaceGrpc.RqdReportInterfaceIm
     @Override
     public void reportStatus(RqdReportStatusRequest request,
             StreamObserver<RqdReportStatusResponse> responseObserver) {
-        hostReportHandler.queueHostReport(request.getHostReport());
-        responseObserver.onNext(RqdReportStatusResponse.newBuilder().build());
+        int nextReportInterval;
+        try {
+            nextReportInterval = hostReportHandler.queueHostReport(request.getHostReport());
+        } catch (ReportThrottledException e) {
+            Metadata trailers = new Metadata();
+            trailers.put(RETRY_DELAY_KEY, Integer.toString(e.getRetryDelayMillis()));
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription(e.getMessage())
+                    .asRuntimeException(trailers));
+            return;
+        }
+        String hostName = request.getHostReport().getHost().getName();
+        String cuebot = bookingShardManager == null ? ""
+                : bookingShardManager.takeReportRedirect(hostName);
+        responseObserver.onNext(RqdReportStatusResponse.newBuilder()
+                .setNextReportIntervalMs(nextReportInterval).setCuebotAddress(cuebot).build());
         responseObserver.onCompleted();
     }
 
@@ -59,4 +83,12 @@ public class RqdReportStatic extends RqdReportInterfaceGrpc.RqdReportInterfaceIm
     public void setHostReportHandler(HostReportHandler hostReportHandler) {
         this.hostReportHandler = hostReportHandler;
     }
+
+    public BookingShardManager getBookingShardManager() {
+        return bookingShardManager;
+    }
+
+    public void setBookingShardManager(BookingShardManager bookingShardManager) {
+        this.bookingShardManager = bookingShardManager;
+    }
 }
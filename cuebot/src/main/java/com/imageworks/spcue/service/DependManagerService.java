@@ -195,8 +195,8 @@ public class DependManagerService implements DependManager {
         /*
          * A normalized list of frames.
          */
-        List<Integer> dependErFrameSet =
-                CueUtil.normalizeFrameRange(dependErLayer.range, dependErLayer.chunkSize);
+        FrameSet dependErFrameSet =
+                new FrameSet(dependErLayer.range).normalize(dependErLayer.chunkSize);
 
         int dependErFrameSetSize = dependErFrameSet.size();
         for (int idx = 0; idx < dependErFrameSetSize; idx = idx + 1) {
@@ -236,11 +236,11 @@ public class DependManagerService implements DependManager {
          * frame sets, you must do so by chunk size and ignore duplicate frames.
          */
 
-        List<Integer> dependErFrameSet =
-                CueUtil.normalizeFrameRange(dependErLayer.range, dependErLayer.chunkSize);
+        FrameSet dependErFrameSet =
+                new FrameSet(dependErLayer.range).normalize(dependErLayer.chunkSize);
 
-        List<Integer> dependOnFrameSet =
-                CueUtil.normalizeFrameRange(dependOnLayer.range, dependOnLayer.chunkSize);
+        FrameSet dependOnFrameSet =
+                new FrameSet(dependOnLayer.range).normalize(dependOnLayer.chunkSize);
 
         /*
          * When a layer is chunked so large it contains only a single frame, any FrameByFrame
@@ -273,10 +273,11 @@ public class DependManagerService implements DependManager {
             }
         }
 
+        boolean sameFrames = dependErFrameSet.equals(dependOnFrameSet);
         int dependErFrameSetSize = dependErFrameSet.size();
         for (int idx = 0; idx < dependErFrameSetSize; idx = idx + 1) {
 
-            Set<Integer> dependOnFrames = new HashSet<Integer>(dependOnFrameSet.size());
+            Set<Integer> dependOnFrames = new HashSet<Integer>();
 
             int dependErFrameNum = dependErFrameSet.get(idx);
             /* The frame always depends on the corresponding frame. */
@@ -293,14 +294,14 @@ public class DependManagerService implements DependManager {
                 dependOnFrames.add(dependOnFrameNum);
 
                 for (int i = 0; i <= dependErLayer.chunkSize - dependOnLayer.chunkSize; i++) {
-                    int nextFrameIdx = dependOnFrameSet.indexOf(dependOnFrameNum) + i;
+                    int nextFrameIdx = dependOnFrameSet.index(dependOnFrameNum) + i;
                     try {
                         dependOnFrames.add(dependOnFrameSet.get(nextFrameIdx));
                     } catch (java.lang.IndexOutOfBoundsException e) {
                         continue;
                     }
                 }
-            } else if (!dependErFrameSet.equals(dependOnFrameSet)) {
+            } else if (!sameFrames) {
                 if (dependOnFrameSet.contains(dependErFrameNum)) {
                     dependOnFrames.add(dependErFrameNum);
                 } else {
@@ -67,6 +67,7 @@ public class FilterManagerService implements FilterManager {
     private GroupDao groupDao;
     private JobDao jobDao;
     private LayerDao layerDao;
+    private LayerSettingsCache layerSettingsCache;
 
     @Transactional(propagation = Propagation.SUPPORTS)
     public void runFilter(FilterEntity filter) {
@@ -394,10 +395,12 @@ public class FilterManagerService implements FilterManager {
 
             case SET_ALL_RENDER_LAYER_TAGS:
                 layerDao.updateTags(job, action.stringValue, LayerType.RENDER);
+                layerSettingsCache.invalidate(job);
                 break;
 
             case SET_ALL_RENDER_LAYER_MEMORY:
                 layerDao.updateMinMemory(job, (int) action.intValue, LayerType.RENDER);
+                layerSettingsCache.invalidate(job);
                 break;
 
             case SET_ALL_RENDER_LAYER_MIN_CORES:
@@ -412,10 +415,12 @@ public class FilterManagerService implements FilterManager {
 
             case SET_ALL_UTIL_LAYER_TAGS:
                 layerDao.updateTags(job, action.stringValue, LayerType.UTIL);
+                layerSettingsCache.invalidate(job);
                 break;
 
             case SET_ALL_UTIL_LAYER_MEMORY:
                 layerDao.updateMinMemory(job, (int) action.intValue, LayerType.UTIL);
+                layerSettingsCache.invalidate(job);
                 break;
 
             case SET_ALL_UTIL_LAYER_MIN_CORES:
@@ -430,10 +435,12 @@ public class FilterManagerService implements FilterManager {
 
             case SET_ALL_PRE_LAYER_TAGS:
                 layerDao.updateTags(job, action.stringValue, LayerType.PRE);
+                layerSettingsCache.invalidate(job);
                 break;
 
             case SET_ALL_PRE_LAYER_MEMORY:
                 layerDao.updateMinMemory(job, (int) action.intValue, LayerType.PRE);
+                layerSettingsCache.invalidate(job);
                 break;
 
             case SET_ALL_PRE_LAYER_MIN_CORES:
@@ -588,4 +595,12 @@ public class FilterManagerService implements FilterManager {
     public void setLayerDao(LayerDao layerDao) {
         this.layerDao = layerDao;
     }
+
+    public LayerSettingsCache getLayerSettingsCache() {
+        return layerSettingsCache;
+    }
+
+    public void setLayerSettingsCache(LayerSettingsCache layerSettingsCache) {
+        this.layerSettingsCache = layerSettingsCache;
+    }
 }
@@ -0,0 +1,245 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.sentry.Sentry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.common.spring.remoting.GrpcServer;
+import com.imageworks.spcue.ShowEntity;
+import com.imageworks.spcue.dao.criteria.JobSearchInterface;
+import com.imageworks.spcue.dao.criteria.postgres.JobSearch;
+import com.imageworks.spcue.dispatcher.BookingQueue;
+import com.imageworks.spcue.dispatcher.DispatchQueue;
+import com.imageworks.spcue.dispatcher.HostReportQueue;
+import com.imageworks.spcue.monitoring.EventOutbox;
+import com.imageworks.spcue.monitoring.KafkaEventPublisher;
+
+/**
+ * Evaluates the health of the cuebot in the background and keeps the result in memory, so health
+ * probes are answered without touching the database.
+ *
+ * Every interval the queues, the database, the gRPC server and the Kafka event backlog are
+ * checked and the result is published as an immutable Snapshot. A snapshot older than the stale
+ * threshold means the evaluation is stuck, most likely on the database, and is reported as
+ * unhealthy.
+ */
+public class HealthCheckEvaluator {
+    private static final Logger logger = LogManager.getLogger(HealthCheckEvaluator.class);
+
+    public enum HealthStatus {
+        SERVER_ERROR, DISPATCH_QUEUE_UNHEALTHY, MANAGE_QUEUE_UNHEALTHY, REPORT_QUEUE_UNHEALTHY,
+        BOOKING_QUEUE_UNHEALTHY, JOB_QUERY_ERROR, GRPC_SERVER_DOWN, KAFKA_BACKLOG,
+        HEALTH_CHECK_STALE
+    }
+
+    /**
+     * The result of one evaluation.
+     */
+    public static final class Snapshot {
+        private final long evaluatedAt;
+        private final List<HealthStatus> statusList;
+
+        private Snapshot(long evaluatedAt, List<HealthStatus> statusList) {
+            this.evaluatedAt = evaluatedAt;
+            this.statusList = Collections.unmodifiableList(statusList);
+        }
+
+        /**
+         * Returns the time of the evaluation, in milliseconds since the epoch.
+         */
+        public long getEvaluatedAt() {
+            return evaluatedAt;
+        }
+
+        /**
+         * Returns the failed checks, empty if the cuebot is healthy.
+         */
+        public List<HealthStatus> getStatusList() {
+            return statusList;
+        }
+
+        public boolean isHealthy() {
+            return statusList.isEmpty();
+        }
+    }
+
+    private final long intervalMillis;
+    private final long staleMillis;
+    private final int kafkaMaxSpillSegments;
+    private final String defaultShow;
+
+    private BookingQueue bookingQueue;
+    private DispatchQueue manageQueue;
+    private DispatchQueue dispatchQueue;
+    private HostReportQueue reportQueue;
+    private Whiteboard whiteboard;
+    private GrpcServer grpcServer;
+    private KafkaEventPublisher kafkaEventPublisher;
+
+    private ScheduledExecutorService scheduler;
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param intervalSeconds how often the health is evaluated
+     * @param staleSeconds how old the last evaluation may get before it is reported as stale
+     * @param kafkaMaxSpillSegments the number of Kafka spill log segments above which the event
+     *        backlog is reported, 0 to ignore the backlog
+     * @param protectedShows the protected shows, the jobs of the first one are queried to check
+     *        the database
+     */
+    public HealthCheckEvaluator(int intervalSeconds, int staleSeconds, int kafkaMaxSpillSegments,
+            String protectedShows) {
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        this.staleMillis = TimeUnit.SECONDS.toMillis(staleSeconds);
+        this.kafkaMaxSpillSegments = kafkaMaxSpillSegments;
+        this.defaultShow = protectedShows.split(",")[0];
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "HealthCheckEvaluator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::evaluate, 0, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the result of the last evaluation, with HEALTH_CHECK_STALE added if it is too old
+     * or if no evaluation has completed yet.
+     */
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        long now = System.currentTimeMillis();
+        if (current == null) {
+            return new Snapshot(now, Collections.singletonList(HealthStatus.HEALTH_CHECK_STALE));
+        }
+        if (now - current.getEvaluatedAt() > staleMillis) {
+            List<HealthStatus> statusList = new ArrayList<>(current.getStatusList());
+            statusList.add(HealthStatus.HEALTH_CHECK_STALE);
+            return new Snapshot(current.getEvaluatedAt(), statusList);
+        }
+        return current;
+    }
+
+    /**
+     * Runs every check and publishes the result.
+     */
+    public void evaluate() {
+        List<HealthStatus> statusList = new ArrayList<>();
+        try {
+            // Check queue capacity
+            if (!dispatchQueue.isHealthy()) {
+                statusList.add(HealthStatus.DISPATCH_QUEUE_UNHEALTHY);
+            }
+            if (!manageQueue.isHealthy()) {
+                statusList.add(HealthStatus.MANAGE_QUEUE_UNHEALTHY);
+            }
+            if (!reportQueue.isHealthy()) {
+                statusList.add(HealthStatus.REPORT_QUEUE_UNHEALTHY);
+            }
+            if (!bookingQueue.isHealthy()) {
+                statusList.add(HealthStatus.BOOKING_QUEUE_UNHEALTHY);
+            }
+            // Run get jobs, if it crashes the database is unreachable. If it hangs the
+            // snapshot goes stale.
+            try {
+                getJobs();
+            } catch (RuntimeException re) {
+                Sentry.captureException(re);
+                statusList.add(HealthStatus.JOB_QUERY_ERROR);
+            }
+            // The evaluation starts before the gRPC server, which is only down once shut down
+            if (grpcServer != null && grpcServer.isShutdown()) {
+                statusList.add(HealthStatus.GRPC_SERVER_DOWN);
+            }
+            EventOutbox outbox =
+                    kafkaEventPublisher == null ? null : kafkaEventPublisher.getOutbox();
+            if (kafkaMaxSpillSegments > 0 && outbox != null
+                    && outbox.getSpillSegmentCount() > kafkaMaxSpillSegments) {
+                statusList.add(HealthStatus.KAFKA_BACKLOG);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error evaluating the cuebot health", e);
+            statusList.add(HealthStatus.SERVER_ERROR);
+        }
+
+        Snapshot previous = snapshot;
+        snapshot = new Snapshot(System.currentTimeMillis(), statusList);
+        if (!statusList.isEmpty()
+                && (previous == null || !previous.getStatusList().equals(statusList))) {
+            Sentry.captureMessage("Healthcheck failure: " + statusList);
+            logger.warn("Healthcheck failure: {}", statusList);
+        }
+    }
+
+    private void getJobs() {
+        // Defaults to testing show, which is added as part of the seeding data script
+        ShowEntity s = new ShowEntity();
+        s.name = defaultShow;
+        JobSearchInterface js = new JobSearch();
+        js.filterByShow(s);
+
+        // GetJobs will throw an exception if there's a problem getting
+        // data from the database
+        whiteboard.getJobs(js);
+    }
+
+    public void setBookingQueue(BookingQueue bookingQueue) {
+        this.bookingQueue = bookingQueue;
+    }
+
+    public void setManageQueue(DispatchQueue manageQueue) {
+        this.manageQueue = manageQueue;
+    }
+
+    public void setDispatchQueue(DispatchQueue dispatchQueue) {
+        this.dispatchQueue = dispatchQueue;
+    }
+
+    public void setReportQueue(HostReportQueue reportQueue) {
+        this.reportQueue = reportQueue;
+    }
+
+    public void setWhiteboard(Whiteboard whiteboard) {
+        this.whiteboard = whiteboard;
+    }
+
+    public void setGrpcServer(GrpcServer grpcServer) {
+        this.grpcServer = grpcServer;
+    }
+
+    public void setKafkaEventPublisher(KafkaEventPublisher kafkaEventPublisher) {
+        this.kafkaEventPublisher = kafkaEventPublisher;
+    }
+}
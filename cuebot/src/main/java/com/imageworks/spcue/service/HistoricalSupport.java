@@ -21,21 +21,33 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.MaintenanceLease;
 
 public class HistoricalSupport {
     private static final Logger logger = LogManager.getLogger(HistoricalSupport.class);
 
     private HistoricalManager historicalManager;
 
-    public void archiveHistoricalJobData() {
+    /**
+     * Transfers the finished jobs belonging to the locked shards to the historical tables.
+     *
+     * @param lease the locked shards of the task
+     */
+    public void archiveHistoricalJobData(MaintenanceLease lease) {
         logger.info("running historical job data transfer");
         List<JobInterface> jobs = historicalManager.getFinishedJobs();
-        for (JobInterface j : jobs) {
-            logger.info("transfering job " + j.getId() + "/" + j.getName());
-            try {
-                historicalManager.transferJob(j);
-            } catch (Exception e) {
-                logger.warn("failed to transfer job, " + e);
+        for (List<JobInterface> batch : lease.ownedBatches(jobs, JobInterface::getId)) {
+            if (!lease.isValid()) {
+                logger.warn("lost the historical transfer lease to another cuebot");
+                return;
+            }
+            for (JobInterface j : batch) {
+                logger.info("transfering job " + j.getId() + "/" + j.getName());
+                try {
+                    historicalManager.transferJob(j);
+                } catch (Exception e) {
+                    logger.warn("failed to transfer job, " + e);
+                }
             }
         }
     }
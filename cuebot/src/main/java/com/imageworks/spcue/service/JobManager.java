@@ -263,7 +263,9 @@ public interface JobManager {
     public void createJobLogDirectory(JobDetail newJob);
 
     /**
-     * Optimizes layer settings based on the specified maxRss and run time.
+     * Optimizes layer settings based on the specified maxRss and run time. When the layer memory
+     * estimator is enabled and the layer has completed enough frames, the minimum memory is set
+     * from the estimated memory usage of its frames.
      *
      * @param layer
      * @param maxRss
@@ -73,6 +73,8 @@ public class JobManagerService implements JobManager {
     private ShowDao showDao;
     private FrameDao frameDao;
     private LayerDao layerDao;
+    private LayerSettingsCache layerSettingsCache;
+    private LayerMemoryEstimator layerMemoryEstimator;
     private LimitDao limitDao;
     private HostDao hostDao;
     private DependManager dependManager;
@@ -258,8 +260,8 @@ public class JobManagerService implements JobManager {
                 layer.showId = show.id;
 
                 /** Not accurate anymore */
-                List<Integer> frames = CueUtil.normalizeFrameRange(layer.range, layer.chunkSize);
-                layer.totalFrameCount = frames.size();
+                layer.totalFrameCount =
+                        new FrameSet(layer.range).normalize(layer.chunkSize).size();
 
                 if (lastJob != null && !buildableLayer.isMemoryOverride) {
                     long pastMaxRSS = layerDao.findPastMaxRSS(lastJob, layer.name);
@@ -386,6 +388,7 @@ public class JobManagerService implements JobManager {
     @Transactional(propagation = Propagation.REQUIRED)
     public void increaseLayerMemoryRequirement(LayerInterface layer, long memKb) {
         layerDao.increaseLayerMinMemory(layer, memKb);
+        layerSettingsCache.invalidate(layer);
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
@@ -422,7 +425,16 @@ public class JobManagerService implements JobManager {
     @Override
     @Transactional(propagation = Propagation.REQUIRED)
     public void optimizeLayer(LayerInterface layer, int cores, long maxRss, int runTime) {
-        layerDao.balanceLayerMinMemory(layer, maxRss);
+        long estimate = 0;
+        if (layerMemoryEstimator != null && layerMemoryEstimator.isEnabled()) {
+            estimate = layerMemoryEstimator.record(layer, maxRss);
+        }
+        if (estimate > 0) {
+            layerDao.updateLayerMinMemoryEstimate(layer, estimate);
+        } else {
+            layerDao.balanceLayerMinMemory(layer, maxRss);
+        }
+        layerSettingsCache.invalidate(layer);
     }
 
     @Override
@@ -434,11 +446,13 @@ public class JobManagerService implements JobManager {
     @Override
     public void appendLayerTag(LayerInterface layer, String tag) {
         layerDao.appendLayerTags(layer, tag);
+        layerSettingsCache.invalidate(layer);
     }
 
     @Override
     public void setLayerTag(LayerInterface layer, String tag) {
         layerDao.updateLayerTags(layer, Sets.newHashSet(tag));
+        layerSettingsCache.invalidate(layer);
     }
 
     @Override
@@ -593,6 +607,22 @@ public class JobManagerService implements JobManager {
         this.layerDao = layerDao;
     }
 
+    public LayerSettingsCache getLayerSettingsCache() {
+        return layerSettingsCache;
+    }
+
+    public void setLayerSettingsCache(LayerSettingsCache layerSettingsCache) {
+        this.layerSettingsCache = layerSettingsCache;
+    }
+
+    public LayerMemoryEstimator getLayerMemoryEstimator() {
+        return layerMemoryEstimator;
+    }
+
+    public void setLayerMemoryEstimator(LayerMemoryEstimator layerMemoryEstimator) {
+        this.layerMemoryEstimator = layerMemoryEstimator;
+    }
+
     public LimitDao getLimitDao() {
         return limitDao;
     }
@@ -15,10 +15,12 @@
 
 package com.imageworks.spcue.service;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -28,6 +30,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -54,6 +57,7 @@ import com.imageworks.spcue.grpc.job.JobState;
 import com.imageworks.spcue.grpc.job.LayerType;
 import com.imageworks.spcue.util.Convert;
 import com.imageworks.spcue.util.CueUtil;
+import com.imageworks.spcue.util.FrameSet;
 
 public class JobSpec {
     @Autowired
@@ -77,6 +81,15 @@ public class JobSpec {
 
     private Document doc;
 
+    /**
+     * The spec as given to parse, kept instead of a document by the streaming parser.
+     */
+    private String source;
+
+    private File sourceFile;
+
+    private Parser parser;
+
     private ServiceManager serviceManager;
 
     /**
@@ -114,6 +127,20 @@ public class JobSpec {
 
     private List<BuildableDependency> depends = new ArrayList<BuildableDependency>();
 
+    /**
+     * The parsers a spec can be read with, selected with jobspec.parser.
+     */
+    public enum Parser {
+        /**
+         * Builds and validates a document of the whole spec before reading it.
+         */
+        DOM,
+        /**
+         * Streams the spec, validating against a cached grammar of its DTD.
+         */
+        STAX
+    }
+
     public JobSpec() {}
 
     public static final String NAME_REGEX = "^([\\w\\.-]{3,})$";
@@ -206,8 +233,7 @@ public class JobSpec {
     /**
      * Grabs the show/shot/user/uid for this spec.
      */
-    private void handleSpecTag() {
-        Element rootElement = doc.getRootElement();
+    private void handleSpecTag(Element rootElement) {
         facility = rootElement.getChildTextTrim("facility");
         if (facility != null) {
             facility = facility.toLowerCase();
@@ -265,6 +291,27 @@ public class JobSpec {
      * @return
      */
     private BuildableJob handleJobTag(Element jobTag) {
+        BuildableJob buildableJob = startJob(jobTag);
+
+        Element layersTag = jobTag.getChild("layers");
+        if (layersTag != null) {
+            Set<String> layerNames = new HashSet<String>();
+            for (Object layerTmp : layersTag.getChildren("layer")) {
+                handleLayerTag(buildableJob, (Element) layerTmp, layerNames);
+            }
+        }
+
+        finishJob(buildableJob);
+        return buildableJob;
+    }
+
+    /**
+     * Reads everything about a job except its layers.
+     *
+     * @param jobTag
+     * @return
+     */
+    private BuildableJob startJob(Element jobTag) {
 
         /*
          * Read in the job tag
@@ -339,7 +386,16 @@ public class JobSpec {
             handleEnvironmentTag(envTag, buildableJob.env);
         }
 
-        handleLayerTags(buildableJob, jobTag);
+        return buildableJob;
+    }
+
+    /**
+     * Checks the layer count once all the layers of a job have been read.
+     *
+     * @param buildableJob
+     */
+    private void finishJob(BuildableJob buildableJob) {
+        JobDetail job = buildableJob.detail;
 
         if (buildableJob.getBuildableLayers().size() > MAX_LAYERS) {
             throw new SpecBuilderException(
@@ -349,122 +405,122 @@ public class JobSpec {
         if (buildableJob.getBuildableLayers().size() < 1) {
             throw new SpecBuilderException("The job " + job.name + " has no layers");
         }
-
-        return buildableJob;
     }
 
     /**
      *
      * @param buildableJob
-     * @param jobTag
+     * @param layerTag
+     * @param layerNames the names of the layers already read for this job
      */
-    private void handleLayerTags(BuildableJob buildableJob, Element jobTag) {
-
-        Set<String> layerNames = new HashSet<String>();
-        int dispatchOrder = 0;
-
-        for (Object layerTmp : jobTag.getChild("layers").getChildren("layer")) {
-
-            Element layerTag = (Element) layerTmp;
-
-            /*
-             * Setup a LayerDetail and Buildable layer, add layer to job
-             */
-            LayerDetail layer = new LayerDetail();
-            BuildableLayer buildableLayer = new BuildableLayer(layer);
-
-            /*
-             * Setup the layer type
-             */
-            String layerType = layerTag.getAttributeValue("type");
-            /*
-             * The Enum is capitalized so make sure that we capitalize the string we received from
-             * the user.
-             */
-            layer.type = LayerType.valueOf(layerType.toUpperCase());
-            if (layer.type == null) {
-                throw new SpecBuilderException(
-                        "error, the layer " + layer.name + " was defined with an invalid type: "
-                                + layerTag.getAttributeValue("type"));
-            }
+    private void handleLayerTag(BuildableJob buildableJob, Element layerTag,
+            Set<String> layerNames) {
+        /*
+         * Setup a LayerDetail and Buildable layer, add layer to job
+         */
+        LayerDetail layer = new LayerDetail();
+        BuildableLayer buildableLayer = new BuildableLayer(layer);
 
-            /*
-             * If the layer is a post layer, we add it to the post job.
-             */
-            if (layer.type.equals(LayerType.POST)) {
-                if (buildableJob.getPostJob() == null) {
-                    buildableJob.setPostJob(initPostJob(buildableJob));
-                }
-                buildableJob.getPostJob().addBuildableLayer(buildableLayer);
-            } else {
-                buildableJob.addBuildableLayer(buildableLayer);
-            }
+        /*
+         * Setup the layer type
+         */
+        String layerType = layerTag.getAttributeValue("type");
+        /*
+         * The Enum is capitalized so make sure that we capitalize the string we received from
+         * the user.
+         */
+        layer.type = LayerType.valueOf(layerType.toUpperCase());
+        if (layer.type == null) {
+            throw new SpecBuilderException(
+                    "error, the layer " + layer.name + " was defined with an invalid type: "
+                            + layerTag.getAttributeValue("type"));
+        }
 
-            /*
-             * Check to make sure the name is unique for this job.
-             */
-            if (layerTag.getAttributeValue("name") == null) {
-                throw new SpecBuilderException("error, the layer name cannot be null");
+        /*
+         * If the layer is a post layer, we add it to the post job.
+         */
+        if (layer.type.equals(LayerType.POST)) {
+            if (buildableJob.getPostJob() == null) {
+                buildableJob.setPostJob(initPostJob(buildableJob));
             }
+            buildableJob.getPostJob().addBuildableLayer(buildableLayer);
+        } else {
+            buildableJob.addBuildableLayer(buildableLayer);
+        }
 
-            layer.name = conformLayerName(layerTag.getAttributeValue("name"));
+        /*
+         * Check to make sure the name is unique for this job.
+         */
+        if (layerTag.getAttributeValue("name") == null) {
+            throw new SpecBuilderException("error, the layer name cannot be null");
+        }
 
-            if (layerNames.contains(layer.name)) {
-                throw new SpecBuilderException("error, the layer " + layer.name
-                        + " was already defined in job " + buildableJob.detail.name);
-            }
-            layerNames.add(layer.name);
-
-            /*
-             * Setup the simple layer properties.
-             */
-            layer.command = layerTag.getChildTextTrim("cmd");
-            layer.range = layerTag.getChildTextTrim("range");
-            layer.dispatchOrder = ++dispatchOrder;
-
-            /*
-             * Determine some of the more complex attributes.
-             */
-            determineResourceDefaults(layerTag, buildableJob, layer);
-            determineChunkSize(layerTag, layer);
-            determineMinimumCores(layerTag, layer);
-            determineMinimumGpus(layerTag, layer);
-            determineThreadable(layerTag, layer);
-            determineTags(buildableJob, layer, layerTag);
-            determineMinimumMemory(buildableJob, layerTag, layer, buildableLayer);
-            determineMinimumGpuMemory(buildableJob, layerTag, layer);
-            determineOutputs(layerTag, buildableJob, layer);
-
-            // set a timeout value on the layer
-            if (layerTag.getChildTextTrim("timeout") != null) {
-                layer.timeout = Integer.parseInt(layerTag.getChildTextTrim("timeout"));
-            }
+        layer.name = conformLayerName(layerTag.getAttributeValue("name"));
 
-            if (layerTag.getChildTextTrim("timeout_llu") != null) {
-                layer.timeout_llu = Integer.parseInt(layerTag.getChildTextTrim("timeout_llu"));
-            }
+        if (layerNames.contains(layer.name)) {
+            throw new SpecBuilderException("error, the layer " + layer.name
+                    + " was already defined in job " + buildableJob.detail.name);
+        }
+        layerNames.add(layer.name);
 
-            /*
-             * Handle the layer environment
-             */
-            Element envTag = layerTag.getChild("env");
-            if (envTag != null) {
-                handleEnvironmentTag(envTag, buildableLayer.env);
-            }
+        /*
+         * Setup the simple layer properties.
+         */
+        layer.command = layerTag.getChildTextTrim("cmd");
+        layer.range = layerTag.getChildTextTrim("range");
+        layer.dispatchOrder = layerNames.size();
 
-            totalFrames = totalFrames + getFrameRangeSize(layer.range, layer.chunkSize);
+        /*
+         * Determine some of the more complex attributes.
+         */
+        determineResourceDefaults(layerTag, buildableJob, layer);
+        determineChunkSize(layerTag, layer);
+        determineMinimumCores(layerTag, layer);
+        determineMinimumGpus(layerTag, layer);
+        determineThreadable(layerTag, layer);
+        determineTags(buildableJob, layer, layerTag);
+        determineMinimumMemory(buildableJob, layerTag, layer, buildableLayer);
+        determineMinimumGpuMemory(buildableJob, layerTag, layer);
+        determineOutputs(layerTag, buildableJob, layer);
+
+        // set a timeout value on the layer
+        if (layerTag.getChildTextTrim("timeout") != null) {
+            layer.timeout = Integer.parseInt(layerTag.getChildTextTrim("timeout"));
+        }
 
-            if (buildableJob.getBuildableLayers().size() > MAX_LAYERS) {
-                throw new SpecBuilderException("error, your job has "
-                        + buildableJob.getBuildableLayers().size() + " layers, "
-                        + " the maximum number of allowed layers is " + MAX_LAYERS);
-            }
+        if (layerTag.getChildTextTrim("timeout_llu") != null) {
+            layer.timeout_llu = Integer.parseInt(layerTag.getChildTextTrim("timeout_llu"));
+        }
 
-            if (totalFrames > MAX_FRAMES) {
-                throw new SpecBuilderException("error, your job has " + totalFrames
-                        + " frames, the maximum number of allowed " + "frames is " + MAX_FRAMES);
+        // the number of frames that must be started together
+        if (layerTag.getChildTextTrim("gang_size") != null) {
+            layer.gangSize = Integer.parseInt(layerTag.getChildTextTrim("gang_size"));
+            if (layer.gangSize < 0) {
+                throw new SpecBuilderException(
+                        "The gang size of layer " + layer.name + " cannot be negative");
             }
         }
+
+        /*
+         * Handle the layer environment
+         */
+        Element envTag = layerTag.getChild("env");
+        if (envTag != null) {
+            handleEnvironmentTag(envTag, buildableLayer.env);
+        }
+
+        totalFrames = totalFrames + getFrameRangeSize(layer.range, layer.chunkSize);
+
+        if (buildableJob.getBuildableLayers().size() > MAX_LAYERS) {
+            throw new SpecBuilderException("error, your job has "
+                    + buildableJob.getBuildableLayers().size() + " layers, "
+                    + " the maximum number of allowed layers is " + MAX_LAYERS);
+        }
+
+        if (totalFrames > MAX_FRAMES) {
+            throw new SpecBuilderException("error, your job has " + totalFrames
+                    + " frames, the maximum number of allowed " + "frames is " + MAX_FRAMES);
+        }
     }
 
     /**
@@ -802,7 +858,7 @@ public class JobSpec {
      */
     public int getFrameRangeSize(String range, int chunkSize) {
         try {
-            return CueUtil.normalizeFrameRange(range, chunkSize).size();
+            return new FrameSet(range).normalize(chunkSize).size();
         } catch (Exception e) {
             throw new SpecBuilderException("error, the range " + range + " is invalid");
         }
@@ -887,6 +943,17 @@ public class JobSpec {
     }
 
     public void parse(File file) {
+        if (getParser() == Parser.STAX) {
+            sourceFile = file;
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                new JobSpecReader(streamListener(), file.getAbsoluteFile().toURI())
+                        .read(new BufferedInputStream(in));
+            } catch (XMLStreamException | IOException e) {
+                throw new SpecBuilderException("Failed to parse job spec XML, " + e);
+            }
+            return;
+        }
+
         try {
             doc = new SAXBuilder(true).build(file);
 
@@ -894,9 +961,7 @@ public class JobSpec {
             throw new SpecBuilderException("Failed to parse job spec XML, " + e);
         }
 
-        handleSpecTag();
-        handleJobsTag();
-        handleDependsTags();
+        handleDocument();
     }
 
     private class DTDRedirector implements EntityResolver {
@@ -919,6 +984,16 @@ public class JobSpec {
     }
 
     public void parse(String cjsl) {
+        if (getParser() == Parser.STAX) {
+            source = cjsl;
+            try {
+                new JobSpecReader(streamListener(), null).read(new StringReader(cjsl));
+            } catch (XMLStreamException | IOException e) {
+                throw new SpecBuilderException("Failed to parse job spec XML, " + e);
+            }
+            return;
+        }
+
         try {
             SAXBuilder builder = new SAXBuilder(true);
             builder.setEntityResolver(new DTDRedirector());
@@ -928,11 +1003,53 @@ public class JobSpec {
             throw new SpecBuilderException("Failed to parse job spec XML, " + e);
         }
 
-        handleSpecTag();
+        handleDocument();
+    }
+
+    private void handleDocument() {
+        handleSpecTag(doc.getRootElement());
         handleJobsTag();
         handleDependsTags();
     }
 
+    /**
+     * Used with JobSpecReader to handle each job, layer and depend as soon as it has been read,
+     * instead of building and validating a document of the whole spec first.
+     */
+    private JobSpecReader.Listener streamListener() {
+        return new JobSpecReader.Listener() {
+            private BuildableJob job;
+            private Set<String> layerNames;
+
+            @Override
+            public void spec(Element spec) {
+                handleSpecTag(spec);
+            }
+
+            @Override
+            public void startJob(Element jobTag) {
+                job = JobSpec.this.startJob(jobTag);
+                layerNames = new HashSet<String>();
+            }
+
+            @Override
+            public void layer(Element layerTag) {
+                handleLayerTag(job, layerTag, layerNames);
+            }
+
+            @Override
+            public void endJob() {
+                finishJob(job);
+                jobs.add(job);
+            }
+
+            @Override
+            public void depend(Element dependTag) {
+                depends.add(handleDependTag(dependTag));
+            }
+        };
+    }
+
     private BuildableJob initPostJob(BuildableJob parent) {
 
         JobDetail job = new JobDetail();
@@ -962,10 +1079,38 @@ public class JobSpec {
         return postJob;
     }
 
+    /**
+     * Returns the spec as a document. Specs read with the streaming parser are only kept as their
+     * source, the document is built from it without validation on first use.
+     *
+     * @return
+     */
     public Document getDoc() {
+        if (doc == null && (source != null || sourceFile != null)) {
+            try {
+                SAXBuilder builder = new SAXBuilder(false);
+                builder.setFeature(
+                        "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+                doc = source != null ? builder.build(new StringReader(source))
+                        : builder.build(sourceFile);
+            } catch (Exception e) {
+                throw new SpecBuilderException("Failed to parse job spec XML, " + e);
+            }
+        }
         return doc;
     }
 
+    public Parser getParser() {
+        if (parser == null) {
+            parser = Parser.valueOf(env.getProperty("jobspec.parser", "dom").toUpperCase());
+        }
+        return parser;
+    }
+
+    public void setParser(Parser parser) {
+        this.parser = parser;
+    }
+
     public List<BuildableDependency> getDepends() {
         return depends;
     }
@@ -0,0 +1,319 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A job spec DTD compiled for validating a streamed spec.
+ *
+ * Only the parts of DTD syntax used by the cjsl DTDs are supported: element content models,
+ * attribute lists with CDATA, NMTOKEN or enumerated types and #REQUIRED, #IMPLIED, #FIXED or
+ * default values. Element content models are compiled into regular expressions over the
+ * sequence of child element names. Grammars are cached by the bundled DTD name, or by the
+ * normalized location of other DTDs, so each DTD version is read and compiled once. The cache is
+ * bounded, specs naming many different DTDs only evict each other.
+ */
+public final class JobSpecGrammar {
+
+    private static final int CACHE_SIZE = 32;
+
+    private static final Cache<String, JobSpecGrammar> CACHE =
+            CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+    private static final Pattern COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+
+    private static final Pattern ELEMENT_DECL =
+            Pattern.compile("<!ELEMENT\\s+(\\S+)\\s+(.*?)>", Pattern.DOTALL);
+
+    private static final Pattern ATTLIST_DECL =
+            Pattern.compile("<!ATTLIST\\s+(\\S+)(.*?)>", Pattern.DOTALL);
+
+    private static final Pattern ATTRIBUTE_DEF = Pattern.compile(
+            "(\\S+)\\s+(\\([^)]*\\)|\\S+)\\s+"
+                    + "(#REQUIRED|#IMPLIED|(?:#FIXED\\s+)?(?:\"[^\"]*\"|'[^']*'))",
+            Pattern.DOTALL);
+
+    private static final Pattern NAME = Pattern.compile("[\\p{L}\\p{N}._:-]+");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Map<String, ElementRule> elements = new HashMap<String, ElementRule>();
+
+    private static final class ElementRule {
+        /** Matches the allowed child sequences, null when any content is allowed. */
+        private Pattern children;
+        private boolean mixed;
+        private final Map<String, AttributeRule> attributes = new HashMap<String, AttributeRule>();
+    }
+
+    private static final class AttributeRule {
+        private boolean required;
+        private boolean fixed;
+        private boolean tokenized;
+        private boolean nmtoken;
+        private Set<String> values;
+        private String defaultValue;
+    }
+
+    private JobSpecGrammar(String dtd) throws IOException {
+        String text = COMMENT.matcher(dtd).replaceAll(" ");
+        Matcher m = ELEMENT_DECL.matcher(text);
+        while (m.find()) {
+            elements.put(m.group(1), compileElement(m.group(1), m.group(2).trim()));
+        }
+        m = ATTLIST_DECL.matcher(text);
+        while (m.find()) {
+            ElementRule element = elements.get(m.group(1));
+            if (element == null) {
+                throw new IOException("attribute list for undeclared element " + m.group(1));
+            }
+            Matcher a = ATTRIBUTE_DEF.matcher(m.group(2));
+            while (a.find()) {
+                element.attributes.put(a.group(1), compileAttribute(a.group(2), a.group(3)));
+            }
+        }
+    }
+
+    /**
+     * Returns the compiled grammar for the DTD with the given system id. DTDs served from
+     * SPCUE_DTD_URL are read from the bundled copies, relative ids are resolved against the
+     * location of the spec.
+     *
+     * @param systemId the system id from the DOCTYPE
+     * @param base the location of the spec, or null if it was not read from a file
+     * @return the grammar
+     * @throws IOException if the DTD cannot be found or read
+     */
+    public static JobSpecGrammar forSystemId(String systemId, URI base) throws IOException {
+        URL url = resolve(systemId, base);
+        try {
+            return CACHE.get(cacheKey(systemId, url), () -> {
+                try (InputStream in = url.openStream()) {
+                    return new JobSpecGrammar(
+                            new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * The bundled DTDs are keyed by name whatever the URL of the cuebot serving them, other DTDs
+     * by their normalized location.
+     */
+    private static String cacheKey(String systemId, URL url) throws IOException {
+        if (systemId.startsWith(JobSpec.SPCUE_DTD_URL)) {
+            return systemId.substring(JobSpec.SPCUE_DTD_URL.length());
+        }
+        try {
+            return url.toURI().normalize().toString();
+        } catch (URISyntaxException e) {
+            throw new IOException("invalid DTD location " + url, e);
+        }
+    }
+
+    private static URL resolve(String systemId, URI base) throws IOException {
+        if (systemId.startsWith(JobSpec.SPCUE_DTD_URL)) {
+            String filename = systemId.substring(JobSpec.SPCUE_DTD_URL.length());
+            URL url = JobSpecGrammar.class.getResource("/public/dtd/" + filename);
+            if (url == null) {
+                throw new FileNotFoundException(systemId);
+            }
+            return url;
+        }
+        if (base != null) {
+            return base.resolve(systemId).toURL();
+        }
+        return new URL(systemId);
+    }
+
+    /**
+     * Checks an element and its attributes when it is opened.
+     *
+     * @param name the element name
+     * @param attributes the attribute values by name, tokenized values are normalized in place
+     *        and declared defaults are added
+     * @param location the position in the spec, for error messages
+     * @throws XMLStreamException if the element or one of its attributes is not valid
+     */
+    public void checkStart(String name, Map<String, String> attributes, Location location)
+            throws XMLStreamException {
+        ElementRule element = elements.get(name);
+        if (element == null) {
+            throw new XMLStreamException("element " + name + " is not declared", location);
+        }
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            AttributeRule attribute = element.attributes.get(entry.getKey());
+            if (attribute == null) {
+                throw new XMLStreamException("attribute " + entry.getKey()
+                        + " is not declared for element " + name, location);
+            }
+            String value = entry.getValue();
+            if (attribute.tokenized) {
+                value = WHITESPACE.matcher(value.trim()).replaceAll(" ");
+                entry.setValue(value);
+            }
+            if (attribute.nmtoken && !NAME.matcher(value).matches()) {
+                throw new XMLStreamException("attribute " + entry.getKey() + " of element " + name
+                        + " must be a name token, got '" + value + "'", location);
+            }
+            if (attribute.fixed && !attribute.defaultValue.equals(value)) {
+                throw new XMLStreamException("attribute " + entry.getKey() + " of element " + name
+                        + " must be '" + attribute.defaultValue + "', got '" + value + "'",
+                        location);
+            }
+            if (attribute.values != null && !attribute.values.contains(value)) {
+                throw new XMLStreamException("attribute " + entry.getKey() + " of element " + name
+                        + " must be one of " + attribute.values + ", got '" + value + "'",
+                        location);
+            }
+        }
+        for (Map.Entry<String, AttributeRule> entry : element.attributes.entrySet()) {
+            if (attributes.containsKey(entry.getKey())) {
+                continue;
+            }
+            if (entry.getValue().required) {
+                throw new XMLStreamException("attribute " + entry.getKey()
+                        + " is required for element " + name, location);
+            }
+            if (entry.getValue().defaultValue != null) {
+                attributes.put(entry.getKey(), entry.getValue().defaultValue);
+            }
+        }
+    }
+
+    /**
+     * @param name a declared element name
+     * @return true if the element may contain text
+     */
+    public boolean allowsText(String name) {
+        return elements.get(name).mixed;
+    }
+
+    /**
+     * Checks the content of an element when it is closed.
+     *
+     * @param name the element name
+     * @param children the names of the child elements, each followed by a comma
+     * @param location the position in the spec, for error messages
+     * @throws XMLStreamException if the children do not match the content model
+     */
+    public void checkEnd(String name, CharSequence children, Location location)
+            throws XMLStreamException {
+        Pattern model = elements.get(name).children;
+        if (model != null && !model.matcher(children).matches()) {
+            String found = children.length() == 0 ? "no children"
+                    : children.subSequence(0, children.length() - 1).toString();
+            throw new XMLStreamException("the content of element " + name
+                    + " does not match its declaration, found " + found, location);
+        }
+    }
+
+    private static ElementRule compileElement(String name, String model) throws IOException {
+        ElementRule rule = new ElementRule();
+        if (model.equals("ANY")) {
+            rule.mixed = true;
+            return rule;
+        }
+        if (model.equals("EMPTY")) {
+            rule.children = Pattern.compile("");
+            return rule;
+        }
+        if (model.contains("#PCDATA")) {
+            rule.mixed = true;
+            StringBuilder names = new StringBuilder();
+            for (String token : model.split("[\\s()|*]+")) {
+                if (token.isEmpty() || token.equals("#PCDATA")) {
+                    continue;
+                }
+                names.append(names.length() == 0 ? "" : "|").append(Pattern.quote(token));
+            }
+            rule.children = Pattern
+                    .compile(names.length() == 0 ? "" : "(?:(?:" + names + "),)*");
+            return rule;
+        }
+
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < model.length()) {
+            char c = model.charAt(i);
+            if (c == '(') {
+                regex.append("(?:");
+            } else if (c == ')' || c == '|' || c == '?' || c == '*' || c == '+') {
+                regex.append(c);
+            } else if (c != ',' && !Character.isWhitespace(c)) {
+                int end = i;
+                while (end < model.length() && "()|,?*+".indexOf(model.charAt(end)) < 0
+                        && !Character.isWhitespace(model.charAt(end))) {
+                    end++;
+                }
+                regex.append("(?:").append(Pattern.quote(model.substring(i, end))).append(",)");
+                i = end;
+                continue;
+            }
+            i++;
+        }
+        try {
+            rule.children = Pattern.compile(regex.toString());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid content model for element " + name + ": " + model, e);
+        }
+        return rule;
+    }
+
+    private static AttributeRule compileAttribute(String type, String defaultDecl) {
+        AttributeRule rule = new AttributeRule();
+        rule.required = defaultDecl.equals("#REQUIRED");
+        if (!rule.required && !defaultDecl.equals("#IMPLIED")) {
+            rule.fixed = defaultDecl.startsWith("#FIXED");
+            String value =
+                    rule.fixed ? defaultDecl.substring("#FIXED".length()).trim() : defaultDecl;
+            rule.defaultValue = value.substring(1, value.length() - 1);
+        }
+        if (type.startsWith("(")) {
+            rule.tokenized = true;
+            String values = type.substring(1, type.length() - 1).trim();
+            rule.values = new HashSet<String>(Arrays.asList(values.split("\\s*\\|\\s*")));
+        } else if (!type.equals("CDATA")) {
+            rule.tokenized = true;
+            rule.nmtoken = type.equals("NMTOKEN");
+        }
+        return rule;
+    }
+}
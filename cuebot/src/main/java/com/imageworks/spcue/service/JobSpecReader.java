@@ -0,0 +1,292 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom.Element;
+
+/**
+ * Streams a job spec with StAX, validating it against the DTD named in its DOCTYPE.
+ *
+ * Instead of a document for the whole spec only small JDOM fragments are built: the spec header,
+ * each job without its layers, each layer and each depend. Every fragment is handed to the
+ * Listener as soon as it is complete, so the existing tag handlers can be reused and the memory
+ * held while parsing is bounded by the largest layer rather than the size of the spec.
+ */
+public class JobSpecReader {
+
+    /**
+     * Receives the parts of a spec in document order.
+     */
+    public interface Listener {
+
+        /**
+         * The spec header, called before the first job or depend.
+         */
+        void spec(Element spec);
+
+        /**
+         * A job with all its children except the layers.
+         */
+        void startJob(Element job);
+
+        void layer(Element layer);
+
+        void endJob();
+
+        void depend(Element depend);
+    }
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private static final Pattern DOCTYPE = Pattern.compile(
+            "<!DOCTYPE\\s+(\\S+?)\\s+(?:SYSTEM|PUBLIC\\s+(?:\"[^\"]*\"|'[^']*'))\\s+"
+                    + "(?:\"([^\"]*)\"|'([^']*)')");
+
+    private final Listener listener;
+
+    private final URI base;
+
+    private final Deque<Node> stack = new ArrayDeque<Node>();
+
+    private String rootName;
+
+    private JobSpecGrammar grammar;
+
+    private Element spec;
+
+    private boolean specSent;
+
+    private Element job;
+
+    private boolean jobStarted;
+
+    /**
+     * An open element. The element is only built when it is part of a fragment.
+     */
+    private static final class Node {
+        private final String name;
+        private final Element element;
+        private final StringBuilder children = new StringBuilder();
+
+        private Node(String name, Element element) {
+            this.name = name;
+            this.element = element;
+        }
+    }
+
+    /**
+     * @param listener receives the parts of the spec
+     * @param base the location of the spec, used to resolve a relative DTD, may be null
+     */
+    public JobSpecReader(Listener listener, URI base) {
+        this.listener = listener;
+        this.base = base;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // The DTD is applied by JobSpecGrammar, the parser must never fetch or expand it.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Reads and validates the spec, calling the listener as each part completes.
+     *
+     * @param input the spec
+     * @throws XMLStreamException if the spec is not well formed or not valid
+     * @throws IOException if the DTD cannot be read
+     */
+    public void read(Reader input) throws XMLStreamException, IOException {
+        XMLStreamReader reader;
+        // A configured factory is safe to share but creating readers is not guaranteed to be.
+        synchronized (FACTORY) {
+            reader = FACTORY.createXMLStreamReader(input);
+        }
+        read(reader);
+    }
+
+    /**
+     * Reads and validates the spec, using the encoding given by its XML declaration.
+     *
+     * @param input the spec
+     * @throws XMLStreamException if the spec is not well formed or not valid
+     * @throws IOException if the DTD cannot be read
+     */
+    public void read(InputStream input) throws XMLStreamException, IOException {
+        XMLStreamReader reader;
+        synchronized (FACTORY) {
+            reader = FACTORY.createXMLStreamReader(input);
+        }
+        read(reader);
+    }
+
+    private void read(XMLStreamReader reader) throws XMLStreamException, IOException {
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.DTD:
+                        readDoctype(reader);
+                        break;
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement(reader);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        characters(reader);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement(reader);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readDoctype(XMLStreamReader reader) throws XMLStreamException, IOException {
+        Matcher m = DOCTYPE.matcher(reader.getText());
+        if (!m.find()) {
+            throw new XMLStreamException("the DOCTYPE does not name an external DTD",
+                    reader.getLocation());
+        }
+        rootName = m.group(1);
+        grammar = JobSpecGrammar.forSystemId(m.group(2) != null ? m.group(2) : m.group(3), base);
+    }
+
+    private void startElement(XMLStreamReader reader) throws XMLStreamException {
+        String name = reader.getLocalName();
+        if (grammar == null) {
+            throw new XMLStreamException("the spec has no DOCTYPE, it cannot be validated",
+                    reader.getLocation());
+        }
+        if (stack.isEmpty() && !name.equals(rootName)) {
+            throw new XMLStreamException(
+                    "the root element " + name + " does not match the DOCTYPE " + rootName,
+                    reader.getLocation());
+        }
+
+        Map<String, String> attributes = new LinkedHashMap<String, String>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        grammar.checkStart(name, attributes, reader.getLocation());
+
+        Node parent = stack.peek();
+        if (parent != null) {
+            parent.children.append(name).append(',');
+        }
+
+        Element element = null;
+        int depth = stack.size();
+        String parentName = parent == null ? null : parent.name;
+        if (depth == 0) {
+            spec = new Element(name);
+            element = spec;
+        } else if (depth == 1 && name.equals("job")) {
+            sendSpec();
+            job = new Element(name);
+            jobStarted = false;
+            element = job;
+        } else if (depth == 1 && name.equals("depends")) {
+            sendSpec();
+        } else if (depth == 2 && parentName.equals("job") && name.equals("layers")) {
+            startJob();
+        } else if ((depth == 3 && parentName.equals("layers"))
+                || (depth == 2 && parentName.equals("depends"))) {
+            element = new Element(name);
+        } else if (parent.element != null) {
+            element = new Element(name);
+            parent.element.addContent(element);
+        }
+
+        if (element != null) {
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                element.setAttribute(entry.getKey(), entry.getValue());
+            }
+        }
+        stack.push(new Node(name, element));
+    }
+
+    private void characters(XMLStreamReader reader) throws XMLStreamException {
+        Node node = stack.peek();
+        if (node == null) {
+            return;
+        }
+        if (!grammar.allowsText(node.name)) {
+            if (!reader.isWhiteSpace()) {
+                throw new XMLStreamException("element " + node.name + " cannot contain text",
+                        reader.getLocation());
+            }
+            return;
+        }
+        if (node.element != null) {
+            node.element.addContent(reader.getText());
+        }
+    }
+
+    private void endElement(XMLStreamReader reader) throws XMLStreamException {
+        Node node = stack.pop();
+        grammar.checkEnd(node.name, node.children, reader.getLocation());
+
+        int depth = stack.size();
+        if (depth == 0) {
+            sendSpec();
+        } else if (depth == 1 && node.name.equals("job")) {
+            startJob();
+            listener.endJob();
+            job = null;
+        } else if (depth == 3 && stack.peek().name.equals("layers")) {
+            listener.layer(node.element);
+        } else if (depth == 2 && stack.peek().name.equals("depends")) {
+            listener.depend(node.element);
+        }
+    }
+
+    private void sendSpec() {
+        if (!specSent) {
+            specSent = true;
+            listener.spec(spec);
+        }
+    }
+
+    private void startJob() {
+        if (!jobStarted) {
+            jobStarted = true;
+            listener.startJob(job);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.dao.LayerDao;
+import com.imageworks.spcue.util.StreamingQuantile;
+
+/**
+ * Estimates a high quantile of the max RSS of the frames of each layer, so the minimum memory of
+ * the next frames can be set ahead of time instead of growing only after frames run out of
+ * memory.
+ *
+ * Every succeeded frame adds its max RSS to the estimator of its layer. The estimators of recently
+ * active layers are kept in memory and written to the database every flush interval, so they
+ * survive a restart. An estimator is loaded from the database the first time a layer is seen.
+ * When several cuebots handle frames of the same layer, each keeps its own estimator and the last
+ * one to flush wins.
+ */
+public class LayerMemoryEstimator {
+    private static final Logger logger = LogManager.getLogger(LayerMemoryEstimator.class);
+
+    private final boolean enabled;
+    private final double quantile;
+    private final int minSamples;
+    private final int flushSeconds;
+    private final Cache<String, StreamingQuantile> estimators;
+
+    /**
+     * Estimators changed since the last flush.
+     */
+    private final Map<String, StreamingQuantile> dirty = new ConcurrentHashMap<>();
+
+    private LayerDao layerDao;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param enabled false to leave layer memory to the existing optimizer
+     * @param quantile the quantile of the max RSS to reserve, between 0 and 1
+     * @param minSamples the number of frames a layer must complete before its estimate is used
+     * @param flushSeconds how often the estimators are written to the database
+     * @param maxLayers the maximum number of layers whose estimators are kept in memory
+     */
+    public LayerMemoryEstimator(boolean enabled, double quantile, int minSamples,
+            int flushSeconds, int maxLayers) {
+        this.enabled = enabled;
+        this.quantile = quantile;
+        this.minSamples = minSamples;
+        this.flushSeconds = flushSeconds;
+        this.estimators = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS)
+                .maximumSize(maxLayers).build();
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "LayerMemoryEstimator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushSeconds, flushSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            flush();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds the max RSS of a succeeded frame to the estimator of its layer.
+     *
+     * @param layer the layer of the frame
+     * @param maxRss the max RSS of the frame in KB
+     * @return the estimated memory usage of the layer's frames in KB, 0 if the layer has not
+     *         completed enough frames yet
+     */
+    public long record(LayerInterface layer, long maxRss) {
+        if (maxRss <= 0) {
+            return 0;
+        }
+        StreamingQuantile estimator = getEstimator(layer);
+        long estimate;
+        synchronized (estimator) {
+            estimator.add(maxRss);
+            estimate = estimator.getCount() >= minSamples ? (long) estimator.get() : 0;
+        }
+        dirty.put(layer.getLayerId(), estimator);
+        return estimate;
+    }
+
+    private StreamingQuantile getEstimator(LayerInterface layer) {
+        StreamingQuantile estimator = estimators.getIfPresent(layer.getLayerId());
+        if (estimator == null) {
+            estimator = dirty.get(layer.getLayerId());
+        }
+        if (estimator == null) {
+            estimator = layerDao.getMemoryEstimate(layer, quantile);
+        }
+        StreamingQuantile existing =
+                estimators.asMap().putIfAbsent(layer.getLayerId(), estimator);
+        return existing != null ? existing : estimator;
+    }
+
+    /**
+     * Writes the estimators changed since the last flush to the database.
+     */
+    public void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Map<String, StreamingQuantile> batch = new HashMap<>();
+        for (String layerId : dirty.keySet()) {
+            StreamingQuantile estimator = dirty.remove(layerId);
+            if (estimator != null) {
+                batch.put(layerId, estimator);
+            }
+        }
+        try {
+            layerDao.updateMemoryEstimates(batch);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to store {} layer memory estimates: {}", batch.size(),
+                    e.getMessage());
+            for (Map.Entry<String, StreamingQuantile> entry : batch.entrySet()) {
+                dirty.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public LayerDao getLayerDao() {
+        return layerDao;
+    }
+
+    public void setLayerDao(LayerDao layerDao) {
+        this.layerDao = layerDao;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.LayerSettings;
+import com.imageworks.spcue.dao.LayerDao;
+
+/**
+ * Caches the layer settings read for every running frame of every host report, so the same
+ * layers are not read from the database over and over.
+ *
+ * Code changing any of these settings must call one of the invalidate methods. When called
+ * inside a transaction the entry is dropped again once the transaction completes, so a report
+ * handled while the change was uncommitted cannot keep the old value. Loads that race with an
+ * invalidation are detected with a version counter and are not cached. Entries also expire after
+ * a short TTL, which bounds how long changes made by another cuebot or directly in the database
+ * take to be picked up.
+ */
+public class LayerSettingsCache {
+
+    private final Cache<String, LayerSettings> cache;
+
+    /**
+     * Incremented by every invalidation. A load only populates the cache if no invalidation
+     * happened while it was reading from the database.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    private LayerDao layerDao;
+
+    public LayerSettingsCache(int ttlSeconds, int maxSize) {
+        this.cache = CacheBuilder.newBuilder().expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .maximumSize(maxSize).build();
+    }
+
+    /**
+     * Returns the settings of a layer.
+     *
+     * @param layerId
+     * @return LayerSettings
+     * @throws org.springframework.dao.EmptyResultDataAccessException if the layer does not exist
+     */
+    public LayerSettings get(String layerId) {
+        LayerSettings settings = cache.getIfPresent(layerId);
+        if (settings == null) {
+            long loadVersion = version.get();
+            settings = layerDao.getLayerSettings(layerId);
+            if (version.get() == loadVersion) {
+                cache.put(layerId, settings);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Returns the cached settings of a layer without loading them.
+     *
+     * @param layerId
+     * @return LayerSettings or null if the layer is not cached
+     */
+    public LayerSettings getIfPresent(String layerId) {
+        return cache.getIfPresent(layerId);
+    }
+
+    public void invalidate(LayerInterface layer) {
+        invalidate(layer.getLayerId());
+    }
+
+    public void invalidate(String layerId) {
+        evict(layerId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            evict(layerId);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Invalidates every layer of the job, for updates applied to all the layers of a job.
+     *
+     * @param job
+     */
+    public void invalidate(JobInterface job) {
+        String jobId = job.getJobId();
+        evictJob(jobId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            evictJob(jobId);
+                        }
+                    });
+        }
+    }
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    private void evict(String layerId) {
+        version.incrementAndGet();
+        cache.invalidate(layerId);
+    }
+
+    private void evictJob(String jobId) {
+        version.incrementAndGet();
+        cache.asMap().values().removeIf(settings -> settings.jobId.equals(jobId));
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public LayerDao getLayerDao() {
+        return layerDao;
+    }
+
+    public void setLayerDao(LayerDao layerDao) {
+        this.layerDao = layerDao;
+    }
+}
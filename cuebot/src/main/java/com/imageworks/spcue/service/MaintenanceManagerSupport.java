@@ -16,6 +16,10 @@
 package com.imageworks.spcue.service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -27,6 +31,7 @@ import io.sentry.Sentry;
 
 import com.imageworks.spcue.FrameDetail;
 import com.imageworks.spcue.FrameInterface;
+import com.imageworks.spcue.MaintenanceLease;
 import com.imageworks.spcue.MaintenanceTask;
 import com.imageworks.spcue.PointDetail;
 import com.imageworks.spcue.VirtualProc;
@@ -34,8 +39,11 @@ import com.imageworks.spcue.dao.FrameDao;
 import com.imageworks.spcue.dao.HostDao;
 import com.imageworks.spcue.dao.MaintenanceDao;
 import com.imageworks.spcue.dao.ProcDao;
+import com.imageworks.spcue.dispatcher.BookingQueue;
 import com.imageworks.spcue.dispatcher.DispatchSupport;
 import com.imageworks.spcue.dispatcher.Dispatcher;
+import com.imageworks.spcue.dispatcher.HostReportQueue;
+import com.imageworks.spcue.dispatcher.WarmUpController;
 import com.imageworks.spcue.grpc.host.HardwareState;
 import com.imageworks.spcue.grpc.job.CheckpointState;
 import com.imageworks.spcue.grpc.job.FrameState;
@@ -63,28 +71,34 @@ public class MaintenanceManagerSupport {
 
     private DepartmentManager departmentManager;
 
+    private WarmUpController warmUpController;
+
+    private BookingQueue bookingQueue;
+
+    private HostReportQueue reportQueue;
+
     private static final long WAIT_FOR_HOST_REPORTS_MS = 600000;
 
     private static final int CHECKPOINT_MAX_WAIT_SEC = 300;
 
     private long dbConnectionFailureTime = 0;
 
+    private final Map<MaintenanceTask, Long> deferredTasks = new ConcurrentHashMap<>();
+
     /**
      * Checks the cue for down hosts. If there are any down they are cleared of procs. Additionally
-     * the orphaned proc check is done.
+     * the orphaned proc check is done. The procs are split between the cuebots running the check
+     * by host.
      *
      * If a DB Connection exception is thrown, its caught and the current time is noted. Once the DB
      * comes back up, down proc checks will not resume for WAIT_FOR_HOST_REPORTS_MS milliseconds.
-     * This is to give procs a chance to report back in.
+     * This is to give procs a chance to report back in. For the same reason the check does not
+     * run while the cuebot is warming up after a restart.
      *
      */
     public void checkHardwareState() {
         try {
-
-            if (!maintenanceDao.lockTask(MaintenanceTask.LOCK_HARDWARE_STATE_CHECK)) {
-                return;
-            }
-            try {
+            runSharded(MaintenanceTask.LOCK_HARDWARE_STATE_CHECK, lease -> {
                 if (dbConnectionFailureTime > 0) {
                     if (System.currentTimeMillis()
                             - dbConnectionFailureTime < WAIT_FOR_HOST_REPORTS_MS) {
@@ -94,21 +108,25 @@ public class MaintenanceManagerSupport {
                     }
                     dbConnectionFailureTime = 0;
                 }
+                if (warmUpController != null && warmUpController.isWarmingUp()) {
+                    logger.info("NOT running checkHardwareState, the cuebot is warming up.");
+                    return;
+                }
 
-                int hosts = maintenanceDao.setUpHostsToDown();
-                if (hosts > 0) {
-                    clearDownProcs();
+                // Hosts are marked down by a single update, run by the first shard only
+                if (lease.ownsShard(0)) {
+                    maintenanceDao.setUpHostsToDown();
+                }
+                clearDownProcs(lease);
 
-                    boolean autoDeleteDownHosts = env.getProperty(
-                            "maintenance.auto_delete_down_hosts", Boolean.class, false);
-                    if (autoDeleteDownHosts) {
-                        hostDao.deleteDownHosts();
-                    }
+                boolean autoDeleteDownHosts = env.getProperty(
+                        "maintenance.auto_delete_down_hosts", Boolean.class, false);
+                if (autoDeleteDownHosts && lease.ownsShard(0)
+                        && procDao.findVirtualProcs(HardwareState.DOWN).isEmpty()) {
+                    hostDao.deleteDownHosts();
                 }
-                clearOrphanedProcs();
-            } finally {
-                maintenanceDao.unlockTask(MaintenanceTask.LOCK_HARDWARE_STATE_CHECK);
-            }
+                clearOrphanedProcs(lease);
+            });
         } catch (Exception e) {
             // This catch could be more specific using CannotGetJdbcConnectionException, but
             // we need
@@ -125,38 +143,93 @@ public class MaintenanceManagerSupport {
     }
 
     public void archiveFinishedJobs() {
-        if (!maintenanceDao.lockTask(MaintenanceTask.LOCK_HISTORICAL_TRANSFER)) {
-            return;
-        }
         try {
-            historicalSupport.archiveHistoricalJobData();
+            runSharded(MaintenanceTask.LOCK_HISTORICAL_TRANSFER,
+                    historicalSupport::archiveHistoricalJobData);
         } catch (Exception e) {
             logger.warn("failed to archive finished jobs: " + e);
-        } finally {
-            maintenanceDao.unlockTask(MaintenanceTask.LOCK_HISTORICAL_TRANSFER);
         }
     }
 
-    private void clearOrphanedProcs() {
-        List<VirtualProc> procs = procDao.findOrphanedVirtualProcs(100);
-        for (VirtualProc proc : procs) {
-            try {
-                dispatchSupport.lostProc(proc, "Removed by maintenance, orphaned",
-                        Dispatcher.EXIT_STATUS_FRAME_ORPHAN);
+    /**
+     * Runs a task on the shards no other cuebot is working on, unless the cuebot is too busy.
+     *
+     * @param task the task
+     * @param work the work, given the locked shards
+     */
+    private void runSharded(MaintenanceTask task, Consumer<MaintenanceLease> work) {
+        if (deferUnderLoad(task)) {
+            return;
+        }
+        int shards = env.getProperty("maintenance.shards", Integer.class, 4);
+        maintenanceDao.runLocked(task, Math.max(1, shards), work);
+    }
 
-                Sentry.configureScope(scope -> {
-                    scope.setExtra("frame_id", proc.getFrameId());
-                    scope.setExtra("host_id", proc.getHostId());
-                    scope.setExtra("name", proc.getName());
-                    Sentry.captureMessage("Manager cleaning orphan procs");
-                });
-            } catch (Exception e) {
-                logger.info("failed to clear orphaned proc: " + proc.getName() + " " + e);
+    /**
+     * Returns true if the task should wait for a later run because the booking or report queue
+     * is filling up. A task is not deferred for longer than maintenance.max_defer_seconds.
+     */
+    private boolean deferUnderLoad(MaintenanceTask task) {
+        double maxRatio = env.getProperty("maintenance.defer_queue_ratio", Double.class, 0.8);
+        long maxDeferMillis = TimeUnit.SECONDS
+                .toMillis(env.getProperty("maintenance.max_defer_seconds", Integer.class, 600));
+        long now = System.currentTimeMillis();
+        if (getQueueLoad() >= maxRatio) {
+            long deferredSince = deferredTasks.computeIfAbsent(task, t -> now);
+            if (now - deferredSince < maxDeferMillis) {
+                logger.info("deferring " + task + ", the cuebot queues are busy");
+                return true;
+            }
+        }
+        deferredTasks.remove(task);
+        return false;
+    }
+
+    private double getQueueLoad() {
+        double load = 0;
+        if (bookingQueue != null) {
+            load = fillRatio(bookingQueue.getSize(), bookingQueue.getRemainingCapacity());
+        }
+        if (reportQueue != null) {
+            load = Math.max(load, fillRatio(reportQueue.getQueue().size(),
+                    reportQueue.getQueue().remainingCapacity()));
+        }
+        return load;
+    }
+
+    private static double fillRatio(long size, long remaining) {
+        return size + remaining == 0 ? 0 : size / (double) (size + remaining);
+    }
+
+    private void clearOrphanedProcs(MaintenanceLease lease) {
+        List<VirtualProc> procs = procDao.findOrphanedVirtualProcs(100);
+        for (List<VirtualProc> batch : lease.ownedBatches(procs, VirtualProc::getHostId)) {
+            if (!lease.isValid()) {
+                logger.warn("lost the orphaned proc check lease to another cuebot");
+                return;
+            }
+            for (VirtualProc proc : batch) {
+                try {
+                    dispatchSupport.lostProc(proc, "Removed by maintenance, orphaned",
+                            Dispatcher.EXIT_STATUS_FRAME_ORPHAN);
+
+                    Sentry.configureScope(scope -> {
+                        scope.setExtra("frame_id", proc.getFrameId());
+                        scope.setExtra("host_id", proc.getHostId());
+                        scope.setExtra("name", proc.getName());
+                        Sentry.captureMessage("Manager cleaning orphan procs");
+                    });
+                } catch (Exception e) {
+                    logger.info("failed to clear orphaned proc: " + proc.getName() + " " + e);
+                }
             }
         }
 
         List<FrameInterface> frames = frameDao.getOrphanedFrames();
         for (FrameInterface frame : frames) {
+            if (!lease.owns(frame.getFrameId())) {
+                continue;
+            }
             try {
                 frameDao.updateFrameStopped(frame, FrameState.WAITING,
                         Dispatcher.EXIT_STATUS_FRAME_ORPHAN);
@@ -166,49 +239,71 @@ public class MaintenanceManagerSupport {
         }
     }
 
-    private void clearDownProcs() {
+    private void clearDownProcs(MaintenanceLease lease) {
         List<VirtualProc> procs = procDao.findVirtualProcs(HardwareState.DOWN);
+        if (procs.isEmpty()) {
+            return;
+        }
         logger.warn("found " + procs.size() + " that are down.");
-        for (VirtualProc proc : procs) {
-            try {
-                dispatchSupport.lostProc(proc, proc.getName() + " was marked as down.",
-                        Dispatcher.EXIT_STATUS_DOWN_HOST);
-                FrameInterface f = frameDao.getFrame(proc.frameId);
-                FrameDetail frameDetail = frameDao.getFrameDetail(f);
-                Sentry.configureScope(scope -> {
-                    scope.setExtra("host", proc.getName());
-                    scope.setExtra("procId", proc.getProcId());
-                    scope.setExtra("frame Name", frameDetail.getName());
-                    scope.setExtra("frame Exit Status", String.valueOf(frameDetail.exitStatus));
-                    scope.setExtra("Frame Job ID", frameDetail.getJobId());
-                    Sentry.captureMessage("MaintenanceManager proc removed due to host offline");
-                });
-            } catch (Exception e) {
-                logger.info("failed to down  proc: " + proc.getName() + " " + e);
+        for (List<VirtualProc> batch : lease.ownedBatches(procs, VirtualProc::getHostId)) {
+            if (!lease.isValid()) {
+                logger.warn("lost the down proc check lease to another cuebot");
+                return;
+            }
+            for (VirtualProc proc : batch) {
+                try {
+                    dispatchSupport.lostProc(proc, proc.getName() + " was marked as down.",
+                            Dispatcher.EXIT_STATUS_DOWN_HOST);
+                    FrameInterface f = frameDao.getFrame(proc.frameId);
+                    FrameDetail frameDetail = frameDao.getFrameDetail(f);
+                    Sentry.configureScope(scope -> {
+                        scope.setExtra("host", proc.getName());
+                        scope.setExtra("procId", proc.getProcId());
+                        scope.setExtra("frame Name", frameDetail.getName());
+                        scope.setExtra("frame Exit Status",
+                                String.valueOf(frameDetail.exitStatus));
+                        scope.setExtra("Frame Job ID", frameDetail.getJobId());
+                        Sentry.captureMessage(
+                                "MaintenanceManager proc removed due to host offline");
+                    });
+                } catch (Exception e) {
+                    logger.info("failed to down  proc: " + proc.getName() + " " + e);
+                }
             }
         }
     }
 
     public void clearStaleCheckpoints() {
         logger.info("Checking for stale checkpoint frames.");
-        if (!maintenanceDao.lockTask(MaintenanceTask.LOCK_STALE_CHECKPOINT)) {
-            return;
-        }
         try {
-            List<FrameInterface> frames = jobManager.getStaleCheckpoints(CHECKPOINT_MAX_WAIT_SEC);
-            logger.warn("found " + frames.size() + " frames that failed to checkpoint");
-            for (FrameInterface frame : frames) {
-                jobManager.updateCheckpointState(frame, CheckpointState.DISABLED);
-                jobManager.updateFrameState(frame, FrameState.WAITING);
-            }
+            runSharded(MaintenanceTask.LOCK_STALE_CHECKPOINT, lease -> {
+                List<FrameInterface> frames =
+                        jobManager.getStaleCheckpoints(CHECKPOINT_MAX_WAIT_SEC);
+                logger.warn("found " + frames.size() + " frames that failed to checkpoint");
+                for (List<FrameInterface> batch : lease.ownedBatches(frames,
+                        FrameInterface::getFrameId)) {
+                    if (!lease.isValid()) {
+                        return;
+                    }
+                    for (FrameInterface frame : batch) {
+                        jobManager.updateCheckpointState(frame, CheckpointState.DISABLED);
+                        jobManager.updateFrameState(frame, FrameState.WAITING);
+                    }
+                }
+            });
         } catch (Exception e) {
             logger.warn("failed to unlock stale checkpoint " + e);
-        } finally {
-            maintenanceDao.unlockTask(MaintenanceTask.LOCK_STALE_CHECKPOINT);
         }
     }
 
+    /**
+     * Runs at most once every 700 minutes across all cuebots, so it keeps using the task_lock
+     * table which records when it last ran.
+     */
     public void updateTaskValues() {
+        if (deferUnderLoad(MaintenanceTask.LOCK_TASK_UPDATE)) {
+            return;
+        }
         if (!maintenanceDao.lockTask(MaintenanceTask.LOCK_TASK_UPDATE, 700)) {
             return;
         }
@@ -284,4 +379,16 @@ public class MaintenanceManagerSupport {
         this.jobManager = jobManager;
     }
 
+    public void setWarmUpController(WarmUpController warmUpController) {
+        this.warmUpController = warmUpController;
+    }
+
+    public void setBookingQueue(BookingQueue bookingQueue) {
+        this.bookingQueue = bookingQueue;
+    }
+
+    public void setReportQueue(HostReportQueue reportQueue) {
+        this.reportQueue = reportQueue;
+    }
+
 }
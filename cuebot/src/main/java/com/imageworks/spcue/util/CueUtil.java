@@ -18,17 +18,14 @@ package com.imageworks.spcue.util;
 import java.io.File;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Set;
 import java.util.regex.Pattern;
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
@@ -43,6 +40,7 @@ import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 
+import com.google.common.primitives.Ints;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import org.springframework.core.env.Environment;
@@ -155,6 +153,56 @@ public final class CueUtil {
         return dependOnFrame;
     }
 
+    /**
+     * Finds the chunk that the dependErFrame belongs to in the given sequence of frames. Ascending
+     * sequences, which is what normalizeFrameRange produces for ordinary ranges, are binary
+     * searched.
+     *
+     * @param dependOnFrames - the normalized frame range to depend on
+     * @param dependErFrame - the dependent frame number.
+     * @return
+     */
+    public static int findChunk(FrameSet dependOnFrames, int dependErFrame) {
+        if (dependOnFrames.contains(dependErFrame)) {
+            return dependErFrame;
+        }
+
+        int size = dependOnFrames.size();
+        if (size == 0) {
+            throw new RuntimeException(
+                    "unable to find chunk for frame: " + dependErFrame + " in an empty range");
+        }
+
+        /*
+         * Find the first frame past the dependErFrame, the chunk starts at the frame before it.
+         */
+        int next = size;
+        if (dependOnFrames.isAscending()) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (dependOnFrames.get(mid) > dependErFrame) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            next = low;
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (dependOnFrames.get(i) > dependErFrame) {
+                    next = i;
+                    break;
+                }
+            }
+        }
+        if (next == size) {
+            return dependOnFrames.get(size - 1);
+        }
+        return dependOnFrames.get(next - 1);
+    }
+
     /**
      * A simple send mail method
      *
@@ -325,50 +373,7 @@ public final class CueUtil {
      * @return
      */
     public static List<Integer> normalizeFrameRange(FrameSet frameSet, int chunkSize) {
-
-        int rangeSize = frameSet.size();
-        Set<Integer> result = new LinkedHashSet<Integer>(rangeSize / chunkSize);
-
-        /**
-         * Have to remove all duplicates and maintain order before chunking it.
-         */
-        if (chunkSize > 1) {
-
-            /**
-             * This handles people who chunk on 1,000,000.
-             */
-            if (chunkSize > rangeSize) {
-                result.add(frameSet.get(0));
-            } else {
-
-                /**
-                 * A linked hash set to weed out duplicates but maintain frame ordering.
-                 */
-                final Set<Integer> tempResult =
-                        new LinkedHashSet<Integer>((rangeSize / chunkSize) + 1);
-
-                for (int idx = 0; idx < rangeSize; idx = idx + 1) {
-                    tempResult.add(frameSet.get(idx));
-                }
-
-                /**
-                 * Now go through the frames and add 1 frame for every chunk.
-                 */
-                int idx = 0;
-                for (int frame : tempResult) {
-                    if (idx % chunkSize == 0) {
-                        result.add(frame);
-                    }
-                    idx = idx + 1;
-                }
-            }
-        } else {
-            for (int idx = 0; idx < rangeSize; idx = idx + 1) {
-                result.add(frameSet.get(idx));
-            }
-        }
-
-        return Collections.unmodifiableList(new ArrayList<Integer>(result));
+        return Collections.unmodifiableList(Ints.asList(frameSet.normalize(chunkSize).toArray()));
     }
 
     /**
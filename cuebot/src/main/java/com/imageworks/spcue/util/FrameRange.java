@@ -1,22 +1,21 @@
 package com.imageworks.spcue.util;
 
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
-import com.google.common.base.Predicates;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 
 import static java.lang.Math.abs;
 
 /**
  * Represents a sequence of image frames.
+ *
+ * Frames are not expanded. A range is stored as a start frame, a signed step and a frame count,
+ * so size, get, index and contains are constant time and allocate nothing. Inverted steps (y) are
+ * stored the same way with the excluded stride. Only interleaved ranges keep an explicit frame
+ * array, because the order of an interleave has no closed form.
  */
 public class FrameRange {
 
@@ -28,7 +27,26 @@ public class FrameRange {
     private static final Pattern INTERLEAVE_PATTERN =
             Pattern.compile("(?<sf>(-?)\\d+)-(?<ef>(-?)\\d+):(?<step>(-?)\\d+)");
 
-    private ImmutableList<Integer> frameList;
+    /** The first frame. */
+    private final int start;
+
+    /** Distance between consecutive frames; negative for descending ranges. */
+    private final int step;
+
+    /** Number of frames in the range. */
+    private final int count;
+
+    /**
+     * For inverted (y) ranges, the stride of the frames that are left out. Frame start + step * m
+     * is part of the range when m is not a multiple of the stride. Zero for every other range.
+     */
+    private final int invertedStride;
+
+    /** Explicit frame list, only used for interleaved ranges. */
+    private final int[] frames;
+
+    /** Lazily built lookup for explicit frame lists: frames sorted, paired with their index. */
+    private volatile long[] sortedFrames;
 
     /**
      * Construct a FrameRange object by parsing a spec.
@@ -58,7 +76,31 @@ public class FrameRange {
      * Example: 1-10:5 == 1, 6, 3, 5 ,7 ,9, 2, 4, 8, 10.
      */
     public FrameRange(String frameRange) {
-        frameList = parseFrameRange(frameRange);
+        this(parseFrameRange(frameRange));
+    }
+
+    private FrameRange(FrameRange other) {
+        this(other.start, other.step, other.count, other.invertedStride, other.frames);
+    }
+
+    private FrameRange(int start, int step, int count, int invertedStride, int[] frames) {
+        this.start = start;
+        this.step = step;
+        this.count = count;
+        this.invertedStride = invertedStride;
+        this.frames = frames;
+    }
+
+    /**
+     * Creates the range start, start + step, ... with count frames.
+     *
+     * @param start the first frame
+     * @param step the signed distance between frames
+     * @param count the number of frames
+     * @return the range
+     */
+    static FrameRange of(int start, int step, int count) {
+        return new FrameRange(start, step, count, 0, null);
     }
 
     /**
@@ -67,7 +109,7 @@ public class FrameRange {
      * @return
      */
     public int size() {
-        return frameList.size();
+        return count;
     }
 
     /**
@@ -77,7 +119,18 @@ public class FrameRange {
      * @return
      */
     public int get(int idx) {
-        return frameList.get(idx);
+        if (idx < 0 || idx >= count) {
+            throw new IndexOutOfBoundsException("index " + idx + " is not in range 0-" + count);
+        }
+        if (frames != null) {
+            return frames[idx];
+        }
+        if (invertedStride > 0) {
+            int kept = invertedStride - 1;
+            long m = (long) (idx / kept) * invertedStride + idx % kept + 1;
+            return (int) (start + step * m);
+        }
+        return (int) (start + (long) step * idx);
     }
 
     /**
@@ -87,7 +140,70 @@ public class FrameRange {
      * @return Index of frame. -1 if frame set does not contain frame.
      */
     public int index(int idx) {
-        return frameList.indexOf(idx);
+        if (count == 0) {
+            return -1;
+        }
+        if (frames != null) {
+            return explicitIndex(idx);
+        }
+        long distance = (long) idx - start;
+        if (distance % step != 0) {
+            return -1;
+        }
+        long m = distance / step;
+        if (m < 0) {
+            return -1;
+        }
+        long result = m;
+        if (invertedStride > 0) {
+            if (m % invertedStride == 0) {
+                return -1;
+            }
+            result = (m / invertedStride) * (invertedStride - 1) + m % invertedStride - 1;
+        }
+        return result < count ? (int) result : -1;
+    }
+
+    /**
+     * @param frame a frame number
+     * @return true if the frame is part of this sequence
+     */
+    public boolean contains(int frame) {
+        return index(frame) != -1;
+    }
+
+    /**
+     * @return true if every frame is greater than the one before it
+     */
+    public boolean isAscending() {
+        if (count < 2) {
+            return true;
+        }
+        if (frames != null) {
+            for (int i = 1; i < frames.length; i++) {
+                if (frames[i] <= frames[i - 1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return step > 0;
+    }
+
+    /**
+     * Gets the full numerical sequence as a new array.
+     *
+     * @return
+     */
+    public int[] toArray() {
+        if (frames != null) {
+            return frames.clone();
+        }
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = get(i);
+        }
+        return result;
     }
 
     /**
@@ -96,81 +212,115 @@ public class FrameRange {
      * @return
      */
     public ImmutableList<Integer> getAll() {
-        return frameList;
+        return ImmutableList.copyOf(Ints.asList(toArray()));
     }
 
-    protected static ImmutableList<Integer> parseFrameRange(String frameRange) {
+    private int explicitIndex(int frame) {
+        long[] lookup = sortedFrames;
+        if (lookup == null) {
+            lookup = new long[frames.length];
+            for (int i = 0; i < frames.length; i++) {
+                lookup[i] = ((long) frames[i] << 32) | i;
+            }
+            Arrays.sort(lookup);
+            sortedFrames = lookup;
+        }
+        int pos = Arrays.binarySearch(lookup, (long) frame << 32);
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+        if (pos < lookup.length && (int) (lookup[pos] >> 32) == frame) {
+            return (int) lookup[pos];
+        }
+        return -1;
+    }
+
+    private static FrameRange parseFrameRange(String frameRange) {
         Matcher singleFrameMatcher = SINGLE_FRAME_PATTERN.matcher(frameRange);
         if (singleFrameMatcher.matches()) {
-            return ImmutableList.of(Integer.valueOf(frameRange));
+            return of(Integer.parseInt(frameRange), 1, 1);
         }
 
         Matcher simpleRangeMatcher = SIMPLE_FRAME_RANGE_PATTERN.matcher(frameRange);
         if (simpleRangeMatcher.matches()) {
-            Integer startFrame = Integer.valueOf(simpleRangeMatcher.group("sf"));
-            Integer endFrame = Integer.valueOf(simpleRangeMatcher.group("ef"));
+            int startFrame = Integer.parseInt(simpleRangeMatcher.group("sf"));
+            int endFrame = Integer.parseInt(simpleRangeMatcher.group("ef"));
             return getIntRange(startFrame, endFrame, (endFrame >= startFrame ? 1 : -1));
         }
 
         Matcher rangeWithStepMatcher = STEP_PATTERN.matcher(frameRange);
         if (rangeWithStepMatcher.matches()) {
-            Integer startFrame = Integer.valueOf(rangeWithStepMatcher.group("sf"));
-            Integer endFrame = Integer.valueOf(rangeWithStepMatcher.group("ef"));
-            Integer step = Integer.valueOf(rangeWithStepMatcher.group("step"));
+            int startFrame = Integer.parseInt(rangeWithStepMatcher.group("sf"));
+            int endFrame = Integer.parseInt(rangeWithStepMatcher.group("ef"));
+            int step = Integer.parseInt(rangeWithStepMatcher.group("step"));
             String stepSep = rangeWithStepMatcher.group("stepSep");
             return getSteppedRange(startFrame, endFrame, step, "y".equals(stepSep));
         }
 
         Matcher rangeWithInterleaveMatcher = INTERLEAVE_PATTERN.matcher(frameRange);
         if (rangeWithInterleaveMatcher.matches()) {
-            Integer startFrame = Integer.valueOf(rangeWithInterleaveMatcher.group("sf"));
-            Integer endFrame = Integer.valueOf(rangeWithInterleaveMatcher.group("ef"));
-            Integer step = Integer.valueOf(rangeWithInterleaveMatcher.group("step"));
+            int startFrame = Integer.parseInt(rangeWithInterleaveMatcher.group("sf"));
+            int endFrame = Integer.parseInt(rangeWithInterleaveMatcher.group("ef"));
+            int step = Integer.parseInt(rangeWithInterleaveMatcher.group("step"));
             return getInterleavedRange(startFrame, endFrame, step);
         }
 
         throw new IllegalArgumentException("unrecognized frame range syntax " + frameRange);
     }
 
-    private static ImmutableList<Integer> getIntRange(Integer start, Integer end, Integer step) {
-        int streamStart = (step < 0 ? end : start);
-        int streamEnd = (step < 0 ? start : end);
-        int streamStep = abs(step);
-
-        List<Integer> intList = IntStream.rangeClosed(streamStart, streamEnd)
-                .filter(n -> (n - start) % streamStep == 0).boxed().collect(Collectors.toList());
-
-        if (step < 0) {
-            return ImmutableList.copyOf(Lists.reverse(intList));
+    /**
+     * Number of frames from start towards end, every abs(step) frames. A positive step with an end
+     * before the start is empty.
+     */
+    private static int countFrames(int start, int end, int step) {
+        long span = step < 0 ? (long) start - end : (long) end - start;
+        if (span < 0) {
+            return 0;
         }
-        return ImmutableList.copyOf(intList);
+        return Ints.checkedCast(span / abs((long) step) + 1);
     }
 
-    private static ImmutableList<Integer> getSteppedRange(Integer start, Integer end, Integer step,
-            Boolean inverseStep) {
+    private static FrameRange getIntRange(int start, int end, int step) {
+        int count = countFrames(start, end, step);
+        return of(start, count > 1 ? step : (step < 0 ? -1 : 1), count);
+    }
+
+    private static FrameRange getSteppedRange(int start, int end, int step, boolean inverseStep) {
         validateStepSign(start, end, step);
-        ImmutableList<Integer> steppedRange = getIntRange(start, end, step);
         if (inverseStep) {
-            ImmutableList<Integer> fullRange = getIntRange(start, end, (step < 0 ? -1 : 1));
-            return ImmutableList.copyOf(
-                    Collections2.filter(fullRange, Predicates.not(Predicates.in(steppedRange))));
+            int direction = step < 0 ? -1 : 1;
+            int span = countFrames(start, end, direction) - 1;
+            int stride = abs(step);
+            if (span < 0 || stride == 1) {
+                return of(start, direction, 0);
+            }
+            return new FrameRange(start, direction, span - span / stride, stride, null);
         }
-        return steppedRange;
+        return getIntRange(start, end, step);
     }
 
-    private static ImmutableList<Integer> getInterleavedRange(Integer start, Integer end,
-            Integer step) {
+    private static FrameRange getInterleavedRange(int start, int end, int step) {
         validateStepSign(start, end, step);
-        Set<Integer> interleavedFrames = new LinkedHashSet<>();
+        int direction = step < 0 ? -1 : 1;
+        int total = countFrames(start, end, direction);
+        int[] frames = new int[total];
+        boolean[] added = new boolean[total];
+        int size = 0;
 
         while (abs(step) > 0) {
-            interleavedFrames.addAll(getIntRange(start, end, step));
+            int stride = abs(step);
+            for (int m = 0; m < total; m += stride) {
+                if (!added[m]) {
+                    added[m] = true;
+                    frames[size++] = start + direction * m;
+                }
+            }
             step /= 2;
         }
-        return ImmutableList.copyOf(interleavedFrames);
+        return new FrameRange(start, direction, size, 0, frames);
     }
 
-    private static void validateStepSign(Integer start, Integer end, Integer step) {
+    private static void validateStepSign(int start, int end, int step) {
         if (step > 1) {
             if (end < start) {
                 throw new IllegalArgumentException(
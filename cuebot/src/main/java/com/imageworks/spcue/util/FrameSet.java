@@ -1,16 +1,34 @@
 package com.imageworks.spcue.util;
 
 import java.lang.IllegalArgumentException;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.StringJoiner;
 import com.google.common.collect.ImmutableList;
-import com.google.common.base.Strings;
+import com.google.common.primitives.Ints;
 
 /**
  * Represents an ordered sequence of FrameRanges.
+ *
+ * The ranges are kept in their compact form. Positions are found with a binary search over the
+ * range offsets, so get is O(log r) and index/contains are O(r) for r comma separated ranges,
+ * independent of the number of frames. The expanded frame list is only built on request.
  */
 public class FrameSet {
-    private ImmutableList<Integer> frameList;
+
+    /** Largest value span deduplicated with a bitmap; wider sets fall back to a hash set. */
+    private static final long MAX_BITMAP_SPAN = 1 << 26;
+
+    private final FrameRange[] ranges;
+
+    /** offsets[i] is the position of the first frame of ranges[i]. */
+    private final int[] offsets;
+
+    private final int size;
+
+    private volatile int[] frames;
 
     /**
      * Construct a FrameSet object by parsing a spec.
@@ -19,7 +37,50 @@ public class FrameSet {
      * addition that it may be a comma-separated list of different FrameRanges.
      */
     public FrameSet(String frameRange) {
-        frameList = parseFrameRange(frameRange);
+        this(parseFrameRange(frameRange));
+    }
+
+    private FrameSet(FrameRange[] ranges) {
+        this.ranges = ranges;
+        this.offsets = new int[ranges.length];
+        long total = 0;
+        for (int i = 0; i < ranges.length; i++) {
+            offsets[i] = (int) total;
+            total += ranges[i].size();
+        }
+        this.size = Ints.checkedCast(total);
+    }
+
+    /**
+     * Builds a FrameSet holding exactly the given frames, in order. Runs with a constant step are
+     * stored as a single range.
+     *
+     * @param frames the frames
+     * @return a FrameSet
+     */
+    public static FrameSet of(int[] frames) {
+        FrameRange[] ranges = new FrameRange[frames.length];
+        int count = 0;
+        int i = 0;
+        while (i < frames.length) {
+            int runEnd = i + 1;
+            if (runEnd < frames.length) {
+                long step = (long) frames[runEnd] - frames[i];
+                if (step != 0 && step == (int) step) {
+                    while (runEnd + 1 < frames.length
+                            && (long) frames[runEnd + 1] - frames[runEnd] == step) {
+                        runEnd++;
+                    }
+                    runEnd++;
+                    ranges[count++] = FrameRange.of(frames[i], (int) step, runEnd - i);
+                    i = runEnd;
+                    continue;
+                }
+            }
+            ranges[count++] = FrameRange.of(frames[i], 1, 1);
+            i = runEnd;
+        }
+        return new FrameSet(Arrays.copyOf(ranges, count));
     }
 
     /**
@@ -28,7 +89,7 @@ public class FrameSet {
      * @return
      */
     public int size() {
-        return frameList.size();
+        return size;
     }
 
     /**
@@ -38,7 +99,22 @@ public class FrameSet {
      * @return
      */
     public int get(int idx) {
-        return frameList.get(idx);
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("index " + idx + " is not in range 0-" + size);
+        }
+        int[] expanded = frames;
+        if (expanded != null) {
+            return expanded[idx];
+        }
+        int range = Arrays.binarySearch(offsets, idx);
+        if (range < 0) {
+            range = -range - 2;
+        }
+        // Empty ranges share an offset with the next range, skip to the one holding idx.
+        while (idx - offsets[range] >= ranges[range].size()) {
+            range++;
+        }
+        return ranges[range].get(idx - offsets[range]);
     }
 
     /**
@@ -48,7 +124,82 @@ public class FrameSet {
      * @return Index of frame. -1 if frame set does not contain frame.
      */
     public int index(int idx) {
-        return frameList.indexOf(idx);
+        for (int i = 0; i < ranges.length; i++) {
+            int rangeIndex = ranges[i].index(idx);
+            if (rangeIndex != -1) {
+                return offsets[i] + rangeIndex;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param frame a frame number
+     * @return true if the frame is part of this sequence
+     */
+    public boolean contains(int frame) {
+        return index(frame) != -1;
+    }
+
+    /**
+     * FrameSets are equal when they hold the same frames in the same order, however the spec was
+     * written.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FrameSet)) {
+            return false;
+        }
+        FrameSet other = (FrameSet) obj;
+        return size == other.size && Arrays.equals(toArray(), other.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    /**
+     * @return true if every frame is greater than the one before it
+     */
+    public boolean isAscending() {
+        int last = 0;
+        boolean first = true;
+        for (FrameRange range : ranges) {
+            if (range.size() == 0) {
+                continue;
+            }
+            if (!range.isAscending() || (!first && range.get(0) <= last)) {
+                return false;
+            }
+            last = range.get(range.size() - 1);
+            first = false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the full numerical sequence. The array is built once and shared, callers must not
+     * modify it.
+     *
+     * @return
+     */
+    public int[] toArray() {
+        int[] expanded = frames;
+        if (expanded == null) {
+            expanded = new int[size];
+            for (int i = 0; i < ranges.length; i++) {
+                FrameRange range = ranges[i];
+                for (int j = 0; j < range.size(); j++) {
+                    expanded[offsets[i] + j] = range.get(j);
+                }
+            }
+            frames = expanded;
+        }
+        return expanded;
     }
 
     /**
@@ -57,15 +208,73 @@ public class FrameSet {
      * @return
      */
     public ImmutableList<Integer> getAll() {
-        return frameList;
+        return ImmutableList.copyOf(Ints.asList(toArray()));
+    }
+
+    /**
+     * Removes duplicate frames, keeping the first occurrence, then keeps the first frame of every
+     * chunk. If the chunk size is larger than the sequence only the first frame is kept.
+     *
+     * @param chunkSize the number of frames per chunk
+     * @return the first frame of each chunk
+     */
+    public FrameSet normalize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive, got " + chunkSize);
+        }
+        if (size == 0) {
+            return this;
+        }
+        if (chunkSize > size) {
+            return FrameSet.of(new int[] {get(0)});
+        }
+        if (chunkSize == 1 && isAscending()) {
+            return this;
+        }
+
+        int[] unique = isAscending() ? toArray() : removeDuplicates(toArray());
+        int[] result = new int[(unique.length + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = unique[i * chunkSize];
+        }
+        return FrameSet.of(result);
+    }
+
+    private static int[] removeDuplicates(int[] values) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        int[] result = new int[values.length];
+        int count = 0;
+        if ((long) max - min < MAX_BITMAP_SPAN) {
+            BitSet seen = new BitSet((int) ((long) max - min + 1));
+            for (int value : values) {
+                if (!seen.get(value - min)) {
+                    seen.set(value - min);
+                    result[count++] = value;
+                }
+            }
+        } else {
+            Set<Integer> seen = new HashSet<>();
+            for (int value : values) {
+                if (seen.add(value)) {
+                    result[count++] = value;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
     }
 
-    private ImmutableList<Integer> parseFrameRange(String frameRange) {
-        ImmutableList.Builder<Integer> builder = ImmutableList.builder();
-        for (String frameRangeSection : frameRange.split(",")) {
-            builder.addAll(FrameRange.parseFrameRange(frameRangeSection));
+    private static FrameRange[] parseFrameRange(String frameRange) {
+        String[] sections = frameRange.split(",");
+        FrameRange[] result = new FrameRange[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            result[i] = new FrameRange(sections[i]);
         }
-        return builder.build();
+        return result;
     }
 
     /**
@@ -76,24 +285,24 @@ public class FrameSet {
      * @return String representation of the chunk, e.g. 1-1001x3
      */
     public String getChunk(int startFrameIndex, int chunkSize) {
-        if (frameList.size() <= startFrameIndex || startFrameIndex < 0) {
+        if (size <= startFrameIndex || startFrameIndex < 0) {
             String sf = String.valueOf(startFrameIndex);
-            String sz = String.valueOf(frameList.size() - 1);
+            String sz = String.valueOf(size - 1);
             throw new IllegalArgumentException(
                     "startFrameIndex " + sf + " is not in range 0-" + sz);
         }
         if (chunkSize == 1) {
             // Chunksize of 1 so the FrameSet is just the startFrame
-            return String.valueOf(frameList.get(startFrameIndex));
+            return String.valueOf(get(startFrameIndex));
         }
-        int finalFrameIndex = frameList.size() - 1;
+        int finalFrameIndex = size - 1;
         int endFrameIndex = startFrameIndex + chunkSize - 1;
         if (endFrameIndex > finalFrameIndex) {
             // We don't have enough frames, so return the remaining frames.
             endFrameIndex = finalFrameIndex;
         }
 
-        return framesToFrameRanges(frameList.subList(startFrameIndex, endFrameIndex + 1));
+        return framesToFrameRanges(startFrameIndex, endFrameIndex + 1);
     }
 
     /**
@@ -117,17 +326,18 @@ public class FrameSet {
     }
 
     /**
-     * Return a String representation of a frame range based on a list of literal integer frame IDs.
+     * Return a String representation of a frame range based on a run of this sequence.
      * 
-     * @param frames List of integers representing frame IDs,
+     * @param fromIndex Index of the first frame, inclusive
+     * @param toIndex Index of the last frame, exclusive
      * @return String representation of a frameset, e.g. '1-10,12-100x2'
      */
-    private String framesToFrameRanges(ImmutableList<Integer> frames) {
-        int l = frames.size();
+    private String framesToFrameRanges(int fromIndex, int toIndex) {
+        int l = toIndex - fromIndex;
         if (l == 0) {
             return "";
         } else if (l == 1) {
-            return String.valueOf(frames.get(0));
+            return String.valueOf(get(fromIndex));
         }
 
         StringJoiner resultBuilder = new StringJoiner(",");
@@ -135,12 +345,12 @@ public class FrameSet {
         int curr_count = 1;
         int curr_step = 0;
         int new_step = 0;
-        int curr_start = frames.get(0);
-        int curr_frame = frames.get(0);
-        int last_frame = frames.get(0);
+        int curr_start = get(fromIndex);
+        int curr_frame = get(fromIndex);
+        int last_frame = get(fromIndex);
 
-        for (int i = 1; i < frames.size(); i++) {
-            curr_frame = frames.get(i);
+        for (int i = fromIndex + 1; i < toIndex; i++) {
+            curr_frame = get(i);
 
             if (curr_step == 0) {
                 curr_step = curr_frame - curr_start;
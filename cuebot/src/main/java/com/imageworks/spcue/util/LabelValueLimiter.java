@@ -0,0 +1,151 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the values a metric label can take.
+ *
+ * Values outside the allow list, when one is set, are reported as OTHER. The remaining values are
+ * ranked by how often they are seen and only the top K keep their own value, everything else is
+ * reported as OTHER too. Until the first rebalance the first K values seen are kept. Counts are
+ * halved on every rebalance so the ranking follows recent use.
+ */
+public class LabelValueLimiter {
+
+    public static final String OTHER = "other";
+
+    /**
+     * How many more values than K are counted, so values outside the top K can move into it.
+     */
+    private static final int CANDIDATE_FACTOR = 4;
+
+    private final Set<String> allowList;
+    private final int topK;
+    private final Map<String, LongAdder> hits = new ConcurrentHashMap<>();
+    private volatile Set<String> top = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param allowList the values that may be reported, empty to allow any value
+     * @param topK the number of values reported as is, 0 for no limit
+     */
+    public LabelValueLimiter(Set<String> allowList, int topK) {
+        this.allowList = Collections.unmodifiableSet(new HashSet<>(allowList));
+        this.topK = topK;
+    }
+
+    /**
+     * Creates a limiter from a comma separated allow list.
+     *
+     * @param allowList the values that may be reported, empty or null to allow any value
+     * @param topK the number of values reported as is, 0 for no limit
+     */
+    public static LabelValueLimiter fromString(String allowList, int topK) {
+        Set<String> values = new HashSet<>();
+        if (allowList != null) {
+            for (String value : allowList.split(",")) {
+                if (!value.trim().isEmpty()) {
+                    values.add(value.trim());
+                }
+            }
+        }
+        return new LabelValueLimiter(values, topK);
+    }
+
+    /**
+     * Returns the value to report for a label value.
+     *
+     * @param value the label value
+     * @return the value itself or OTHER
+     */
+    public String limit(String value) {
+        if (value == null) {
+            return OTHER;
+        }
+        if (!allowList.isEmpty() && !allowList.contains(value)) {
+            return OTHER;
+        }
+        if (topK <= 0) {
+            return value;
+        }
+
+        LongAdder count = hits.get(value);
+        if (count == null && hits.size() < topK * CANDIDATE_FACTOR) {
+            count = hits.computeIfAbsent(value, v -> new LongAdder());
+        }
+        if (count != null) {
+            count.increment();
+        }
+
+        Set<String> current = top;
+        if (current.contains(value)) {
+            return value;
+        }
+        synchronized (this) {
+            if (current == top && current.size() < topK) {
+                current.add(value);
+                return value;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Ranks the values seen so far and picks the top K, then halves the counts. Values whose count
+     * drops to zero are forgotten.
+     */
+    public synchronized void rebalance() {
+        if (topK <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Long>> counts = new ArrayList<>(hits.size());
+        for (Map.Entry<String, LongAdder> entry : hits.entrySet()) {
+            long count = entry.getValue().sumThenReset();
+            counts.add(Map.entry(entry.getKey(), count));
+            if (count / 2 > 0) {
+                entry.getValue().add(count / 2);
+            } else {
+                hits.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        counts.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        Set<String> newTop = ConcurrentHashMap.newKeySet();
+        for (Map.Entry<String, Long> entry : counts) {
+            if (newTop.size() >= topK || entry.getValue() == 0) {
+                break;
+            }
+            newTop.add(entry.getKey());
+        }
+        top = newTop;
+    }
+
+    /**
+     * Returns the values currently reported as is.
+     */
+    public Set<String> getTopValues() {
+        return Collections.unmodifiableSet(top);
+    }
+}
@@ -0,0 +1,99 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.prometheus.client.SimpleCollector;
+
+/**
+ * Caps the number of series a labelled Prometheus metric can hold.
+ *
+ * Every set of label values used is tracked along with the last time it was used. Once the metric
+ * holds the maximum number of series, new series have their overflow labels replaced by
+ * LabelValueLimiter.OTHER so they fold into a shared series. Series that have not been used for a
+ * while are removed from the metric by evictIdle, which makes room for new ones.
+ */
+public class SeriesLimiter {
+
+    private final SimpleCollector<?> collector;
+    private final int maxSeries;
+    private final int[] overflowLabels;
+    private final Map<List<String>, Long> lastUsed = new ConcurrentHashMap<>();
+
+    /**
+     * @param collector the metric
+     * @param maxSeries the number of series kept before new ones overflow
+     * @param overflowLabels the positions of the labels replaced by OTHER on overflow
+     */
+    public SeriesLimiter(SimpleCollector<?> collector, int maxSeries, int... overflowLabels) {
+        this.collector = collector;
+        this.maxSeries = maxSeries;
+        this.overflowLabels = overflowLabels;
+    }
+
+    /**
+     * Returns the label values to use for a series, marking the series as used.
+     *
+     * @param labels the label values, in the order of the metric label names
+     * @return the label values, or a copy with the overflow labels replaced
+     */
+    public String[] admit(String... labels) {
+        long now = System.currentTimeMillis();
+        List<String> key = Arrays.asList(labels);
+        if (lastUsed.replace(key, now) != null) {
+            return labels;
+        }
+        if (lastUsed.size() >= maxSeries) {
+            labels = labels.clone();
+            for (int i : overflowLabels) {
+                labels[i] = LabelValueLimiter.OTHER;
+            }
+            key = Arrays.asList(labels);
+        }
+        lastUsed.put(key, now);
+        return labels;
+    }
+
+    /**
+     * Removes the series that have not been used for a while from the metric.
+     *
+     * @param idleMillis how long a series may go unused
+     * @return the number of series removed
+     */
+    public int evictIdle(long idleMillis) {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        for (Map.Entry<List<String>, Long> entry : lastUsed.entrySet()) {
+            if (entry.getValue() < cutoff && lastUsed.remove(entry.getKey(), entry.getValue())) {
+                collector.remove(entry.getKey().toArray(new String[0]));
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of series held by the metric.
+     */
+    public int size() {
+        return lastUsed.size();
+    }
+}
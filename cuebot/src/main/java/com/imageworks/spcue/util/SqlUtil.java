@@ -17,10 +17,14 @@ package com.imageworks.spcue.util;
 
 import com.google.protobuf.ByteString;
 
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.UUID;
 
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
+
 public class SqlUtil {
 
     public static String buildBindVariableArray(String col, Integer numValues) {
@@ -35,6 +39,24 @@ public class SqlUtil {
         return sb.toString();
     }
 
+    /**
+     * Wraps a String array into a bind value for a "col = ANY(?)" predicate. Unlike
+     * buildBindVariableArray, the SQL text stays the same regardless of the number of values, so
+     * the statement can be reused by the driver's server side prepared statement cache.
+     *
+     * @param values String[]
+     * @return SqlTypeValue
+     */
+    public static SqlTypeValue buildBindArray(final String[] values) {
+        return new AbstractSqlTypeValue() {
+            @Override
+            protected Object createTypeValue(Connection conn, int sqlType, String typeName)
+                    throws SQLException {
+                return conn.createArrayOf("varchar", values);
+            }
+        };
+    }
+
     /**
      * returns a 32 character UUID string that will be identical everytime its generated based on
      * the name passed in.
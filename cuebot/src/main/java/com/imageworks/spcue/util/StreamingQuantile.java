@@ -0,0 +1,194 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.util;
+
+import java.util.Arrays;
+
+/**
+ * Estimates a quantile of a stream of values in constant space, using the P-square algorithm of
+ * Jain and Chlamtac.
+ *
+ * Five markers track the minimum, the maximum, the quantile and the two points halfway between it
+ * and the ends. Each value moves the marker positions, and markers that drift from their desired
+ * position are adjusted with a piecewise parabolic fit of their neighbours. Until five values have
+ * been added the quantile is read from the values themselves. The state can be encoded as a string
+ * so the estimate survives a restart. Not thread safe.
+ */
+public class StreamingQuantile {
+
+    private static final int MARKERS = 5;
+
+    private final double quantile;
+    private final double[] heights = new double[MARKERS];
+    private final double[] positions = new double[MARKERS];
+    private final double[] desired = new double[MARKERS];
+    private final double[] increments;
+    private long count;
+
+    /**
+     * @param quantile the quantile to estimate, between 0 and 1
+     */
+    public StreamingQuantile(double quantile) {
+        if (quantile <= 0 || quantile >= 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1: " + quantile);
+        }
+        this.quantile = quantile;
+        this.increments = new double[] {0, quantile / 2, quantile, (1 + quantile) / 2, 1};
+    }
+
+    /**
+     * Adds a value to the stream.
+     */
+    public void add(double value) {
+        if (count < MARKERS) {
+            heights[(int) count++] = value;
+            if (count == MARKERS) {
+                Arrays.sort(heights);
+                for (int i = 0; i < MARKERS; i++) {
+                    positions[i] = i;
+                }
+                desired[0] = 0;
+                desired[1] = 2 * quantile;
+                desired[2] = 4 * quantile;
+                desired[3] = 2 + 2 * quantile;
+                desired[4] = 4;
+            }
+            return;
+        }
+
+        int cell;
+        if (value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if (value >= heights[MARKERS - 1]) {
+            heights[MARKERS - 1] = value;
+            cell = MARKERS - 2;
+        } else {
+            cell = 0;
+            while (value >= heights[cell + 1]) {
+                cell++;
+            }
+        }
+        for (int i = cell + 1; i < MARKERS; i++) {
+            positions[i]++;
+        }
+        for (int i = 0; i < MARKERS; i++) {
+            desired[i] += increments[i];
+        }
+
+        for (int i = 1; i < MARKERS - 1; i++) {
+            double drift = desired[i] - positions[i];
+            if ((drift >= 1 && positions[i + 1] - positions[i] > 1)
+                    || (drift <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = drift > 0 ? 1 : -1;
+                double height = parabolic(i, step);
+                if (heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                } else {
+                    heights[i] = heights[i] + step * (heights[i + step] - heights[i])
+                            / (positions[i + step] - positions[i]);
+                }
+                positions[i] += step;
+            }
+        }
+        count++;
+    }
+
+    private double parabolic(int i, int step) {
+        return heights[i] + step / (positions[i + 1] - positions[i - 1])
+                * ((positions[i] - positions[i - 1] + step) * (heights[i + 1] - heights[i])
+                        / (positions[i + 1] - positions[i])
+                        + (positions[i + 1] - positions[i] - step)
+                                * (heights[i] - heights[i - 1])
+                                / (positions[i] - positions[i - 1]));
+    }
+
+    /**
+     * Returns the estimated quantile, 0 if no values were added.
+     */
+    public double get() {
+        if (count == 0) {
+            return 0;
+        }
+        if (count < MARKERS) {
+            double[] values = Arrays.copyOf(heights, (int) count);
+            Arrays.sort(values);
+            int index = (int) Math.ceil(quantile * count) - 1;
+            return values[Math.max(0, Math.min(index, values.length - 1))];
+        }
+        return heights[2];
+    }
+
+    /**
+     * Returns the number of values added.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getQuantile() {
+        return quantile;
+    }
+
+    /**
+     * Encodes the state of the estimator, to be restored with decode.
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(count);
+        for (double[] values : new double[][] {heights, positions, desired}) {
+            for (double value : values) {
+                sb.append(',').append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Restores an estimator from the string returned by encode.
+     *
+     * @param quantile the quantile to estimate, the stored state is discarded if it differs from
+     *        the quantile it was built for
+     * @param state the encoded state, may be null
+     * @return the estimator, empty if there was no usable state
+     */
+    public static StreamingQuantile decode(double quantile, String state) {
+        StreamingQuantile estimator = new StreamingQuantile(quantile);
+        if (state == null) {
+            return estimator;
+        }
+        String[] fields = state.split(",");
+        if (fields.length != 1 + 3 * MARKERS) {
+            return estimator;
+        }
+        try {
+            long count = Long.parseLong(fields[0]);
+            double[][] targets = {estimator.heights, estimator.positions, estimator.desired};
+            for (int i = 0; i < 3 * MARKERS; i++) {
+                targets[i / MARKERS][i % MARKERS] = Double.parseDouble(fields[i + 1]);
+            }
+            // The desired position of the middle marker tracks the quantile
+            if (count >= MARKERS && Math.abs(estimator.desired[2] - 4 * quantile
+                    - (count - MARKERS) * quantile) > 1e-6 * count) {
+                return new StreamingQuantile(quantile);
+            }
+            estimator.count = count;
+        } catch (NumberFormatException e) {
+            return new StreamingQuantile(quantile);
+        }
+        return estimator;
+    }
+}
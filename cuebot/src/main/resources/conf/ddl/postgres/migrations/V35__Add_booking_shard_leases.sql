@@ -0,0 +1,23 @@
+-- Add tables to share booking between cuebots by allocation
+
+CREATE TABLE booking_shard_member (
+    str_owner VARCHAR(256) NOT NULL,
+    ts_expires TIMESTAMP (6) NOT NULL
+);
+
+ALTER TABLE booking_shard_member ADD CONSTRAINT c_booking_shard_member_pk
+  PRIMARY KEY (str_owner);
+
+CREATE TABLE booking_shard_lease (
+    pk_alloc VARCHAR(36) NOT NULL,
+    str_owner VARCHAR(256) NOT NULL,
+    ts_expires TIMESTAMP (6) NOT NULL
+);
+
+ALTER TABLE booking_shard_lease ADD CONSTRAINT c_booking_shard_lease_pk
+  PRIMARY KEY (pk_alloc);
+
+ALTER TABLE booking_shard_lease ADD CONSTRAINT c_booking_shard_lease_pk_alloc
+  FOREIGN KEY (pk_alloc) REFERENCES alloc (pk_alloc) ON DELETE CASCADE;
+
+CREATE INDEX i_booking_shard_lease_str_owner ON booking_shard_lease (str_owner);
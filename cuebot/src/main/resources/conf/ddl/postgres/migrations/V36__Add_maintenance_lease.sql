@@ -0,0 +1,11 @@
+-- Add a table holding the fencing token of each maintenance task shard
+
+CREATE TABLE maintenance_lease (
+    str_task VARCHAR(36) NOT NULL,
+    int_shard INT NOT NULL,
+    int_fence BIGINT DEFAULT 0 NOT NULL,
+    ts_acquired TIMESTAMP (6) DEFAULT current_timestamp NOT NULL
+);
+
+ALTER TABLE maintenance_lease ADD CONSTRAINT c_maintenance_lease_pk
+  PRIMARY KEY (str_task, int_shard);
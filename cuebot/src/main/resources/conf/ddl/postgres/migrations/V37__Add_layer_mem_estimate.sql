@@ -0,0 +1,15 @@
+-- Add a table holding the streaming estimate of each layer's frame memory usage
+
+CREATE TABLE layer_mem_estimate (
+    pk_layer VARCHAR(36) NOT NULL,
+    int_samples BIGINT DEFAULT 0 NOT NULL,
+    int_mem_estimate BIGINT DEFAULT 0 NOT NULL,
+    str_state TEXT NOT NULL,
+    ts_updated TIMESTAMP (6) DEFAULT current_timestamp NOT NULL
+);
+
+ALTER TABLE layer_mem_estimate ADD CONSTRAINT c_layer_mem_estimate_pk
+  PRIMARY KEY (pk_layer);
+
+ALTER TABLE layer_mem_estimate ADD CONSTRAINT c_layer_mem_estimate_pk_layer
+  FOREIGN KEY (pk_layer) REFERENCES layer (pk_layer) ON DELETE CASCADE;
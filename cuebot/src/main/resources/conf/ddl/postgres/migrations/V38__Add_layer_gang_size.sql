@@ -0,0 +1,3 @@
+-- Add the number of frames of a layer that must be started together
+
+ALTER TABLE layer ADD COLUMN int_gang_size INT DEFAULT 0 NOT NULL;
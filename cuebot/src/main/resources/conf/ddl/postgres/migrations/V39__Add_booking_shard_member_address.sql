@@ -0,0 +1,3 @@
+-- Add the address RQD reaches each sharded booking cuebot at
+
+ALTER TABLE booking_shard_member ADD COLUMN str_address VARCHAR(256) DEFAULT '' NOT NULL;
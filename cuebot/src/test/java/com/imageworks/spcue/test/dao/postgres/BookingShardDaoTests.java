@@ -0,0 +1,112 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.test.dao.postgres;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.annotation.Resource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.imageworks.spcue.config.TestAppConfig;
+import com.imageworks.spcue.dao.BookingShardDao;
+import com.imageworks.spcue.test.AssumingPostgresEngine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Transactional
+@ContextConfiguration(classes = TestAppConfig.class, loader = AnnotationConfigContextLoader.class)
+public class BookingShardDaoTests extends AbstractTransactionalJUnit4SpringContextTests {
+
+    @Autowired
+    @Rule
+    public AssumingPostgresEngine assumingPostgresEngine;
+
+    @Resource
+    BookingShardDao bookingShardDao;
+
+    private static final String ALLOC_ID = "00000000-0000-0000-0000-000000000000";
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testHeartbeat() {
+        int members = bookingShardDao.getLiveMemberCount();
+        bookingShardDao.heartbeat("cuebot-a", "cuebot-a:8443", 30);
+        bookingShardDao.heartbeat("cuebot-a", "cuebot-a:8443", 30);
+        bookingShardDao.heartbeat("cuebot-b", "cuebot-b:8443", -1);
+        assertEquals(members + 1, bookingShardDao.getLiveMemberCount());
+
+        bookingShardDao.removeMember("cuebot-a");
+        assertEquals(members, bookingShardDao.getLiveMemberCount());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetAllocationIds() {
+        assertTrue(bookingShardDao.getAllocationIds().contains(ALLOC_ID));
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testAcquireLease() {
+        assertTrue(bookingShardDao.acquireLease(ALLOC_ID, "cuebot-a", 30));
+        assertTrue(bookingShardDao.acquireLease(ALLOC_ID, "cuebot-a", 30));
+        assertFalse(bookingShardDao.acquireLease(ALLOC_ID, "cuebot-b", 30));
+        assertEquals(Arrays.asList(ALLOC_ID), bookingShardDao.renewLeases("cuebot-a", 30));
+
+        bookingShardDao.releaseLease(ALLOC_ID, "cuebot-b");
+        assertEquals(Arrays.asList(ALLOC_ID), bookingShardDao.renewLeases("cuebot-a", 30));
+        bookingShardDao.releaseLease(ALLOC_ID, "cuebot-a");
+        assertEquals(Collections.emptyList(), bookingShardDao.renewLeases("cuebot-a", 30));
+        assertTrue(bookingShardDao.acquireLease(ALLOC_ID, "cuebot-b", 30));
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testAcquireExpiredLease() {
+        assertTrue(bookingShardDao.acquireLease(ALLOC_ID, "cuebot-a", -1));
+        assertTrue(bookingShardDao.acquireLease(ALLOC_ID, "cuebot-b", 30));
+        assertEquals(Collections.emptyList(), bookingShardDao.renewLeases("cuebot-a", 30));
+        assertEquals(Arrays.asList(ALLOC_ID), bookingShardDao.renewLeases("cuebot-b", 30));
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetLeaseAddresses() {
+        bookingShardDao.heartbeat("cuebot-a", "cuebot-a:8443", 30);
+        assertTrue(bookingShardDao.acquireLease(ALLOC_ID, "cuebot-a", 30));
+        assertEquals("cuebot-a:8443", bookingShardDao.getLeaseAddresses().get(ALLOC_ID));
+
+        bookingShardDao.heartbeat("cuebot-a", "cuebot-a:8443", -1);
+        assertFalse(bookingShardDao.getLeaseAddresses().containsKey(ALLOC_ID));
+    }
+}
@@ -0,0 +1,220 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.test.dao.postgres;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Resource;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.XMLOutputter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.JobDetail;
+import com.imageworks.spcue.config.TestAppConfig;
+import com.imageworks.spcue.dao.DispatcherDao;
+import com.imageworks.spcue.dao.HostDao;
+import com.imageworks.spcue.dispatcher.Dispatcher;
+import com.imageworks.spcue.dispatcher.JobRuntimeStats;
+import com.imageworks.spcue.grpc.host.HardwareState;
+import com.imageworks.spcue.grpc.report.RenderHost;
+import com.imageworks.spcue.service.AdminManager;
+import com.imageworks.spcue.service.GroupManager;
+import com.imageworks.spcue.service.HostManager;
+import com.imageworks.spcue.service.JobLauncher;
+import com.imageworks.spcue.service.JobManager;
+import com.imageworks.spcue.test.AssumingPostgresEngine;
+import com.imageworks.spcue.util.CueUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Transactional
+@ContextConfiguration(classes = TestAppConfig.class, loader = AnnotationConfigContextLoader.class)
+public class DispatcherDaoRuntimeTests extends AbstractTransactionalJUnit4SpringContextTests {
+
+    @Autowired
+    @Rule
+    public AssumingPostgresEngine assumingPostgresEngine;
+
+    @Resource
+    DispatcherDao dispatcherDao;
+
+    @Resource
+    HostDao hostDao;
+
+    @Resource
+    JobManager jobManager;
+
+    @Resource
+    HostManager hostManager;
+
+    @Resource
+    AdminManager adminManager;
+
+    @Resource
+    GroupManager groupManager;
+
+    @Resource
+    Dispatcher dispatcher;
+
+    @Resource
+    JobLauncher jobLauncher;
+
+    @Resource
+    JobRuntimeStats jobRuntimeStats;
+
+    private static final String HOSTNAME = "beta";
+
+    public DispatchHost getHost() {
+        return hostDao.findDispatchHost(HOSTNAME);
+    }
+
+    /**
+     * Launches a job for each run time, and sets the cores it is running and the run time of its
+     * succeeded frames.
+     */
+    private List<String> launchJobs(int[] cores, int[] frameSeconds) throws Exception {
+        Document docTemplate = new SAXBuilder(true)
+                .build(new File("src/test/resources/conf/jobspec/jobspec_simple.xml"));
+        docTemplate.getDocType().setSystemID("http://localhost:8080/spcue/dtd/cjsl-1.12.dtd");
+        Element root = docTemplate.getRootElement();
+        Element jobTemplate = root.getChild("job");
+        Element depends = root.getChild("depends");
+        root.removeContent(jobTemplate);
+        root.removeContent(depends);
+
+        List<String> jobIds = new ArrayList<String>();
+        for (int i = 0; i < cores.length; i++) {
+            Document doc = (Document) docTemplate.clone();
+            root = doc.getRootElement();
+            Element job = (Element) jobTemplate.clone();
+            job.setAttribute("name", "job" + i);
+            root.addContent(job);
+            root.addContent((Element) depends.clone());
+            jobLauncher.launch(new XMLOutputter().outputString(doc));
+
+            String jobId = jobManager.findJobDetail("pipe-default-testuser_job" + i).getJobId();
+            jdbcTemplate.update("UPDATE job_resource SET int_cores = ? WHERE pk_job = ?",
+                    cores[i], jobId);
+            jdbcTemplate.update(
+                    "UPDATE job_usage SET int_clock_time_success = ?, "
+                            + "int_frame_success_count = 2 WHERE pk_job = ?",
+                    frameSeconds[i] * 2, jobId);
+            jobIds.add(jobId);
+        }
+        jobRuntimeStats.refresh();
+        return jobIds;
+    }
+
+    @Before
+    public void launchJob() {
+        dispatcherDao.setSchedulingMode(DispatcherDao.SchedulingMode.RUNTIME);
+
+        dispatcher.setTestMode(true);
+        jobLauncher.testMode = true;
+    }
+
+    @After
+    public void resetScheduling() {
+        dispatcherDao.setSchedulingMode(DispatcherDao.SchedulingMode.PRIORITY_ONLY);
+    }
+
+    @Before
+    public void createHost() {
+        RenderHost host = RenderHost.newBuilder().setName(HOSTNAME).setBootTime(1192369572)
+                // The minimum amount of free space in the temporary directory to book a host.
+                .setFreeMcp(CueUtil.GB).setFreeMem(53500).setFreeSwap(20760).setLoad(1)
+                .setTotalMcp(CueUtil.GB4).setTotalMem(8173264).setTotalSwap(20960)
+                .setNimbyEnabled(false).setNumProcs(2).setCoresPerProc(100).addTags("test")
+                .setState(HardwareState.UP).setFacility("spi").putAttributes("SP_OS", "Linux")
+                .build();
+
+        hostManager.createHost(host, adminManager.findAllocationDetail("spi", "general"));
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testOrderByCoreSeconds() throws Exception {
+        List<String> jobIds = launchJobs(new int[] {200, 300, 0}, new int[] {600, 60, 3000});
+
+        List<String> jobs = new ArrayList<String>(dispatcherDao.findDispatchJobs(getHost(), 3));
+        assertEquals(Arrays.asList(jobIds.get(2), jobIds.get(1), jobIds.get(0)), jobs);
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testOrderByFrameSecondsOnNimbyHost() throws Exception {
+        List<String> jobIds = launchJobs(new int[] {200, 300, 0}, new int[] {600, 60, 3000});
+
+        DispatchHost host = getHost();
+        host.isNimby = true;
+        List<String> jobs = new ArrayList<String>(dispatcherDao.findDispatchJobs(host, 3));
+        assertEquals(Arrays.asList(jobIds.get(1), jobIds.get(0), jobIds.get(2)), jobs);
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGroup() throws Exception {
+        List<String> jobIds = launchJobs(new int[] {200, 300, 0}, new int[] {600, 60, 3000});
+
+        JobDetail job = jobManager.findJobDetail("pipe-default-testuser_job0");
+        List<String> jobs = new ArrayList<String>(
+                dispatcherDao.findDispatchJobs(getHost(), groupManager.getGroupDetail(job)));
+        assertEquals(Arrays.asList(jobIds.get(2), jobIds.get(1), jobIds.get(0)), jobs);
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testRecordFrame() throws Exception {
+        List<String> jobIds = launchJobs(new int[] {200, 300, 0}, new int[] {600, 60, 3000});
+
+        jobRuntimeStats.recordFrame(jobIds.get(1), 60 + 1000);
+        assertEquals(260.0, jobRuntimeStats.getExpectedFrameSeconds(jobIds.get(1)), 0.0001);
+        assertEquals(520.0, jobRuntimeStats.getExpectedCoreSeconds(jobIds.get(1), 200), 0.0001);
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testDisabledOutsideRuntimeMode() throws Exception {
+        List<String> jobIds = launchJobs(new int[] {200}, new int[] {600});
+        assertTrue(jobRuntimeStats.isEnabled());
+
+        dispatcherDao.setSchedulingMode(DispatcherDao.SchedulingMode.PRIORITY_ONLY);
+        assertFalse(jobRuntimeStats.isEnabled());
+        assertEquals(3600.0, jobRuntimeStats.getExpectedFrameSeconds(jobIds.get(0)), 0.0001);
+    }
+}
@@ -522,4 +522,24 @@ public class DispatcherDaoTests extends AbstractTransactionalJUnit4SpringContext
         jobs = dispatcherDao.findDispatchJobs(host, 5);
         assertTrue(jobs.size() > 0);
     }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testFindDispatchJobsStatementIndependentOfOsCount() {
+        DispatchHost host = getHost();
+
+        host.setOs("Linux");
+        dispatcherDao.findDispatchJobs(host, adminManager.findShowEntity("pipe"), 5);
+        host.setOs("centos7,Linux,rocky9");
+        dispatcherDao.findDispatchJobs(host, adminManager.findShowEntity("pipe"), 5);
+        host.setOs("centos7,Linux,rocky9,rhel8,rhel9");
+        dispatcherDao.findDispatchJobs(host, adminManager.findShowEntity("pipe"), 5);
+
+        // Every OS list length must share the same server side prepared statement.
+        assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM pg_prepared_statements "
+                        + "WHERE statement LIKE '/* FIND_JOBS_BY_SHOW_PRIORITY_MODE */%'",
+                Integer.class));
+    }
 }
@@ -16,7 +16,9 @@
 package com.imageworks.spcue.test.dao.postgres;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Resource;
 
@@ -37,6 +39,7 @@ import com.imageworks.spcue.GroupDetail;
 import com.imageworks.spcue.GroupInterface;
 import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.JobShare;
 import com.imageworks.spcue.PointInterface;
 import com.imageworks.spcue.ResourceUsage;
 import com.imageworks.spcue.TaskEntity;
@@ -712,4 +715,55 @@ public class JobDaoTests extends AbstractTransactionalJUnit4SpringContextTests {
         assertEquals(job.maxCoreUnits, 42000);
         assertEquals(job.maxGpuUnits, 42);
     }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetJobShares() {
+        JobDetail job = launchJob();
+        jdbcTemplate.update("UPDATE job_resource SET int_cores = 300 WHERE pk_job = ?",
+                job.getJobId());
+
+        JobShare share = null;
+        for (JobShare s : jobDao.getJobShares()) {
+            if (s.jobId.equals(job.getJobId())) {
+                share = s;
+            }
+        }
+        assertNotNull(share);
+        assertEquals(job.getGroupId(), share.folderId);
+        assertEquals(job.getShowId(), share.showId);
+        assertEquals(300, share.cores);
+        assertEquals(job.minCoreUnits, share.minCores);
+        assertEquals(job.maxCoreUnits, share.maxCores);
+        assertEquals(job.priority, share.priority);
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetMinCoresDeficits() {
+        jobLauncher.launch(new File("src/test/resources/conf/jobspec/jobspec_dispatch_test.xml"));
+        JobDetail job1 = jobManager.findJobDetail("pipe-dev.cue-testuser_shell_dispatch_test_v1");
+        JobDetail job2 = jobManager.findJobDetail("pipe-dev.cue-testuser_shell_dispatch_test_v2");
+        jdbcTemplate.update("UPDATE job_resource SET int_min_cores = 500, int_cores = 200, "
+                + "int_priority = 10 WHERE pk_job = ?", job1.getJobId());
+        jdbcTemplate.update("UPDATE job_resource SET int_min_cores = 800, int_cores = 0, "
+                + "int_priority = 1 WHERE pk_job = ?", job2.getJobId());
+
+        // Higher priority jobs come first, even when they are closer to their minimum
+        Map<String, Integer> deficits = jobDao.getMinCoresDeficits(10);
+        assertEquals(Integer.valueOf(300), deficits.get(job1.getJobId()));
+        assertEquals(Integer.valueOf(800), deficits.get(job2.getJobId()));
+        List<String> order = new ArrayList<String>(deficits.keySet());
+        assertTrue(order.indexOf(job1.getJobId()) < order.indexOf(job2.getJobId()));
+
+        // Jobs less than a core short of their minimum are left alone
+        jdbcTemplate.update("UPDATE job_resource SET int_cores = 450 WHERE pk_job = ?",
+                job1.getJobId());
+        assertFalse(jobDao.getMinCoresDeficits(10).containsKey(job1.getJobId()));
+
+        jobDao.updatePaused(job2, true);
+        assertFalse(jobDao.getMinCoresDeficits(10).containsKey(job2.getJobId()));
+    }
 }
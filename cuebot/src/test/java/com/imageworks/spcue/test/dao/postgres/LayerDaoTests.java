@@ -40,6 +40,7 @@ import com.imageworks.spcue.BuildableLayer;
 import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.LayerDetail;
 import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.LayerSettings;
 import com.imageworks.spcue.LimitEntity;
 import com.imageworks.spcue.ResourceUsage;
 import com.imageworks.spcue.config.TestAppConfig;
@@ -57,6 +58,7 @@ import com.imageworks.spcue.service.JobSpec;
 import com.imageworks.spcue.test.AssumingPostgresEngine;
 import com.imageworks.spcue.util.CueUtil;
 import com.imageworks.spcue.util.FrameSet;
+import com.imageworks.spcue.util.StreamingQuantile;
 import com.imageworks.spcue.util.JobLogUtil;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -209,6 +211,23 @@ public class LayerDaoTests extends AbstractTransactionalJUnit4SpringContextTests
         assertEquals(layer, l3);
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetLayerSettings() {
+        LayerDetail layer = layerDao.getLayerDetail(getLayer().getLayerId());
+        LayerSettings settings = layerDao.getLayerSettings(layer.getLayerId());
+        assertEquals(layer.getLayerId(), settings.layerId);
+        assertEquals(layer.getJobId(), settings.jobId);
+        assertEquals(layer.type, settings.type);
+        assertEquals(layer.timeout, settings.timeout);
+        assertEquals(layer.timeout_llu, settings.timeout_llu);
+        assertEquals(layer.minimumMemory, settings.minimumMemory);
+        assertEquals(layer.isThreadable, settings.isThreadable);
+        assertEquals(layer.services, settings.services);
+        assertEquals(layer.tags, settings.tags);
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -712,6 +731,47 @@ public class LayerDaoTests extends AbstractTransactionalJUnit4SpringContextTests
         assertFalse(layerDao.balanceLayerMinMemory(layer, CueUtil.MB512));
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testUpdateLayerMinMemoryEstimate() {
+        LayerDetail layer = getLayer();
+        assertTrue(layerDao.updateLayerMinMemoryEstimate(layer, CueUtil.GB4));
+        assertEquals(CueUtil.GB4 + CueUtil.MB256,
+                layerDao.getLayerDetail(layer.getId()).minimumMemory);
+        assertFalse(layerDao.updateLayerMinMemoryEstimate(layer, CueUtil.GB4));
+
+        layerDao.enableMemoryOptimizer(layer, false);
+        assertFalse(layerDao.updateLayerMinMemoryEstimate(layer, CueUtil.GB8));
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testMemoryEstimates() {
+        LayerDetail layer = getLayer();
+        assertEquals(0, layerDao.getMemoryEstimate(layer, 0.95).getCount());
+
+        StreamingQuantile estimate = new StreamingQuantile(0.95);
+        for (int i = 1; i <= 10; i++) {
+            estimate.add(i * CueUtil.GB);
+        }
+        Map<String, StreamingQuantile> estimates = new HashMap<>();
+        estimates.put(layer.getId(), estimate);
+        // Layers that were deleted are skipped
+        estimates.put("00000000-0000-0000-0000-000000000000", estimate);
+        layerDao.updateMemoryEstimates(estimates);
+        layerDao.updateMemoryEstimates(estimates);
+
+        StreamingQuantile stored = layerDao.getMemoryEstimate(layer, 0.95);
+        assertEquals(10, stored.getCount());
+        assertEquals(estimate.get(), stored.get(), 0.0);
+        assertEquals(Long.valueOf((long) estimate.get()),
+                jdbcTemplate.queryForObject(
+                        "SELECT int_mem_estimate FROM layer_mem_estimate WHERE pk_layer=?",
+                        Long.class, layer.getId()));
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -15,6 +15,8 @@
 
 package com.imageworks.spcue.test.dao.postgres;
 
+import java.util.List;
+
 import javax.annotation.Resource;
 
 import org.junit.Rule;
@@ -100,6 +102,20 @@ public class LimitDaoTests extends AbstractTransactionalJUnit4SpringContextTests
         assertEquals(limit.maxValue, LIMIT_MAX_VALUE);
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetLimits() {
+        String limitId = limitDao.createLimit(LIMIT_NAME, LIMIT_MAX_VALUE);
+
+        List<LimitEntity> limits = limitDao.getLimits();
+        LimitEntity limit =
+                limits.stream().filter(l -> l.id.equals(limitId)).findFirst().get();
+        assertEquals(limit.name, LIMIT_NAME);
+        assertEquals(limit.maxValue, LIMIT_MAX_VALUE);
+        assertEquals(limit.currentRunning, 0);
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -15,6 +15,10 @@
 
 package com.imageworks.spcue.test.dao.postgres;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import javax.annotation.Resource;
 
 import org.junit.Rule;
@@ -26,11 +30,13 @@ import org.springframework.test.context.junit4.AbstractTransactionalJUnit4Spring
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.imageworks.spcue.MaintenanceLease;
 import com.imageworks.spcue.MaintenanceTask;
 import com.imageworks.spcue.config.TestAppConfig;
 import com.imageworks.spcue.dao.MaintenanceDao;
 import com.imageworks.spcue.test.AssumingPostgresEngine;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -67,4 +73,54 @@ public class MaintenanceDaoTests extends AbstractTransactionalJUnit4SpringContex
         assertTrue(maintenanceDao.lockTask(MaintenanceTask.LOCK_HISTORICAL_TRANSFER));
         maintenanceDao.unlockTask(MaintenanceTask.LOCK_HISTORICAL_TRANSFER);
     }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testRunLocked() {
+        List<MaintenanceLease> leases = new ArrayList<>();
+        assertTrue(maintenanceDao.runLocked(MaintenanceTask.LOCK_HARDWARE_STATE_CHECK, 4,
+                leases::add));
+        MaintenanceLease lease = leases.get(0);
+        assertEquals(4, lease.getShards().size());
+        assertTrue(lease.ownsShard(3));
+        assertTrue(lease.owns("any id"));
+        assertTrue(lease.isValid());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testRunLockedFencing() {
+        maintenanceDao.runLocked(MaintenanceTask.LOCK_STALE_CHECKPOINT, 2, lease -> {
+            assertTrue(lease.isValid());
+            // Locking the shards again moves their fencing tokens on
+            maintenanceDao.runLocked(MaintenanceTask.LOCK_STALE_CHECKPOINT, 2,
+                    inner -> assertTrue(inner.isValid()));
+            assertFalse(lease.isValid());
+        });
+    }
+
+    @Test
+    public void testOwnedBatches() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < MaintenanceLease.BATCH_SIZE * 2 + 1; i++) {
+            ids.add("id-" + i);
+        }
+        MaintenanceLease all = new MaintenanceLease(1, Collections.singleton(0), () -> true);
+        List<List<String>> batches = all.ownedBatches(ids, id -> id);
+        assertEquals(3, batches.size());
+        assertEquals(MaintenanceLease.BATCH_SIZE, batches.get(0).size());
+        assertEquals(Collections.singletonList(ids.get(ids.size() - 1)), batches.get(2));
+
+        MaintenanceLease none = new MaintenanceLease(2, Collections.emptySet(), () -> true);
+        assertTrue(none.ownedBatches(ids, id -> id).isEmpty());
+    }
+
+    @Test
+    public void testShardOf() {
+        assertEquals(MaintenanceLease.shardOf("host", 4), MaintenanceLease.shardOf("host", 4));
+        assertTrue(MaintenanceLease.shardOf("host", 4) < 4);
+        assertEquals(0, MaintenanceLease.shardOf("host", 1));
+    }
 }
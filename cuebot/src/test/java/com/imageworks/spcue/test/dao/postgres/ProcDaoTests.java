@@ -17,6 +17,7 @@ package com.imageworks.spcue.test.dao.postgres;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import javax.annotation.Resource;
 
@@ -63,6 +64,7 @@ import com.imageworks.spcue.util.CueUtil;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @Transactional
 @ContextConfiguration(classes = TestAppConfig.class, loader = AnnotationConfigContextLoader.class)
@@ -194,6 +196,40 @@ public class ProcDaoTests extends AbstractTransactionalJUnit4SpringContextTests
         procDao.verifyRunningProc(proc.getId(), frame.getId());
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testInsertVirtualProcsFailure() {
+
+        DispatchHost host = createHost();
+        JobDetail job = launchJob();
+        FrameDetail frame = frameDao.findFrameDetail(job, "0001-pass_1");
+
+        // Both procs run the same frame, so the batch fails as a whole
+        List<VirtualProc> procs = new ArrayList<VirtualProc>();
+        for (int i = 0; i < 2; i++) {
+            VirtualProc proc = new VirtualProc();
+            proc.allocationId = PK_ALLOC;
+            proc.coresReserved = 100;
+            proc.hostId = host.id;
+            proc.hostName = host.name;
+            proc.jobId = job.id;
+            proc.frameId = frame.id;
+            proc.layerId = frame.layerId;
+            proc.showId = frame.showId;
+            procs.add(proc);
+        }
+
+        try {
+            procDao.insertVirtualProcs(procs);
+            fail("expected the batch insert to fail");
+        } catch (RuntimeException e) {
+            // The procs are still new, so they can be booked one at a time
+            assertTrue(procs.get(0).isNew());
+            assertTrue(procs.get(1).isNew());
+        }
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -632,20 +668,28 @@ public class ProcDaoTests extends AbstractTransactionalJUnit4SpringContextTests
                 children);
         layerDao.updateLayerMaxRSS(frame3, 300000, true);
 
-        procDao.balanceUnderUtilizedProcs(proc3, 100000);
-        procDao.increaseReservedMemory(proc3, this.MEM_RESERVED_DEFAULT + 100000);
+        // More than the other procs have to spare, nothing moves
+        assertEquals(0, procDao.balanceUnderUtilizedProcs(proc3, this.MEM_RESERVED_DEFAULT * 2));
+        assertEquals(this.MEM_RESERVED_DEFAULT, procDao.getReservedMemory(proc1));
+        assertEquals(this.MEM_RESERVED_DEFAULT, procDao.getReservedMemory(proc3));
+
+        assertEquals(100000, procDao.balanceUnderUtilizedProcs(proc3, 100000));
 
         // Check the target proc
         VirtualProc targetProc = procDao.getVirtualProc(proc3.getId());
         assertEquals(this.MEM_RESERVED_DEFAULT + 100000, targetProc.memoryReserved);
 
-        // Check other procs
+        // Check other procs, the layer max rss is shared so they have the same slack
         VirtualProc firstProc = procDao.getVirtualProc(proc1.getId());
-        assertEquals(this.MEM_RESERVED_DEFAULT - 50000 - 1, firstProc.memoryReserved);
+        assertEquals(this.MEM_RESERVED_DEFAULT - 50000, firstProc.memoryReserved);
 
         VirtualProc secondProc = procDao.getVirtualProc(proc2.getId());
-        assertEquals(this.MEM_RESERVED_DEFAULT - 50000 - 1, secondProc.memoryReserved);
+        assertEquals(this.MEM_RESERVED_DEFAULT - 50000, secondProc.memoryReserved);
 
+        // Each share is rounded up, the target gets what the donors gave
+        assertEquals(2, procDao.balanceUnderUtilizedProcs(proc3, 1));
+        assertEquals(this.MEM_RESERVED_DEFAULT + 100002, procDao.getReservedMemory(proc3));
+        assertEquals(this.MEM_RESERVED_DEFAULT - 50001, procDao.getReservedMemory(proc1));
     }
 
     @Test
@@ -807,4 +851,36 @@ public class ProcDaoTests extends AbstractTransactionalJUnit4SpringContextTests
         proc = VirtualProc.build(host, frame, "shell", "something-else");
         assertEquals(800, proc.coresReserved);
     }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testFindPreemptibleProcs() {
+        DispatchHost host = createHost();
+        jobLauncher.launch(new File("src/test/resources/conf/jobspec/jobspec_dispatch_test.xml"));
+        JobDetail victim = jobManager.findJobDetail("pipe-dev.cue-testuser_shell_dispatch_test_v1");
+        JobDetail target = jobManager.findJobDetail("pipe-dev.cue-testuser_shell_dispatch_test_v2");
+
+        for (int i = 1; i <= 3; i++) {
+            FrameDetail fd = frameDao.findFrameDetail(victim, String.format("%04d-pass_1", i));
+            DispatchFrame frame = frameDao.getDispatchFrame(fd.getId());
+            VirtualProc proc = VirtualProc.build(hostDao.findDispatchHost(host.getName()), frame);
+            dispatcher.dispatch(frame, proc);
+        }
+        jdbcTemplate.update("UPDATE job_resource SET int_min_cores = 0 WHERE pk_job = ?",
+                victim.getJobId());
+
+        // Only one proc per job comes back, however many the job is running
+        List<VirtualProc> procs =
+                procDao.findPreemptibleProcs(target, false, Collections.emptyList(), 10);
+        assertEquals(1, procs.size());
+        assertEquals(victim.getJobId(), procs.get(0).getJobId());
+
+        assertTrue(procDao.findPreemptibleProcs(target, false,
+                Collections.singletonList(victim.getJobId()), 10).isEmpty());
+        assertTrue(procDao.findPreemptibleProcs(target, true, Collections.emptyList(), 10)
+                .isEmpty());
+        assertTrue(procDao.findPreemptibleProcs(victim, false, Collections.emptyList(), 10)
+                .isEmpty());
+    }
 }
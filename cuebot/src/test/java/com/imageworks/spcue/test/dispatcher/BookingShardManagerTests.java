@@ -0,0 +1,154 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Resource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.config.TestAppConfig;
+import com.imageworks.spcue.dao.BookingShardDao;
+import com.imageworks.spcue.dispatcher.BookingShardManager;
+import com.imageworks.spcue.test.AssumingPostgresEngine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Transactional
+@ContextConfiguration(classes = TestAppConfig.class, loader = AnnotationConfigContextLoader.class)
+public class BookingShardManagerTests extends AbstractTransactionalJUnit4SpringContextTests {
+
+    @Autowired
+    @Rule
+    public AssumingPostgresEngine assumingPostgresEngine;
+
+    @Resource
+    BookingShardDao bookingShardDao;
+
+    private BookingShardManager createManager(String ownerId) {
+        BookingShardManager manager =
+                new BookingShardManager(true, "", 30, ownerId, ownerId + ":8443", 8443);
+        manager.setBookingShardDao(bookingShardDao);
+        return manager;
+    }
+
+    private static DispatchHost host(String allocId, String allocName) {
+        DispatchHost host = new DispatchHost();
+        host.name = "host-" + allocId;
+        host.allocationId = allocId;
+        host.allocationName = allocName;
+        return host;
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testLeasesAreSplitBetweenCuebots() {
+        Set<String> allocIds = new HashSet<>(bookingShardDao.getAllocationIds());
+        BookingShardManager first = createManager("cuebot-a");
+        BookingShardManager second = createManager("cuebot-b");
+
+        first.rebalance();
+        assertEquals(allocIds, first.getOwnedAllocations());
+
+        // The second cuebot only gets allocations once the first gives them up
+        second.rebalance();
+        assertTrue(second.getOwnedAllocations().isEmpty());
+        first.rebalance();
+        second.rebalance();
+
+        int share = (allocIds.size() + 1) / 2;
+        assertEquals(share, first.getOwnedAllocations().size());
+        assertEquals(allocIds.size() - share, second.getOwnedAllocations().size());
+        Set<String> owned = new HashSet<>(first.getOwnedAllocations());
+        owned.addAll(second.getOwnedAllocations());
+        assertEquals(allocIds, owned);
+
+        for (String allocId : allocIds) {
+            DispatchHost host = host(allocId, "");
+            assertTrue(first.isBookingOwned(host) != second.isBookingOwned(host));
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testLeasesFailOverWhenCuebotStops() {
+        Set<String> allocIds = new HashSet<>(bookingShardDao.getAllocationIds());
+        BookingShardManager first = createManager("cuebot-a");
+        BookingShardManager second = createManager("cuebot-b");
+        first.rebalance();
+        second.rebalance();
+        first.rebalance();
+
+        bookingShardDao.removeMember("cuebot-a");
+        second.rebalance();
+        assertEquals(allocIds, second.getOwnedAllocations());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testReportsRedirectedToOwner() {
+        BookingShardManager first = createManager("cuebot-a");
+        BookingShardManager second = createManager("cuebot-b");
+        first.rebalance();
+        second.rebalance();
+        first.rebalance();
+        second.rebalance();
+        first.rebalance();
+
+        String allocId = second.getOwnedAllocations().iterator().next();
+        DispatchHost host = host(allocId, "");
+        assertFalse(first.isBookingOwned(host));
+        first.redirectReports(host);
+        assertEquals("cuebot-b:8443", first.takeReportRedirect(host.getName()));
+        assertEquals("", first.takeReportRedirect(host.getName()));
+
+        // A host booked by this cuebot keeps reporting to it
+        second.redirectReports(host);
+        assertEquals("", second.takeReportRedirect(host.getName()));
+    }
+
+    @Test
+    public void testStaticAllocations() {
+        BookingShardManager manager =
+                new BookingShardManager(true, "local.general, local.desktop", 30, "cuebot-a", "",
+                        8443);
+        assertTrue(manager.isBookingOwned(host("a", "local.general")));
+        assertTrue(manager.isBookingOwned(host("b", "local.desktop")));
+        assertFalse(manager.isBookingOwned(host("c", "cloud.general")));
+    }
+
+    @Test
+    public void testDisabled() {
+        BookingShardManager manager = new BookingShardManager(false, "", 30, "", "", 8443);
+        assertTrue(manager.isBookingOwned(host("a", "local.general")));
+    }
+}
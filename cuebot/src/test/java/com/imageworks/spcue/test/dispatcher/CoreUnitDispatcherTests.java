@@ -16,11 +16,16 @@
 package com.imageworks.spcue.test.dispatcher;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import javax.annotation.Resource;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
 import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,8 +36,11 @@ import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.ShowEntity;
 import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.dao.FrameDao;
+import com.imageworks.spcue.dispatcher.CoreUnitDispatcher;
 import com.imageworks.spcue.dispatcher.DispatchSupport;
 import com.imageworks.spcue.dispatcher.Dispatcher;
+import com.imageworks.spcue.dispatcher.PlacementPlanner;
+import com.imageworks.spcue.dispatcher.ResourceReservationFailureException;
 import com.imageworks.spcue.grpc.host.HardwareState;
 import com.imageworks.spcue.grpc.report.RenderHost;
 import com.imageworks.spcue.service.AdminManager;
@@ -42,8 +50,18 @@ import com.imageworks.spcue.service.JobLauncher;
 import com.imageworks.spcue.service.JobManager;
 import com.imageworks.spcue.test.TransactionalTest;
 import com.imageworks.spcue.util.CueUtil;
+import com.imageworks.spcue.util.SqlUtil;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @ContextConfiguration
 public class CoreUnitDispatcherTests extends TransactionalTest {
@@ -72,6 +90,9 @@ public class CoreUnitDispatcherTests extends TransactionalTest {
     @Resource
     FrameDao frameDao;
 
+    @Autowired
+    ConfigurableEnvironment env;
+
     private static final String HOSTNAME = "beta";
 
     private static final String JOBNAME = "pipe-dev.cue-testuser_shell_dispatch_test_v1";
@@ -184,6 +205,84 @@ public class CoreUnitDispatcherTests extends TransactionalTest {
         assertEquals(0, procs.size());
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testFailedBatchIsBookedOneAtATime() {
+        DispatchHost host = createBatchHost();
+
+        // The batch insert fails after giving the procs their ids, like a rolled back insert
+        DispatchSupport support = mock(DispatchSupport.class, delegatesTo(dispatchSupport));
+        doAnswer(invocation -> {
+            for (VirtualProc proc : invocation.<List<VirtualProc>>getArgument(0)) {
+                proc.id = SqlUtil.genKeyRandom();
+                proc.frameId = "";
+            }
+            throw new ResourceReservationFailureException("batch insert failed");
+        }).when(support).startFramesAndProcs(anyList(), anyList());
+
+        CoreUnitDispatcher batchDispatcher = createBatchDispatcher(support);
+
+        List<VirtualProc> procs = batchDispatcher.dispatchHost(host, getJob());
+        verify(support, atLeastOnce()).startFramesAndProcs(anyList(), anyList());
+        assertTrue(procs.size() > 1);
+        for (VirtualProc proc : procs) {
+            assertEquals(proc.getFrameId(),
+                    hostManager.getVirtualProc(proc.getProcId()).getFrameId());
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testPlannedFramesAreBookedInBatches() {
+        DispatchHost host = createBatchHost();
+
+        DispatchSupport support = mock(DispatchSupport.class, delegatesTo(dispatchSupport));
+        CoreUnitDispatcher batchDispatcher = createBatchDispatcher(support);
+        batchDispatcher.setPlacementPlanner(new PlacementPlanner(true, 8, 2, 1000));
+
+        List<VirtualProc> procs = batchDispatcher.dispatchHost(host);
+        verify(support, atLeastOnce()).startFramesAndProcs(anyList(), anyList());
+        verify(support, never()).startFrameAndProc(any(), any());
+        assertTrue(procs.size() > 1);
+        for (VirtualProc proc : procs) {
+            assertEquals(proc.getFrameId(),
+                    hostManager.getVirtualProc(proc.getProcId()).getFrameId());
+        }
+    }
+
+    /**
+     * Creates a host that can run several frames of the test job at once.
+     */
+    private DispatchHost createBatchHost() {
+        RenderHost renderHost = RenderHost.newBuilder().setName("gamma")
+                .setBootTime(1192369572).setFreeMcp(CueUtil.GB).setFreeMem(53500)
+                .setFreeSwap(20760).setLoad(0).setTotalMcp(CueUtil.GB4).setTotalMem(8173264)
+                .setTotalSwap(20960).setNimbyEnabled(false).setNumProcs(2).setCoresPerProc(400)
+                .addTags("test").setState(HardwareState.UP).setFacility("spi")
+                .putAttributes("SP_OS", "Linux").build();
+        hostManager.createHost(renderHost, adminManager.findAllocationDetail("spi", "general"));
+        return hostManager.findDispatchHost("gamma");
+    }
+
+    /**
+     * Creates a dispatcher in test mode that reserves frames two at a time.
+     */
+    private CoreUnitDispatcher createBatchDispatcher(DispatchSupport support) {
+        StandardEnvironment batchEnv = new StandardEnvironment();
+        batchEnv.merge(env);
+        batchEnv.getPropertySources().addFirst(new MapPropertySource("batch",
+                Collections.singletonMap("dispatcher.frame_reserve_batch_size", "2")));
+
+        CoreUnitDispatcher batchDispatcher = new CoreUnitDispatcher(batchEnv);
+        batchDispatcher.setDispatchSupport(support);
+        batchDispatcher.setJobManager(jobManager);
+        batchDispatcher.setHostManager(hostManager);
+        batchDispatcher.testMode = true;
+        return batchDispatcher;
+    }
+
     @Test
     @Transactional
     @Rollback(true)
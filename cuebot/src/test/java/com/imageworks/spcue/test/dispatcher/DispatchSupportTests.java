@@ -16,6 +16,8 @@
 package com.imageworks.spcue.test.dispatcher;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Resource;
 
 import org.junit.Before;
@@ -24,12 +26,15 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.imageworks.spcue.DispatchFrame;
 import com.imageworks.spcue.DispatchHost;
 import com.imageworks.spcue.JobDetail;
+import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.dao.FrameDao;
 import com.imageworks.spcue.dispatcher.DispatchSupport;
 import com.imageworks.spcue.dispatcher.Dispatcher;
 import com.imageworks.spcue.grpc.host.HardwareState;
+import com.imageworks.spcue.grpc.job.FrameState;
 import com.imageworks.spcue.grpc.report.RenderHost;
 import com.imageworks.spcue.service.AdminManager;
 import com.imageworks.spcue.service.GroupManager;
@@ -39,7 +44,9 @@ import com.imageworks.spcue.service.JobManager;
 import com.imageworks.spcue.test.TransactionalTest;
 import com.imageworks.spcue.util.CueUtil;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @ContextConfiguration
 public class DispatchSupportTests extends TransactionalTest {
@@ -142,4 +149,34 @@ public class DispatchSupportTests extends TransactionalTest {
         dispatchSupport.determineIdleCores(host, 700 + grace_load + 1);
         assertEquals(99, host.idleCores);
     }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testStartFramesAndProcs() {
+        DispatchHost host = getHost();
+        List<DispatchFrame> frames = dispatchSupport.findNextDispatchFrames(getJob(), host, 2);
+        assertEquals(2, frames.size());
+        // The same frame twice, the second one was taken by the time it is started
+        frames.add(frames.get(1));
+
+        List<VirtualProc> procs = new ArrayList<VirtualProc>();
+        int cores = 0;
+        for (DispatchFrame frame : frames) {
+            VirtualProc proc = VirtualProc.build(host, frame);
+            procs.add(proc);
+            cores += proc.coresReserved;
+        }
+
+        boolean[] started = dispatchSupport.startFramesAndProcs(procs, frames);
+        assertArrayEquals(new boolean[] {true, true, false}, started);
+        assertTrue(procs.get(2).isNew());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(FrameState.RUNNING, frameDao.getFrameDetail(frames.get(i)).state);
+            assertEquals(frames.get(i).getFrameId(),
+                    hostManager.getVirtualProc(procs.get(i).getProcId()).getFrameId());
+        }
+        assertEquals(host.idleCores - cores + procs.get(2).coresReserved,
+                getHost().idleCores);
+    }
 }
@@ -0,0 +1,159 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.JobShare;
+import com.imageworks.spcue.dispatcher.FairShareTree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FairShareTreeTests {
+
+    private FairShareTree tree;
+    private List<JobShare> jobs;
+
+    @Before
+    public void setUp() {
+        tree = new FairShareTree(5);
+        jobs = new ArrayList<JobShare>();
+    }
+
+    private JobShare job(String showId, String folderId, String jobId, int priority, int cores,
+            int minCores, int maxCores) {
+        JobShare job = new JobShare();
+        job.showId = showId;
+        job.folderId = folderId;
+        job.jobId = jobId;
+        job.priority = priority;
+        job.cores = cores;
+        job.minCores = minCores;
+        job.maxCores = maxCores;
+        job.folderMaxCores = -1;
+        jobs.add(job);
+        return job;
+    }
+
+    private void update() {
+        for (JobShare job : jobs) {
+            for (JobShare other : jobs) {
+                if (other.folderId.equals(job.folderId) && other != job) {
+                    job.folderCores += other.cores;
+                }
+            }
+            job.folderCores += job.cores;
+        }
+        tree.update(jobs);
+    }
+
+    @Test
+    public void testGroupsShareEqually() {
+        job("show", "f1", "a", 100, 800, 0, -1);
+        job("show", "f2", "b", 100, 0, 0, -1);
+        update();
+
+        assertEquals(-400, tree.getFolderDeficit("a"), 0.01);
+        assertEquals(400, tree.getFolderDeficit("b"), 0.01);
+        assertEquals(Arrays.asList("b", "a"), tree.order(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void testJobsShareByPriority() {
+        job("show", "f1", "c", 100, 300, 0, -1);
+        job("show", "f1", "d", 300, 100, 0, -1);
+        update();
+
+        assertEquals(0, tree.getFolderDeficit("c"), 0.01);
+        assertEquals(-200, tree.getJobDeficit("c"), 0.01);
+        assertEquals(200, tree.getJobDeficit("d"), 0.01);
+        assertEquals(Arrays.asList("d", "c"), tree.order(Arrays.asList("c", "d")));
+    }
+
+    @Test
+    public void testMinCoresComeFirst() {
+        job("show", "f1", "e", 1, 0, 300, -1);
+        job("show", "f1", "f", 1000, 400, 0, -1);
+        update();
+
+        assertEquals(300, tree.getJobDeficit("e"), 0.5);
+        assertEquals(-300, tree.getJobDeficit("f"), 0.5);
+    }
+
+    @Test
+    public void testMaxCoresAreShared() {
+        job("show", "f1", "g", 100, 0, 0, -1).folderMaxCores = 100;
+        job("show", "f2", "h", 100, 600, 0, 200);
+        job("show", "f2", "i", 100, 0, 0, -1);
+        update();
+
+        assertEquals(100, tree.getFolderDeficit("g"), 0.01);
+        assertEquals(-100, tree.getFolderDeficit("h"), 0.01);
+        // h is capped at 200, i gets the rest of the 500 cores of f2
+        assertEquals(-400, tree.getJobDeficit("h"), 0.01);
+        assertEquals(300, tree.getJobDeficit("i"), 0.01);
+    }
+
+    @Test
+    public void testShowsAreSeparate() {
+        job("show1", "f1", "j", 100, 500, 0, -1);
+        job("show2", "f2", "k", 100, 0, 0, -1);
+        update();
+
+        assertEquals(0, tree.getFolderDeficit("j"), 0.01);
+        assertEquals(0, tree.getFolderDeficit("k"), 0.01);
+    }
+
+    @Test
+    public void testUnknownJobsKeepTheirOrder() {
+        job("show", "f1", "a", 100, 800, 0, -1);
+        job("show", "f2", "b", 100, 0, 0, -1);
+        update();
+
+        assertEquals(Arrays.asList("b", "x", "y", "a"),
+                tree.order(Arrays.asList("x", "a", "y", "b")));
+    }
+
+    @Test
+    public void testOrderLimit() {
+        job("show", "f1", "a", 100, 800, 0, -1);
+        job("show", "f2", "b", 100, 0, 0, -1);
+        update();
+
+        assertEquals(Arrays.asList("b"), tree.order(Arrays.asList("a", "b"), 1));
+        assertEquals(Arrays.asList("b", "a"), tree.order(Arrays.asList("a", "b"), 5));
+    }
+
+    @Test
+    public void testDisabledTreeIsCleared() {
+        job("show", "f1", "a", 100, 800, 0, -1);
+        job("show", "f2", "b", 100, 0, 0, -1);
+        update();
+
+        tree.setEnabled(true);
+        assertTrue(tree.isEnabled());
+        tree.setEnabled(false);
+        assertFalse(tree.isEnabled());
+        assertEquals(0, tree.getFolderDeficit("b"), 0.01);
+    }
+}
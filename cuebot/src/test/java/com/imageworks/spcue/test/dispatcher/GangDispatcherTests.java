@@ -0,0 +1,324 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.FrameStateTotals;
+import com.imageworks.spcue.LayerSettings;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.dao.LayerDao;
+import com.imageworks.spcue.dispatcher.DispatchSupport;
+import com.imageworks.spcue.dispatcher.FrameReservationException;
+import com.imageworks.spcue.dispatcher.GangDispatcher;
+import com.imageworks.spcue.dispatcher.ResourceReservationFailureException;
+import com.imageworks.spcue.grpc.job.LayerType;
+import com.imageworks.spcue.rqd.RqdClient;
+import com.imageworks.spcue.service.LayerSettingsCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GangDispatcherTests {
+
+    private DispatchSupport dispatchSupport;
+    private LayerDao layerDao;
+    private RqdClient rqdClient;
+    private LayerSettingsCache layerSettingsCache;
+
+    private static DispatchFrame frame(String id, String layerId) {
+        DispatchFrame frame = new DispatchFrame();
+        frame.id = id;
+        frame.name = "0001-" + id;
+        frame.layerId = layerId;
+        frame.layerName = "layer-" + layerId;
+        return frame;
+    }
+
+    private static VirtualProc proc(String hostId) {
+        VirtualProc proc = new VirtualProc();
+        proc.hostId = hostId;
+        proc.hostName = hostId;
+        return proc;
+    }
+
+    private static LayerSettings settings(String layerId, int gangSize) {
+        return new LayerSettings(layerId, "job", LayerType.RENDER, 0, 0, 0, 0, true,
+                Collections.singleton("shell"), Collections.singleton("general"), gangSize);
+    }
+
+    private static FrameStateTotals totals(int waiting, int depend) {
+        FrameStateTotals totals = new FrameStateTotals();
+        totals.waiting = waiting;
+        totals.depend = depend;
+        return totals;
+    }
+
+    private GangDispatcher gangDispatcher(int timeoutSeconds, int maxPendingGangs) {
+        GangDispatcher gangDispatcher = new GangDispatcher(timeoutSeconds, maxPendingGangs);
+        gangDispatcher.setDispatchSupport(dispatchSupport);
+        gangDispatcher.setLayerDao(layerDao);
+        gangDispatcher.setRqdClient(rqdClient);
+        gangDispatcher.setLayerSettingsCache(layerSettingsCache);
+        return gangDispatcher;
+    }
+
+    @Before
+    public void setUp() {
+        dispatchSupport = mock(DispatchSupport.class);
+        layerDao = mock(LayerDao.class);
+        rqdClient = mock(RqdClient.class);
+        layerSettingsCache = mock(LayerSettingsCache.class);
+
+        when(layerSettingsCache.get("gang")).thenReturn(settings("gang", 3));
+        when(layerSettingsCache.get("other")).thenReturn(settings("other", 2));
+        when(layerSettingsCache.get("single")).thenReturn(settings("single", 0));
+        when(layerDao.getFrameStateTotals(any())).thenReturn(totals(10, 0));
+    }
+
+    @Test
+    public void testIsGangFrame() {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        assertTrue(gangDispatcher.isGangFrame(frame("f1", "gang")));
+        assertFalse(gangDispatcher.isGangFrame(frame("f2", "single")));
+    }
+
+    @Test
+    public void testLaunchOnceComplete() {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        DispatchFrame f1 = frame("f1", "gang");
+        DispatchFrame f2 = frame("f2", "gang");
+        DispatchFrame f3 = frame("f3", "gang");
+        VirtualProc p1 = proc("h1");
+        VirtualProc p2 = proc("h2");
+        VirtualProc p3 = proc("h3");
+
+        gangDispatcher.dispatch(f1, p1, true);
+        gangDispatcher.dispatch(f2, p2, true);
+        verify(dispatchSupport).startFrameAndProc(same(p2), same(f2));
+        verify(dispatchSupport, never()).runFrame(any(), any());
+        assertEquals(1, gangDispatcher.getPendingGangs());
+
+        gangDispatcher.dispatch(f3, p3, true);
+        verify(dispatchSupport).runFrame(same(p1), same(f1));
+        verify(dispatchSupport).runFrame(same(p2), same(f2));
+        verify(dispatchSupport).runFrame(same(p3), same(f3));
+        assertEquals(0, gangDispatcher.getPendingGangs());
+        assertEquals(1, gangDispatcher.getLaunchedCount());
+    }
+
+    @Test
+    public void testMembersOnDifferentHosts() {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        gangDispatcher.dispatch(frame("f1", "gang"), proc("h1"), true);
+
+        DispatchFrame f2 = frame("f2", "gang");
+        try {
+            gangDispatcher.dispatch(f2, proc("h1"), true);
+            fail("expected a FrameReservationException");
+        } catch (FrameReservationException e) {
+            // expected
+        }
+        verify(dispatchSupport, never()).startFrameAndProc(any(), same(f2));
+    }
+
+    @Test
+    public void testCanJoin() {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        DispatchFrame f2 = frame("f2", "gang");
+        assertTrue(gangDispatcher.canJoin(f2, "h1"));
+
+        gangDispatcher.dispatch(frame("f1", "gang"), proc("h1"), true);
+        assertFalse(gangDispatcher.canJoin(f2, "h1"));
+        assertTrue(gangDispatcher.canJoin(f2, "h2"));
+        assertTrue(gangDispatcher.canJoin(frame("f3", "other"), "h1"));
+
+        gangDispatcher.dispatch(f2, proc("h2"), true);
+        gangDispatcher.dispatch(frame("f3", "gang"), proc("h3"), true);
+        assertTrue(gangDispatcher.canJoin(frame("f4", "gang"), "h1"));
+    }
+
+    @Test
+    public void testLaunchInParallel() throws Exception {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        gangDispatcher.start();
+        try {
+            // Each launch only returns once all the members of the gang are being launched
+            CountDownLatch latch = new CountDownLatch(3);
+            doAnswer(invocation -> {
+                latch.countDown();
+                assertTrue(latch.await(5, TimeUnit.SECONDS));
+                return null;
+            }).when(dispatchSupport).runFrame(any(), any());
+
+            gangDispatcher.dispatch(frame("f1", "gang"), proc("h1"), true);
+            gangDispatcher.dispatch(frame("f2", "gang"), proc("h2"), true);
+            gangDispatcher.dispatch(frame("f3", "gang"), proc("h3"), true);
+
+            verify(dispatchSupport, times(3)).runFrame(any(), any());
+            assertEquals(1, gangDispatcher.getLaunchedCount());
+            assertEquals(0, gangDispatcher.getFailedCount());
+        } finally {
+            gangDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testShortGangAtEndOfLayer() {
+        when(layerDao.getFrameStateTotals(any())).thenReturn(totals(2, 0));
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        gangDispatcher.dispatch(frame("f1", "gang"), proc("h1"), true);
+        verify(dispatchSupport, never()).runFrame(any(), any());
+        gangDispatcher.dispatch(frame("f2", "gang"), proc("h2"), true);
+
+        verify(dispatchSupport, times(2)).runFrame(any(), any());
+        assertEquals(0, gangDispatcher.getPendingGangs());
+        assertEquals(1, gangDispatcher.getLaunchedCount());
+    }
+
+    @Test
+    public void testHoldWhileFramesWaitOnDependencies() {
+        when(layerDao.getFrameStateTotals(any())).thenReturn(totals(1, 2));
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        gangDispatcher.dispatch(frame("f1", "gang"), proc("h1"), true);
+        when(layerDao.getFrameStateTotals(any())).thenReturn(totals(0, 2));
+        gangDispatcher.dispatch(frame("f2", "gang"), proc("h2"), true);
+
+        verify(dispatchSupport, never()).runFrame(any(), any());
+        assertEquals(1, gangDispatcher.getPendingGangs());
+        assertEquals(0, gangDispatcher.getLaunchedCount());
+    }
+
+    @Test
+    public void testReserveWithoutHoldingTheLock() throws Exception {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            doAnswer(invocation -> executor.submit(gangDispatcher::getPendingGangs).get(5,
+                    TimeUnit.SECONDS)).when(dispatchSupport).startFrameAndProc(any(), any());
+            gangDispatcher.dispatch(frame("f1", "gang"), proc("h1"), true);
+            assertEquals(1, gangDispatcher.getPendingGangs());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedReservationLeavesTheGang() {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        DispatchFrame f1 = frame("f1", "gang");
+        VirtualProc p1 = proc("h1");
+        doThrow(new ResourceReservationFailureException("no cores")).when(dispatchSupport)
+                .startFrameAndProc(same(p1), same(f1));
+        try {
+            gangDispatcher.dispatch(f1, p1, true);
+            fail("expected a ResourceReservationFailureException");
+        } catch (ResourceReservationFailureException e) {
+            // expected
+        }
+        assertEquals(0, gangDispatcher.getPendingGangs());
+
+        gangDispatcher.dispatch(frame("f2", "gang"), proc("h1"), true);
+        assertEquals(1, gangDispatcher.getPendingGangs());
+    }
+
+    @Test
+    public void testBookWithoutLaunching() {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        gangDispatcher.dispatch(frame("f1", "other"), proc("h1"), false);
+        gangDispatcher.dispatch(frame("f2", "other"), proc("h2"), false);
+
+        verify(dispatchSupport, never()).runFrame(any(), any());
+        assertEquals(1, gangDispatcher.getLaunchedCount());
+    }
+
+    @Test
+    public void testTimeoutRollsBack() {
+        GangDispatcher gangDispatcher = gangDispatcher(0, 10);
+        DispatchFrame f1 = frame("f1", "gang");
+        VirtualProc p1 = proc("h1");
+        gangDispatcher.dispatch(f1, p1, true);
+
+        assertEquals(1, gangDispatcher.expireGangs());
+        verify(dispatchSupport).unbookProc(same(p1), anyString());
+        verify(dispatchSupport).clearFrame(same(f1));
+        verify(dispatchSupport, never()).runFrame(any(), any());
+        assertEquals(0, gangDispatcher.getPendingGangs());
+        assertEquals(1, gangDispatcher.getTimedOutCount());
+    }
+
+    @Test
+    public void testMaxPendingGangs() {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 1);
+        gangDispatcher.dispatch(frame("f1", "gang"), proc("h1"), true);
+
+        DispatchFrame f2 = frame("f2", "other");
+        try {
+            gangDispatcher.dispatch(f2, proc("h2"), true);
+            fail("expected a FrameReservationException");
+        } catch (FrameReservationException e) {
+            // expected
+        }
+        verify(dispatchSupport, never()).startFrameAndProc(any(), same(f2));
+        assertEquals(0, gangDispatcher.expireGangs());
+    }
+
+    @Test
+    public void testLaunchFailureStopsTheGang() {
+        GangDispatcher gangDispatcher = gangDispatcher(60, 10);
+        DispatchFrame f1 = frame("f1", "gang");
+        DispatchFrame f2 = frame("f2", "gang");
+        DispatchFrame f3 = frame("f3", "gang");
+        VirtualProc p1 = proc("h1");
+        VirtualProc p2 = proc("h2");
+        VirtualProc p3 = proc("h3");
+        doThrow(new RuntimeException("rqd is down")).when(dispatchSupport).runFrame(same(p2),
+                same(f2));
+
+        gangDispatcher.dispatch(f1, p1, true);
+        gangDispatcher.dispatch(f2, p2, true);
+        gangDispatcher.dispatch(f3, p3, true);
+
+        verify(rqdClient).killFrame(same(p1), anyString());
+        verify(rqdClient).killFrame(same(p3), anyString());
+        verify(rqdClient, never()).killFrame(same(p2), anyString());
+        verify(dispatchSupport).unbookProc(same(p2), anyString());
+        verify(dispatchSupport).clearFrame(same(f2));
+        verify(dispatchSupport, never()).unbookProc(same(p3), anyString());
+        assertEquals(1, gangDispatcher.getFailedCount());
+        assertEquals(0, gangDispatcher.getLaunchedCount());
+    }
+}
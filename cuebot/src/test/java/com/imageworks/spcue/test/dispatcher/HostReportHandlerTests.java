@@ -418,9 +418,9 @@ public class HostReportHandlerTests extends TransactionalTest {
         HostReport report = HostReport.newBuilder().setHost(getRenderHost(hostname))
                 .setCoreInfo(getCoreDetail(200, 200, 0, 0)).addFrames(info).build();
 
-        long killCount = DispatchSupport.killedOffenderProcs.get();
+        long killCount = DispatchSupport.killedOffenderProcs.sum();
         hostReportHandler.handleHostReport(report, false);
-        assertEquals(killCount + 1, DispatchSupport.killedOffenderProcs.get());
+        assertEquals(killCount + 1, DispatchSupport.killedOffenderProcs.sum());
     }
 
     @Test
@@ -448,9 +448,9 @@ public class HostReportHandlerTests extends TransactionalTest {
         HostReport report = HostReport.newBuilder().setHost(getRenderHost(hostname))
                 .setCoreInfo(getCoreDetail(200, 200, 0, 0)).addFrames(info).build();
 
-        long killCount = DispatchSupport.killedOffenderProcs.get();
+        long killCount = DispatchSupport.killedOffenderProcs.sum();
         hostReportHandler.handleHostReport(report, false);
-        assertEquals(killCount + 1, DispatchSupport.killedOffenderProcs.get());
+        assertEquals(killCount + 1, DispatchSupport.killedOffenderProcs.sum());
     }
 
     @Test
@@ -503,9 +503,9 @@ public class HostReportHandlerTests extends TransactionalTest {
         // In this case, killing 2 frames should be enough to ge the machine to a safe
         // state. Total Swap: 2GB, usage before kill: 1944MB, usage after kill: 348
         // (less than 20%)
-        long killCount = DispatchSupport.killedOffenderProcs.get();
+        long killCount = DispatchSupport.killedOffenderProcs.sum();
         hostReportHandler.handleHostReport(report, false);
-        assertEquals(killCount + 2, DispatchSupport.killedOffenderProcs.get());
+        assertEquals(killCount + 2, DispatchSupport.killedOffenderProcs.sum());
 
         // Confirm the frame will be set to retry after it's completion has been
         // processed
@@ -0,0 +1,95 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.dispatcher.LaunchTemplate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LaunchTemplateTests {
+
+    private static DispatchFrame frame(String command, String range, int chunkSize,
+            int frameNumber) {
+        DispatchFrame frame = new DispatchFrame();
+        frame.name = frameNumber + "-render";
+        frame.layerName = "render";
+        frame.jobName = "pipe-dev.cue-testuser_job";
+        frame.command = command;
+        frame.range = range;
+        frame.chunkSize = chunkSize;
+        return frame;
+    }
+
+    private static String build(DispatchFrame frame, int frameNumber) {
+        return new LaunchTemplate(frame.command, frame.range, frame.chunkSize,
+                Collections.emptyMap()).buildCommand(frame, frameNumber);
+    }
+
+    @Test
+    public void testReplaceTokens() {
+        DispatchFrame frame = frame("/bin/render -z #ZFRAME# -i #IFRAME# -s #FRAME_START# "
+                + "-e #FRAME_END# -c #FRAME_CHUNK# -l #LAYER# -j #JOB# -f #FRAMESPEC# #FRAME#",
+                "1-10", 3, 4);
+        assertEquals("/bin/render -z 0004 -i 4 -s 4 -e 6 -c 3 -l render "
+                + "-j pipe-dev.cue-testuser_job -f 4-6 4-render", build(frame, 4));
+    }
+
+    @Test
+    public void testLastChunk() {
+        DispatchFrame frame = frame("#FRAME_START# #FRAME_END# #FRAMESPEC#", "1-10x2", 4, 9);
+        assertEquals("9 9 9", build(frame, 9));
+        frame = frame("#FRAME_START# #FRAME_END# #FRAMESPEC#", "1-10x2", 4, 1);
+        assertEquals("1 7 1-7x2", build(frame, 1));
+    }
+
+    @Test
+    public void testSingleFrameChunk() {
+        DispatchFrame frame = frame("#FRAME_START# #FRAME_END# #FRAMESPEC#", "1-10", 1, 5);
+        assertEquals("5 5 5", build(frame, 5));
+    }
+
+    @Test
+    public void testUnknownTokensAreKept() {
+        DispatchFrame frame = frame("echo #NOT_A_TOKEN# ## #FRAME #IFRAME#", "1-10", 1, 2);
+        assertEquals("echo #NOT_A_TOKEN# ## #FRAME 2", build(frame, 2));
+        assertEquals("echo", build(frame("echo", "1-10", 1, 2), 2));
+    }
+
+    @Test
+    public void testValuesAreNotExpanded() {
+        DispatchFrame frame = frame("#LAYER# #JOB#", "1-10", 1, 2);
+        frame.layerName = "a$1#JOB#";
+        assertEquals("a$1#JOB# pipe-dev.cue-testuser_job", build(frame, 2));
+    }
+
+    @Test
+    public void testMatches() {
+        DispatchFrame frame = frame("echo #IFRAME#", "1-10", 1, 2);
+        LaunchTemplate template =
+                new LaunchTemplate(frame.command, frame.range, 1, Collections.emptyMap());
+        assertTrue(template.matches(frame));
+        frame.range = "1-20";
+        assertFalse(template.matches(frame));
+    }
+}
@@ -0,0 +1,138 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.LimitEntity;
+import com.imageworks.spcue.dao.LayerDao;
+import com.imageworks.spcue.dao.LimitDao;
+import com.imageworks.spcue.dispatcher.LimitAccounting;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LimitAccountingTests {
+
+    private LimitDao limitDao;
+    private LayerDao layerDao;
+    private LimitAccounting limitAccounting;
+
+    private static LimitEntity limit(String id, int maxValue, int currentRunning) {
+        LimitEntity limit = new LimitEntity();
+        limit.id = id;
+        limit.maxValue = maxValue;
+        limit.currentRunning = currentRunning;
+        return limit;
+    }
+
+    @Before
+    public void setUp() {
+        limitDao = mock(LimitDao.class);
+        layerDao = mock(LayerDao.class);
+        when(limitDao.getLimits())
+                .thenReturn(Arrays.asList(limit("limit-a", 2, 1), limit("limit-b", 5, 0)));
+        when(layerDao.getLimits(any(LayerInterface.class))).thenAnswer(invocation -> {
+            String layerId = invocation.<LayerInterface>getArgument(0).getLayerId();
+            switch (layerId) {
+                case "layer-a":
+                    return Arrays.asList(limit("limit-a", 2, 0));
+                case "layer-ab":
+                    return Arrays.asList(limit("limit-a", 2, 0), limit("limit-b", 5, 0));
+                default:
+                    return Collections.emptyList();
+            }
+        });
+
+        limitAccounting = new LimitAccounting(10, 100);
+        limitAccounting.setLimitDao(limitDao);
+        limitAccounting.setLayerDao(layerDao);
+        limitAccounting.reconcile();
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testReconcile() {
+        assertEquals(1, limitAccounting.getRunningCount("limit-a"));
+        assertEquals(0, limitAccounting.getRunningCount("limit-b"));
+        assertEquals(-1, limitAccounting.getRunningCount("limit-c"));
+        assertArrayEquals(new String[0], limitAccounting.getFullLimits());
+    }
+
+    @Test
+    public void testMoveProc() {
+        limitAccounting.moveProc(null, "layer-a");
+        assertEquals(2, limitAccounting.getRunningCount("limit-a"));
+        assertArrayEquals(new String[] {"limit-a"}, limitAccounting.getFullLimits());
+
+        limitAccounting.moveProc("layer-a", "layer-ab");
+        assertEquals(2, limitAccounting.getRunningCount("limit-a"));
+        assertEquals(1, limitAccounting.getRunningCount("limit-b"));
+
+        limitAccounting.moveProc("layer-ab", "layer-ab");
+        limitAccounting.moveProc("layer-ab", null);
+        limitAccounting.moveProc("layer-none", null);
+        assertEquals(1, limitAccounting.getRunningCount("limit-a"));
+        assertEquals(0, limitAccounting.getRunningCount("limit-b"));
+        assertArrayEquals(new String[0], limitAccounting.getFullLimits());
+
+        // The limits of each layer are read once
+        verify(layerDao, times(3)).getLimits(any(LayerInterface.class));
+    }
+
+    @Test
+    public void testMoveProcAppliedOnCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        limitAccounting.moveProc(null, "layer-a");
+        assertEquals(1, limitAccounting.getRunningCount("limit-a"));
+
+        for (TransactionSynchronization sync : TransactionSynchronizationManager
+                .getSynchronizations()) {
+            sync.afterCommit();
+        }
+        assertEquals(2, limitAccounting.getRunningCount("limit-a"));
+    }
+
+    @Test
+    public void testReconcileReplacesCounts() {
+        limitAccounting.moveProc(null, "layer-a");
+        when(limitDao.getLimits()).thenReturn(Arrays.asList(limit("limit-a", 3, 2)));
+        limitAccounting.reconcile();
+
+        assertEquals(2, limitAccounting.getRunningCount("limit-a"));
+        assertEquals(-1, limitAccounting.getRunningCount("limit-b"));
+        assertArrayEquals(new String[0], limitAccounting.getFullLimits());
+    }
+}
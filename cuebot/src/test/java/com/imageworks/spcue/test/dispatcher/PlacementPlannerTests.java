@@ -0,0 +1,130 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.DispatchJob;
+import com.imageworks.spcue.dispatcher.PlacementPlanner;
+import com.imageworks.spcue.util.CueUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PlacementPlannerTests {
+
+    private DispatchHost host;
+    private DispatchJob jobA;
+    private DispatchJob jobB;
+
+    private static DispatchJob job(String name) {
+        DispatchJob job = new DispatchJob();
+        job.id = name;
+        job.name = name;
+        return job;
+    }
+
+    private static PlacementPlanner.Candidate candidate(int band, List<?> candidates,
+            DispatchJob job, int cores, long memory) {
+        DispatchFrame frame = new DispatchFrame();
+        frame.name = candidates.size() + "-render";
+        return new PlacementPlanner.Candidate(band, candidates.size(), job, frame, cores, memory,
+                0, 0);
+    }
+
+    /**
+     * Job A has a large memory frame first, job B two frames that fill the host together.
+     */
+    private List<PlacementPlanner.Candidate> candidates(PlacementPlanner planner) {
+        List<PlacementPlanner.Candidate> candidates = new ArrayList<>();
+        candidates.add(candidate(planner.getBand(0), candidates, jobA, 200, 20 * CueUtil.GB));
+        candidates.add(candidate(planner.getBand(0), candidates, jobA, 200, 20 * CueUtil.GB));
+        candidates.add(candidate(planner.getBand(1), candidates, jobB, 200, 16 * CueUtil.GB));
+        candidates.add(candidate(planner.getBand(1), candidates, jobB, 200, 16 * CueUtil.GB));
+        return candidates;
+    }
+
+    @Before
+    public void setUp() {
+        host = new DispatchHost();
+        host.name = "test_host";
+        host.cores = 800;
+        host.idleCores = 800;
+        host.memory = 32 * CueUtil.GB;
+        host.idleMemory = 32 * CueUtil.GB;
+        jobA = job("job_a");
+        jobB = job("job_b");
+    }
+
+    @Test
+    public void testPackWithinBand() {
+        PlacementPlanner planner = new PlacementPlanner(true, 8, 2, 1000);
+        List<PlacementPlanner.Candidate> planned = planner.plan(host, candidates(planner), 10, 10);
+
+        assertEquals(2, planned.size());
+        assertSame(jobB, planned.get(0).getJob());
+        assertSame(jobB, planned.get(1).getJob());
+        assertEquals(1, planner.getPlanCount());
+        assertEquals(200, planner.getCoresGained());
+        assertEquals(12 * CueUtil.GB, planner.getMemoryGained());
+        // The host is left untouched
+        assertEquals(800, host.idleCores);
+    }
+
+    @Test
+    public void testHigherBandFirst() {
+        PlacementPlanner planner = new PlacementPlanner(true, 8, 1, 1000);
+        List<PlacementPlanner.Candidate> planned = planner.plan(host, candidates(planner), 10, 10);
+
+        assertEquals(1, planned.size());
+        assertSame(jobA, planned.get(0).getJob());
+        assertEquals(0, planner.getCoresGained());
+        assertEquals(0, planner.getMemoryGained());
+    }
+
+    @Test
+    public void testFrameLimits() {
+        PlacementPlanner planner = new PlacementPlanner(true, 8, 2, 1000);
+        List<PlacementPlanner.Candidate> planned = planner.plan(host, candidates(planner), 1, 10);
+        assertEquals(1, planned.size());
+        assertSame(jobA, planned.get(0).getJob());
+
+        host.idleMemory = 64 * CueUtil.GB;
+        planned = planner.plan(host, candidates(planner), 10, 3);
+        assertEquals(3, planned.size());
+    }
+
+    @Test
+    public void testKeepsJobOrderWithinBand() {
+        PlacementPlanner planner = new PlacementPlanner(true, 8, 4, 1000);
+        List<PlacementPlanner.Candidate> candidates = new ArrayList<>();
+        candidates.add(candidate(0, candidates, jobA, 100, CueUtil.GB));
+        candidates.add(candidate(0, candidates, jobB, 400, CueUtil.GB));
+        candidates.add(candidate(0, candidates, jobA, 300, CueUtil.GB));
+
+        List<PlacementPlanner.Candidate> planned = planner.plan(host, candidates, 10, 10);
+        assertEquals(3, planned.size());
+        for (int i = 0; i < planned.size(); i++) {
+            assertSame(candidates.get(i), planned.get(i));
+        }
+    }
+}
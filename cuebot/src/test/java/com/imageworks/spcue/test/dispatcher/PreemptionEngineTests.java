@@ -0,0 +1,159 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.DispatchJob;
+import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.Source;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.dao.JobDao;
+import com.imageworks.spcue.dao.ProcDao;
+import com.imageworks.spcue.dispatcher.PreemptionEngine;
+import com.imageworks.spcue.dispatcher.RedirectManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PreemptionEngineTests {
+
+    private JobDao jobDao;
+    private ProcDao procDao;
+    private RedirectManager redirectManager;
+
+    private final Map<String, Integer> deficits = new LinkedHashMap<String, Integer>();
+    private final Map<String, List<VirtualProc>> checkpointing =
+            new HashMap<String, List<VirtualProc>>();
+    private final Map<String, List<VirtualProc>> others = new HashMap<String, List<VirtualProc>>();
+
+    private static VirtualProc proc(String id, String jobId, int cores) {
+        VirtualProc proc = new VirtualProc();
+        proc.id = id;
+        proc.jobId = jobId;
+        proc.coresReserved = cores;
+        return proc;
+    }
+
+    @Before
+    public void setUp() {
+        jobDao = mock(JobDao.class);
+        procDao = mock(ProcDao.class);
+        redirectManager = mock(RedirectManager.class);
+
+        when(jobDao.getMinCoresDeficits(anyInt())).thenReturn(deficits);
+        when(jobDao.getDispatchJob(anyString())).thenAnswer(invocation -> {
+            DispatchJob job = new DispatchJob();
+            job.id = invocation.getArgument(0);
+            job.name = "name-" + job.id;
+            return job;
+        });
+        when(procDao.findPreemptibleProcs(any(JobInterface.class), anyBoolean(), anyCollection(),
+                anyInt()))
+                .thenAnswer(invocation -> {
+                    String jobId = invocation.<JobInterface>getArgument(0).getJobId();
+                    Map<String, List<VirtualProc>> procs =
+                            invocation.<Boolean>getArgument(1) ? checkpointing : others;
+                    return procs.getOrDefault(jobId, Collections.emptyList());
+                });
+        when(redirectManager.addRedirect(any(VirtualProc.class), any(JobInterface.class),
+                eq(true), any(Source.class))).thenReturn(true);
+    }
+
+    private PreemptionEngine engine(int maxPreemptions) {
+        PreemptionEngine engine = new PreemptionEngine(true, 60, 20, maxPreemptions);
+        engine.setJobDao(jobDao);
+        engine.setProcDao(procDao);
+        engine.setRedirectManager(redirectManager);
+        return engine;
+    }
+
+    @Test
+    public void testCheckpointingFirstAndOneProcPerJob() {
+        VirtualProc p1 = proc("p1", "v1", 100);
+        VirtualProc p2 = proc("p2", "v1", 100);
+        VirtualProc p3 = proc("p3", "v2", 100);
+        VirtualProc p4 = proc("p4", "v3", 100);
+        VirtualProc p5 = proc("p5", "v4", 100);
+        VirtualProc p6 = proc("p6", "v2", 100);
+        deficits.put("j1", 300);
+        deficits.put("j2", 100);
+        checkpointing.put("j1", Arrays.asList(p1));
+        others.put("j1", Arrays.asList(p2, p3, p4, p5));
+        others.put("j2", Arrays.asList(p6));
+
+        PreemptionEngine engine = engine(10);
+        assertEquals(3, engine.preempt());
+        assertEquals(3, engine.getPreemptedCount());
+        assertEquals(2, engine.getUnderServedJobs());
+
+        verify(redirectManager).addRedirect(same(p1), any(JobInterface.class), eq(true),
+                any(Source.class));
+        verify(redirectManager, never()).addRedirect(same(p2), any(JobInterface.class),
+                eq(true), any(Source.class));
+        // p5 is not needed, p6 belongs to a job that already lost a proc
+        verify(redirectManager, never()).addRedirect(same(p5), any(JobInterface.class),
+                eq(true), any(Source.class));
+        verify(redirectManager, never()).addRedirect(same(p6), any(JobInterface.class),
+                eq(true), any(Source.class));
+    }
+
+    @Test
+    public void testMaxPreemptions() {
+        deficits.put("j1", 300);
+        deficits.put("j2", 300);
+        others.put("j1", Arrays.asList(proc("p1", "v1", 100), proc("p2", "v2", 100)));
+        others.put("j2", Arrays.asList(proc("p3", "v3", 100)));
+
+        PreemptionEngine engine = engine(2);
+        assertEquals(2, engine.preempt());
+        verify(jobDao, never()).getDispatchJob("j2");
+    }
+
+    @Test
+    public void testFailedRedirect() {
+        VirtualProc p1 = proc("p1", "v1", 100);
+        VirtualProc p2 = proc("p2", "v1", 100);
+        when(redirectManager.addRedirect(same(p1), any(JobInterface.class), eq(true),
+                any(Source.class))).thenReturn(false);
+        deficits.put("j1", 100);
+        others.put("j1", Arrays.asList(p1, p2));
+
+        PreemptionEngine engine = engine(10);
+        assertEquals(1, engine.preempt());
+        assertEquals(1, engine.getFailedCount());
+        verify(redirectManager).addRedirect(same(p2), any(JobInterface.class), eq(true),
+                any(Source.class));
+    }
+}
@@ -0,0 +1,120 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.dispatcher.HostReportHandler;
+import com.imageworks.spcue.dispatcher.HostReportQueue;
+import com.imageworks.spcue.dispatcher.ReportAdmissionController;
+import com.imageworks.spcue.dispatcher.ReportThrottledException;
+import com.imageworks.spcue.dispatcher.commands.DispatchHandleHostReport;
+import com.imageworks.spcue.grpc.report.HostReport;
+import com.imageworks.spcue.grpc.report.RenderHost;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReportAdmissionControllerTests {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final HostReportHandler hostReportHandler = new HostReportHandler();
+    private HostReportQueue reportQueue;
+
+    @Before
+    public void setUp() {
+        // A single thread blocked until the end of the test, so reports stay queued
+        reportQueue = new HostReportQueue(1, 1, 10);
+        reportQueue.execute((Runnable) () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        reportQueue.shutdownNow();
+    }
+
+    private void queueReports(int count) {
+        for (int i = 0; i < count; i++) {
+            HostReport report = HostReport.newBuilder()
+                    .setHost(RenderHost.newBuilder().setName("host" + i)).build();
+            reportQueue.execute(new DispatchHandleHostReport(report, hostReportHandler));
+        }
+    }
+
+    private ReportAdmissionController controller(int targetLatency, int maxLatency) {
+        ReportAdmissionController controller =
+                new ReportAdmissionController(true, targetLatency, maxLatency, 0.9, 5000, 60000);
+        controller.setReportQueue(reportQueue);
+        return controller;
+    }
+
+    @Test
+    public void testIdleQueue() {
+        ReportAdmissionController controller = controller(1000, 10000);
+        assertEquals(0, controller.getQueueLatencyMillis());
+        assertEquals(0, controller.admit());
+        assertEquals(0, controller.getDelayedCount());
+    }
+
+    @Test
+    public void testSlowQueueDelaysReports() throws InterruptedException {
+        ReportAdmissionController controller = controller(0, 3600000);
+        queueReports(1);
+        Thread.sleep(20);
+        assertTrue(controller.getQueueLatencyMillis() >= 20);
+
+        int interval = controller.admit();
+        assertTrue(interval >= 5000 * 0.75);
+        assertTrue(interval <= 60000 * 1.25);
+        assertEquals(1, controller.getDelayedCount());
+    }
+
+    @Test
+    public void testFullQueueThrottlesReports() {
+        ReportAdmissionController controller = controller(1000, 3600000);
+        queueReports(9);
+        try {
+            controller.admit();
+            fail("expected the report to be throttled");
+        } catch (ReportThrottledException e) {
+            assertTrue(e.getRetryDelayMillis() >= 5000);
+            assertTrue(e.getRetryDelayMillis() <= 60000);
+        }
+        assertEquals(1, controller.getThrottledCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        ReportAdmissionController controller =
+                new ReportAdmissionController(false, 0, 1, 0.1, 5000, 60000);
+        controller.setReportQueue(reportQueue);
+        queueReports(9);
+        assertEquals(0, controller.admit());
+    }
+}
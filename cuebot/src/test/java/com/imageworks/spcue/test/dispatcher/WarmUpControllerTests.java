@@ -0,0 +1,90 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.imageworks.spcue.dispatcher.WarmUpController;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WarmUpControllerTests {
+
+    private static final int HOSTS = 10000;
+
+    private static List<String> hostIds() {
+        List<String> hostIds = new ArrayList<>(HOSTS);
+        for (int i = 0; i < HOSTS; i++) {
+            hostIds.add(UUID.nameUUIDFromBytes(Integer.toString(i).getBytes()).toString());
+        }
+        return hostIds;
+    }
+
+    private static int admitted(WarmUpController controller, List<String> hostIds, long now) {
+        int admitted = 0;
+        for (String hostId : hostIds) {
+            if (controller.isBookingAdmitted(hostId, now)) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+
+    @Test
+    public void testRampAdmitsGrowingShare() {
+        WarmUpController controller = new WarmUpController(true, 100, 0.1);
+        controller.start();
+        long start = System.currentTimeMillis();
+        List<String> hostIds = hostIds();
+
+        int initial = admitted(controller, hostIds, start);
+        int half = admitted(controller, hostIds, start + 50000);
+        assertEquals(0.1 * HOSTS, initial, 0.03 * HOSTS);
+        assertEquals(0.55 * HOSTS, half, 0.03 * HOSTS);
+        assertEquals(HOSTS, admitted(controller, hostIds, start + 100000));
+
+        // Hosts admitted early stay admitted
+        for (String hostId : hostIds) {
+            if (controller.isBookingAdmitted(hostId, start)) {
+                assertTrue(controller.isBookingAdmitted(hostId, start + 50000));
+            }
+        }
+        assertTrue(controller.isWarmingUp());
+    }
+
+    @Test
+    public void testDisabled() {
+        WarmUpController controller = new WarmUpController(false, 100, 0.1);
+        controller.start();
+        assertFalse(controller.isWarmingUp());
+        assertTrue(controller.isCachesPreloaded());
+        assertEquals(1, controller.getAdmittedFraction(), 0);
+        assertEquals(HOSTS, admitted(controller, hostIds(), System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testNotStarted() {
+        WarmUpController controller = new WarmUpController(true, 100, 0.1);
+        assertFalse(controller.isWarmingUp());
+    }
+}
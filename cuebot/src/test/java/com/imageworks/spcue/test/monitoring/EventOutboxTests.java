@@ -0,0 +1,203 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.test.monitoring;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.imageworks.spcue.monitoring.EventFormat;
+import com.imageworks.spcue.monitoring.EventOutbox;
+import com.imageworks.spcue.monitoring.EventRecord;
+import com.imageworks.spcue.monitoring.EventSpillLog;
+import com.imageworks.spcue.monitoring.FileEventSink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for EventOutbox and EventSpillLog, using FileEventSink as the broker. The broker is down
+ * while its directory does not exist.
+ */
+public class EventOutboxTests {
+
+    private static final String TOPIC = "opencue.frame.events";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static EventRecord record(int i) {
+        return new EventRecord(TOPIC, "key-" + i,
+                Integer.toString(i).getBytes(StandardCharsets.UTF_8), format(i));
+    }
+
+    private static EventFormat format(int i) {
+        return i % 2 == 0 ? EventFormat.JSON : EventFormat.PROTOBUF;
+    }
+
+    private static List<Integer> values(List<EventRecord> records) {
+        List<Integer> values = new ArrayList<>();
+        for (EventRecord record : records) {
+            values.add(Integer.parseInt(new String(record.getValue(), StandardCharsets.UTF_8)));
+        }
+        return values;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out waiting for the outbox", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSpillAndReplayInOrder() throws Exception {
+        Path broker = folder.getRoot().toPath().resolve("broker");
+        EventSpillLog spillLog = new EventSpillLog(folder.newFolder("spill").toPath(), 1024, 100);
+        EventOutbox outbox = new EventOutbox(new FileEventSink(broker), spillLog, 10, 4, 10, 50);
+
+        for (int i = 0; i < 100; i++) {
+            outbox.publish(record(i));
+        }
+        assertTrue(outbox.getSpilledCount() > 0);
+        assertTrue(outbox.getSpillSegmentCount() > 1);
+
+        Files.createDirectory(broker);
+        waitFor(() -> outbox.getSentCount() + outbox.getReplayedCount() == 100);
+        outbox.shutdown();
+
+        List<EventRecord> delivered = FileEventSink.read(broker, TOPIC);
+        assertEquals(range(0, 100), values(delivered));
+        assertEquals("key-0", delivered.get(0).getKey());
+        assertEquals(EventFormat.PROTOBUF, delivered.get(1).getFormat());
+        assertEquals(outbox.getSpilledCount(), outbox.getReplayedCount());
+        assertEquals(0, outbox.getDroppedCount());
+    }
+
+    @Test
+    public void testDropWhenSpillLogIsFull() throws Exception {
+        Path broker = folder.getRoot().toPath().resolve("broker");
+        EventSpillLog spillLog = new EventSpillLog(folder.newFolder("spill").toPath(), 256, 1);
+        EventOutbox outbox = new EventOutbox(new FileEventSink(broker), spillLog, 1, 1, 10, 50);
+
+        for (int i = 0; i < 100; i++) {
+            outbox.publish(record(i));
+        }
+        assertTrue(outbox.getDroppedCount() > 0);
+        assertEquals(1, outbox.getSpillSegmentCount());
+        outbox.shutdown();
+    }
+
+    @Test
+    public void testSpillLogSurvivesRestart() throws Exception {
+        Path dir = folder.newFolder("spill").toPath();
+        EventSpillLog spillLog = new EventSpillLog(dir, 256, 100);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(spillLog.append(record(i)));
+        }
+        assertTrue(spillLog.getSegmentCount() > 1);
+
+        EventSpillLog.Batch batch = spillLog.peek(5);
+        assertEquals(range(0, 5), values(batch.getRecords()));
+        spillLog.commit(batch);
+        // Peeked but not committed, must be read again after the restart
+        spillLog.peek(5);
+        spillLog.close();
+
+        spillLog = new EventSpillLog(dir, 256, 100);
+        assertFalse(spillLog.isEmpty());
+        List<EventRecord> replayed = new ArrayList<>();
+        while ((batch = spillLog.peek(7)) != null) {
+            replayed.addAll(batch.getRecords());
+            spillLog.commit(batch);
+        }
+        assertEquals(range(5, 50), values(replayed));
+        for (EventRecord record : replayed) {
+            assertEquals(format(Integer.parseInt(
+                    new String(record.getValue(), StandardCharsets.UTF_8))), record.getFormat());
+        }
+        assertTrue(spillLog.isEmpty());
+        assertNull(spillLog.peek(1));
+        assertEquals(1, spillLog.getSegmentCount());
+    }
+
+    @Test
+    public void testSpillLogDirectoryIsLocked() throws Exception {
+        Path dir = folder.newFolder("spill").toPath();
+        EventSpillLog spillLog = new EventSpillLog(dir, 256, 100);
+        try {
+            new EventSpillLog(dir, 256, 100);
+            fail("expected the directory to be locked");
+        } catch (IOException e) {
+            // Expected, the first log still owns the directory
+        }
+        spillLog.close();
+        new EventSpillLog(dir, 256, 100).close();
+    }
+
+    @Test
+    public void testCorruptSegmentIsQuarantined() throws Exception {
+        Path dir = folder.newFolder("spill").toPath();
+        EventSpillLog spillLog = new EventSpillLog(dir, 256, 100);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(spillLog.append(record(i)));
+        }
+        spillLog.close();
+
+        // Records 0 to 5 fill the first segment, give record 1 an unknown format
+        Path first = dir.resolve(String.format("%020d.seg", 0));
+        try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            int recordLength = 4 + 1 + 2 + TOPIC.length() + 4 + "key-0".length() + 1;
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0x7f}), 16 + recordLength + 4);
+        }
+
+        spillLog = new EventSpillLog(dir, 256, 100);
+        EventSpillLog.Batch batch = spillLog.peek(10);
+        assertEquals(range(0, 1), values(batch.getRecords()));
+        spillLog.commit(batch);
+
+        Path broker = folder.newFolder("broker").toPath();
+        EventOutbox outbox = new EventOutbox(new FileEventSink(broker), spillLog, 10, 4, 10, 50);
+        waitFor(() -> outbox.getReplayedCount() == 14);
+        outbox.shutdown();
+
+        assertEquals(range(6, 20), values(FileEventSink.read(broker, TOPIC)));
+        assertTrue(Files.exists(dir.resolve(first.getFileName() + ".corrupt")));
+        assertFalse(Files.exists(first));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.test.monitoring;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.grpc.job.Frame;
+import com.imageworks.spcue.grpc.monitoring.EventHeader;
+import com.imageworks.spcue.grpc.monitoring.EventType;
+import com.imageworks.spcue.grpc.monitoring.FrameEvent;
+import com.imageworks.spcue.monitoring.EventEnvelope;
+import com.imageworks.spcue.monitoring.EventFormat;
+import com.imageworks.spcue.monitoring.EventRecord;
+import com.imageworks.spcue.monitoring.KafkaEventSink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the message format and envelopes of KafkaEventSink.
+ */
+public class KafkaEventSinkTests {
+
+    private static final String TOPIC = "opencue.frame.events";
+    private static final int PARTITIONS = 3;
+
+    private MockProducer<String, byte[]> producer;
+
+    @Before
+    public void setUp() {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(
+                    new PartitionInfo(TOPIC, i, node, new Node[] {node}, new Node[] {node}));
+        }
+        Cluster cluster = new Cluster("test", Collections.singletonList(node), partitions,
+                Collections.emptySet(), Collections.emptySet());
+        producer = new MockProducer<>(cluster, true, new FirstPartitioner(),
+                new StringSerializer(), new ByteArraySerializer());
+    }
+
+    private static class FirstPartitioner implements Partitioner {
+        @Override
+        public int partition(String topic, Object key, byte[] keyBytes, Object value,
+                byte[] valueBytes, Cluster cluster) {
+            return 0;
+        }
+
+        @Override
+        public void close() {}
+
+        @Override
+        public void configure(Map<String, ?> configs) {}
+    }
+
+    private static FrameEvent frameEvent(String frameId, int runTime) {
+        return FrameEvent.newBuilder()
+                .setHeader(EventHeader.newBuilder().setEventId(frameId + "-" + runTime)
+                        .setEventType(EventType.FRAME_COMPLETED))
+                .setFrame(Frame.newBuilder().setId(frameId)).setRunTime(runTime).build();
+    }
+
+    private static EventRecord protobufRecord(FrameEvent event) {
+        return new EventRecord(TOPIC, event.getFrame().getId(), event.toByteArray(),
+                EventFormat.PROTOBUF);
+    }
+
+    private static String header(ProducerRecord<String, byte[]> message, String key) {
+        Header header = message.headers().lastHeader(key);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+
+    private static int partitionOf(String key) {
+        return Utils.toPositive(Utils.murmur2(key.getBytes(StandardCharsets.UTF_8))) % PARTITIONS;
+    }
+
+    @Test
+    public void testEnvelopesKeepPartitionAndOrder() throws Exception {
+        List<EventRecord> records = new ArrayList<>();
+        for (int runTime = 0; runTime < 5; runTime++) {
+            for (int frame = 0; frame < 8; frame++) {
+                records.add(protobufRecord(frameEvent("frame-" + frame, runTime)));
+            }
+        }
+        KafkaEventSink sink = new KafkaEventSink(producer, 1000, 100, 1024 * 1024);
+        sink.send(records);
+
+        List<ProducerRecord<String, byte[]>> history = producer.history();
+        assertTrue(history.size() <= PARTITIONS);
+        Map<String, List<Integer>> runTimes = new HashMap<>();
+        int count = 0;
+        for (ProducerRecord<String, byte[]> message : history) {
+            assertEquals(EventEnvelope.CONTENT_TYPE,
+                    header(message, KafkaEventSink.CONTENT_TYPE_HEADER));
+            assertNull(message.key());
+            List<byte[]> values = EventEnvelope.unpack(message.value());
+            assertEquals(Integer.toString(values.size()),
+                    header(message, KafkaEventSink.EVENT_COUNT_HEADER));
+            for (byte[] value : values) {
+                FrameEvent event = FrameEvent.parseFrom(value);
+                String frameId = event.getFrame().getId();
+                assertEquals(partitionOf(frameId), (int) message.partition());
+                runTimes.computeIfAbsent(frameId, k -> new ArrayList<>())
+                        .add(event.getRunTime());
+                count++;
+            }
+        }
+        assertEquals(records.size(), count);
+        for (List<Integer> frameRunTimes : runTimes.values()) {
+            assertEquals(Arrays.asList(0, 1, 2, 3, 4), frameRunTimes);
+        }
+    }
+
+    @Test
+    public void testEnvelopeLimits() throws Exception {
+        List<EventRecord> records = new ArrayList<>();
+        for (int runTime = 0; runTime < 10; runTime++) {
+            records.add(protobufRecord(frameEvent("frame-0", runTime)));
+        }
+        new KafkaEventSink(producer, 1000, 4, 1024 * 1024).send(records);
+
+        List<Integer> sizes = new ArrayList<>();
+        for (ProducerRecord<String, byte[]> message : producer.history()) {
+            sizes.add(EventEnvelope.unpack(message.value()).size());
+        }
+        assertEquals(Arrays.asList(4, 4, 2), sizes);
+
+        // An envelope too small for two events sends every event on its own
+        producer.clear();
+        new KafkaEventSink(producer, 1000, 4, 1).send(records);
+        assertEquals(records.size(), producer.history().size());
+        for (ProducerRecord<String, byte[]> message : producer.history()) {
+            assertEquals(EventFormat.PROTOBUF.getContentType(),
+                    header(message, KafkaEventSink.CONTENT_TYPE_HEADER));
+            assertEquals("frame-0", message.key());
+            assertEquals("frame-0", FrameEvent.parseFrom(message.value()).getFrame().getId());
+        }
+    }
+
+    @Test
+    public void testJsonEventsAreNotPacked() throws Exception {
+        List<EventRecord> records = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            records.add(new EventRecord(TOPIC, "frame-0",
+                    ("{\"run_time\":" + i + "}").getBytes(StandardCharsets.UTF_8)));
+        }
+        new KafkaEventSink(producer, 1000, 100, 1024 * 1024).send(records);
+
+        assertEquals(records.size(), producer.history().size());
+        for (ProducerRecord<String, byte[]> message : producer.history()) {
+            assertEquals(EventFormat.JSON.getContentType(),
+                    header(message, KafkaEventSink.CONTENT_TYPE_HEADER));
+            assertEquals("frame-0", message.key());
+        }
+    }
+}
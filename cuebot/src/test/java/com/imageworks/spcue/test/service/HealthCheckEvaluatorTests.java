@@ -0,0 +1,100 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.test.service;
+
+import javax.annotation.Resource;
+
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+
+import com.imageworks.common.spring.remoting.GrpcServer;
+import com.imageworks.spcue.config.TestAppConfig;
+import com.imageworks.spcue.dispatcher.BookingQueue;
+import com.imageworks.spcue.dispatcher.DispatchQueue;
+import com.imageworks.spcue.dispatcher.HostReportQueue;
+import com.imageworks.spcue.service.HealthCheckEvaluator;
+import com.imageworks.spcue.service.HealthCheckEvaluator.HealthStatus;
+import com.imageworks.spcue.service.Whiteboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@ContextConfiguration(classes = TestAppConfig.class, loader = AnnotationConfigContextLoader.class)
+public class HealthCheckEvaluatorTests extends AbstractTransactionalJUnit4SpringContextTests {
+
+    @Resource
+    HealthCheckEvaluator healthCheckEvaluator;
+
+    @Resource
+    BookingQueue bookingQueue;
+
+    @Resource
+    DispatchQueue manageQueue;
+
+    @Resource
+    DispatchQueue dispatchQueue;
+
+    @Resource
+    HostReportQueue reportQueue;
+
+    @Resource
+    Whiteboard whiteboard;
+
+    @Test
+    public void testEvaluate() {
+        healthCheckEvaluator.evaluate();
+        HealthCheckEvaluator.Snapshot snapshot = healthCheckEvaluator.getSnapshot();
+        assertFalse(snapshot.getStatusList().contains(HealthStatus.JOB_QUERY_ERROR));
+        assertFalse(snapshot.getStatusList().contains(HealthStatus.HEALTH_CHECK_STALE));
+        assertTrue(System.currentTimeMillis() - snapshot.getEvaluatedAt() < 10000);
+    }
+
+    @Test
+    public void testGrpcServerNotStarted() {
+        HealthCheckEvaluator evaluator = new HealthCheckEvaluator(10, 60, 0, "testing");
+        evaluator.setBookingQueue(bookingQueue);
+        evaluator.setManageQueue(manageQueue);
+        evaluator.setDispatchQueue(dispatchQueue);
+        evaluator.setReportQueue(reportQueue);
+        evaluator.setWhiteboard(whiteboard);
+        evaluator.setGrpcServer(new GrpcServer());
+        evaluator.evaluate();
+        assertFalse(evaluator.getSnapshot().getStatusList()
+                .contains(HealthStatus.GRPC_SERVER_DOWN));
+    }
+
+    @Test
+    public void testStaleSnapshot() throws InterruptedException {
+        HealthCheckEvaluator evaluator = new HealthCheckEvaluator(10, 0, 0, "testing");
+        assertEquals(1, evaluator.getSnapshot().getStatusList().size());
+        assertTrue(evaluator.getSnapshot().getStatusList()
+                .contains(HealthStatus.HEALTH_CHECK_STALE));
+
+        evaluator.setBookingQueue(bookingQueue);
+        evaluator.setManageQueue(manageQueue);
+        evaluator.setDispatchQueue(dispatchQueue);
+        evaluator.setReportQueue(reportQueue);
+        evaluator.setWhiteboard(whiteboard);
+        evaluator.evaluate();
+        Thread.sleep(10);
+        assertTrue(evaluator.getSnapshot().getStatusList()
+                .contains(HealthStatus.HEALTH_CHECK_STALE));
+    }
+}
@@ -59,6 +59,7 @@ import com.imageworks.spcue.service.JobLauncher;
 import com.imageworks.spcue.service.JobManager;
 import com.imageworks.spcue.service.JobManagerSupport;
 import com.imageworks.spcue.service.JobSpec;
+import com.imageworks.spcue.service.LayerSettingsCache;
 import com.imageworks.spcue.util.CueUtil;
 import com.imageworks.spcue.util.FrameSet;
 
@@ -103,6 +104,9 @@ public class JobManagerTests extends AbstractTransactionalJUnit4SpringContextTes
     @Resource
     FrameSearchFactory frameSearchFactory;
 
+    @Resource
+    LayerSettingsCache layerSettingsCache;
+
     private static final String JOB1 = "pipe-dev.cue-testuser_shell_dispatch_test_v1";
     private static final String JOB2 = "pipe-dev.cue-testuser_shell_dispatch_test_v2";
     private static final String JOB3 = "pipe-dev.cue-testuser_shell_v1";
@@ -471,6 +475,21 @@ public class JobManagerTests extends AbstractTransactionalJUnit4SpringContextTes
         assertEquals(layer, jobManager.getLayer(layer.getId()));
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testLayerSettingsCacheInvalidation() {
+        JobInterface job = getJob3();
+        LayerInterface layer = layerDao.findLayer(job, "pass_1");
+
+        assertFalse(layerSettingsCache.get(layer.getLayerId()).tags.contains("cache_test"));
+        jobManager.setLayerTag(layer, "cache_test");
+        assertThat(layerSettingsCache.get(layer.getLayerId()).tags, contains("cache_test"));
+
+        jobManager.increaseLayerMemoryRequirement(layer, CueUtil.GB16);
+        assertEquals(CueUtil.GB16, layerSettingsCache.get(layer.getLayerId()).minimumMemory);
+    }
+
     @Test
     @Transactional
     @Rollback(true)
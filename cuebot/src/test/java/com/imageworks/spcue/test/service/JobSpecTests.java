@@ -15,18 +15,23 @@
 
 package com.imageworks.spcue.test.service;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import javax.annotation.Resource;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
 
+import com.imageworks.spcue.BuildableDependency;
 import com.imageworks.spcue.BuildableJob;
+import com.imageworks.spcue.BuildableLayer;
 import com.imageworks.spcue.LayerDetail;
 import com.imageworks.spcue.SpecBuilderException;
 import com.imageworks.spcue.config.TestAppConfig;
@@ -43,6 +48,9 @@ public class JobSpecTests extends AbstractTransactionalJUnit4SpringContextTests
     @Resource
     JobLauncher jobLauncher;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private static String readJobSpec(String name) {
         String path = "src/test/resources/conf/jobspec/" + name;
         byte[] encoded = null;
@@ -120,4 +128,165 @@ public class JobSpecTests extends AbstractTransactionalJUnit4SpringContextTests
         assertEquals(job.maxGpusOverride, Integer.valueOf(42));
     }
 
+    @Test
+    public void testParseGangSize() {
+        String xml = readJobSpec("jobspec_1_16.xml");
+        JobSpec spec = jobLauncher.parse(xml);
+        assertEquals(spec.getDoc().getDocType().getSystemID(),
+                "http://localhost:8080/spcue/dtd/cjsl-1.16.dtd");
+        LayerDetail layer = spec.getJobs().get(0).getBuildableLayers().get(0).layerDetail;
+        assertEquals(layer.gangSize, 4);
+    }
+
+    private JobSpec parse(String xml, JobSpec.Parser parser) {
+        JobSpec spec = (JobSpec) applicationContext.getBean("jobSpec");
+        spec.setParser(parser);
+        spec.parse(xml);
+        return spec;
+    }
+
+    private JobSpec parse(File file, JobSpec.Parser parser) {
+        JobSpec spec = (JobSpec) applicationContext.getBean("jobSpec");
+        spec.setParser(parser);
+        spec.parse(file);
+        return spec;
+    }
+
+    private static void assertSameJob(BuildableJob expected, BuildableJob actual) {
+        assertEquals(expected.detail.os, actual.detail.os);
+        assertEquals(expected.detail.priority, actual.detail.priority);
+        assertEquals(expected.detail.maxRetries, actual.detail.maxRetries);
+        assertEquals(expected.detail.isPaused, actual.detail.isPaused);
+        assertEquals(expected.detail.isAutoEat, actual.detail.isAutoEat);
+        assertEquals(expected.maxCoresOverride, actual.maxCoresOverride);
+        assertEquals(expected.maxGpusOverride, actual.maxGpusOverride);
+        assertEquals(expected.env, actual.env);
+        assertEquals(expected.getBuildableLayers().size(), actual.getBuildableLayers().size());
+        for (int i = 0; i < expected.getBuildableLayers().size(); i++) {
+            BuildableLayer expectedLayer = expected.getBuildableLayers().get(i);
+            BuildableLayer actualLayer = actual.getBuildableLayers().get(i);
+            LayerDetail e = expectedLayer.layerDetail;
+            LayerDetail a = actualLayer.layerDetail;
+            assertEquals(e.name, a.name);
+            assertEquals(e.type, a.type);
+            assertEquals(e.command, a.command);
+            assertEquals(e.range, a.range);
+            assertEquals(e.chunkSize, a.chunkSize);
+            assertEquals(e.dispatchOrder, a.dispatchOrder);
+            assertEquals(e.minimumCores, a.minimumCores);
+            assertEquals(e.isThreadable, a.isThreadable);
+            assertEquals(e.minimumMemory, a.minimumMemory);
+            assertEquals(e.minimumGpus, a.minimumGpus);
+            assertEquals(e.minimumGpuMemory, a.minimumGpuMemory);
+            assertEquals(e.gangSize, a.gangSize);
+            assertEquals(e.tags, a.tags);
+            assertEquals(e.services, a.services);
+            assertEquals(e.limits, a.limits);
+            assertEquals(e.outputs, a.outputs);
+            assertEquals(expectedLayer.isMemoryOverride, actualLayer.isMemoryOverride);
+            assertEquals(expectedLayer.env, actualLayer.env);
+        }
+    }
+
+    private static void assertSameSpec(JobSpec dom, JobSpec stax) {
+        assertEquals(dom.getShow(), stax.getShow());
+        assertEquals(dom.getShot(), stax.getShot());
+        assertEquals(dom.getUser(), stax.getUser());
+        assertEquals(dom.getUid(), stax.getUid());
+        assertEquals(dom.getJobs().size(), stax.getJobs().size());
+        for (int i = 0; i < dom.getJobs().size(); i++) {
+            BuildableJob domJob = dom.getJobs().get(i);
+            BuildableJob staxJob = stax.getJobs().get(i);
+            assertEquals(domJob.detail.name, staxJob.detail.name);
+            assertEquals(domJob.detail.facilityName, staxJob.detail.facilityName);
+            assertSameJob(domJob, staxJob);
+            assertEquals(domJob.getPostJob() == null, staxJob.getPostJob() == null);
+            if (domJob.getPostJob() != null) {
+                assertSameJob(domJob.getPostJob(), staxJob.getPostJob());
+            }
+        }
+        assertEquals(dom.getDepends().size(), stax.getDepends().size());
+        for (int i = 0; i < dom.getDepends().size(); i++) {
+            BuildableDependency e = dom.getDepends().get(i);
+            BuildableDependency a = stax.getDepends().get(i);
+            assertEquals(e.toString(), a.toString());
+            assertEquals(e.isAnyFrame(), a.isAnyFrame());
+        }
+        assertEquals(dom.getDoc().getDocType().getSystemID(),
+                stax.getDoc().getDocType().getSystemID());
+    }
+
+    @Test
+    public void testStreamingParserMatchesDom() {
+        for (String name : new String[] {"jobspec_1_12.xml", "jobspec_1_13.xml",
+                "jobspec_1_16.xml"}) {
+            String xml = readJobSpec(name);
+            assertSameSpec(parse(xml, JobSpec.Parser.DOM), parse(xml, JobSpec.Parser.STAX));
+        }
+
+        // These name their DTD relative to the spec file.
+        String[] names = new String[] {"jobspec.xml", "jobspec_postframes.xml",
+                "jobspec_depend_test.xml", "jobspec_gpus_test.xml", "jobspec_limit.xml",
+                "services.xml", "depend_any.xml", "facility.xml"};
+        for (String name : names) {
+            File file = new File("src/test/resources/conf/jobspec/" + name);
+            assertSameSpec(parse(file, JobSpec.Parser.DOM), parse(file, JobSpec.Parser.STAX));
+        }
+    }
+
+    @Test
+    public void testStreamingParserValidates() {
+        String xml = readJobSpec("jobspec_1_13.xml");
+        String[] invalid = new String[] {xml.replace("<shot>", "<cmd>ls</cmd><shot>"),
+                xml.replace("type=\"Render\"", "type=\"Composite\""),
+                xml.replaceFirst("<range>[^<]*</range>", ""),
+                xml.replaceFirst("<job name=\"[^\"]*\"", "<job")};
+        for (String spec : invalid) {
+            try {
+                parse(spec, JobSpec.Parser.STAX);
+                fail("Expected exception");
+            } catch (SpecBuilderException e) {
+                assertTrue(e.getMessage().startsWith("Failed to parse job spec XML, "));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingParserInvalidShot() {
+        String xml = readJobSpec("jobspec_invalid_shot.xml");
+        try {
+            parse(xml, JobSpec.Parser.STAX);
+            fail("Expected exception");
+        } catch (SpecBuilderException e) {
+            assertEquals(e.getMessage(),
+                    "The shot name: invalid/shot is not in the proper format.  "
+                            + "Shot names must be alpha numeric, no dashes or punctuation.");
+        }
+    }
+
+    @Test
+    public void testStreamingParserFixedAttribute() throws IOException {
+        String dtd = new String(
+                Files.readAllBytes(Paths.get("src/main/resources/public/dtd/cjsl-1.13.dtd")),
+                StandardCharsets.UTF_8).replace("(Render | Util | Post) #REQUIRED",
+                        "(Render | Util | Post) #FIXED \"Render\"");
+        Files.write(folder.getRoot().toPath().resolve("cjsl-fixed.dtd"),
+                dtd.getBytes(StandardCharsets.UTF_8));
+        String xml = readJobSpec("jobspec_1_13.xml")
+                .replace("http://localhost:8080/spcue/dtd/cjsl-1.13.dtd", "cjsl-fixed.dtd");
+
+        File valid = folder.newFile("valid.xml");
+        Files.write(valid.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        parse(valid, JobSpec.Parser.STAX);
+
+        File invalid = folder.newFile("invalid.xml");
+        Files.write(invalid.toPath(),
+                xml.replace("type=\"Render\"", "type=\"Util\"").getBytes(StandardCharsets.UTF_8));
+        try {
+            parse(invalid, JobSpec.Parser.STAX);
+            fail("Expected exception");
+        } catch (SpecBuilderException e) {
+            assertTrue(e.getMessage().contains("must be 'Render', got 'Util'"));
+        }
+    }
 }
@@ -22,6 +22,7 @@ import org.junit.Test;
 
 import com.imageworks.spcue.util.Convert;
 import com.imageworks.spcue.util.CueUtil;
+import com.imageworks.spcue.util.FrameSet;
 
 public class CueUtilTester extends TestCase {
 
@@ -45,6 +46,26 @@ public class CueUtilTester extends TestCase {
         }
     }
 
+    @Test
+    public void testFindChunkFrameSet() {
+        FrameSet dependOnFrameSet = new FrameSet("101-160x10");
+        FrameSet dependErFrameSet = new FrameSet("101-160");
+
+        for (int i = 0; i < dependErFrameSet.size(); i = i + 1) {
+            int frame = dependErFrameSet.get(i);
+            assertEquals(101 + (frame - 101) / 10 * 10,
+                    CueUtil.findChunk(dependOnFrameSet, frame));
+        }
+
+        // Out of order frame sets are searched in order, same as a list.
+        List<Integer> staggered = CueUtil.normalizeFrameRange("101-110:2", 1);
+        FrameSet staggeredSet = new FrameSet("101-110:2");
+        for (int frame = 101; frame <= 112; frame++) {
+            assertEquals(CueUtil.findChunk(staggered, frame),
+                    CueUtil.findChunk(staggeredSet, frame));
+        }
+    }
+
     @Test
     public void testFindChunkStaggered() {
 
@@ -1,5 +1,7 @@
 package com.imageworks.spcue.test.util;
 
+import java.util.List;
+
 import com.imageworks.spcue.util.FrameSet;
 import org.junit.Test;
 
@@ -103,4 +105,46 @@ public class FrameSetTests {
 
         assertEquals(1, chunk3.get(chunk3.size() - 1));
     }
+
+    @Test
+    public void shouldIndexEveryRangeType() {
+        FrameSet result = new FrameSet("57,1-3,4-2,12-15x2,76-70x-3,5-12y3,1-7:5");
+        int[] frames = result.toArray();
+        List<Integer> all = result.getAll();
+
+        for (int i = 0; i < frames.length; i++) {
+            assertEquals(frames[i], result.get(i));
+            // Duplicates resolve to their first position.
+            assertEquals(all.indexOf(frames[i]), result.index(frames[i]));
+            assertThat(result.contains(frames[i])).isTrue();
+        }
+        assertEquals(-1, result.index(8));
+        assertThat(result.contains(13)).isFalse();
+    }
+
+    @Test
+    public void shouldNotExpandLargeRanges() {
+        FrameSet result = new FrameSet("1-100000000x2,200000000-300000000y4");
+
+        assertEquals(125000000, result.size());
+        assertEquals(49999999, result.index(99999999));
+        assertEquals(50000000, result.index(200000001));
+        assertEquals(-1, result.index(200000004));
+        assertEquals(200000003, result.get(50000002));
+    }
+
+    @Test
+    public void shouldNormalizeWithoutDuplicates() {
+        assertThat(new FrameSet("1-10").normalize(4).getAll()).containsExactly(1, 5, 9);
+        assertThat(new FrameSet("1-10x2,1-10").normalize(1).getAll()).containsExactly(1, 3, 5, 7,
+                9, 2, 4, 6, 8, 10);
+        assertThat(new FrameSet("1-10").normalize(20).getAll()).containsExactly(1);
+    }
+
+    @Test
+    public void shouldCompareFrames() {
+        assertEquals(new FrameSet("1-5"), new FrameSet("1,2-4,5"));
+        assertEquals(new FrameSet("1-10x3"), new FrameSet("1-10").normalize(3));
+        assertThat(new FrameSet("1-5")).isNotEqualTo(new FrameSet("5-1"));
+    }
 }
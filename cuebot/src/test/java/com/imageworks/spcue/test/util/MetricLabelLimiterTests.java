@@ -0,0 +1,122 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.imageworks.spcue.test.util;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.imageworks.spcue.util.LabelValueLimiter;
+import com.imageworks.spcue.util.SeriesLimiter;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for LabelValueLimiter and SeriesLimiter.
+ */
+public class MetricLabelLimiterTests {
+
+    @Test
+    public void testAllowList() {
+        LabelValueLimiter limiter = LabelValueLimiter.fromString(" pipe, testing ,", 0);
+        assertEquals("pipe", limiter.limit("pipe"));
+        assertEquals("testing", limiter.limit("testing"));
+        assertEquals(LabelValueLimiter.OTHER, limiter.limit("feature"));
+        assertEquals(LabelValueLimiter.OTHER, limiter.limit(null));
+    }
+
+    @Test
+    public void testTopK() {
+        LabelValueLimiter limiter = new LabelValueLimiter(Collections.emptySet(), 2);
+        assertEquals("a", limiter.limit("a"));
+        assertEquals("b", limiter.limit("b"));
+        assertEquals(LabelValueLimiter.OTHER, limiter.limit("c"));
+        assertEquals("a", limiter.limit("a"));
+
+        // c becomes the busiest value and takes the place of b
+        for (int i = 0; i < 10; i++) {
+            limiter.limit("c");
+        }
+        limiter.rebalance();
+        assertEquals(2, limiter.getTopValues().size());
+        assertEquals("c", limiter.limit("c"));
+        assertEquals("a", limiter.limit("a"));
+        assertEquals(LabelValueLimiter.OTHER, limiter.limit("b"));
+    }
+
+    @Test
+    public void testTopKFollowsRecentUse() {
+        LabelValueLimiter limiter = new LabelValueLimiter(Collections.emptySet(), 1);
+        assertEquals("a", limiter.limit("a"));
+        limiter.rebalance();
+        assertEquals(LabelValueLimiter.OTHER, limiter.limit("b"));
+        // a was not used since the previous rebalance, so b takes its place
+        limiter.rebalance();
+        assertEquals(Collections.singleton("b"), limiter.getTopValues());
+        assertEquals("b", limiter.limit("b"));
+        assertEquals(LabelValueLimiter.OTHER, limiter.limit("a"));
+    }
+
+    @Test
+    public void testSeriesCap() {
+        Counter counter = Counter.build().name("test_series_cap").help("test")
+                .labelNames("env", "show", "shot").create();
+        SeriesLimiter limiter = new SeriesLimiter(counter, 2, 1, 2);
+
+        assertArrayEquals(new String[] {"dev", "a", "1"}, limiter.admit("dev", "a", "1"));
+        assertArrayEquals(new String[] {"dev", "a", "2"}, limiter.admit("dev", "a", "2"));
+        assertArrayEquals(new String[] {"dev", "other", "other"}, limiter.admit("dev", "b", "1"));
+        assertArrayEquals(new String[] {"dev", "a", "1"}, limiter.admit("dev", "a", "1"));
+        assertEquals(3, limiter.size());
+    }
+
+    @Test
+    public void testEvictIdle() throws InterruptedException {
+        Counter counter = Counter.build().name("test_evict_idle").help("test")
+                .labelNames("env", "show").create();
+        SeriesLimiter limiter = new SeriesLimiter(counter, 1, 1);
+        counter.labels(limiter.admit("dev", "a")).inc();
+        assertTrue(hasSeries(counter, "a"));
+
+        Thread.sleep(20);
+        assertEquals(0, limiter.evictIdle(TimeUnit.HOURS.toMillis(1)));
+        assertEquals(1, limiter.evictIdle(10));
+        assertEquals(0, limiter.size());
+        assertFalse(hasSeries(counter, "a"));
+
+        // The room freed by the eviction is available to new series
+        assertArrayEquals(new String[] {"dev", "b"}, limiter.admit("dev", "b"));
+    }
+
+    private static boolean hasSeries(Counter counter, String show) {
+        for (Collector.MetricFamilySamples family : counter.collect()) {
+            for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                if (sample.labelValues.contains(show)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
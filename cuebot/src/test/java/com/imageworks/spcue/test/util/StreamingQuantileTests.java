@@ -0,0 +1,86 @@
+
+/*
+ * Copyright Contributors to the OpenCue Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.imageworks.spcue.test.util;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.imageworks.spcue.util.StreamingQuantile;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingQuantileTests {
+
+    @Test
+    public void testEmpty() {
+        StreamingQuantile quantile = new StreamingQuantile(0.95);
+        assertEquals(0, quantile.getCount());
+        assertEquals(0.0, quantile.get(), 0.0);
+    }
+
+    @Test
+    public void testFewValuesAreExact() {
+        StreamingQuantile quantile = new StreamingQuantile(0.5);
+        quantile.add(30);
+        quantile.add(10);
+        quantile.add(20);
+        assertEquals(20.0, quantile.get(), 0.0);
+
+        quantile = new StreamingQuantile(0.95);
+        quantile.add(10);
+        quantile.add(40);
+        assertEquals(40.0, quantile.get(), 0.0);
+    }
+
+    @Test
+    public void testUniformStream() {
+        StreamingQuantile quantile = new StreamingQuantile(0.95);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            quantile.add(random.nextInt(1000));
+        }
+        assertEquals(10000, quantile.getCount());
+        assertEquals(950.0, quantile.get(), 15.0);
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        StreamingQuantile quantile = new StreamingQuantile(0.9);
+        StreamingQuantile reference = new StreamingQuantile(0.9);
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            double value = random.nextGaussian() * 100 + 1000;
+            quantile.add(value);
+            reference.add(value);
+        }
+
+        StreamingQuantile restored = StreamingQuantile.decode(0.9, quantile.encode());
+        assertEquals(500, restored.getCount());
+        assertEquals(quantile.get(), restored.get(), 0.0);
+        for (int i = 0; i < 500; i++) {
+            double value = random.nextGaussian() * 100 + 1000;
+            restored.add(value);
+            reference.add(value);
+        }
+        assertEquals(reference.get(), restored.get(), 0.0);
+
+        // A state built for another quantile, or garbage, starts over
+        assertEquals(0, StreamingQuantile.decode(0.5, quantile.encode()).getCount());
+        assertEquals(0, StreamingQuantile.decode(0.9, "1,2,3").getCount());
+        assertEquals(0, StreamingQuantile.decode(0.9, null).getCount());
+    }
+}
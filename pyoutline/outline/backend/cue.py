@@ -374,6 +374,12 @@ def _serialize(launcher, use_pycuerun):
             else:
                 _warning_spec_version(spec_version, "timeout_llu")
 
+        if layer.get_arg("gang_size"):
+            if spec_version >= Version("1.16"):
+                sub_element(spec_layer, "gang_size", "%d" % int(layer.get_arg("gang_size")))
+            else:
+                _warning_spec_version(spec_version, "gang_size")
+
         if os.environ.get("OL_TAG_OVERRIDE", False):
             sub_element(spec_layer, "tags",
                         scrub_tags(os.environ["OL_TAG_OVERRIDE"]))
@@ -98,6 +98,9 @@ class _LayerArgs(TypedDict, total=False):
     command: List[str]  # Command to execute
     cores: int  # Minimum number of CPU cores required
     env: Dict[str, str]  # Environment variables to set
+    # gang_size: Number of frames of the layer that must be
+    # started together, each on its own host
+    gang_size: int
     limits: List[str]  # List of limit names
     memory: str  # Minimum memory required
     range: str  # Frame range
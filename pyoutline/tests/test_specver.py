@@ -64,6 +64,28 @@ class SpecVersiondTest(unittest.TestCase):
         self.assertEqual(root.find("job/layers/layer/timeout_llu").text, "4200")
         self.assertEqual(root.find("job/priority").text, "42")
 
+    def _makeGangSpec(self):
+        outline.Outline.current = None
+        ol = outline.Outline(name="spec_version_test")
+        layer = outline.modules.shell.Shell("test_layer", command=["/bin/ls"])
+        layer.set_arg("timeout_llu", 4200)
+        layer.set_arg("gang_size", 4)
+        ol.add_layer(layer)
+        l = outline.cuerun.OutlineLauncher(ol)
+        return Et.fromstring(l.serialize())
+
+    def test_gang_1_15(self):
+        outline.config.set("outline", "spec_version", "1.15")
+        root = self._makeGangSpec()
+        self.assertIsNone(root.find("job/layers/layer/gang_size"))
+
+    def test_gang_1_16(self):
+        outline.config.set("outline", "spec_version", "1.16")
+        root = self._makeGangSpec()
+        self.assertEqual(root.find("job/layers/layer/gang_size").text, "4")
+        children = [child.tag for child in root.find("job/layers/layer")]
+        self.assertEqual(children.index("timeout_llu") + 1, children.index("gang_size"))
+
     def _makeGpuSpec(self):
         ol = outline.Outline(name="spec_version_test")
         layer = outline.modules.shell.Shell("test_layer", command=["/bin/ls"])
@@ -135,22 +135,6 @@ class RqCore(object):
 
         """This is called by self.grpcConnected as a timer thread to execute
            every interval"""
-        if sleepTime is None:
-            self.intervalSleepTime = random.randint(
-                rqd.rqconstants.RQD_MIN_PING_INTERVAL_SEC,
-                rqd.rqconstants.RQD_MAX_PING_INTERVAL_SEC)
-        else:
-            self.intervalSleepTime = sleepTime
-        try:
-            self.onIntervalThread = threading.Timer(self.intervalSleepTime, self.onInterval)
-            self.intervalStartTime = time.time()
-            self.onIntervalThread.start()
-        # pylint: disable=broad-except
-        except Exception as e:
-            log.critical(
-                'Unable to schedule a ping due to %s at %s',
-                e, traceback.extract_tb(sys.exc_info()[2]))
-
         try:
             if self.__whenIdle and not self.__cache:
                 if not self.machine.isUserLoggedIn():
@@ -175,12 +159,32 @@ class RqCore(object):
         except Exception as e:
             log.warning("Failed to initialize Nimby. %s", e)
 
+        nextReportInterval = 0
         try:
-            self.sendStatusReport()
+            nextReportInterval = self.sendStatusReport()
         # pylint: disable=broad-except
         except Exception:
             log.exception('Unable to send status report')
 
+        if nextReportInterval:
+            # Cuebot is under load and asked for reports to be spread out, or refused this one
+            self.intervalSleepTime = nextReportInterval
+        elif sleepTime is None:
+            self.intervalSleepTime = random.randint(
+                rqd.rqconstants.RQD_MIN_PING_INTERVAL_SEC,
+                rqd.rqconstants.RQD_MAX_PING_INTERVAL_SEC)
+        else:
+            self.intervalSleepTime = sleepTime
+        try:
+            self.onIntervalThread = threading.Timer(self.intervalSleepTime, self.onInterval)
+            self.intervalStartTime = time.time()
+            self.onIntervalThread.start()
+        # pylint: disable=broad-except
+        except Exception as e:
+            log.critical(
+                'Unable to schedule a ping due to %s at %s',
+                e, traceback.extract_tb(sys.exc_info()[2]))
+
     def retryNimby(self):
         """Ensure nimby is active if required"""
         if self.shouldStartNimby() and not self.nimby.is_ready and self._heartbeat_counter % 5 == 0:
@@ -658,8 +662,10 @@ class RqCore(object):
             self.sendStatusReport()
 
     def sendStatusReport(self):
-        """Sends the current host report to Cuebot."""
-        self.network.reportStatus(self.machine.getHostReport())
+        """Sends the current host report to Cuebot. Returns the delay in seconds it asks for
+        before the next report, 0 when it has no preference. Only the scheduled reports sent by
+        onInterval use it."""
+        return self.network.reportStatus(self.machine.getHostReport())
 
     def isWaitingForIdle(self):
         """Returns whether the host is waiting until idle to take some action."""
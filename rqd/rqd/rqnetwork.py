@@ -51,6 +51,9 @@ import rqd.rqutil
 
 log = logging.getLogger(__name__)
 
+# Trailing metadata holding the delay before a throttled status report can be sent again
+RETRY_DELAY_METADATA_KEY = "retry-delay-ms"
+
 
 class RunningFrame(object):
     """Represents a running frame."""
@@ -264,6 +267,9 @@ class Network(object):
         self.rqCore = rqCore
         self.grpcServer = None
         self.channel = None
+        # Cuebot the sharded booking cuebots asked this host to report to, None to use one of
+        # CUEBOT_HOSTNAME
+        self.cuebotAddress = None
 
     def start_grpc(self):
         """Starts the gRPC server."""
@@ -278,6 +284,8 @@ class Network(object):
 
     def closeChannel(self):
         """Closes the gRPC channel."""
+        if self.channel is None:
+            return
         self.channel.close()
         del self.channel
         self.channel = None
@@ -296,15 +304,31 @@ class Network(object):
                 ),
             )
 
-            cuebots = rqd.rqconstants.CUEBOT_HOSTNAME.strip().split()
-            if len(cuebots) == 0:
-                raise rqd.rqexceptions.RqdException("CUEBOT_HOSTNAME is empty")
-            shuffle(cuebots)
-            self.channel = grpc.insecure_channel('%s:%s' % (cuebots[0],
-                                                            rqd.rqconstants.CUEBOT_GRPC_PORT))
+            if self.cuebotAddress is None:
+                cuebots = rqd.rqconstants.CUEBOT_HOSTNAME.strip().split()
+                if len(cuebots) == 0:
+                    raise rqd.rqexceptions.RqdException("CUEBOT_HOSTNAME is empty")
+                shuffle(cuebots)
+                address = '%s:%s' % (cuebots[0], rqd.rqconstants.CUEBOT_GRPC_PORT)
+            else:
+                address = self.cuebotAddress
+            self.channel = grpc.insecure_channel(address)
             self.channel = grpc.intercept_channel(self.channel, *interceptors)
             atexit.register(self.closeChannel)
 
+    def __redirect(self, address):
+        """Sends the following reports to the given cuebot, or back to one of CUEBOT_HOSTNAME
+        when address is None."""
+        if address == self.cuebotAddress:
+            return
+        if address is None:
+            log.warning("Cuebot %s is unavailable, reporting to CUEBOT_HOSTNAME again",
+                        self.cuebotAddress)
+        else:
+            log.info("Cuebot %s books this host, sending reports there", address)
+        self.cuebotAddress = address
+        self.closeChannel()
+
     def __getReportStub(self):
         self.__getChannel()
         return opencue_proto.report_pb2_grpc.RqdReportInterfaceStub(self.channel)
@@ -316,10 +340,32 @@ class Network(object):
         stub.ReportRqdStartup(request, timeout=rqd.rqconstants.RQD_TIMEOUT)
 
     def reportStatus(self, report):
-        """Wraps the ability to send a status report to the cuebot via grpc"""
+        """Wraps the ability to send a status report to the cuebot via grpc
+
+        Returns the delay in seconds the cuebot asks for before the next report, 0 to keep the
+        usual interval. When the cuebot is overloaded it refuses the report with
+        RESOURCE_EXHAUSTED, the retry delay it sends along is returned instead.
+
+        When the cuebot answers with the address of the cuebot that books this host, the
+        following reports are sent there. If that cuebot becomes unavailable the reports go back
+        to one of CUEBOT_HOSTNAME."""
         stub = self.__getReportStub()
         request = opencue_proto.report_pb2.RqdReportStatusRequest(host_report=report)
-        stub.ReportStatus(request, timeout=rqd.rqconstants.RQD_TIMEOUT)
+        try:
+            response = stub.ReportStatus(request, timeout=rqd.rqconstants.RQD_TIMEOUT)
+        except grpc.RpcError as e:
+            if e.code() == grpc.StatusCode.UNAVAILABLE and self.cuebotAddress is not None:
+                self.__redirect(None)
+            if e.code() != grpc.StatusCode.RESOURCE_EXHAUSTED:
+                raise
+            for key, value in e.trailing_metadata() or ():
+                if key == RETRY_DELAY_METADATA_KEY:
+                    log.warning("Cuebot is overloaded, next status report in %s ms", value)
+                    return int(value) / 1000.0
+            raise
+        if response.cuebot_address:
+            self.__redirect(response.cuebot_address)
+        return response.next_report_interval_ms / 1000.0
 
     def reportRunningFrameCompletion(self, report):
         """Wraps the ability to send a running frame completion report
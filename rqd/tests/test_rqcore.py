@@ -128,13 +128,17 @@ class RqCoreTests(unittest.TestCase):
     @mock.patch.object(rqd.rqcore.RqCore, "sendStatusReport", autospec=True)
     @mock.patch("threading.Timer")
     def test_onInterval(self, timerMock, sendStatusReportMock):
+        sendStatusReportMock.return_value = 0
+
         self.rqcore.onInterval()
 
         timerMock.return_value.start.assert_called()
         sendStatusReportMock.assert_called_with(self.rqcore)
 
+    @mock.patch.object(rqd.rqcore.RqCore, "sendStatusReport", autospec=True)
     @mock.patch("threading.Timer", autospec=True)
-    def test_onIntervalWithSleepTime(self, timerMock):
+    def test_onIntervalWithSleepTime(self, timerMock, sendStatusReportMock):
+        sendStatusReportMock.return_value = 0
         sleep_time = 72
 
         self.rqcore.onInterval(sleepTime=sleep_time)
@@ -142,6 +146,35 @@ class RqCoreTests(unittest.TestCase):
         timerMock.assert_called_with(sleep_time, mock.ANY)
         timerMock.return_value.start.assert_called()
 
+    @mock.patch.object(rqd.rqcore.RqCore, "sendStatusReport", autospec=True)
+    @mock.patch("threading.Timer", autospec=True)
+    def test_onIntervalWithSuggestedInterval(self, timerMock, sendStatusReportMock):
+        sendStatusReportMock.return_value = 42.5
+
+        self.rqcore.onInterval(sleepTime=72)
+
+        # The interval suggested in answer to this report is used for the very next one
+        sendStatusReportMock.assert_called_with(self.rqcore)
+        timerMock.assert_called_once_with(42.5, mock.ANY)
+        timerMock.return_value.start.assert_called()
+
+    @mock.patch("threading.Timer", autospec=True)
+    def test_onIntervalFailedReport(self, timerMock):
+        self.networkMock.return_value.reportStatus.side_effect = Exception('unavailable')
+
+        self.rqcore.onInterval(sleepTime=72)
+
+        timerMock.assert_called_once_with(72, mock.ANY)
+        timerMock.return_value.start.assert_called()
+
+    @mock.patch("threading.Timer", autospec=True)
+    def test_sendStatusReportKeepsSchedule(self, timerMock):
+        self.networkMock.return_value.reportStatus.return_value = 42.5
+
+        self.assertEqual(42.5, self.rqcore.sendStatusReport())
+
+        timerMock.assert_not_called()
+
     @mock.patch.object(rqd.rqcore.RqCore, "shutdownRqdNow")
     @mock.patch("threading.Timer", new=mock.MagicMock())
     def test_onIntervalShutdown(self, shutdownRqdNowMock):
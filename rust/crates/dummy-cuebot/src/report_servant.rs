@@ -62,7 +62,7 @@ impl RqdReportInterface for ReportServant {
             report
         );
 
-        Ok(Response::new(RqdReportStatusResponse {}))
+        Ok(Response::new(RqdReportStatusResponse::default()))
     }
 }
 
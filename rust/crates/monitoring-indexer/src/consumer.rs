@@ -18,7 +18,7 @@ use std::time::Duration;
 use rdkafka::config::ClientConfig;
 use rdkafka::consumer::{CommitMode, Consumer, StreamConsumer};
 use rdkafka::error::KafkaError;
-use rdkafka::message::Message;
+use rdkafka::message::{BorrowedMessage, Headers, Message};
 use rdkafka::types::RDKafkaErrorCode;
 use tokio::sync::mpsc;
 use tracing::{debug, error, info, warn};
@@ -27,6 +27,7 @@ use crate::config::{
     KafkaConfig, TOPIC_FRAME_EVENTS, TOPIC_HOST_EVENTS, TOPIC_JOB_EVENTS, TOPIC_LAYER_EVENTS,
     TOPIC_PROC_EVENTS,
 };
+use crate::decode::{EventDecoder, PayloadFormat, CONTENT_TYPE_HEADER};
 use crate::elasticsearch::ElasticsearchClient;
 use crate::error::IndexerError;
 
@@ -76,6 +77,7 @@ pub struct ConsumedEvent {
 /// Kafka consumer for OpenCue monitoring events
 pub struct EventConsumer {
     consumer: StreamConsumer,
+    decoder: EventDecoder,
     es_client: Arc<ElasticsearchClient>,
 }
 
@@ -103,6 +105,7 @@ impl EventConsumer {
 
         Ok(Self {
             consumer,
+            decoder: EventDecoder::new()?,
             es_client: Arc::new(es_client),
         })
     }
@@ -134,41 +137,48 @@ impl EventConsumer {
                     let offset = message.offset();
 
                     if let Some(payload) = message.payload() {
-                        let payload_str = match std::str::from_utf8(payload) {
-                            Ok(s) => s.to_string(),
-                            Err(e) => {
-                                warn!(
-                                    topic = topic,
-                                    partition = partition,
-                                    offset = offset,
-                                    error = %e,
-                                    "Invalid UTF-8 in message payload"
-                                );
-                                continue;
-                            }
-                        };
-
                         if let Some(event_type) = EventType::from_topic(topic) {
-                            // Extract event_id from JSON
-                            let event_id = extract_event_id(&payload_str);
+                            let content_type = content_type(&message);
+                            let events = match PayloadFormat::from_content_type(content_type) {
+                                Some(format) => self.decoder.decode(&event_type, format, payload),
+                                None => Err(IndexerError::Decode(format!(
+                                    "Unsupported content type {:?}",
+                                    content_type
+                                ))),
+                            };
+                            let events = match events {
+                                Ok(events) => events,
+                                Err(e) => {
+                                    warn!(
+                                        topic = topic,
+                                        partition = partition,
+                                        offset = offset,
+                                        error = %e,
+                                        "Invalid message payload"
+                                    );
+                                    continue;
+                                }
+                            };
 
                             debug!(
                                 topic = topic,
                                 partition = partition,
                                 offset = offset,
-                                event_id = ?event_id,
-                                "Received event"
+                                count = events.len(),
+                                "Received events"
                             );
 
-                            let event = ConsumedEvent {
-                                event_type,
-                                event_id,
-                                payload: payload_str,
-                            };
+                            for decoded in events {
+                                let event = ConsumedEvent {
+                                    event_type: event_type.clone(),
+                                    event_id: decoded.event_id,
+                                    payload: decoded.payload,
+                                };
 
-                            if tx.send(event).await.is_err() {
-                                error!("Indexer task has stopped, shutting down consumer");
-                                break;
+                                if tx.send(event).await.is_err() {
+                                    error!("Indexer task has stopped, shutting down consumer");
+                                    return;
+                                }
                             }
                         } else {
                             warn!(topic = topic, "Unknown topic, skipping message");
@@ -195,6 +205,17 @@ impl EventConsumer {
     }
 }
 
+/// Get the content-type header of a message
+fn content_type<'a>(message: &'a BorrowedMessage<'_>) -> Option<&'a str> {
+    message.headers().and_then(|headers| {
+        headers
+            .iter()
+            .find(|header| header.key == CONTENT_TYPE_HEADER)
+            .and_then(|header| header.value)
+            .and_then(|value| std::str::from_utf8(value).ok())
+    })
+}
+
 /// Run the indexer loop that batches events and sends them to Elasticsearch
 async fn run_indexer_loop(
     mut rx: mpsc::Receiver<ConsumedEvent>,
@@ -257,15 +278,3 @@ fn is_topic_not_found_error(e: &KafkaError) -> bool {
         _ => false,
     }
 }
-
-/// Extract event_id from JSON payload
-fn extract_event_id(json: &str) -> Option<String> {
-    serde_json::from_str::<serde_json::Value>(json)
-        .ok()
-        .and_then(|v| {
-            v.get("header")
-                .and_then(|h| h.get("event_id"))
-                .and_then(|id| id.as_str())
-                .map(|s| s.to_string())
-        })
-}
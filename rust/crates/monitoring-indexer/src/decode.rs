@@ -0,0 +1,174 @@
+// Copyright Contributors to the OpenCue Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License. You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied. See the License for the specific language governing permissions and limitations under
+// the License.
+
+//! Decoding of the monitoring event payloads published by Cuebot.
+//!
+//! Cuebot names the format of each Kafka message in its `content-type` header: a JSON document, a
+//! protobuf message, or several length-delimited protobuf messages packed into one envelope. The
+//! protobuf message type is given by the topic. Every event is turned into the JSON document
+//! Cuebot would have published in JSON mode, so the indexed documents do not depend on the format.
+
+use prost_reflect::{DescriptorPool, DynamicMessage, MessageDescriptor, SerializeOptions};
+
+use crate::consumer::EventType;
+use crate::error::IndexerError;
+
+/// Kafka header naming the payload format
+pub const CONTENT_TYPE_HEADER: &str = "content-type";
+/// A single event as JSON
+pub const CONTENT_TYPE_JSON: &str = "application/json";
+/// A single event in the protobuf binary format
+pub const CONTENT_TYPE_PROTOBUF: &str = "application/x-protobuf";
+/// Several protobuf events, each prefixed with its length as a varint
+pub const CONTENT_TYPE_PROTOBUF_DELIMITED: &str = "application/x-protobuf-delimited";
+
+/// Payload format of a Kafka message
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+pub enum PayloadFormat {
+    Json,
+    Protobuf,
+    ProtobufDelimited,
+}
+
+impl PayloadFormat {
+    /// Determine the payload format from the content-type header. Messages without the header
+    /// come from Cuebot versions that only publish JSON.
+    pub fn from_content_type(content_type: Option<&str>) -> Option<Self> {
+        match content_type {
+            None | Some(CONTENT_TYPE_JSON) => Some(PayloadFormat::Json),
+            Some(CONTENT_TYPE_PROTOBUF) => Some(PayloadFormat::Protobuf),
+            Some(CONTENT_TYPE_PROTOBUF_DELIMITED) => Some(PayloadFormat::ProtobufDelimited),
+            Some(_) => None,
+        }
+    }
+}
+
+/// An event ready for indexing, as a JSON document
+#[derive(Debug)]
+pub struct DecodedEvent {
+    pub event_id: Option<String>,
+    pub payload: String,
+}
+
+/// Decodes monitoring event payloads into JSON documents
+pub struct EventDecoder {
+    job: MessageDescriptor,
+    layer: MessageDescriptor,
+    frame: MessageDescriptor,
+    host: MessageDescriptor,
+    proc: MessageDescriptor,
+    options: SerializeOptions,
+}
+
+impl EventDecoder {
+    /// Create a decoder from the descriptors compiled into opencue-proto
+    pub fn new() -> Result<Self, IndexerError> {
+        let pool = DescriptorPool::decode(opencue_proto::FILE_DESCRIPTOR_SET)
+            .map_err(|e| IndexerError::Decode(e.to_string()))?;
+        let message = |name: &str| {
+            pool.get_message_by_name(name)
+                .ok_or_else(|| IndexerError::Decode(format!("Unknown message type {}", name)))
+        };
+
+        Ok(Self {
+            job: message("monitoring.JobEvent")?,
+            layer: message("monitoring.LayerEvent")?,
+            frame: message("monitoring.FrameEvent")?,
+            host: message("monitoring.HostEvent")?,
+            proc: message("monitoring.ProcEvent")?,
+            // Same output as Cuebot's JsonFormat printer: proto field names, default values
+            // included, enums as names and 64 bit integers as strings
+            options: SerializeOptions::new()
+                .use_proto_field_name(true)
+                .skip_default_fields(false),
+        })
+    }
+
+    /// Decode a message payload into the events it holds
+    pub fn decode(
+        &self,
+        event_type: &EventType,
+        format: PayloadFormat,
+        payload: &[u8],
+    ) -> Result<Vec<DecodedEvent>, IndexerError> {
+        match format {
+            PayloadFormat::Json => {
+                let json = std::str::from_utf8(payload)
+                    .map_err(|e| IndexerError::Decode(format!("Invalid UTF-8: {}", e)))?;
+                Ok(vec![DecodedEvent {
+                    event_id: extract_event_id(json),
+                    payload: json.to_string(),
+                }])
+            }
+            PayloadFormat::Protobuf => Ok(vec![self.decode_protobuf(event_type, payload)?]),
+            PayloadFormat::ProtobufDelimited => {
+                let mut events = Vec::new();
+                let mut remaining = payload;
+                while !remaining.is_empty() {
+                    let length = prost::decode_length_delimiter(&mut remaining)
+                        .map_err(|e| IndexerError::Decode(e.to_string()))?;
+                    if length > remaining.len() {
+                        return Err(IndexerError::Decode(format!(
+                            "Truncated envelope, event of {} bytes with {} left",
+                            length,
+                            remaining.len()
+                        )));
+                    }
+                    let (event, rest) = remaining.split_at(length);
+                    events.push(self.decode_protobuf(event_type, event)?);
+                    remaining = rest;
+                }
+                Ok(events)
+            }
+        }
+    }
+
+    fn decode_protobuf(
+        &self,
+        event_type: &EventType,
+        payload: &[u8],
+    ) -> Result<DecodedEvent, IndexerError> {
+        let descriptor = match event_type {
+            EventType::Job => &self.job,
+            EventType::Layer => &self.layer,
+            EventType::Frame => &self.frame,
+            EventType::Host => &self.host,
+            EventType::Proc => &self.proc,
+        };
+        let message = DynamicMessage::decode(descriptor.clone(), payload)
+            .map_err(|e| IndexerError::Decode(e.to_string()))?;
+        let document =
+            message.serialize_with_options(serde_json::value::Serializer, &self.options)?;
+        let event_id = document
+            .get("header")
+            .and_then(|h| h.get("event_id"))
+            .and_then(|id| id.as_str())
+            .map(|s| s.to_string());
+
+        Ok(DecodedEvent {
+            event_id,
+            payload: document.to_string(),
+        })
+    }
+}
+
+/// Extract event_id from JSON payload
+fn extract_event_id(json: &str) -> Option<String> {
+    serde_json::from_str::<serde_json::Value>(json)
+        .ok()
+        .and_then(|v| {
+            v.get("header")
+                .and_then(|h| h.get("event_id"))
+                .and_then(|id| id.as_str())
+                .map(|s| s.to_string())
+        })
+}
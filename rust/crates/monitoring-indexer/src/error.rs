@@ -25,6 +25,9 @@ pub enum IndexerError {
     #[error("Elasticsearch error: {0}")]
     Elasticsearch(String),
 
+    #[error("Event decoding error: {0}")]
+    Decode(String),
+
     #[error("JSON parsing error: {0}")]
     Json(#[from] serde_json::Error),
 
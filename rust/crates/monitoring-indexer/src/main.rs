@@ -17,6 +17,7 @@
 
 mod config;
 mod consumer;
+mod decode;
 mod elasticsearch;
 mod error;
 
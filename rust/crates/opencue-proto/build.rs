@@ -19,6 +19,9 @@ fn main() -> Result<(), Box<dyn std::error::Error>> {
 fn build_protobuf() -> Result<(), Box<dyn std::error::Error>> {
     let protos_dir = PathBuf::from("src/protos");
     let crate_dir = PathBuf::from("src");
+    // Descriptors of every message, for consumers that decode messages by name such as the
+    // monitoring indexer
+    let descriptor_path = PathBuf::from(std::env::var("OUT_DIR")?).join("opencue_descriptor.bin");
     let mut proto_files = Vec::<String>::new();
 
     let subdir_proto_files: Vec<String> = std::fs::read_dir(&protos_dir)?
@@ -56,6 +59,7 @@ fn build_protobuf() -> Result<(), Box<dyn std::error::Error>> {
             "#[derive(serde::Deserialize, serde::Serialize)]",
         )
         .out_dir(&crate_dir)
+        .file_descriptor_set_path(&descriptor_path)
         .compile_protos(
             proto_files.as_slice(),
             &[protos_dir.to_string_lossy().to_string()],
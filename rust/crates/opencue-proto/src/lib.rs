@@ -38,6 +38,10 @@ pub mod show;
 mod subscription;
 mod task;
 
+/// Encoded `FileDescriptorSet` of all OpenCue protos
+pub const FILE_DESCRIPTOR_SET: &[u8] =
+    include_bytes!(concat!(env!("OUT_DIR"), "/opencue_descriptor.bin"));
+
 pub trait WithUuid {
     fn uuid(&self) -> Uuid;
 }
@@ -24,15 +24,21 @@ use tokio::sync::{OnceCell, RwLock};
 use tonic::transport::Channel;
 use tower::util::rng::HasherRng;
 use tower::ServiceBuilder;
-use tracing::info;
+use tracing::{info, warn};
 
 use super::retry::backoff::{ExponentialBackoffMaker, MakeBackoff};
 use super::retry::backoff_policy::BackoffPolicy;
 use super::retry::{Retry, RetryLayer};
 
+/// Trailer holding the delay in milliseconds before a throttled status report can be sent again
+const RETRY_DELAY_METADATA_KEY: &str = "retry-delay-ms";
+
 pub(crate) struct ReportClient {
     refresh_at: RwLock<Option<SystemTime>>,
     client: RwLock<RqdReportInterfaceClient<Retry<BackoffPolicy, Channel>>>,
+    /// Cuebot the sharded booking cuebots asked this host to report to, None when connected to
+    /// one of the configured endpoints
+    redirected_to: RwLock<Option<String>>,
 }
 
 static REPORT_CLIENT: OnceCell<Arc<ReportClient>> = OnceCell::const_new();
@@ -76,6 +82,7 @@ impl ReportClient {
         Ok(Self {
             client: RwLock::new(client),
             refresh_at: RwLock::new(refresh_at),
+            redirected_to: RwLock::new(None),
         })
     }
 
@@ -101,7 +108,15 @@ impl ReportClient {
         String,
         RqdReportInterfaceClient<Retry<BackoffPolicy, Channel>>,
     )> {
-        let endpoint = Self::draw_endpoint(&CONFIG.grpc.cuebot_endpoints)?;
+        Self::connect_to(Self::draw_endpoint(&CONFIG.grpc.cuebot_endpoints)?)
+    }
+
+    fn connect_to(
+        endpoint: String,
+    ) -> Result<(
+        String,
+        RqdReportInterfaceClient<Retry<BackoffPolicy, Channel>>,
+    )> {
         let endpoint = if !endpoint.starts_with("http") {
             format!("http://{}", endpoint)
         } else {
@@ -159,12 +174,36 @@ impl ReportClient {
                 *lock = next_expire_time;
                 Self::log_connection(next_expire_time, &CONFIG.grpc.cuebot_endpoints, &endpoint);
                 drop(lock);
+                *self.redirected_to.write().await = None;
 
                 Ok(self.client.read().await.clone())
             }
             _ => Ok(self.client.read().await.clone()),
         }
     }
+
+    /// Sends the following requests to the given cuebot, or back to one of the configured
+    /// endpoints when `address` is None.
+    async fn redirect(&self, address: Option<&str>) -> Result<()> {
+        let mut redirected_to = self.redirected_to.write().await;
+        if redirected_to.as_deref() == address {
+            return Ok(());
+        }
+        let (endpoint, client) = match address {
+            Some(address) => Self::connect_to(address.to_string())?,
+            None => Self::connect()?,
+        };
+        match address {
+            Some(_) => info!("Cuebot {} books this host, sending reports there", endpoint),
+            None => warn!(
+                "Cuebot {:?} is unavailable, reporting to {} again",
+                *redirected_to, endpoint
+            ),
+        }
+        *self.client.write().await = client;
+        *redirected_to = address.map(str::to_string);
+        Ok(())
+    }
 }
 
 #[async_trait]
@@ -182,7 +221,11 @@ pub trait ReportInterface {
         exit_signal: u32,
         run_time: u32,
     ) -> Result<()>;
-    async fn send_host_report(&self, host_report: pb::HostReport) -> Result<()>;
+    /// Sends a status report. Returns the delay the cuebot asks for before the next report, if
+    /// any. A report refused by an overloaded cuebot is not an error, the retry delay it sends
+    /// along is returned instead. When the cuebot answers with the address of the cuebot that
+    /// books this host, the following reports are sent there until it becomes unavailable.
+    async fn send_host_report(&self, host_report: pb::HostReport) -> Result<Option<Duration>>;
 }
 
 #[async_trait]
@@ -231,15 +274,39 @@ impl ReportInterface for ReportClient {
             .and(Ok(()))
     }
 
-    async fn send_host_report(&self, host_report: pb::HostReport) -> Result<()> {
+    async fn send_host_report(&self, host_report: pb::HostReport) -> Result<Option<Duration>> {
         let request = pb::RqdReportStatusRequest {
             host_report: Some(host_report),
         };
-        self.get_client()
-            .await?
-            .report_status(request)
-            .await
-            .into_diagnostic()
-            .and(Ok(()))
+        let redirected = self.redirected_to.read().await.is_some();
+        match self.get_client().await?.report_status(request).await {
+            Ok(response) => {
+                let response = response.into_inner();
+                if !response.cuebot_address.is_empty() {
+                    self.redirect(Some(&response.cuebot_address)).await?;
+                }
+                let interval_ms = response.next_report_interval_ms;
+                Ok((interval_ms > 0).then(|| Duration::from_millis(interval_ms as u64)))
+            }
+            Err(status) if status.code() == tonic::Code::Unavailable && redirected => {
+                self.redirect(None).await?;
+                Err(status).into_diagnostic()
+            }
+            Err(status) if status.code() == tonic::Code::ResourceExhausted => {
+                let retry_delay_ms = status
+                    .metadata()
+                    .get(RETRY_DELAY_METADATA_KEY)
+                    .and_then(|value| value.to_str().ok())
+                    .and_then(|value| value.parse::<u64>().ok());
+                match retry_delay_ms {
+                    Some(delay_ms) => {
+                        warn!("Cuebot is overloaded, next host report in {}ms", delay_ms);
+                        Ok(Some(Duration::from_millis(delay_ms)))
+                    }
+                    None => Err(status).into_diagnostic(),
+                }
+            }
+            Err(status) => Err(status).into_diagnostic(),
+        }
     }
 }
@@ -10,7 +10,7 @@
 // or implied. See the License for the specific language governing permissions and limitations under
 // the License.
 
-use std::sync::Arc;
+use std::{sync::Arc, time::Duration};
 
 use crate::{
     config::CONFIG,
@@ -214,7 +214,10 @@ impl MachineMonitor {
                         }
                     }
                     _ = interval.tick() => {
-                        self.collect_and_send_host_report().await?;
+                        if let Some(next_report) = self.collect_and_send_host_report().await? {
+                            // Cuebot is under load and asked for reports to be spread out
+                            interval.reset_after(next_report);
+                        }
                         self.check_reboot_flag().await;
 
                         #[cfg(feature = "nimby")]
@@ -319,13 +322,13 @@ impl MachineMonitor {
         }
     }
 
-    async fn collect_and_send_host_report(&self) -> Result<()> {
+    /// Sends a host report, returning the delay the cuebot asks for before the next one
+    async fn collect_and_send_host_report(&self) -> Result<Option<Duration>> {
         let report_client = self.report_client.clone();
         let host_report = self.collect_host_report().await?;
 
         debug!("Sending host report: {:?}", host_report.host);
-        report_client.send_host_report(host_report).await?;
-        Ok(())
+        report_client.send_host_report(host_report).await
     }
 
     async fn check_reboot_flag(&self) {